@@ -0,0 +1,516 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.calc.*;
+import mondrian.olap.*;
+
+import java.util.*;
+
+/**
+ * Implementation of {@link TupleList} that stores each column as an array of
+ * member ordinals.
+ *
+ * <p>Each column has a dictionary of the distinct members that occur in it.
+ * A tuple is stored as one {@code int} per column, the ordinal of its member
+ * in that column's dictionary. For example, the tuples
+ * {(A1, B1), (A1, B2), (A2, B1)} are stored as
+ *
+ * <pre>
+ * dictionary 0: A1, A2
+ * dictionary 1: B1, B2
+ * column 0: 0, 0, 1
+ * column 1: 0, 1, 0
+ * </pre>
+ *
+ * <p>The outer columns of a large crossjoin repeat each member many times,
+ * so each column is little more than an {@code int[]}, with no per-tuple
+ * objects. {@code List<Member>} tuples are created only when a caller asks
+ * for one; cursors, {@link #get(int, int)} and {@link #slice(int)} look up
+ * members without creating a tuple.
+ *
+ * <p>Use {@link #fromColumns(java.util.List)} to build a list from columns
+ * that were read separately, as {@link mondrian.rolap.SqlTupleReader} does,
+ * and {@link #cartesianProduct(java.util.List)} to build a crossjoin.
+ */
+public class ColumnarTupleList extends AbstractTupleList
+{
+    private final MemberDictionary[] dictionaries;
+    private final int[][] columns;
+    private int size;
+
+    /**
+     * Creates an empty ColumnarTupleList with an initial capacity of 10
+     * tuples.
+     *
+     * @param arity Arity
+     */
+    public ColumnarTupleList(int arity) {
+        this(arity, 10);
+    }
+
+    /**
+     * Creates an empty ColumnarTupleList.
+     *
+     * @param arity Arity
+     * @param initialCapacity Initial capacity
+     */
+    public ColumnarTupleList(int arity, int initialCapacity) {
+        this(arity, newDictionaries(arity), new int[arity][initialCapacity], 0);
+    }
+
+    private ColumnarTupleList(
+        int arity,
+        MemberDictionary[] dictionaries,
+        int[][] columns,
+        int size)
+    {
+        super(arity);
+        assert dictionaries.length == arity;
+        assert columns.length == arity;
+        this.dictionaries = dictionaries;
+        this.columns = columns;
+        this.size = size;
+    }
+
+    private static MemberDictionary[] newDictionaries(int arity) {
+        final MemberDictionary[] dictionaries = new MemberDictionary[arity];
+        for (int i = 0; i < arity; i++) {
+            dictionaries[i] = new MemberDictionary();
+        }
+        return dictionaries;
+    }
+
+    /**
+     * Returns whether a result of a given number of tuples should be stored
+     * in a ColumnarTupleList, according to
+     * {@link MondrianProperties#ColumnarTupleListThreshold}.
+     *
+     * @param size Number of tuples
+     * @return Whether to use a columnar list
+     */
+    public static boolean isPreferred(long size) {
+        final int threshold =
+            MondrianProperties.instance().ColumnarTupleListThreshold.get();
+        return threshold >= 0 && size >= threshold;
+    }
+
+    /**
+     * Creates a ColumnarTupleList from a list of columns of equal length.
+     *
+     * <p>Row {@code i} of the result consists of element {@code i} of each
+     * column.
+     *
+     * @param columns Columns
+     * @return Tuple list
+     */
+    public static ColumnarTupleList fromColumns(List<List<Member>> columns) {
+        final int arity = columns.size();
+        final int size = arity == 0 ? 0 : columns.get(0).size();
+        final MemberDictionary[] dictionaries = newDictionaries(arity);
+        final int[][] ordinals = new int[arity][];
+        for (int i = 0; i < arity; i++) {
+            final List<Member> column = columns.get(i);
+            if (column.size() != size) {
+                throw new IllegalArgumentException(
+                    "Columns must have the same length");
+            }
+            ordinals[i] = dictionaries[i].encode(column);
+        }
+        return new ColumnarTupleList(arity, dictionaries, ordinals, size);
+    }
+
+    /**
+     * Creates the cartesian product of a list of tuple lists.
+     *
+     * <p>Each input list is encoded once, and the columns of the result are
+     * filled by repeating the encoded ordinals; no intermediate tuples are
+     * created.
+     *
+     * @param lists Lists to join; the arity of the result is the sum of their
+     *     arities
+     * @return Cartesian product
+     */
+    public static ColumnarTupleList cartesianProduct(List<TupleList> lists) {
+        long longSize = 1;
+        int arity = 0;
+        for (TupleList list : lists) {
+            longSize *= list.size();
+            arity += list.getArity();
+        }
+        Util.checkCJResultLimit(longSize);
+        final int size = (int) longSize;
+        final MemberDictionary[] dictionaries = newDictionaries(arity);
+        final int[][] columns = new int[arity][];
+
+        // Number of times each tuple of the current list is repeated
+        // consecutively (the product of the sizes of the lists to its right),
+        // and the number of times the whole list is repeated (the product of
+        // the sizes of the lists to its left).
+        int repeat = size;
+        int column = 0;
+        for (TupleList list : lists) {
+            final int listSize = list.size();
+            if (size == 0) {
+                for (int i = 0; i < list.getArity(); i++) {
+                    columns[column++] = new int[0];
+                }
+                continue;
+            }
+            repeat /= listSize;
+            final int cycles = size / (repeat * listSize);
+            for (int i = 0; i < list.getArity(); i++) {
+                final int[] encoded =
+                    dictionaries[column].encode(list.slice(i));
+                final int[] ordinals = new int[size];
+                int n = 0;
+                for (int cycle = 0; cycle < cycles; cycle++) {
+                    for (int ordinal : encoded) {
+                        Arrays.fill(ordinals, n, n + repeat, ordinal);
+                        n += repeat;
+                    }
+                }
+                assert n == size;
+                columns[column++] = ordinals;
+            }
+        }
+        return new ColumnarTupleList(arity, dictionaries, columns, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Member get(int slice, int index) {
+        return dictionaries[slice].members.get(columns[slice][index]);
+    }
+
+    @Override
+    public List<Member> get(final int index) {
+        final List<Member> list =
+            new AbstractList<Member>() {
+                public Member get(int column) {
+                    return ColumnarTupleList.this.get(column, index);
+                }
+
+                public int size() {
+                    return arity;
+                }
+            };
+        if (mutable) {
+            return Util.flatList(list);
+        }
+        return list;
+    }
+
+    @Override
+    public List<Member> set(int index, List<Member> element) {
+        assert mutable;
+        for (int i = 0; i < arity; i++) {
+            columns[i][index] = dictionaries[i].ordinal(element.get(i));
+        }
+        return null; // not compliant with List contract
+    }
+
+    @Override
+    public boolean add(List<Member> members) {
+        add(size, members);
+        return true;
+    }
+
+    @Override
+    public void add(int index, List<Member> members) {
+        assert mutable;
+        if (members.size() != arity) {
+            throw new IllegalArgumentException(
+                "Tuple length does not match arity");
+        }
+        makeRoom(index, 1);
+        for (int i = 0; i < arity; i++) {
+            columns[i][index] = dictionaries[i].ordinal(members.get(i));
+        }
+    }
+
+    public void addTuple(Member... members) {
+        add(Arrays.asList(members));
+    }
+
+    @Override
+    public void addCurrent(TupleCursor tupleIter) {
+        assert mutable;
+        makeRoom(size, 1);
+        for (int i = 0; i < arity; i++) {
+            columns[i][size - 1] =
+                dictionaries[i].ordinal(tupleIter.member(i));
+        }
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends List<Member>> c) {
+        assert mutable;
+        final int size1 = c.size();
+        makeRoom(index, size1);
+        int n = index;
+        for (List<Member> members : c) {
+            for (int i = 0; i < arity; i++) {
+                columns[i][n] = dictionaries[i].ordinal(members.get(i));
+            }
+            ++n;
+        }
+        return size1 > 0;
+    }
+
+    @Override
+    public List<Member> remove(int index) {
+        assert mutable;
+        removeRange(index, index + 1);
+        return null; // breach of List contract
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        assert mutable;
+        for (int[] column : columns) {
+            System.arraycopy(
+                column, toIndex, column, fromIndex, size - toIndex);
+        }
+        size -= toIndex - fromIndex;
+    }
+
+    @Override
+    public void clear() {
+        assert mutable;
+        size = 0;
+    }
+
+    public List<Member> slice(final int column) {
+        if (column < 0 || column >= arity) {
+            throw new IllegalArgumentException();
+        }
+        return new AbstractList<Member>() {
+            @Override
+            public Member get(int index) {
+                return ColumnarTupleList.this.get(column, index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    public TupleList cloneList(int capacity) {
+        final MemberDictionary[] dictionaries1 =
+            new MemberDictionary[arity];
+        final int[][] columns1 = new int[arity][];
+        for (int i = 0; i < arity; i++) {
+            // Each list gets its own dictionaries, because lists may be
+            // modified by different threads.
+            dictionaries1[i] = new MemberDictionary(dictionaries[i]);
+            columns1[i] =
+                capacity < 0
+                    ? Arrays.copyOf(columns[i], size)
+                    : new int[capacity];
+        }
+        return new ColumnarTupleList(
+            arity, dictionaries1, columns1, capacity < 0 ? size : 0);
+    }
+
+    public TupleList project(final int[] destIndices) {
+        return new DelegatingTupleList(
+            destIndices.length,
+            new AbstractList<List<Member>>() {
+                public List<Member> get(final int index) {
+                    return new AbstractList<Member>() {
+                        public Member get(int column) {
+                            return ColumnarTupleList.this.get(
+                                destIndices[column], index);
+                        }
+
+                        public int size() {
+                            return destIndices.length;
+                        }
+                    };
+                }
+
+                public int size() {
+                    return size;
+                }
+            });
+    }
+
+    @Override
+    public TupleList subList(final int fromIndex, final int toIndex) {
+        return new DelegatingTupleList(
+            arity,
+            new AbstractList<List<Member>>() {
+                @Override
+                public List<Member> get(int index) {
+                    return ColumnarTupleList.this.get(fromIndex + index);
+                }
+
+                @Override
+                public List<Member> set(int index, List<Member> element) {
+                    return ColumnarTupleList.this.set(
+                        fromIndex + index, element);
+                }
+
+                @Override
+                public int size() {
+                    return toIndex - fromIndex;
+                }
+            });
+    }
+
+    public TupleList withPositionCallback(
+        final PositionCallback positionCallback)
+    {
+        return new DelegatingTupleList(
+            arity,
+            new AbstractList<List<Member>>() {
+                @Override
+                public List<Member> get(int index) {
+                    positionCallback.onPosition(index);
+                    return ColumnarTupleList.this.get(index);
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public List<Member> set(int index, List<Member> element) {
+                    positionCallback.onPosition(index);
+                    return ColumnarTupleList.this.set(index, element);
+                }
+
+                @Override
+                public void add(int index, List<Member> element) {
+                    positionCallback.onPosition(index);
+                    ColumnarTupleList.this.add(index, element);
+                }
+
+                @Override
+                public List<Member> remove(int index) {
+                    positionCallback.onPosition(index);
+                    return ColumnarTupleList.this.remove(index);
+                }
+            });
+    }
+
+    public TupleIterator tupleIteratorInternal() {
+        // As ArrayTupleList, set the evaluator's context member by member
+        // rather than creating a tuple.
+        return new AbstractTupleListIterator() {
+            public void setContext(Evaluator evaluator) {
+                for (int i = 0; i < arity; i++) {
+                    evaluator.setContext(get(i, lastRet));
+                }
+            }
+
+            public Member member(int column) {
+                return get(column, lastRet);
+            }
+
+            public void currentToArray(Member[] members, int offset) {
+                for (int i = 0; i < arity; i++) {
+                    members[offset + i] = get(i, lastRet);
+                }
+            }
+        };
+    }
+
+    /**
+     * Opens a gap of {@code count} rows at {@code index}, growing the columns
+     * if necessary, and increments the size.
+     */
+    private void makeRoom(int index, int count) {
+        final int minCapacity = size + count;
+        for (int i = 0; i < arity; i++) {
+            int[] column = columns[i];
+            if (minCapacity > column.length) {
+                int newCapacity = (column.length * 3) / 2 + 1;
+                if (newCapacity < minCapacity) {
+                    newCapacity = minCapacity;
+                }
+                column = columns[i] = Arrays.copyOf(column, newCapacity);
+            }
+            if (index < size) {
+                System.arraycopy(
+                    column, index, column, index + count, size - index);
+            }
+        }
+        size += count;
+    }
+
+    /**
+     * The distinct members of one column of a {@link ColumnarTupleList},
+     * and their ordinals.
+     *
+     * <p>Members are compared by identity, so equal members that are
+     * different objects each get an ordinal. The null member is allowed.
+     */
+    private static class MemberDictionary {
+        private final List<Member> members;
+        private final Map<Member, Integer> ordinals;
+
+        /** Member most recently looked up, and its ordinal. Consecutive
+         * tuples often share the member of an outer column. */
+        private Member lastMember;
+        private int lastOrdinal = -1;
+
+        MemberDictionary() {
+            members = new ArrayList<Member>();
+            ordinals = new IdentityHashMap<Member, Integer>();
+        }
+
+        MemberDictionary(MemberDictionary dictionary) {
+            members = new ArrayList<Member>(dictionary.members);
+            ordinals = new IdentityHashMap<Member, Integer>(
+                dictionary.ordinals);
+        }
+
+        /**
+         * Returns the ordinal of a member, adding it to the dictionary if
+         * it is not already present.
+         */
+        int ordinal(Member member) {
+            if (member == lastMember && lastOrdinal >= 0) {
+                return lastOrdinal;
+            }
+            Integer ordinal = ordinals.get(member);
+            if (ordinal == null) {
+                ordinal = members.size();
+                members.add(member);
+                ordinals.put(member, ordinal);
+            }
+            lastMember = member;
+            lastOrdinal = ordinal;
+            return ordinal;
+        }
+
+        /**
+         * Returns an array of the ordinals of a list of members.
+         */
+        int[] encode(List<Member> list) {
+            final int[] ordinals = new int[list.size()];
+            int n = 0;
+            for (Member member : list) {
+                ordinals[n++] = ordinal(member);
+            }
+            return ordinals;
+        }
+    }
+}
+
+// End ColumnarTupleList.java
@@ -10,6 +10,7 @@
 package mondrian.olap;
 
 import mondrian.rolap.RolapConnection;
+import mondrian.rolap.RolapResultCache;
 import mondrian.rolap.RolapResultShepherd;
 import mondrian.rolap.agg.AggregationManager;
 import mondrian.server.*;
@@ -115,6 +116,22 @@ public abstract class MondrianServer {
 
     public abstract RolapResultShepherd getResultShepherd();
 
+    /**
+     * Returns the workload manager, which limits the number of MDX and SQL
+     * statements that each class of workload may run at a time.
+     *
+     * @return Workload manager
+     */
+    public abstract WorkloadManager getWorkloadManager();
+
+    /**
+     * Returns the cache of query results shared by all connections to this
+     * server.
+     *
+     * @return Result cache
+     */
+    public abstract RolapResultCache getResultCache();
+
     /**
      * Returns the lock box that can be used to pass objects via their string
      * key.
@@ -79,6 +79,12 @@ public class ParameterImpl
         }
     };
 
+    /**
+     * Whether {@link #slot} has been assigned by a compiler, replacing the
+     * placeholder.
+     */
+    private boolean compiled;
+
     public ParameterImpl(
         String name,
         Exp defaultExp,
@@ -135,6 +141,18 @@ public class ParameterImpl
         slot.unsetParameterValue();
     }
 
+    /**
+     * Unsets the value of this parameter, and forgets the default value
+     * computed by the previous execution, so that a compiled query can be
+     * executed again.
+     */
+    void reset() {
+        slot.unsetParameterValue();
+        if (compiled) {
+            slot.setCachedDefaultValue(null);
+        }
+    }
+
     public String getDescription() {
         return description;
     }
@@ -199,6 +217,7 @@ public class ParameterImpl
             }
         }
         this.slot = slot;
+        this.compiled = true;
         if (type instanceof SetType) {
             return new MemberListParameterCalc(slot);
         } else {
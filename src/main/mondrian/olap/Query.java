@@ -12,7 +12,9 @@ package mondrian.olap;
 
 import mondrian.calc.*;
 import mondrian.mdx.*;
+import mondrian.olap.fun.JavaFunDef;
 import mondrian.olap.fun.ParameterFunDef;
+import mondrian.olap.fun.UdfResolver;
 import mondrian.olap.type.*;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.*;
@@ -91,7 +93,7 @@ public class Query extends QueryPart {
      */
     private final Cube cube;
 
-    private final Statement statement;
+    private Statement statement;
     public Calc[] axisCalcs;
     public Calc slicerCalc;
 
@@ -134,7 +136,8 @@ public class Query extends QueryPart {
     private ResultStyle resultStyle =
         Util.Retrowoven ? ResultStyle.LIST : ResultStyle.ITERABLE;
 
-    private Map<String, Object> evalCache = new HashMap<String, Object>();
+    private Map<String, Object> evalCache =
+        Collections.synchronizedMap(new HashMap<String, Object>());
 
     /**
      * List of aliased expressions defined in this query, and where they are
@@ -145,6 +148,41 @@ public class Query extends QueryPart {
         new ArrayList<ScopedNamedSet>();
     private boolean ownStatement;
 
+    /**
+     * Key under which this query is returned to its schema's
+     * {@link QueryPlanCache} when its statement no longer needs it, or null
+     * if it must not be reused.
+     */
+    private QueryPlanCache.Key planKey;
+
+    /**
+     * Number of results of this query that have not been closed. While there
+     * are any, the query is not returned to its {@link QueryPlanCache},
+     * because the results refer to it. Guarded by this query.
+     */
+    private int openResultCount;
+
+    /**
+     * Whether the statement released this query while it had open results;
+     * if so, the query is returned to its {@link QueryPlanCache} when the
+     * last result is closed. Guarded by this query.
+     */
+    private boolean releasePending;
+
+    /**
+     * Whether this query calls a function whose value may change from one
+     * execution to the next, such as {@code Now()} or a user-defined
+     * function. Set when the query is resolved.
+     */
+    private boolean volatileFunctions;
+
+    /**
+     * Built-in functions whose value depends on the time at which they are
+     * evaluated.
+     */
+    private static final Set<String> VOLATILE_FUNCTION_NAMES =
+        new HashSet<String>(Arrays.asList("Date", "Now", "Time", "Timer"));
+
     /**
      * Creates a Query.
      */
@@ -197,7 +235,14 @@ public class Query extends QueryPart {
         this.alertedNonNativeFunDefs = new HashSet<FunDef>();
         statement.setQuery(this);
         resolve();
+        initProfiling();
+    }
 
+    /**
+     * Enables profiling on this query's statement if the profile logger is
+     * enabled.
+     */
+    private void initProfiling() {
         if (RolapUtil.PROFILE_LOGGER.isDebugEnabled()
             && statement.getProfileHandler() == null)
         {
@@ -339,6 +384,9 @@ public class Query extends QueryPart {
         "CloneDoesntDeclareCloneNotSupportedException"
     })
     public Query clone() {
+        // The clone replaces this query as the current query of the
+        // statement, but this query may still be in use.
+        planKey = null;
         return new Query(
             statement,
             cube,
@@ -441,6 +489,7 @@ public class Query extends QueryPart {
      * tree in any way.
      */
     public void resolve() {
+        planKey = null;
         final Validator validator = createValidator();
         resolve(validator); // resolve self and children
         // Create a dummy result so we can use its evaluator
@@ -584,6 +633,9 @@ public class Query extends QueryPart {
             slicerAxis.validate(validator);
         }
 
+        volatileFunctions = false;
+        accept(new VolatileFunctionFinder());
+
         // Make sure that no hierarchy is used on more than one axis.
         for (Hierarchy hierarchy : ((RolapCube) getCube()).getHierarchyList()) {
             int useCount = 0;
@@ -696,6 +748,7 @@ public class Query extends QueryPart {
     }
 
     public void setSlicerAxis(QueryAxis axis) {
+        planKey = null;
         this.slicerAxis = axis;
     }
 
@@ -704,6 +757,7 @@ public class Query extends QueryPart {
      */
     public void addLevelToAxis(AxisOrdinal axis, Level level) {
         assert axis != null;
+        planKey = null;
         axes[axis.logicalOrdinal()].addLevel(level);
     }
 
@@ -1058,6 +1112,7 @@ public class Query extends QueryPart {
      * query.
      */
     public void removeFormula(String uniqueName, boolean failIfUsedInQuery) {
+        planKey = null;
         Formula formula = findFormula(uniqueName);
         if (failIfUsedInQuery && formula != null) {
             OlapElement mdxElement = formula.getElement();
@@ -1186,6 +1241,7 @@ public class Query extends QueryPart {
             throw MondrianResource.instance().MdxFormulaNotFound.ex(
                 "formula", uniqueName, Util.unparse(this));
         }
+        planKey = null;
         formula.rename(newName);
     }
 
@@ -1213,6 +1269,7 @@ public class Query extends QueryPart {
             throw MondrianResource.instance().MdxAxisShowSubtotalsNotSupported
                 .ex(axis);
         }
+        planKey = null;
         axes[axis].setNonEmpty(!showEmpty);
     }
 
@@ -1428,6 +1485,112 @@ public class Query extends QueryPart {
         this.ownStatement = ownStatement;
     }
 
+    /**
+     * Sets the key under which this query is returned to its schema's
+     * {@link QueryPlanCache} when the statement that executes it is closed
+     * or moves on to another query; or null if the query must not be reused.
+     *
+     * <p>Modifying the query (for example, by calling {@link #addFormula} or
+     * {@link #resolve()}) clears the key.
+     *
+     * @param planKey Key, or null
+     */
+    public void setPlanKey(QueryPlanCache.Key planKey) {
+        this.planKey = planKey;
+    }
+
+    /**
+     * Returns the key under which this query will be returned to its
+     * schema's {@link QueryPlanCache}, or null if it will not be reused.
+     *
+     * @return Key, or null
+     */
+    public QueryPlanCache.Key getPlanKey() {
+        return planKey;
+    }
+
+    /**
+     * Binds this query, taken from a {@link QueryPlanCache}, to a statement,
+     * and discards the state left by its previous execution, so that it
+     * behaves as if it had just been parsed.
+     *
+     * <p>The compiled expressions ({@link #axisCalcs}, {@link #slicerCalc}
+     * and those of formulas) are kept. Parameter values, including default
+     * values computed by the previous execution, are reset; values for
+     * this execution are bound through each parameter's
+     * {@link ParameterSlot}.
+     *
+     * @param statement Statement that will execute this query
+     */
+    public void rebind(Statement statement) {
+        this.statement = statement;
+        this.ownStatement = false;
+        this.resultStyle =
+            Util.Retrowoven ? ResultStyle.LIST : ResultStyle.ITERABLE;
+        this.alertedNonNativeFunDefs = new HashSet<FunDef>();
+        clearEvalCache();
+        for (Parameter parameter : parameters) {
+            if (parameter instanceof ParameterImpl) {
+                ((ParameterImpl) parameter).reset();
+            }
+        }
+        statement.setQuery(this);
+        initProfiling();
+    }
+
+    /**
+     * Called when a statement no longer needs this query, because the
+     * statement has been closed or has moved on to another query. If the
+     * query came from, or may be shared via, its schema's
+     * {@link QueryPlanCache}, returns it there; or, if results of the query
+     * are still open, when the last of them is closed.
+     *
+     * @param statement Statement
+     */
+    public void release(Statement statement) {
+        if (planKey == null || statement != this.statement) {
+            return;
+        }
+        synchronized (this) {
+            if (openResultCount > 0) {
+                releasePending = true;
+                return;
+            }
+        }
+        checkIn();
+    }
+
+    /**
+     * Called when a result of this query is created. The query will not be
+     * returned to its {@link QueryPlanCache} until
+     * {@link #resultClosed()} has been called for each result.
+     */
+    public synchronized void resultOpened() {
+        ++openResultCount;
+    }
+
+    /**
+     * Called when a result of this query is closed.
+     *
+     * @see #resultOpened()
+     */
+    public void resultClosed() {
+        synchronized (this) {
+            assert openResultCount > 0;
+            if (--openResultCount > 0 || !releasePending) {
+                return;
+            }
+            releasePending = false;
+        }
+        if (planKey != null) {
+            checkIn();
+        }
+    }
+
+    private void checkIn() {
+        ((RolapCube) cube).getSchema().getQueryPlanCache().checkIn(this);
+    }
+
     /**
      * Source of metadata within the scope of a query.
      *
@@ -1993,6 +2156,48 @@ public class Query extends QueryPart {
     /**
      * Visitor that locates and registers parameters.
      */
+    /**
+     * Returns whether this query calls a function whose value may change from
+     * one execution to the next: {@code Now()}, {@code Date()},
+     * {@code Time()}, {@code Timer()}, or a user-defined function such as
+     * {@code CurrentDateMember}. Results of such queries must not be reused.
+     *
+     * @return Whether this query calls a volatile function
+     */
+    public boolean hasVolatileFunctions() {
+        return volatileFunctions;
+    }
+
+    /**
+     * Visitor that sets {@link #volatileFunctions} if the query, or a
+     * calculated member that it references, calls a volatile function.
+     */
+    private class VolatileFunctionFinder extends MdxVisitorImpl {
+        private final Set<Member> visitedMembers = new HashSet<Member>();
+
+        public Object visit(ResolvedFunCall call) {
+            final FunDef funDef = call.getFunDef();
+            if (UdfResolver.isUserDefined(funDef)
+                || funDef instanceof JavaFunDef
+                && VOLATILE_FUNCTION_NAMES.contains(funDef.getName()))
+            {
+                volatileFunctions = true;
+            }
+            return null;
+        }
+
+        public Object visit(MemberExpr memberExpr) {
+            final Member member = memberExpr.getMember();
+            if (member.isCalculated() && visitedMembers.add(member)) {
+                final Exp exp = member.getExpression();
+                if (exp != null) {
+                    exp.accept(this);
+                }
+            }
+            return null;
+        }
+    }
+
     private class ParameterFinder extends MdxVisitorImpl {
         public Object visit(ParameterExpr parameterExpr) {
             Parameter parameter = parameterExpr.getParameter();
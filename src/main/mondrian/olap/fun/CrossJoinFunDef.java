@@ -16,6 +16,8 @@ import mondrian.mdx.*;
 import mondrian.olap.*;
 import mondrian.olap.type.*;
 import mondrian.rolap.RolapEvaluator;
+import mondrian.server.CancellationToken;
+import mondrian.server.Locus;
 import mondrian.util.CartesianProductList;
 
 import java.util.*;
@@ -208,66 +210,83 @@ public class CrossJoinFunDef extends FunDefBase {
             final TupleIterable it1,
             final TupleIterable it2)
         {
-            // There is no knowledge about how large either it1 ore it2
-            // are or how many null members they might have, so all
-            // one can do is iterate across them:
-            // iterate across it1 and for each member iterate across it2
-
-            return new AbstractTupleIterable(it1.getArity() + it2.getArity()) {
-                public TupleCursor tupleCursor() {
-                    return new AbstractTupleCursor(getArity()) {
-                        final TupleCursor i1 = it1.tupleCursor();
-                        final int arity1 = i1.getArity();
-                        TupleCursor i2 =
-                            TupleCollections.emptyList(1).tupleCursor();
-                        final Member[] members = new Member[arity];
-
-                        public boolean forward() {
+            return crossJoinIterable(it1, it2);
+        }
+    }
+
+    /**
+     * Returns the cross product of two iterables, without materializing it.
+     *
+     * @param it1 First iterable
+     * @param it2 Second iterable; iterated once for each tuple of the first
+     * @return Iterable over the cross product
+     */
+    static TupleIterable crossJoinIterable(
+        final TupleIterable it1,
+        final TupleIterable it2)
+    {
+        // There is no knowledge about how large either it1 ore it2
+        // are or how many null members they might have, so all
+        // one can do is iterate across them:
+        // iterate across it1 and for each member iterate across it2
+
+        return new AbstractTupleIterable(it1.getArity() + it2.getArity()) {
+            public TupleCursor tupleCursor() {
+                return new AbstractTupleCursor(getArity()) {
+                    final TupleCursor i1 = it1.tupleCursor();
+                    final int arity1 = i1.getArity();
+                    TupleCursor i2 =
+                        TupleCollections.emptyList(1).tupleCursor();
+                    final Member[] members = new Member[arity];
+                    final CancellationToken cancellationToken =
+                        CancellationToken.current();
+
+                    public boolean forward() {
+                        cancellationToken.check();
+                        if (i2.forward()) {
+                            return true;
+                        }
+                        while (i1.forward()) {
+                            i2 = it2.tupleCursor();
                             if (i2.forward()) {
                                 return true;
                             }
-                            while (i1.forward()) {
-                                i2 = it2.tupleCursor();
-                                if (i2.forward()) {
-                                    return true;
-                                }
-                            }
-                            return false;
                         }
+                        return false;
+                    }
 
-                        public List<Member> current() {
-                            i1.currentToArray(members, 0);
-                            i2.currentToArray(members, arity1);
-                            return Util.flatList(members);
-                        }
+                    public List<Member> current() {
+                        i1.currentToArray(members, 0);
+                        i2.currentToArray(members, arity1);
+                        return Util.flatList(members);
+                    }
 
-                        @Override
-                        public Member member(int column) {
-                            if (column < arity1) {
-                                return i1.member(column);
-                            } else {
-                                return i2.member(column - arity1);
-                            }
+                    @Override
+                    public Member member(int column) {
+                        if (column < arity1) {
+                            return i1.member(column);
+                        } else {
+                            return i2.member(column - arity1);
                         }
+                    }
 
-                        @Override
-                        public void setContext(Evaluator evaluator) {
-                            i1.setContext(evaluator);
-                            i2.setContext(evaluator);
-                        }
+                    @Override
+                    public void setContext(Evaluator evaluator) {
+                        i1.setContext(evaluator);
+                        i2.setContext(evaluator);
+                    }
 
-                        @Override
-                        public void currentToArray(
-                            Member[] members,
-                            int offset)
-                        {
-                            i1.currentToArray(members, offset);
-                            i2.currentToArray(members, offset + arity1);
-                        }
-                    };
-                }
-            };
-        }
+                    @Override
+                    public void currentToArray(
+                        Member[] members,
+                        int offset)
+                    {
+                        i1.currentToArray(members, offset);
+                        i2.currentToArray(members, offset + arity1);
+                    }
+                };
+            }
+        };
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -438,11 +457,18 @@ public class CrossJoinFunDef extends FunDefBase {
 
         @SuppressWarnings({"unchecked"})
         protected TupleList makeList(final TupleList l1, final TupleList l2) {
+            if (ColumnarTupleList.isPreferred((long) l1.size() * l2.size())) {
+                return ColumnarTupleList.cartesianProduct(
+                    Arrays.asList(l1, l2));
+            }
             final int arity = l1.getArity() + l2.getArity();
             final List<Member> members =
                 new ArrayList<Member>(arity * l1.size() * l2.size());
+            final CancellationToken cancellationToken =
+                CancellationToken.current();
             for (List<Member> ma1 : l1) {
                 for (List<Member> ma2 : l2) {
+                    cancellationToken.check();
                     members.addAll(ma1);
                     members.addAll(ma2);
                 }
@@ -518,6 +544,10 @@ public class CrossJoinFunDef extends FunDefBase {
 
         Util.checkCJResultLimit(size);
 
+        if (ColumnarTupleList.isPreferred(size)) {
+            return ColumnarTupleList.cartesianProduct(lists);
+        }
+
         // Now we can safely cast size to an integer. It still might be very
         // large - which means we're allocating a huge array which we might
         // pare down later by applying NON EMPTY constraints - which is a
@@ -526,7 +556,9 @@ public class CrossJoinFunDef extends FunDefBase {
 
         final Member[] partialArray = new Member[arity];
         final List<Member> partial = Arrays.asList(partialArray);
-        cartesianProductRecurse(0, lists, partial, partialArray, 0, result);
+        cartesianProductRecurse(
+            0, lists, partial, partialArray, 0, result,
+            CancellationToken.current());
         return new ListTupleList(arity, result);
     }
 
@@ -536,20 +568,22 @@ public class CrossJoinFunDef extends FunDefBase {
         List<Member> partial,
         Member[] partialArray,
         int partialSize,
-        List<Member> result)
+        List<Member> result,
+        CancellationToken cancellationToken)
     {
         final TupleList tupleList = lists.get(i);
         final int partialSizeNext = partialSize + tupleList.getArity();
         final int iNext = i + 1;
         final TupleCursor cursor = tupleList.tupleCursor();
         while (cursor.forward()) {
+            cancellationToken.check();
             cursor.currentToArray(partialArray, partialSize);
             if (i == lists.size() - 1) {
                 result.addAll(partial);
             } else {
                 cartesianProductRecurse(
                     iNext, lists, partial, partialArray, partialSizeNext,
-                    result);
+                    result, cancellationToken);
             }
         }
     }
@@ -740,10 +774,136 @@ public class CrossJoinFunDef extends FunDefBase {
             return list;
         }
 
+        // A columnar list's copy starts with the input's member dictionaries.
         TupleList result =
-            TupleCollections.createList(
-                list.getArity(), (list.size() + 2) >> 1);
+            list instanceof ColumnarTupleList
+                ? list.cloneList((list.size() + 2) >> 1)
+                : TupleCollections.createList(
+                    list.getArity(), (list.size() + 2) >> 1);
+
+        final NonEmptyChecker checker =
+            nonEmptyChecker(evaluator, list.get(0), call);
+        checker.addNonEmpty(evaluator, list, result);
+        return result;
+    }
+
+    /**
+     * Returns an iterable over the tuples of a given iterable that are
+     * non-empty, evaluating them only as the caller asks for them.
+     *
+     * <p>Unlike {@link #nonEmptyList}, this method does not check the whole
+     * input up front. It checks tuples in batches of
+     * {@link MondrianProperties#NonEmptyCrossJoinBatchSize}. If the cells of
+     * a batch are not in cache, it loads them straight away (see
+     * {@link RolapEvaluator#loadCellRequests(boolean)}) and checks the batch
+     * again. A caller that wants only the first few non-empty tuples, such
+     * as {@code Head}, therefore evaluates only the first few batches.
+     *
+     * @param evaluator Evaluator
+     * @param iterable Tuples
+     * @param call Calling ResolvedFunCall used to determine what Measures
+     *             to use
+     * @return Iterable over the non-empty tuples of the input
+     */
+    protected TupleIterable nonEmptyIterable(
+        Evaluator evaluator,
+        final TupleIterable iterable,
+        final ResolvedFunCall call)
+    {
+        final Evaluator evaluator2 = evaluator.push();
+        final int batchSize =
+            Math.max(
+                MondrianProperties.instance().NonEmptyCrossJoinBatchSize.get(),
+                1);
+        return new AbstractTupleIterable(iterable.getArity()) {
+            public TupleCursor tupleCursor() {
+                return new AbstractTupleCursor(arity) {
+                    final TupleCursor cursor = iterable.tupleCursor();
+                    NonEmptyChecker checker;
+                    TupleCursor batchCursor =
+                        TupleCollections.emptyList(arity).tupleCursor();
+
+                    public boolean forward() {
+                        while (!batchCursor.forward()) {
+                            final TupleList batch =
+                                TupleCollections.createList(arity, batchSize);
+                            while (batch.size() < batchSize
+                                && cursor.forward())
+                            {
+                                batch.addCurrent(cursor);
+                            }
+                            if (batch.isEmpty()) {
+                                return false;
+                            }
+                            batchCursor = nonEmptyBatch(batch).tupleCursor();
+                        }
+                        return true;
+                    }
+
+                    private TupleList nonEmptyBatch(TupleList batch) {
+                        Locus.peek().execution.checkCancelOrTimeout();
+                        if (checker == null) {
+                            checker =
+                                nonEmptyChecker(evaluator2, batch.get(0), call);
+                        }
+                        // If cells were missing before this batch, whoever
+                        // asked for them has used wrong values, and the phase
+                        // must run again even if our load fetches them.
+                        final boolean dirty =
+                            evaluator2 instanceof RolapEvaluator
+                            && ((RolapEvaluator) evaluator2).isDirty();
+                        final int missCount = evaluator2.getMissCount();
+                        TupleList result = batch.cloneList(batch.size());
+                        checker.addNonEmpty(evaluator2, batch, result);
+                        if (evaluator2.getMissCount() > missCount
+                            && evaluator2 instanceof RolapEvaluator
+                            && ((RolapEvaluator) evaluator2)
+                                .loadCellRequests(dirty))
+                        {
+                            result.clear();
+                            checker.addNonEmpty(evaluator2, batch, result);
+                        }
+                        return result;
+                    }
+
+                    public List<Member> current() {
+                        return batchCursor.current();
+                    }
+
+                    @Override
+                    public Member member(int column) {
+                        return batchCursor.member(column);
+                    }
+
+                    @Override
+                    public void setContext(Evaluator evaluator) {
+                        batchCursor.setContext(evaluator);
+                    }
+
+                    @Override
+                    public void currentToArray(Member[] members, int offset) {
+                        batchCursor.currentToArray(members, offset);
+                    }
+                };
+            }
+        };
+    }
 
+    /**
+     * Gathers the measures and members that {@link #nonEmptyList} and
+     * {@link #nonEmptyIterable} evaluate to decide whether a tuple is empty.
+     *
+     * @param evaluator Evaluator
+     * @param listMembers A tuple of the list; only its hierarchies are used
+     * @param call Calling ResolvedFunCall used to determine what Measures
+     *             to use
+     * @return Checker
+     */
+    private NonEmptyChecker nonEmptyChecker(
+        Evaluator evaluator,
+        List<Member> listMembers,
+        ResolvedFunCall call)
+    {
         // Get all of the Measures
         final Query query = evaluator.getQuery();
 
@@ -790,8 +950,6 @@ public class CrossJoinFunDef extends FunDefBase {
             //
             Member[] evalMembers = evaluator.getMembers().clone();
 
-            List<Member> listMembers = list.get(0);
-
             // Remove listMembers from evalMembers and independentSlicerMembers
             for (Member lm : listMembers) {
                 Hierarchy h = lm.getHierarchy();
@@ -919,34 +1077,7 @@ public class CrossJoinFunDef extends FunDefBase {
             query.putEvalCache(allMemberListKey, allMemberList);
             query.putEvalCache(nonAllMembersKey, nonAllMembers);
         }
-
-        //
-        // Determine if there is any data.
-        //
-        // Put all of the All Members into Evaluator
-        final int savepoint = evaluator.savepoint();
-        try {
-            evaluator.setContext(allMemberList);
-            // Iterate over elements of the input list. If for any
-            // combination of
-            // Measure and non-All Members evaluation is non-null, then
-            // add it to the result List.
-            final TupleCursor cursor = list.tupleCursor();
-            while (cursor.forward()) {
-                cursor.setContext(evaluator);
-                if (checkData(
-                        nonAllMembers,
-                        nonAllMembers.length - 1,
-                        measureSet,
-                        evaluator))
-                {
-                    result.addCurrent(cursor);
-                }
-            }
-            return result;
-        } finally {
-            evaluator.restore(savepoint);
-        }
+        return new NonEmptyChecker(measureSet, allMemberList, nonAllMembers);
     }
 
     /**
@@ -1006,6 +1137,69 @@ public class CrossJoinFunDef extends FunDefBase {
         return false;
     }
 
+    /**
+     * The measures and members that decide whether a tuple is empty, as
+     * gathered by {@link CrossJoinFunDef#nonEmptyChecker}.
+     */
+    private static class NonEmptyChecker {
+        private final Set<Member> measureSet;
+        private final List<Member> allMemberList;
+        private final Member[][] nonAllMembers;
+
+        NonEmptyChecker(
+            Set<Member> measureSet,
+            List<Member> allMemberList,
+            Member[][] nonAllMembers)
+        {
+            this.measureSet = measureSet;
+            this.allMemberList = allMemberList;
+            this.nonAllMembers = nonAllMembers;
+        }
+
+        /**
+         * Adds the non-empty tuples of a list to another list.
+         *
+         * @param evaluator Evaluator
+         * @param list List of tuples
+         * @param result List to which to add non-empty tuples
+         */
+        void addNonEmpty(
+            Evaluator evaluator,
+            TupleList list,
+            TupleList result)
+        {
+            //
+            // Determine if there is any data.
+            //
+            // Put all of the All Members into Evaluator
+            final int savepoint = evaluator.savepoint();
+            try {
+                evaluator.setContext(allMemberList);
+                // Iterate over elements of the input list. If for any
+                // combination of
+                // Measure and non-All Members evaluation is non-null, then
+                // add it to the result List.
+                final TupleCursor cursor = list.tupleCursor();
+                final CancellationToken cancellationToken =
+                    CancellationToken.current();
+                while (cursor.forward()) {
+                    cancellationToken.check();
+                    cursor.setContext(evaluator);
+                    if (checkData(
+                            nonAllMembers,
+                            nonAllMembers.length - 1,
+                            measureSet,
+                            evaluator))
+                    {
+                        result.addCurrent(cursor);
+                    }
+                }
+            } finally {
+                evaluator.restore(savepoint);
+            }
+        }
+    }
+
     private static class StarCrossJoinResolver extends MultiResolver {
         public StarCrossJoinResolver() {
             super(
@@ -13,6 +13,7 @@ import mondrian.calc.*;
 import mondrian.calc.impl.*;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
+import mondrian.server.Execution;
 import mondrian.server.Locus;
 
 import java.util.List;
@@ -225,10 +226,11 @@ class FilterFunDef extends FunDefBase {
                 public TupleCursor tupleCursor() {
                     return new AbstractTupleCursor(iterable.getArity()) {
                         final TupleCursor cursor = iterable.tupleCursor();
+                        final Execution execution = Locus.peek().execution;
 
                         public boolean forward() {
                             while (cursor.forward()) {
-                                Locus.peek().execution.checkCancelOrTimeout();
+                                execution.checkCancelOrTimeout();
                                 cursor.setContext(evaluator2);
                                 if (bcalc.evaluateBoolean(evaluator2)) {
                                     return true;
@@ -18,6 +18,7 @@ import mondrian.olap.*;
 import mondrian.olap.type.*;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.RolapHierarchy;
+import mondrian.server.CancellationToken;
 import mondrian.util.*;
 
 import org.apache.commons.collections.ComparatorUtils;
@@ -413,7 +414,10 @@ public class FunUtil extends Util {
             assert exp.getType() instanceof ScalarType;
             Map<Member, Object> mapMemberToValue =
                 new HashMap<Member, Object>();
+            final CancellationToken cancellationToken =
+                CancellationToken.current();
             for (Member member : memberIter) {
+                cancellationToken.check();
                 if (memberList != null) {
                     memberList.add(member);
                 }
@@ -464,7 +468,10 @@ public class FunUtil extends Util {
             assert exp.getType() instanceof ScalarType;
             final Map<List<Member>, Object> mapMemberToValue =
                     new HashMap<List<Member>, Object>();
+            final CancellationToken cancellationToken =
+                CancellationToken.current();
             for (int i = 0, count = tuples.size(); i < count; i++) {
+                cancellationToken.check();
                 List<Member> tuple = tuples.get(i);
                 evaluator.setContext(tuple);
                 Object result = exp.evaluate(evaluator);
@@ -812,6 +819,75 @@ public class FunUtil extends Util {
         return stablePartialSort(list, comp, limit);
     }
 
+    /**
+     * Partially sorts a list of tuples by the numeric value of an applied
+     * expression, keeping only the first <i>n</i> tuples in a bounded heap.
+     *
+     * <p>Unlike {@link #partiallySortTuples}, does not hold a value for
+     * every tuple of the list: it holds <i>n</i> primitive {@code double}
+     * keys, and compares them without boxing. The order is the same as that
+     * of {@link #partiallySortTuples} (empty values sort first, and tuples
+     * with the same value stay in the order of the list).
+     *
+     * <p>Returns null as soon as the expression returns a value that is not
+     * a number, such as a string; the caller should then use the general
+     * sort.
+     *
+     * <p>NOTE: Does not preserve the contents of the evaluator.
+     *
+     * @param evaluator Evaluator
+     * @param list a list of tuples
+     * @param exp a Calc applied to each tuple to find its sort-key
+     * @param limit maximum count of tuples to return
+     * @param desc true to sort descending, false to sort ascending
+     * @return the first {@code limit} tuples in sorted order, as a new list,
+     *   or null if a sort-key is not numeric
+     */
+    public static TupleList partiallySortByNumber(
+        Evaluator evaluator,
+        TupleList list,
+        Calc exp,
+        int limit,
+        boolean desc)
+    {
+        assert limit <= list.size();
+        final TopKHeap heap = new TopKHeap(limit, desc);
+        evaluator.getTiming().markStart(SORT_EVAL_TIMING_NAME);
+        try {
+            final TupleCursor cursor = list.tupleCursor();
+            final CancellationToken cancellationToken =
+                CancellationToken.current();
+            int i = 0;
+            while (cursor.forward()) {
+                cancellationToken.check();
+                cursor.setContext(evaluator);
+                final Object value = exp.evaluate(evaluator);
+                if (value instanceof Number) {
+                    heap.add(i, ((Number) value).doubleValue());
+                } else if (value == null
+                    || value == Util.nullValue
+                    || value instanceof RuntimeException)
+                {
+                    // A value not yet in the cache sorts as empty; the list
+                    // will be sorted again when the value has been loaded.
+                    heap.addNull(i);
+                } else {
+                    return null;
+                }
+                ++i;
+            }
+        } finally {
+            evaluator.getTiming().markEnd(SORT_EVAL_TIMING_NAME);
+        }
+        final int[] ordinals = heap.ordinals();
+        final TupleList result =
+            TupleCollections.createList(list.getArity(), ordinals.length);
+        for (int ordinal : ordinals) {
+            result.add(list.get(ordinal));
+        }
+        return result;
+    }
+
     /**
      * Sorts a list of members into hierarchical order. The members must belong
      * to the same dimension.
@@ -2638,6 +2714,156 @@ public class FunUtil extends Util {
 
     // ~ Inner classes ---------------------------------------------------------
 
+    /**
+     * Bounded heap that finds the first <i>k</i> of a sequence of items
+     * ordered by {@code double} keys, for {@link #partiallySortByNumber}.
+     *
+     * <p>Items are identified by their ordinal in the sequence, and must be
+     * added in ascending ordinal order. Items with equal keys are ordered by
+     * ordinal, so the result is stable. An empty key sorts before every
+     * number, as in {@link #compareValues(Object, Object)}.
+     *
+     * <p>The heap holds the kept items in parallel arrays of primitives. Its
+     * root is the kept item that sorts last, and is replaced whenever an item
+     * that sorts before it is added. Adding <i>n</i> items costs
+     * O(n log k) comparisons, and O(k) memory.
+     */
+    static class TopKHeap {
+        private final int limit;
+        private final boolean desc;
+        // The slot at index limit holds the item being added.
+        private final double[] keys;
+        private final boolean[] nulls;
+        private final int[] ordinals;
+        private int size;
+
+        /**
+         * Creates a TopKHeap.
+         *
+         * @param limit Maximum number of items to keep
+         * @param desc Whether to sort descending
+         */
+        TopKHeap(int limit, boolean desc) {
+            assert limit >= 0;
+            this.limit = limit;
+            this.desc = desc;
+            this.keys = new double[limit + 1];
+            this.nulls = new boolean[limit + 1];
+            this.ordinals = new int[limit + 1];
+        }
+
+        /**
+         * Adds an item with a numeric key.
+         *
+         * @param ordinal Ordinal of item
+         * @param key Sort key
+         */
+        void add(int ordinal, double key) {
+            add(ordinal, key, false);
+        }
+
+        /**
+         * Adds an item whose key is empty.
+         *
+         * @param ordinal Ordinal of item
+         */
+        void addNull(int ordinal) {
+            add(ordinal, 0d, true);
+        }
+
+        private void add(int ordinal, double key, boolean isNull) {
+            keys[limit] = key;
+            nulls[limit] = isNull;
+            ordinals[limit] = ordinal;
+            if (size < limit) {
+                move(limit, size);
+                siftUp(size++);
+            } else if (size > 0 && after(0, limit)) {
+                move(limit, 0);
+                siftDown(0);
+            }
+        }
+
+        /**
+         * Returns the ordinals of the kept items, in sorted order. Empties
+         * the heap.
+         */
+        int[] ordinals() {
+            final int[] result = new int[size];
+            while (size > 0) {
+                result[--size] = ordinals[0];
+                move(size, 0);
+                siftDown(0);
+            }
+            return result;
+        }
+
+        /**
+         * Returns whether the item in slot {@code i} sorts after the item in
+         * slot {@code j}.
+         */
+        private boolean after(int i, int j) {
+            int c;
+            if (nulls[i]) {
+                c = nulls[j] ? 0 : -1;
+            } else if (nulls[j]) {
+                c = 1;
+            } else {
+                c = FunUtil.compareValues(keys[i], keys[j]);
+            }
+            if (desc) {
+                c = -c;
+            }
+            return c > 0 || c == 0 && ordinals[i] > ordinals[j];
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                final int parent = (i - 1) >> 1;
+                if (!after(i, parent)) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int child = (i << 1) + 1;
+                if (child >= size) {
+                    return;
+                }
+                if (child + 1 < size && after(child + 1, child)) {
+                    ++child;
+                }
+                if (!after(child, i)) {
+                    return;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void move(int from, int to) {
+            keys[to] = keys[from];
+            nulls[to] = nulls[from];
+            ordinals[to] = ordinals[from];
+        }
+
+        private void swap(int i, int j) {
+            final double key = keys[i];
+            keys[i] = keys[j];
+            keys[j] = key;
+            final boolean isNull = nulls[i];
+            nulls[i] = nulls[j];
+            nulls[j] = isNull;
+            final int ordinal = ordinals[i];
+            ordinals[i] = ordinals[j];
+            ordinals[j] = ordinal;
+        }
+    }
+
     /**
      * A functional for {@link FunUtil#partialSort}.
      * Sorts or partially sorts an array in ascending order, using a Comparator.
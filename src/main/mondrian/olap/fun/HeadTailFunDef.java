@@ -10,11 +10,9 @@
 package mondrian.olap.fun;
 
 import mondrian.calc.*;
-import mondrian.calc.impl.AbstractListCalc;
-import mondrian.calc.impl.ConstantCalc;
+import mondrian.calc.impl.*;
 import mondrian.mdx.ResolvedFunCall;
-import mondrian.olap.Evaluator;
-import mondrian.olap.FunDef;
+import mondrian.olap.*;
 
 /**
  * Definition of the <code>Head</code> and <code>Tail</code>
@@ -47,7 +45,42 @@ class HeadTailFunDef extends FunDefBase {
         head = dummyFunDef.getName().equals("Head");
     }
 
-    public Calc compileCall(ResolvedFunCall call, ExpCompiler compiler) {
+    public Calc compileCall(
+        final ResolvedFunCall call, ExpCompiler compiler)
+    {
+        if (head && isHeadOfBreakingOrder(call)) {
+            return compileHeadOfOrder(call, compiler);
+        }
+        if (head && isStreaming()) {
+            // Read only as many tuples as we need; the argument may be
+            // evaluating them as we go.
+            final IterCalc iterCalc = compiler.compileIter(call.getArg(0));
+            final IntegerCalc integerCalc =
+                call.getArgCount() > 1
+                ? compiler.compileInteger(call.getArg(1))
+                : ConstantCalc.constantInteger(1);
+            return new AbstractListCalc(
+                call, new Calc[] {iterCalc, integerCalc})
+            {
+                public TupleList evaluateList(Evaluator evaluator) {
+                    final TupleList nativeList =
+                        evaluateNative(call, evaluator, this);
+                    if (nativeList != null) {
+                        return nativeList;
+                    }
+                    final int savepoint = evaluator.savepoint();
+                    try {
+                        evaluator.setNonEmpty(false);
+                        TupleIterable iterable =
+                            iterCalc.evaluateIterable(evaluator);
+                        int count = integerCalc.evaluateInteger(evaluator);
+                        return head(count, iterable);
+                    } finally {
+                        evaluator.restore(savepoint);
+                    }
+                }
+            };
+        }
         final ListCalc listCalc =
             compiler.compileList(call.getArg(0));
         final IntegerCalc integerCalc =
@@ -59,6 +92,11 @@ class HeadTailFunDef extends FunDefBase {
                 call, new Calc[] {listCalc, integerCalc})
             {
                 public TupleList evaluateList(Evaluator evaluator) {
+                    final TupleList nativeList =
+                        evaluateNative(call, evaluator, this);
+                    if (nativeList != null) {
+                        return nativeList;
+                    }
                     final int savepoint = evaluator.savepoint();
                     try {
                         evaluator.setNonEmpty(false);
@@ -89,6 +127,104 @@ class HeadTailFunDef extends FunDefBase {
         }
     }
 
+    /**
+     * Returns whether a call is of the form
+     * <code>Head(Order(&lt;Set&gt;, &lt;Expr&gt;, BASC|BDESC), &lt;Count&gt;)
+     * </code>.
+     *
+     * <p>A breaking sort is a sort by a single key, so its first tuples can
+     * be found without sorting the whole set. (A hierarchized sort, ASC or
+     * DESC, keeps children with their parents, so the first tuples depend on
+     * the whole set.)
+     */
+    private static boolean isHeadOfBreakingOrder(ResolvedFunCall call) {
+        if (call.getArgCount() < 2
+            || !(call.getArg(0) instanceof ResolvedFunCall))
+        {
+            return false;
+        }
+        final ResolvedFunCall orderCall = (ResolvedFunCall) call.getArg(0);
+        if (!(orderCall.getFunDef() instanceof OrderFunDef)
+            || orderCall.getArgCount() != 3
+            || orderCall.getArg(2).getCategory() != Category.Symbol)
+        {
+            return false;
+        }
+        final Flag flag = getLiteralArg(orderCall, 2, Flag.ASC, Flag.class);
+        return flag.brk;
+    }
+
+    /**
+     * Compiles a call to <code>Head(Order(&lt;Set&gt;, &lt;Expr&gt;,
+     * BASC|BDESC), &lt;Count&gt;)</code>.
+     *
+     * <p>Keeps the first {@code count} tuples in a heap of numeric keys, as
+     * {@code TopCount} does, rather than sorting the whole set. If the sort
+     * key is not numeric, sorts the whole set as {@code Order} would.
+     */
+    private Calc compileHeadOfOrder(
+        final ResolvedFunCall call,
+        ExpCompiler compiler)
+    {
+        final ResolvedFunCall orderCall = (ResolvedFunCall) call.getArg(0);
+        final ListCalc listCalc =
+            compiler.compileList(orderCall.getArg(0));
+        final Calc keyCalc = compiler.compileScalar(orderCall.getArg(1), true);
+        final boolean desc =
+            getLiteralArg(orderCall, 2, Flag.ASC, Flag.class).descending;
+        final IntegerCalc integerCalc = compiler.compileInteger(call.getArg(1));
+        final int arity = call.getType().getArity();
+        return new AbstractListCalc(
+            call, new Calc[] {listCalc, integerCalc, keyCalc})
+        {
+            public TupleList evaluateList(Evaluator evaluator) {
+                final TupleList nativeList =
+                    evaluateNative(call, evaluator, this);
+                if (nativeList != null) {
+                    return nativeList;
+                }
+                final int savepoint = evaluator.savepoint();
+                try {
+                    evaluator.setNonEmpty(false);
+                    final TupleList list = listCalc.evaluateList(evaluator);
+                    final int count = integerCalc.evaluateInteger(evaluator);
+                    if (count <= 0 || list.isEmpty()) {
+                        return TupleCollections.emptyList(arity);
+                    }
+                    final int n = Math.min(count, list.size());
+                    final int savepoint2 = evaluator.savepoint();
+                    final TupleList topList =
+                        partiallySortByNumber(
+                            evaluator, list, keyCalc, n, desc);
+                    evaluator.restore(savepoint2);
+                    if (topList != null) {
+                        return topList;
+                    }
+                    final TupleList sortedList;
+                    if (arity == 1) {
+                        sortedList =
+                            new UnaryTupleList(
+                                sortMembers(
+                                    evaluator, list.slice(0), null, keyCalc,
+                                    desc, true));
+                    } else {
+                        sortedList =
+                            sortTuples(
+                                evaluator, list, null, keyCalc, desc, true,
+                                arity);
+                    }
+                    return head(n, sortedList);
+                } finally {
+                    evaluator.restore(savepoint);
+                }
+            }
+
+            public boolean dependsOn(Hierarchy hierarchy) {
+                return anyDependsButFirst(getCalcs(), hierarchy);
+            }
+        };
+    }
+
     static TupleList tail(final int count, final TupleList members) {
         assert members != null;
         final int memberCount = members.size();
@@ -108,6 +244,61 @@ class HeadTailFunDef extends FunDefBase {
         }
         return members.subList(0, Math.min(count, members.size()));
     }
+
+    /**
+     * Returns the first {@code count} tuples of an iterable, reading no more
+     * of it than necessary.
+     */
+    static TupleList head(final int count, final TupleIterable iterable) {
+        assert iterable != null;
+        if (iterable instanceof TupleList) {
+            return head(count, (TupleList) iterable);
+        }
+        if (count <= 0) {
+            return TupleCollections.emptyList(iterable.getArity());
+        }
+        final TupleList list =
+            TupleCollections.createList(iterable.getArity());
+        final TupleCursor cursor = iterable.tupleCursor();
+        while (list.size() < count && cursor.forward()) {
+            list.addCurrent(cursor);
+        }
+        return list;
+    }
+
+    /**
+     * Evaluates a call using a native evaluator, if there is one for the call
+     * in the current context.
+     *
+     * @param call Call
+     * @param evaluator Evaluator
+     * @param calc Compiled call
+     * @return Result of the native evaluator, or null if the call cannot be
+     * evaluated natively
+     */
+    static TupleList evaluateNative(
+        ResolvedFunCall call,
+        Evaluator evaluator,
+        Calc calc)
+    {
+        final NativeEvaluator nativeEvaluator =
+            evaluator.getSchemaReader().getNativeSetEvaluator(
+                call.getFunDef(), call.getArgs(), evaluator, calc);
+        if (nativeEvaluator == null) {
+            return null;
+        }
+        return (TupleList) nativeEvaluator.execute(ResultStyle.LIST);
+    }
+
+    /**
+     * Returns whether {@code Head} and similar functions should read their
+     * argument as an iterable, so that they can stop early. See
+     * {@link MondrianProperties#NonEmptyCrossJoinBatchSize}.
+     */
+    static boolean isStreaming() {
+        return MondrianProperties.instance().NonEmptyCrossJoinBatchSize.get()
+            > 0;
+    }
 }
 
 // End HeadTailFunDef.java
@@ -12,11 +12,14 @@
 package mondrian.olap.fun;
 
 import mondrian.calc.*;
-import mondrian.calc.impl.AbstractListCalc;
+import mondrian.calc.impl.*;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
+import mondrian.olap.type.SetType;
 import mondrian.rolap.RolapEvaluator;
 
+import java.util.List;
+
 
 /**
  * Definition of the <code>NonEmptyCrossJoin</code> MDX function.
@@ -41,36 +44,66 @@ public class NonEmptyCrossJoinFunDef extends CrossJoinFunDef {
     public Calc compileCall(final ResolvedFunCall call, ExpCompiler compiler) {
         final ListCalc listCalc1 = compiler.compileList(call.getArg(0));
         final ListCalc listCalc2 = compiler.compileList(call.getArg(1));
+        final List<ResultStyle> styles = compiler.getAcceptableResultStyles();
+        if (MondrianProperties.instance().NonEmptyCrossJoinBatchSize.get() > 0
+            && (styles.contains(ResultStyle.ITERABLE)
+                || styles.contains(ResultStyle.ANY)))
+        {
+            return new AbstractIterCalc(
+                call, new Calc[] {listCalc1, listCalc2})
+            {
+                public TupleIterable evaluateIterable(Evaluator evaluator) {
+                    final int savepoint = evaluator.savepoint();
+                    try {
+                        setNonEmptyContext(evaluator, getType());
+
+                        NativeEvaluator nativeEvaluator =
+                            evaluator.getSchemaReader().getNativeSetEvaluator(
+                                call.getFunDef(), call.getArgs(), evaluator,
+                                this);
+                        if (nativeEvaluator != null) {
+                            return
+                                (TupleIterable) nativeEvaluator.execute(
+                                    ResultStyle.ITERABLE);
+                        }
+
+                        final TupleList list1 =
+                            listCalc1.evaluateList(evaluator);
+                        if (list1.isEmpty()) {
+                            return TupleCollections.emptyList(
+                                getType().getArity());
+                        }
+                        final TupleList list2 =
+                            listCalc2.evaluateList(evaluator);
+                        if (list2.isEmpty()) {
+                            return TupleCollections.emptyList(
+                                getType().getArity());
+                        }
+
+                        // Check the crossings only as the consumer reads
+                        // them; it may not read them all.
+                        return nonEmptyIterable(
+                            evaluator, crossJoinIterable(list1, list2), call);
+                    } finally {
+                        evaluator.restore(savepoint);
+                    }
+                }
+
+                public boolean dependsOn(Hierarchy hierarchy) {
+                    return super.dependsOn(hierarchy)
+                        || argsDependOn(listCalc1, listCalc2, hierarchy);
+                }
+            };
+        }
         return new AbstractListCalc(
             call, new Calc[] {listCalc1, listCalc2}, false)
         {
             public TupleList evaluateList(Evaluator evaluator) {
                 SchemaReader schemaReader = evaluator.getSchemaReader();
 
-                // Evaluate the arguments in non empty mode, but remove from
-                // the slicer any members that will be overridden by args to
-                // the NonEmptyCrossjoin function. For example, in
-                //
-                //   SELECT NonEmptyCrossJoin(
-                //       [Store].[USA].Children,
-                //       [Product].[Beer].Children)
-                //    FROM [Sales]
-                //    WHERE [Store].[Mexico]
-                //
-                // we want all beers, not just those sold in Mexico.
                 final int savepoint = evaluator.savepoint();
                 try {
-                    evaluator.setNonEmpty(true);
-                    for (Member member
-                        : ((RolapEvaluator) evaluator).getSlicerMembers())
-                    {
-                        if (getType().getElementType().usesHierarchy(
-                                member.getHierarchy(), true))
-                        {
-                            evaluator.setContext(
-                                member.getHierarchy().getAllMember());
-                        }
-                    }
+                    setNonEmptyContext(evaluator, getType());
 
                     NativeEvaluator nativeEvaluator =
                         schemaReader.getNativeSetEvaluator(
@@ -97,24 +130,69 @@ public class NonEmptyCrossJoinFunDef extends CrossJoinFunDef {
             }
 
             public boolean dependsOn(Hierarchy hierarchy) {
-                if (super.dependsOn(hierarchy)) {
-                    return true;
-                }
-                // Member calculations generate members, which mask the actual
-                // expression from the inherited context.
-                if (listCalc1.getType().usesHierarchy(hierarchy, true)) {
-                    return false;
-                }
-                if (listCalc2.getType().usesHierarchy(hierarchy, true)) {
-                    return false;
-                }
-                // The implicit value expression, executed to figure out
-                // whether a given tuple is empty, depends upon all dimensions.
-                return true;
+                return super.dependsOn(hierarchy)
+                    || argsDependOn(listCalc1, listCalc2, hierarchy);
             }
         };
     }
 
+    /**
+     * Sets up an evaluator to evaluate the arguments in non empty mode, and
+     * removes from the slicer any members that will be overridden by args to
+     * the NonEmptyCrossjoin function. For example, in
+     *
+     * <pre>
+     *   SELECT NonEmptyCrossJoin(
+     *       [Store].[USA].Children,
+     *       [Product].[Beer].Children)
+     *    FROM [Sales]
+     *    WHERE [Store].[Mexico]
+     * </pre>
+     *
+     * we want all beers, not just those sold in Mexico.
+     *
+     * @param evaluator Evaluator
+     * @param type Type of the call
+     */
+    private static void setNonEmptyContext(
+        Evaluator evaluator,
+        SetType type)
+    {
+        evaluator.setNonEmpty(true);
+        for (Member member
+            : ((RolapEvaluator) evaluator).getSlicerMembers())
+        {
+            if (type.getElementType().usesHierarchy(
+                    member.getHierarchy(), true))
+            {
+                evaluator.setContext(
+                    member.getHierarchy().getAllMember());
+            }
+        }
+    }
+
+    /**
+     * Returns whether a call to this function depends on a given hierarchy,
+     * other than through its arguments' own dependencies.
+     */
+    private static boolean argsDependOn(
+        ListCalc listCalc1,
+        ListCalc listCalc2,
+        Hierarchy hierarchy)
+    {
+        // Member calculations generate members, which mask the actual
+        // expression from the inherited context.
+        if (listCalc1.getType().usesHierarchy(hierarchy, true)) {
+            return false;
+        }
+        if (listCalc2.getType().usesHierarchy(hierarchy, true)) {
+            return false;
+        }
+        // The implicit value expression, executed to figure out
+        // whether a given tuple is empty, depends upon all dimensions.
+        return true;
+    }
+
 }
 
 // End NonEmptyCrossJoinFunDef.java
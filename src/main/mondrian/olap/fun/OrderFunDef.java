@@ -131,6 +131,7 @@ class OrderFunDef extends FunDefBase {
         extends AbstractListCalc
         implements CalcWithDual
     {
+        private final ResolvedFunCall call;
         private final IterCalc iterCalc;
         private final Calc sortKeyCalc;
         private final List<SortKeySpec> keySpecList;
@@ -144,6 +145,7 @@ class OrderFunDef extends FunDefBase {
         {
             super(call, calcList);
 //            assert iterCalc.getResultStyle() == ResultStyle.MUTABLE_LIST;
+            this.call = call;
             this.iterCalc = (IterCalc) calcList[0];
             this.sortKeyCalc = calcList[1];
             this.keySpecList = keySpecList;
@@ -198,6 +200,14 @@ class OrderFunDef extends FunDefBase {
         }
 
         public TupleList evaluateList(Evaluator evaluator) {
+            // Use a native evaluator, if more efficient.
+            if (originalKeySpecCount == 1) {
+                final TupleList nativeList =
+                    HeadTailFunDef.evaluateNative(call, evaluator, this);
+                if (nativeList != null) {
+                    return nativeList;
+                }
+            }
             final TupleIterable iterable =
                 iterCalc.evaluateIterable(evaluator);
             // REVIEW: If iterable happens to be a list, we'd like to pass it,
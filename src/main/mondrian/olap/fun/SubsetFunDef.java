@@ -34,9 +34,14 @@ class SubsetFunDef extends FunDefBase {
         super(dummyFunDef);
     }
 
-    public Calc compileCall(ResolvedFunCall call, ExpCompiler compiler) {
-        final ListCalc listCalc =
-            compiler.compileList(call.getArg(0));
+    public Calc compileCall(
+        final ResolvedFunCall call, ExpCompiler compiler)
+    {
+        // If streaming, read only the tuples up to the end of the subset.
+        final IterCalc iterCalc =
+            HeadTailFunDef.isStreaming()
+                ? compiler.compileIter(call.getArg(0))
+                : compiler.compileList(call.getArg(0));
         final IntegerCalc startCalc =
             compiler.compileInteger(call.getArg(1));
         final IntegerCalc countCalc =
@@ -44,19 +49,32 @@ class SubsetFunDef extends FunDefBase {
             ? compiler.compileInteger(call.getArg(2))
             : null;
         return new AbstractListCalc(
-            call, new Calc[] {listCalc, startCalc, countCalc})
+            call, new Calc[] {iterCalc, startCalc, countCalc})
         {
             public TupleList evaluateList(Evaluator evaluator) {
+                final TupleList nativeList =
+                    HeadTailFunDef.evaluateNative(call, evaluator, this);
+                if (nativeList != null) {
+                    return nativeList;
+                }
                 final int savepoint = evaluator.savepoint();
                 try {
                     evaluator.setNonEmpty(false);
-                    final TupleList list = listCalc.evaluateList(evaluator);
+                    final TupleIterable iterable =
+                        iterCalc.evaluateIterable(evaluator);
                     final int start = startCalc.evaluateInteger(evaluator);
+                    final TupleList list;
                     int end;
                     if (countCalc != null) {
                         final int count = countCalc.evaluateInteger(evaluator);
                         end = start + count;
+                        list =
+                            HeadTailFunDef.head(
+                                (int) Math.min(
+                                    (long) start + count, Integer.MAX_VALUE),
+                                iterable);
                     } else {
+                        list = TupleCollections.materialize(iterable, false);
                         end = list.size();
                     }
                     if (end > list.size()) {
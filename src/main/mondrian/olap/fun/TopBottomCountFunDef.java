@@ -58,6 +58,9 @@ class TopBottomCountFunDef extends FunDefBase {
     }
 
     public Calc compileCall(final ResolvedFunCall call, ExpCompiler compiler) {
+        if (call.getArgCount() == 2 && HeadTailFunDef.isStreaming()) {
+            return compileStreamingCall(call, compiler);
+        }
         // Compile the member list expression. Ask for a mutable list, because
         // we're going to sort it later.
         final ListCalc listCalc =
@@ -121,6 +124,15 @@ class TopBottomCountFunDef extends FunDefBase {
                 // normal case: no need for chunks
                 final int savepoint = evaluator.savepoint();
                 try {
+                    // Keep only the top n tuples in a heap of numeric keys;
+                    // if the keys are not numeric, sort by comparator.
+                    final TupleList topList =
+                        partiallySortByNumber(
+                            evaluator.push(), list, orderCalc, n, top);
+                    if (topList != null) {
+                        return topList;
+                    }
+                    evaluator.restore(savepoint);
                     switch (list.getArity()) {
                     case 1:
                         final List<Member> members =
@@ -149,6 +161,43 @@ class TopBottomCountFunDef extends FunDefBase {
             }
         };
     }
+
+    /**
+     * Compiles a call to {@code TopCount} or {@code BottomCount} that has no
+     * numeric expression, reading only the first {@code n} tuples of the
+     * set. Used when {@link HeadTailFunDef#isStreaming()}.
+     */
+    private Calc compileStreamingCall(
+        final ResolvedFunCall call, ExpCompiler compiler)
+    {
+        final IterCalc iterCalc = compiler.compileIter(call.getArg(0));
+        final IntegerCalc integerCalc =
+            compiler.compileInteger(call.getArg(1));
+        final int arity = call.getType().getArity();
+        return new AbstractListCalc(call, new Calc[]{iterCalc, integerCalc}) {
+            public TupleList evaluateList(Evaluator evaluator) {
+                SchemaReader schemaReader = evaluator.getSchemaReader();
+                NativeEvaluator nativeEvaluator =
+                    schemaReader.getNativeSetEvaluator(
+                        call.getFunDef(), call.getArgs(), evaluator, this);
+                if (nativeEvaluator != null) {
+                    return
+                        (TupleList) nativeEvaluator.execute(ResultStyle.LIST);
+                }
+
+                int n = integerCalc.evaluateInteger(evaluator);
+                if (n == 0 || n == mondrian.olap.fun.FunUtil.IntegerNull) {
+                    return TupleCollections.emptyList(arity);
+                }
+                return HeadTailFunDef.head(
+                    n, iterCalc.evaluateIterable(evaluator));
+            }
+
+            public boolean dependsOn(Hierarchy hierarchy) {
+                return anyDependsButFirst(getCalcs(), hierarchy);
+            }
+        };
+    }
 }
 
 // End TopBottomCountFunDef.java
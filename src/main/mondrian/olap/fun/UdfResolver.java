@@ -113,6 +113,17 @@ public class UdfResolver implements Resolver {
         return reservedWords == null ? emptyStringArray : reservedWords;
     }
 
+    /**
+     * Returns whether a function definition was created from a
+     * {@link UserDefinedFunction}.
+     *
+     * @param funDef Function definition
+     * @return Whether the function is user-defined
+     */
+    public static boolean isUserDefined(FunDef funDef) {
+        return funDef instanceof UdfFunDef;
+    }
+
     /**
      * Adapter which converts a {@link UserDefinedFunction} into a
      * {@link FunDef}.
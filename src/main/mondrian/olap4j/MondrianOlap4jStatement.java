@@ -143,6 +143,7 @@ abstract class MondrianOlap4jStatement
                 openCellSet = null;
                 c.close();
             }
+            releaseQuery();
         }
     }
 
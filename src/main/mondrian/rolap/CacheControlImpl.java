@@ -205,6 +205,51 @@ public class CacheControlImpl implements CacheControl {
             // Figure out the bits.
             flushNonUnion(cellRegion);
         }
+
+        // Discard cached query results that read the stars of the flushed
+        // measures. Do this after flushing cells, so that a query that
+        // starts in between does not cache a result computed from old cells.
+        final Set<RolapStar> stars = new HashSet<RolapStar>();
+        union.accept(
+            new CellRegionVisitorImpl() {
+                public void visit(MemberCellRegion region) {
+                    for (Member member : region.getMemberList()) {
+                        if (member instanceof RolapStoredMeasure) {
+                            stars.add(
+                                ((RolapStoredMeasure) member)
+                                    .getMeasureGroup().getStar());
+                        }
+                    }
+                }
+            });
+        final RolapResultCache resultCache =
+            connection.getServer().getResultCache();
+        if (stars.isEmpty()) {
+            resultCache.clear();
+        } else {
+            resultCache.flush(stars);
+        }
+    }
+
+    /**
+     * Discards all cached query results of this connection's server, because
+     * a schema has been flushed.
+     */
+    private void flushResultCache() {
+        if (connection != null) {
+            connection.getServer().getResultCache().clear();
+        }
+    }
+
+    /**
+     * Discards all cached compiled queries of this connection's schema,
+     * because members have been flushed or modified, and compiled queries
+     * may refer to them.
+     */
+    private void flushQueryPlanCache() {
+        if (connection != null) {
+            connection.getSchema().getQueryPlanCache().clear();
+        }
     }
 
     /**
@@ -258,6 +303,7 @@ public class CacheControlImpl implements CacheControl {
 
     public void flushSchemaCache() {
         RolapSchemaPool.instance().clear();
+        flushResultCache();
         // In some cases, the request might originate from a reference
         // to the schema which isn't in the pool anymore. We must also call
         // the cleanup procedure on the current connection.
@@ -281,6 +327,7 @@ public class CacheControlImpl implements CacheControl {
             connectionKey,
             jdbcUser,
             dataSourceStr);
+        flushResultCache();
     }
 
     // todo: document
@@ -292,6 +339,7 @@ public class CacheControlImpl implements CacheControl {
             catalogUrl,
             null, // dialectClassName
             dataSource);
+        flushResultCache();
     }
 
     /**
@@ -302,6 +350,7 @@ public class CacheControlImpl implements CacheControl {
     public void flushSchema(Schema schema) {
         if (RolapSchema.class.isInstance(schema)) {
             RolapSchemaPool.instance().remove((RolapSchema)schema);
+            flushResultCache();
         } else {
             throw new UnsupportedOperationException(
                 schema.getClass().getName() + " cannot be flushed");
@@ -674,6 +723,7 @@ public class CacheControlImpl implements CacheControl {
 
             // finally, flush cells now invalid
             flushRegionList(cellRegionList);
+            flushQueryPlanCache();
         }
     }
 
@@ -859,6 +909,7 @@ public class CacheControlImpl implements CacheControl {
                 final List<CellRegion> cellRegionList =
                     new ArrayList<CellRegion>();
                 ((MemberEditCommandPlus) cmd).execute(cellRegionList);
+                flushQueryPlanCache();
 
                 // Flush the cells touched by the regions
                 for (CellRegion memberRegion : cellRegionList) {
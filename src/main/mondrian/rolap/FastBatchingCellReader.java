@@ -18,13 +18,19 @@ import mondrian.rolap.cache.SegmentCacheIndex;
 import mondrian.rolap.cache.SegmentCacheIndexImpl;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
+import mondrian.server.monitor.CellCacheEvent;
+import mondrian.server.monitor.CellCacheRollupDecisionEvent;
+import mondrian.server.monitor.CellCacheSegmentCoalesceEvent;
 import mondrian.spi.*;
 import mondrian.util.*;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.MDC;
 
+import java.lang.ref.SoftReference;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 /**
@@ -84,6 +90,38 @@ public class FastBatchingCellReader implements CellReader {
 
     private final Execution execution;
 
+    /**
+     * Segments that this reader has registered in its thread's local cache,
+     * by header. Lets other threads that evaluate cells for the same query
+     * register them too. Soft references, like the local cache itself.
+     * Guarded by itself.
+     */
+    private final Map<SegmentHeader, SoftReference<SegmentWithData>>
+        registeredSegments =
+            new HashMap<SegmentHeader, SoftReference<SegmentWithData>>();
+
+    /**
+     * Number of cell requests after which they are sent to the cache manager
+     * without waiting for the end of the phase, or 0 if requests are only
+     * sent at the end of the phase.
+     *
+     * @see MondrianProperties#SegmentLoadPipelineSize
+     */
+    private final int pipelineSize;
+
+    /**
+     * Number of requests at the start of {@link #cellRequests} that have
+     * already been sent to the cache manager.
+     */
+    private int dispatchedCount;
+
+    /**
+     * Responses to batches sent before the end of the phase. Their SQL
+     * statements run while the evaluator carries on requesting cells.
+     */
+    private final List<BatchLoader.LoadBatchResponse> dispatchedResponses =
+        new ArrayList<BatchLoader.LoadBatchResponse>();
+
     /**
      * Creates a FastBatchingCellReader.
      *
@@ -110,6 +148,10 @@ public class FastBatchingCellReader implements CellReader {
             MondrianProperties.instance().CellBatchSize.get() <= 0
                 ? 100000 // TODO Make this logic into a pluggable algorithm.
                 : MondrianProperties.instance().CellBatchSize.get();
+        pipelineSize =
+            Math.max(
+                MondrianProperties.instance().SegmentLoadPipelineSize.get(),
+                0);
     }
 
     public Object get(RolapEvaluator evaluator) {
@@ -137,7 +179,7 @@ public class FastBatchingCellReader implements CellReader {
         if (cacheEnabled && missCount == 0) {
             SegmentWithData segmentWithData = cacheMgr.peek(request);
             if (segmentWithData != null) {
-                segmentWithData.getStar().register(segmentWithData);
+                register(segmentWithData);
                 final Object o2 =
                     aggMgr.getCellFromCache(request, pinnedSegments);
                 if (o2 != null) {
@@ -169,6 +211,11 @@ public class FastBatchingCellReader implements CellReader {
         assert !request.isUnsatisfiable();
         ++missCount;
         cellRequests.add(request);
+        if (pipelineSize > 0
+            && cellRequests.size() - dispatchedCount >= pipelineSize)
+        {
+            dispatch();
+        }
         if (cellRequests.size() % cellRequestLimit == 0) {
             // Signal that it's time to ask the cache manager if it has cells
             // we need in the cache. Not really an exception.
@@ -176,6 +223,131 @@ public class FastBatchingCellReader implements CellReader {
         }
     }
 
+    /**
+     * Sends the requests recorded since the last dispatch to the cache
+     * manager. The cache manager starts any SQL statements needed to load
+     * them and returns at once; {@link #loadAggregations()} waits for the
+     * statements to finish.
+     */
+    private void dispatch() {
+        final List<CellRequest> requests =
+            new ArrayList<CellRequest>(
+                cellRequests.subList(dispatchedCount, cellRequests.size()));
+        dispatchedCount = cellRequests.size();
+        Counters.PIPELINED_DISPATCH_COUNT.incrementAndGet();
+        dispatchedResponses.add(
+            cacheMgr.execute(
+                new BatchLoader.LoadBatchCommand(
+                    Locus.peek(),
+                    cacheMgr,
+                    getDialect(),
+                    cube,
+                    Collections.unmodifiableList(requests))));
+    }
+
+    /**
+     * Waits for the segments of batches that were sent before the end of the
+     * phase, and registers them in the local cache.
+     *
+     * <p>Segments that the cache manager found in cache, or that need to be
+     * rolled up, are not handled here; the requests they would satisfy remain
+     * outstanding, and {@link #loadAggregations()} sends them again.
+     */
+    private void loadDispatchedBatches() {
+        for (BatchLoader.LoadBatchResponse response : dispatchedResponses) {
+            for (Map.Entry<SegmentHeader, Future<SegmentBody>> entry
+                : response.futures.entrySet())
+            {
+                final SegmentBody body = Util.safeGet(
+                    entry.getValue(),
+                    "Waiting for someone else's segment to load via SQL");
+                register(response.convert(entry.getKey(), body));
+            }
+            for (Future<Map<Segment, SegmentWithData>> sqlSegmentMapFuture
+                : response.sqlSegmentMapFutures)
+            {
+                final Map<Segment, SegmentWithData> segmentMap =
+                    Util.safeGet(
+                        sqlSegmentMapFuture,
+                        "Waiting for segment to load via SQL");
+                for (SegmentWithData segmentWithData : segmentMap.values()) {
+                    register(segmentWithData);
+                }
+            }
+        }
+        dispatchedResponses.clear();
+    }
+
+    /**
+     * Registers a segment in the local cache of the current thread, and
+     * remembers it for {@link #registerSegments()}.
+     */
+    private void register(SegmentWithData segmentWithData) {
+        segmentWithData.getStar().register(segmentWithData);
+        synchronized (registeredSegments) {
+            // A segment loaded again (say, after a flush) replaces the
+            // previous one.
+            registeredSegments.put(
+                segmentWithData.getHeader(),
+                new SoftReference<SegmentWithData>(segmentWithData));
+        }
+    }
+
+    /**
+     * Registers, in the local cache of the current thread, the segments that
+     * this reader has loaded. Called from a thread that evaluates cells on
+     * behalf of the thread that owns this reader, so that it sees the cells
+     * loaded by previous phases.
+     */
+    void registerSegments() {
+        final List<SegmentWithData> list = new ArrayList<SegmentWithData>();
+        synchronized (registeredSegments) {
+            // Prune segments that have been garbage-collected.
+            for (Iterator<SoftReference<SegmentWithData>> iterator =
+                     registeredSegments.values().iterator();
+                 iterator.hasNext();)
+            {
+                final SegmentWithData segmentWithData =
+                    iterator.next().get();
+                if (segmentWithData == null) {
+                    iterator.remove();
+                } else {
+                    list.add(segmentWithData);
+                }
+            }
+        }
+        for (SegmentWithData segmentWithData : list) {
+            segmentWithData.getStar().register(segmentWithData);
+        }
+    }
+
+    /**
+     * Adds the cell requests and statistics collected by another reader to
+     * this reader. The other reader evaluated part of the same query in
+     * another thread; its requests are loaded by this reader's next call to
+     * {@link #loadAggregations()}.
+     *
+     * <p>Unlike {@link #recordCellRequest(CellRequest)}, never throws
+     * {@link CellRequestQuantumExceededException}.
+     *
+     * @param reader Reader whose requests to add
+     */
+    void merge(FastBatchingCellReader reader) {
+        cellRequests.addAll(reader.cellRequests);
+        dispatchedResponses.addAll(reader.dispatchedResponses);
+        reader.dispatchedResponses.clear();
+        reader.dispatchedCount = 0;
+        missCount += reader.missCount;
+        hitCount += reader.hitCount;
+        pendingCount += reader.pendingCount;
+        dirty |= reader.dirty;
+        reader.cellRequests.clear();
+        reader.missCount = 0;
+        reader.hitCount = 0;
+        reader.pendingCount = 0;
+        reader.dirty = false;
+    }
+
     /**
      * Returns whether this reader has told a lie. This is the case if there
      * are pending batches to load or if {@link #setDirty(boolean)} has been
@@ -235,6 +407,29 @@ public class FastBatchingCellReader implements CellReader {
         final List<CellRequest> cellRequests1 =
             new ArrayList<CellRequest>(cellRequests);
 
+        // If batches were sent while cells were being requested, their SQL
+        // has been running meanwhile. Wait for it, then ask the cache manager
+        // only for the cells that are still missing.
+        if (!dispatchedResponses.isEmpty()) {
+            loadDispatchedBatches();
+            for (Iterator<CellRequest> iterator = cellRequests1.iterator();
+                iterator.hasNext();)
+            {
+                final CellRequest cellRequest = iterator.next();
+                if (cellRequest.getMeasure().getStar()
+                    .getCellFromCache(cellRequest, null) != null)
+                {
+                    iterator.remove();
+                }
+            }
+            if (cellRequests1.isEmpty()) {
+                dirty = false;
+                cellRequests.clear();
+                dispatchedCount = 0;
+                return true;
+            }
+        }
+
         for (int iteration = 0;; ++iteration) {
             final BatchLoader.LoadBatchResponse response =
                 cacheMgr.execute(
@@ -273,7 +468,7 @@ public class FastBatchingCellReader implements CellReader {
                 headerBodies.put(header, body);
                 final SegmentWithData segmentWithData =
                     response.convert(header, body);
-                segmentWithData.getStar().register(segmentWithData);
+                register(segmentWithData);
             }
 
             // Perform each suggested rollup.
@@ -324,7 +519,7 @@ public class FastBatchingCellReader implements CellReader {
                     response.convert(header, body);
 
                 // Register this segment with the local star.
-                segmentWithData.getStar().register(segmentWithData);
+                register(segmentWithData);
 
                 // Make sure that the cache manager knows about this new
                 // segment. First thing we do is to add it to the index.
@@ -334,7 +529,7 @@ public class FastBatchingCellReader implements CellReader {
                 if (!MondrianProperties.instance().DisableCaching.get()) {
                     final Locus locus = Locus.peek();
                     cacheMgr.execute(
-                        new SegmentCacheManager.Command<Void>() {
+                        new SegmentCacheManager.StarCommand<Void>() {
                             public Void call() throws Exception {
                                 SegmentCacheIndex index =
                                     cacheMgr.getIndexRegistry()
@@ -351,6 +546,10 @@ public class FastBatchingCellReader implements CellReader {
                                 }
                                 return null;
                             }
+                            public Collection<RolapStar> getStars() {
+                                return Collections.singletonList(
+                                    segmentWithData.getStar());
+                            }
                             public Locus getLocus() {
                                 return locus;
                             }
@@ -381,7 +580,7 @@ public class FastBatchingCellReader implements CellReader {
                         "Waiting for someone else's segment to load via SQL");
                     final SegmentWithData segmentWithData =
                         response.convert(header, body);
-                    segmentWithData.getStar().register(segmentWithData);
+                    register(segmentWithData);
                 }
 
                 // Wait on segments being loaded by SQL statements we asked for.
@@ -394,7 +593,7 @@ public class FastBatchingCellReader implements CellReader {
                             "Waiting for segment to load via SQL");
                     for (SegmentWithData segmentWithData : segmentMap.values())
                     {
-                        segmentWithData.getStar().register(segmentWithData);
+                        register(segmentWithData);
                     }
                     // TODO: also pass back SegmentHeader and SegmentBody,
                     // and add these to headerBodies. Might help?
@@ -441,6 +640,7 @@ public class FastBatchingCellReader implements CellReader {
 
         dirty = false;
         cellRequests.clear();
+        dispatchedCount = 0;
         return true;
     }
 
@@ -467,7 +667,8 @@ public class FastBatchingCellReader implements CellReader {
             final Map<SegmentHeader, SegmentBody> map =
                 new HashMap<SegmentHeader, SegmentBody>();
             for (SegmentHeader header : headers) {
-                SegmentBody body = loadSegmentFromCache(headerBodies, header);
+                SegmentBody body =
+                    loadSegmentFromCache(headerBodies, rollup, header);
                 if (body == null) {
                     // To proceed with a candidate, require all headers to
                     // be in cache.
@@ -482,12 +683,34 @@ public class FastBatchingCellReader implements CellReader {
 
     private SegmentBody loadSegmentFromCache(
         Map<SegmentHeader, SegmentBody> headerBodies,
+        BatchLoader.RollupInfo rollup,
         SegmentHeader header)
     {
         SegmentBody body = headerBodies.get(header);
         if (body != null) {
             return body;
         }
+        final Future<SegmentBody> future = rollup.futures.get(header);
+        if (future != null) {
+            // Segment is being loaded on behalf of another request. Wait for
+            // it rather than issue SQL. Do not remove the header from the
+            // index if it is not in the cache yet; it will be soon.
+            try {
+                body = future.get();
+            } catch (InterruptedException e) {
+                throw Util.newError(e, "Waiting for segment to load via SQL");
+            } catch (ExecutionException e) {
+                // The load failed; its owner has removed the header from the
+                // index. Try another candidate.
+                return null;
+            } catch (CancellationException e) {
+                // The execution that owned the load was canceled. Try
+                // another candidate.
+                return null;
+            }
+            headerBodies.put(header, body);
+            return body;
+        }
         body = cacheMgr.compositeCache.get(header);
         if (body == null) {
             RolapStar star = cube.getSchema()
@@ -528,6 +751,12 @@ class BatchLoader {
     private static final Logger LOGGER =
         Logger.getLogger(FastBatchingCellReader.class);
 
+    /**
+     * Fixed cost of executing a SQL statement, expressed as a number of
+     * rows, used when deciding whether to roll up.
+     */
+    private static final long SQL_STATEMENT_COST = 10000;
+
     private final Locus locus;
     private final SegmentCacheManager cacheMgr;
     private final Dialect dialect;
@@ -549,6 +778,13 @@ class BatchLoader {
     private final Map<List, SegmentBuilder.SegmentConverter> converterMap =
         new HashMap<List, SegmentBuilder.SegmentConverter>();
 
+    /**
+     * Loads, already in flight on behalf of other requests, that this batch
+     * will wait for rather than issuing SQL. Segments that differ only in
+     * measure are loaded by the same SQL statement, so are counted once.
+     */
+    private final Set<List> coalescedLoads = new HashSet<List>();
+
     public BatchLoader(
         Locus locus,
         SegmentCacheManager cacheMgr,
@@ -651,6 +887,9 @@ class BatchLoader {
                 // Segment header is in cache, body is being loaded. Worker will
                 // need to wait for load to complete.
                 futures.put(headerInCache, future);
+                if (!future.isDone()) {
+                    recordCoalescedLoad(index, headerInCache);
+                }
             } else {
                 // Segment is in cache.
                 cacheHeaders.add(headerInCache);
@@ -704,11 +943,27 @@ class BatchLoader {
                     AggregationKey.getCompoundPredicateStringList(
                         star,
                         key.getCompoundPredicateList()));
-            if (!rollup.isEmpty()) {
+            if (!rollup.isEmpty() && chooseRollup(request, rollup)) {
+                // Some candidates may still be loading on behalf of another
+                // request. Rather than issuing SQL, the worker will wait for
+                // them.
+                final Map<SegmentHeader, Future<SegmentBody>> rollupFutures =
+                    new HashMap<SegmentHeader, Future<SegmentBody>>();
+                for (List<SegmentHeader> candidateList : rollup) {
+                    for (SegmentHeader header : candidateList) {
+                        final Future<SegmentBody> future =
+                            index.getFuture(locus.execution, header);
+                        if (future != null && !future.isDone()) {
+                            rollupFutures.put(header, future);
+                            recordCoalescedLoad(index, header);
+                        }
+                    }
+                }
                 rollups.add(
                     new RollupInfo(
                         request,
-                        rollup));
+                        rollup,
+                        rollupFutures));
                 rollupBitmaps.add(request.getConstrainedColumnsBitKey());
                 converterMap.put(
                     SegmentCacheIndexImpl.makeConverterKey(request, key),
@@ -721,6 +976,122 @@ class BatchLoader {
         return false;
     }
 
+    /**
+     * Records that this batch will wait for a segment that is loading,
+     * unless it is loading on behalf of this batch's own execution.
+     */
+    private void recordCoalescedLoad(
+        SegmentCacheIndex index,
+        SegmentHeader header)
+    {
+        if (index.getLoadingExecution(header) == locus.execution) {
+            return;
+        }
+        coalescedLoads.add(
+            Arrays.asList(
+                header.rolapStarFactTableName,
+                header.getConstrainedColumnsBitKey(),
+                header.getConstrainedColumns(),
+                header.getExcludedRegions(),
+                header.compoundPredicates));
+    }
+
+    /**
+     * Decides whether to satisfy a cell request by rolling up segments in the
+     * cache or by SQL, and records the decision in the monitor.
+     *
+     * <p>The cost of a rollup is the number of cells in the first list of
+     * candidate segments, estimated from the number of values of each column
+     * of their headers. (For unconstrained columns, this is the cardinality
+     * reported by the statistics provider when the segment was created.) No
+     * segment holds more cells than the fact table has rows, so the estimate
+     * is capped there.</p>
+     *
+     * <p>The cost of SQL is the number of rows in the smallest aggregate
+     * table that can satisfy the request, or in the fact table, plus a fixed
+     * overhead for executing a statement.</p>
+     *
+     * @param request Cell request
+     * @param candidateLists Lists of segments that can be rolled up
+     * @return Whether to roll up
+     *
+     * @see MondrianProperties#RollupSqlCostRatio
+     */
+    private boolean chooseRollup(
+        CellRequest request,
+        List<List<SegmentHeader>> candidateLists)
+    {
+        final double ratio =
+            MondrianProperties.instance().RollupSqlCostRatio.get();
+        if (ratio <= 0) {
+            return true;
+        }
+        final RolapStar star = request.getMeasure().getStar();
+        final long factRowCount =
+            star.getFactTable().getRelation().getRowCount();
+        if (factRowCount <= 0) {
+            // No statistics. Roll up, as we always used to.
+            return true;
+        }
+        long rollupCost = 0;
+        for (SegmentHeader header : candidateLists.get(0)) {
+            long cellCount = 1;
+            for (SegmentColumn column : header.getConstrainedColumns()) {
+                cellCount *= Math.max(
+                    1,
+                    column.values == null
+                        ? column.valueCount
+                        : column.values.size());
+                if (cellCount >= factRowCount) {
+                    break;
+                }
+            }
+            rollupCost += Math.min(cellCount, factRowCount);
+        }
+
+        long sqlRowCount = factRowCount;
+        final BitKey levelBitKey = request.getConstrainedColumnsBitKey();
+        final BitKey measureBitKey = levelBitKey.emptyCopy();
+        measureBitKey.set(request.getMeasure().getBitPosition());
+        final AggStar aggStar =
+            AggregationManager.findAgg(
+                star, levelBitKey, measureBitKey, new boolean[1]);
+        if (aggStar != null) {
+            final int aggRowCount = aggStar.getAggFactTable().getNumberOfRows();
+            if (aggRowCount > 0) {
+                sqlRowCount = Math.min(sqlRowCount, aggRowCount);
+            }
+        }
+        final long sqlCost = sqlRowCount + SQL_STATEMENT_COST;
+
+        final boolean useRollup = rollupCost <= ratio * sqlCost;
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(
+                "Rollup cost " + rollupCost + ", SQL cost " + sqlCost
+                + (aggStar == null
+                    ? ""
+                    : " (agg table "
+                        + aggStar.getAggFactTable().getName() + ")")
+                + "; " + (useRollup ? "rolling up" : "using SQL")
+                + " for " + request);
+        }
+        final MondrianServer server = locus.getServer();
+        server.getMonitor().sendEvent(
+            new CellCacheRollupDecisionEvent(
+                System.currentTimeMillis(),
+                server.getId(),
+                locus.execution.getMondrianStatement()
+                    .getMondrianConnection().getId(),
+                locus.execution.getMondrianStatement().getId(),
+                locus.execution.getId(),
+                rollupCost,
+                sqlCost,
+                useRollup
+                    ? CellCacheEvent.Source.ROLLUP
+                    : CellCacheEvent.Source.SQL));
+        return useRollup;
+    }
+
       /**
        * Checks if the request can be satisfied by a rollup already in place
        * and moves that rollup to the top of the list if not there.
@@ -889,6 +1260,24 @@ class BatchLoader {
             LOGGER.debug("load (millis): " + (t2 - t1));
         }
 
+        if (!coalescedLoads.isEmpty()) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(
+                    "Waiting for " + coalescedLoads.size()
+                    + " in-flight loads instead of issuing SQL");
+            }
+            final MondrianServer server = locus.getServer();
+            server.getMonitor().sendEvent(
+                new CellCacheSegmentCoalesceEvent(
+                    System.currentTimeMillis(),
+                    server.getId(),
+                    locus.execution.getMondrianStatement()
+                        .getMondrianConnection().getId(),
+                    locus.execution.getMondrianStatement().getId(),
+                    locus.execution.getId(),
+                    coalescedLoads.size()));
+        }
+
         // Create a response and return it to the client. The response is a
         // bunch of work to be done (waiting for segments to load from SQL, to
         // come from cache, and so forth) on the client's time. Some of the bets
@@ -904,6 +1293,28 @@ class BatchLoader {
     }
 
     static List<Loadable> groupBatches(List<Batch> batchList) {
+        return groupBatches(
+            batchList,
+            MondrianProperties.instance().MaxGroupingSets.get());
+    }
+
+    /**
+     * Groups batches that can be read using one GROUPING SETS statement.
+     *
+     * <p>A composite batch holds a detailed batch and the batches that can be
+     * rolled up from it. If a composite batch would have more than
+     * {@code maxGroupingSets} grouping sets, the excess summary batches are
+     * grouped among themselves, and read in further statements.
+     *
+     * @param batchList List of batches; modified
+     * @param maxGroupingSets Maximum number of grouping sets per statement,
+     *   or 0 for no limit
+     * @return List of batches and composite batches to load
+     */
+    static List<Loadable> groupBatches(
+        List<Batch> batchList,
+        int maxGroupingSets)
+    {
         Map<AggregationKey, CompositeBatch> batchGroups =
             new HashMap<AggregationKey, CompositeBatch>();
         for (int i = 0; i < batchList.size(); i++) {
@@ -925,7 +1336,9 @@ class BatchLoader {
         }
 
         final List<Loadable> loadables = new ArrayList<Loadable>();
-        loadables.addAll(batchGroups.values());
+        for (CompositeBatch compositeBatch : batchGroups.values()) {
+            addCompositeBatch(loadables, compositeBatch, maxGroupingSets);
+        }
         for (Batch batch : batchList) {
             if (batchGroups.get(batch.batchKey) == null) {
                 loadables.add(batch);
@@ -935,6 +1348,38 @@ class BatchLoader {
         return loadables;
     }
 
+    /**
+     * Adds a composite batch to a list of batches to load, splitting it if it
+     * has more than {@code maxGroupingSets} grouping sets.
+     */
+    private static void addCompositeBatch(
+        List<Loadable> loadables,
+        CompositeBatch compositeBatch,
+        int maxGroupingSets)
+    {
+        final List<Batch> summaryBatches = compositeBatch.summaryBatches;
+        if (maxGroupingSets <= 0
+            || summaryBatches.size() < maxGroupingSets)
+        {
+            loadables.add(compositeBatch);
+            return;
+        }
+        // Keep the summary batches with the most columns with the detailed
+        // batch, and group the rest anew; batches with fewer columns are more
+        // likely to be rolled up from one another.
+        Collections.sort(summaryBatches, Collections.<Loadable>reverseOrder());
+        final List<Batch> overflowList =
+            summaryBatches.subList(
+                Math.max(maxGroupingSets - 1, 0), summaryBatches.size());
+        final List<Batch> excessBatches = new ArrayList<Batch>(overflowList);
+        overflowList.clear();
+        loadables.add(
+            summaryBatches.isEmpty()
+                ? compositeBatch.detailedBatch
+                : compositeBatch);
+        loadables.addAll(groupBatches(excessBatches, maxGroupingSets));
+    }
+
     static void addToCompositeBatch(
         Map<AggregationKey, CompositeBatch> batchGroups,
         Batch detailedBatch,
@@ -962,7 +1407,7 @@ class BatchLoader {
      * requests. Returns the collection of segments.
      */
     public static class LoadBatchCommand
-        implements SegmentCacheManager.Command<LoadBatchResponse>
+        implements SegmentCacheManager.StarCommand<LoadBatchResponse>
     {
         private final Locus locus;
         private final SegmentCacheManager cacheMgr;
@@ -999,6 +1444,23 @@ class BatchLoader {
                 .load(cellRequests);
         }
 
+        public Collection<RolapStar> getStars() {
+            if (cube == null) {
+                return null;
+            }
+            // Batches may be pulled up to any star in the cube's galaxy, so
+            // we need the stars of all measure groups, not just the stars of
+            // the cell requests.
+            final Set<RolapStar> stars = new LinkedHashSet<RolapStar>();
+            for (RolapMeasureGroup measureGroup : cube.getMeasureGroups()) {
+                stars.add(measureGroup.getStar());
+            }
+            for (CellRequest cellRequest : cellRequests) {
+                stars.add(cellRequest.getMeasure().getStar());
+            }
+            return stars;
+        }
+
         public Locus getLocus() {
             return locus;
         }
@@ -1080,12 +1542,20 @@ class BatchLoader {
         final BitKey constrainedColumnsBitKey;
         final RolapStar.Measure measure;
         final List<List<SegmentHeader>> candidateLists;
+        /**
+         * Candidate segments that are being loaded on behalf of other
+         * requests. The worker waits for these rather than looking for them
+         * in the cache.
+         */
+        final Map<SegmentHeader, Future<SegmentBody>> futures;
 
         RollupInfo(
             CellRequest request,
-            List<List<SegmentHeader>> candidateLists)
+            List<List<SegmentHeader>> candidateLists,
+            Map<SegmentHeader, Future<SegmentBody>> futures)
         {
             this.candidateLists = candidateLists;
+            this.futures = futures;
             constrainedColumns = request.getConstrainedColumns();
             constrainedColumnsBitKey = request.getConstrainedColumnsBitKey();
             measure = request.getMeasure();
@@ -11,7 +11,9 @@
 */
 package mondrian.rolap;
 
+import mondrian.olap.MondrianProperties;
 import mondrian.olap.Util;
+import mondrian.rolap.cache.LruSmartCache;
 import mondrian.rolap.cache.SmartCache;
 import mondrian.rolap.cache.SoftSmartCache;
 import mondrian.rolap.sql.MemberChildrenConstraint;
@@ -43,19 +45,58 @@ public class MemberCacheHelper implements MemberCache {
     final SmartMemberListCache<RolapLevel, List<RolapMember>>
         mapLevelToMembers;
 
+    /** Weighs a member in a bounded cache. */
+    private static final LruSmartCache.Weigher<RolapMember> MEMBER_WEIGHER =
+        new LruSmartCache.Weigher<RolapMember>() {
+            public int weigh(RolapMember value) {
+                return 1;
+            }
+        };
+
+    /** Weighs a list of members in a bounded cache by its length. An empty
+     * list, which records that a member has no children, weighs 1. */
+    private static final LruSmartCache.Weigher<List<RolapMember>>
+        LIST_WEIGHER =
+        new LruSmartCache.Weigher<List<RolapMember>>() {
+            public int weigh(List<RolapMember> value) {
+                return Math.max(1, value.size());
+            }
+        };
+
     /**
      * Creates a MemberCacheHelper.
      *
+     * <p>If {@link MondrianProperties#MemberCacheMaxWeight} is positive, the
+     * caches hold at most that many members each, and evict the
+     * least-recently-used entries; otherwise they hold soft references.
+     *
      * @param rolapHierarchy Hierarchy
      */
     public MemberCacheHelper(RolapCubeHierarchy rolapHierarchy) {
         this.rolapHierarchy = rolapHierarchy;
-        this.mapLevelToMembers =
-            new SmartMemberListCache<RolapLevel, List<RolapMember>>();
-        this.mapKeyToMember =
-            new SoftSmartCache<Pair<RolapCubeLevel, Object>, RolapMember>();
-        this.mapMemberToChildren =
-            new SmartMemberListCache<RolapMember, List<RolapMember>>();
+        final int maxWeight =
+            MondrianProperties.instance().MemberCacheMaxWeight.get();
+        if (maxWeight > 0) {
+            this.mapLevelToMembers =
+                new SmartMemberListCache<RolapLevel, List<RolapMember>>(
+                    new LruSmartCache<Pair<RolapLevel, Object>,
+                        List<RolapMember>>(LIST_WEIGHER, maxWeight));
+            this.mapKeyToMember =
+                new LruSmartCache<Pair<RolapCubeLevel, Object>, RolapMember>(
+                    MEMBER_WEIGHER, maxWeight);
+            this.mapMemberToChildren =
+                new SmartMemberListCache<RolapMember, List<RolapMember>>(
+                    new LruSmartCache<Pair<RolapMember, Object>,
+                        List<RolapMember>>(LIST_WEIGHER, maxWeight));
+        } else {
+            this.mapLevelToMembers =
+                new SmartMemberListCache<RolapLevel, List<RolapMember>>();
+            this.mapKeyToMember =
+                new SoftSmartCache<Pair<RolapCubeLevel, Object>,
+                    RolapMember>();
+            this.mapMemberToChildren =
+                new SmartMemberListCache<RolapMember, List<RolapMember>>();
+        }
     }
 
     // implement MemberCache
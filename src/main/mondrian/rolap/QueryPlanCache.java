@@ -0,0 +1,257 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.*;
+import mondrian.rolap.cache.LruSmartCache;
+import mondrian.rolap.cache.SmartCache;
+import mondrian.server.Statement;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of parsed, validated and compiled MDX queries, so that a statement
+ * that executes the same MDX as an earlier statement does not need to parse,
+ * validate and compile it again.
+ *
+ * <p>Each {@link RolapSchema} has one. A query is reused by a statement that
+ * has the same MDX text, {@link Role}, locale and values of the properties
+ * that affect how a query is validated and compiled (see
+ * {@link #compileSettings()}); for example,
+ * {@link MondrianProperties#CaseSensitive} and
+ * {@link MondrianProperties#EnableNativeCrossJoin}. The cache holds at most
+ * {@link MondrianProperties#QueryPlanCacheMaxSize} queries, and evicts the
+ * least-recently-used; if the limit is 0, the cache is disabled.</p>
+ *
+ * <p>A {@link Query} holds state for the execution in progress (its
+ * statement, evaluation cache and parameter values) alongside its compiled
+ * expressions, so it cannot be used by two statements at once. The cache
+ * therefore holds only idle queries. {@link #checkOut} removes a query from
+ * the cache and binds it to a statement, resetting its parameters;
+ * {@link #checkIn} returns it when that statement is closed or moves on to
+ * another query, and every {@link Result} of the query has been closed.</p>
+ *
+ * <p>The cache holds at most one idle query for each key. If several
+ * statements execute the same MDX at the same time, only the first gets the
+ * cached query; the others parse their own, and when they finish, each
+ * replaces the idle query for that key.</p>
+ *
+ * <p>A query that has been modified after parsing (for example, by adding a
+ * formula) is not returned to the cache. Flushing members discards all
+ * cached queries, because compiled expressions refer to members.</p>
+ */
+public class QueryPlanCache {
+    private SmartCache<Key, Query> cache;
+    private int maxSize;
+
+    /**
+     * Number of flushes. A key records the count when it is created, and a
+     * query is returned to the cache only if the count has not changed.
+     */
+    private final AtomicLong flushCount = new AtomicLong();
+
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    /**
+     * Creates a QueryPlanCache.
+     */
+    public QueryPlanCache() {
+    }
+
+    /**
+     * Returns the cache, creating or discarding it if the
+     * {@link MondrianProperties#QueryPlanCacheMaxSize} property has changed;
+     * null if the cache is disabled.
+     */
+    private synchronized SmartCache<Key, Query> getCache() {
+        final int maxSize =
+            MondrianProperties.instance().QueryPlanCacheMaxSize.get();
+        if (maxSize != this.maxSize) {
+            this.maxSize = maxSize;
+            this.cache =
+                maxSize > 0
+                    ? new LruSmartCache<Key, Query>(QUERY_WEIGHER, maxSize)
+                    : null;
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the key under which to cache a query parsed by a connection,
+     * or null if the cache is disabled.
+     *
+     * @param connection Connection
+     * @param mdx MDX text
+     * @return Key, or null
+     */
+    public Key key(RolapConnection connection, String mdx) {
+        if (getCache() == null) {
+            return null;
+        }
+        return new Key(
+            connection.getRole(),
+            connection.getLocale(),
+            compileSettings(),
+            mdx,
+            flushCount.get());
+    }
+
+    /**
+     * Returns the values of the properties that affect how a query is
+     * validated and compiled. A query parsed under different values must not
+     * be reused, so these values are part of the key.
+     */
+    private static List<Object> compileSettings() {
+        final MondrianProperties props = MondrianProperties.instance();
+        return Arrays.<Object>asList(
+            props.IgnoreInvalidMembersDuringQuery.get(),
+            props.CaseSensitive.get(),
+            props.NeedDimensionPrefix.get(),
+            props.EnableNonEmptyOnAllAxis.get(),
+            props.ExpandNonNative.get(),
+            props.EnableNativeCrossJoin.get(),
+            props.EnableNativeFilter.get(),
+            props.EnableNativeNonEmpty.get(),
+            props.EnableNativeOrder.get(),
+            props.EnableNativeTopCount.get());
+    }
+
+    /**
+     * Removes an idle query from the cache, counting a hit or miss, and binds
+     * it to a statement.
+     *
+     * @param key Key
+     * @param statement Statement that will execute the query
+     * @return Query, or null if there is no idle query with the given key
+     */
+    public Query checkOut(Key key, Statement statement) {
+        final SmartCache<Key, Query> cache = getCache();
+        final Query query = cache == null ? null : cache.remove(key);
+        if (query == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        query.rebind(statement);
+        return query;
+    }
+
+    /**
+     * Returns a query to the cache, unless there has been a flush since its
+     * key was created.
+     *
+     * @param query Query that is no longer used by any statement
+     */
+    public void checkIn(Query query) {
+        final Key key = query.getPlanKey();
+        final SmartCache<Key, Query> cache = getCache();
+        if (key == null || cache == null) {
+            return;
+        }
+        synchronized (this) {
+            // Holding the lock, so that a flush cannot intervene between the
+            // check and the put.
+            if (key.flushCount == flushCount.get()) {
+                cache.put(key, query);
+            }
+        }
+    }
+
+    /**
+     * Removes all queries; for example, because members have been flushed
+     * from the member cache.
+     */
+    public void clear() {
+        synchronized (this) {
+            flushCount.incrementAndGet();
+            if (cache != null) {
+                cache.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found an idle query.
+     */
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of lookups that did not find an idle query.
+     */
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    private static final LruSmartCache.Weigher<Query> QUERY_WEIGHER =
+        new LruSmartCache.Weigher<Query>() {
+            public int weigh(Query value) {
+                return 1;
+            }
+        };
+
+    /**
+     * Key of a cached query.
+     */
+    public static final class Key {
+        private final Role role;
+        private final Locale locale;
+        private final List<Object> settings;
+        private final String mdx;
+        private final int hashCode;
+
+        /**
+         * Value of {@link QueryPlanCache#flushCount} when the key was
+         * created. Not part of the identity of the key.
+         */
+        private final long flushCount;
+
+        Key(
+            Role role,
+            Locale locale,
+            List<Object> settings,
+            String mdx,
+            long flushCount)
+        {
+            this.role = role;
+            this.locale = locale;
+            this.settings = settings;
+            this.mdx = mdx;
+            this.flushCount = flushCount;
+            this.hashCode =
+                Util.hashV(0, role, locale, settings, mdx);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) obj;
+            return hashCode == that.hashCode
+                && role.equals(that.role)
+                && Util.equals(locale, that.locale)
+                && settings.equals(that.settings)
+                && mdx.equals(that.mdx);
+        }
+    }
+}
+
+// End QueryPlanCache.java
@@ -61,6 +61,7 @@ public class RolapConnection extends ConnectionBase {
     private SchemaReader schemaReader;
     protected Role role;
     private Locale locale = Locale.getDefault();
+    private final int queryPriority;
     private Scenario scenario;
     private boolean closed = false;
 
@@ -257,6 +258,10 @@ public class RolapConnection extends ConnectionBase {
             assert locale != null;
         }
 
+        // Parse the query priority now, so that a bad value fails the
+        // connection rather than each query.
+        this.queryPriority = parseQueryPriority(connectInfo);
+
         this.schema = schema;
         final Map<String, Object> context = new HashMap<String, Object>();
         for (Pair<String, String> pair : connectInfo) {
@@ -380,6 +385,31 @@ public class RolapConnection extends ConnectionBase {
         return locale;
     }
 
+    /**
+     * Returns the priority of queries executed on this connection, from the
+     * {@link RolapConnectionProperties#QueryPriority} property; default 0.
+     */
+    public int getQueryPriority() {
+        return queryPriority;
+    }
+
+    private static int parseQueryPriority(Util.PropertyList connectInfo) {
+        final String priority =
+            connectInfo.get(RolapConnectionProperties.QueryPriority.name());
+        if (priority == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(priority.trim());
+        } catch (NumberFormatException e) {
+            throw Util.newError(
+                e,
+                "Invalid value '" + priority + "' for connect string "
+                + "property '" + RolapConnectionProperties.QueryPriority
+                + "'");
+        }
+    }
+
     public void setLocale(Locale locale) {
         if (locale == null) {
             throw new IllegalArgumentException("locale must not be null");
@@ -439,15 +469,68 @@ public class RolapConnection extends ConnectionBase {
      */
     public Result execute(final Execution execution) {
         execution.copyMDC();
-        return
-            server.getResultShepherd()
-                .shepherdExecution(
-                    execution,
-                    new Callable<Result>() {
-                        public Result call() throws Exception {
-                            return executeInternal(execution);
-                        }
-                    });
+        // If an identical query has been executed, reuse its result.
+        final RolapResultCache resultCache = server.getResultCache();
+        final RolapResultCache.Key key = resultCache.key(execution);
+        if (key != null) {
+            final RolapResult.Snapshot snapshot = resultCache.get(key);
+            if (snapshot != null) {
+                return executeSnapshot(execution, snapshot);
+            }
+        }
+        final long flushCount = resultCache.getFlushCount();
+        // Wait until the execution's class of workload is under its quota.
+        final WorkloadManager.WorkloadClass workloadClass =
+            server.getWorkloadManager().admitQuery(execution);
+        final Result result;
+        try {
+            result =
+                server.getResultShepherd()
+                    .shepherdExecution(
+                        execution,
+                        new Callable<Result>() {
+                            public Result call() throws Exception {
+                                return executeInternal(execution);
+                            }
+                        });
+        } finally {
+            if (workloadClass != null) {
+                workloadClass.releaseQuery();
+            }
+        }
+        if (key != null) {
+            resultCache.put(key, result, flushCount);
+        }
+        return result;
+    }
+
+    /**
+     * Creates the result of an execution from a snapshot of an earlier
+     * result of the same query. The execution starts and ends as if the
+     * query had been evaluated, so that monitors see it.
+     *
+     * @param execution Execution
+     * @param snapshot Snapshot of a cached result
+     * @return Result bound to the execution and its statement
+     */
+    private Result executeSnapshot(
+        Execution execution,
+        RolapResult.Snapshot snapshot)
+    {
+        final Statement statement = execution.getMondrianStatement();
+        synchronized (statement) {
+            final Execution previousExecution =
+                statement.getCurrentExecution();
+            if (previousExecution != null) {
+                statement.end(previousExecution);
+            }
+        }
+        statement.start(execution);
+        try {
+            return new RolapResult(execution, snapshot);
+        } finally {
+            statement.end(execution);
+        }
     }
 
     private Result executeInternal(final Execution execution) {
@@ -600,6 +683,57 @@ public class RolapConnection extends ConnectionBase {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>If the schema's {@link QueryPlanCache} holds an idle query with the
+     * same MDX text, role and locale, binds that query to the statement
+     * rather than parsing the MDX again. Only queries parsed with the
+     * schema's function table and without strict validation are cached.
+     */
+    @Override
+    public QueryPart parseStatement(
+        Statement statement,
+        String query,
+        FunTable funTable,
+        boolean strictValidation)
+    {
+        final QueryPlanCache planCache = schema.getQueryPlanCache();
+        final QueryPlanCache.Key key =
+            funTable == null && !strictValidation
+                ? planCache.key(this, query)
+                : null;
+        if (key != null) {
+            final Query plan = planCache.checkOut(key, statement);
+            if (plan != null) {
+                return plan;
+            }
+        }
+        final QueryPart queryPart =
+            super.parseStatement(statement, query, funTable, strictValidation);
+        if (key != null && queryPart instanceof Query) {
+            final Query plan = (Query) queryPart;
+            if (!dependsOnConnection(plan)) {
+                plan.setPlanKey(key);
+            }
+        }
+        return queryPart;
+    }
+
+    /**
+     * Returns whether a query refers to a connection property, whose value
+     * was fixed when the query was validated and would be wrong for another
+     * connection.
+     */
+    private static boolean dependsOnConnection(Query query) {
+        for (Parameter parameter : query.getParameters()) {
+            if (parameter.getScope() == Parameter.Scope.Connection) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public Exp parseExpression(String expr) {
         boolean debug = false;
         if (getLogger().isDebugEnabled()) {
@@ -778,6 +912,7 @@ public class RolapConnection extends ConnectionBase {
             if (!closed) {
                 closed = true;
                 server.removeStatement(this);
+                releaseQuery();
             }
         }
 
@@ -191,6 +191,23 @@ public enum RolapConnectionProperties {
      */
     JdbcConnectionUuid,
 
+    /**
+     * The "QueryPriority" property is the priority of queries executed on
+     * this connection, an integer, default 0. When the server is running as
+     * many queries as
+     * {@link mondrian.olap.MondrianProperties#RolapConnectionShepherdNbThreads}
+     * allows, queued queries of higher priority run first.
+     */
+    QueryPriority,
+
+    /**
+     * The "WorkloadClass" property is the name of the class of workload that
+     * queries executed on this connection belong to. Quotas for each class
+     * are set using
+     * {@link mondrian.olap.MondrianProperties#WorkloadQuotas}.
+     */
+    WorkloadClass,
+
     /**
      * The "DataServicesProvider" property specifies the full class name for
      * the {@link mondrian.spi.DataServicesProvider} implementation to be used
@@ -1045,6 +1045,48 @@ public class RolapEvaluator implements Evaluator {
         return cellReader.getMissCount();
     }
 
+    /**
+     * Returns whether this evaluator's cell reader has returned values that
+     * were not ready and have not been loaded yet.
+     */
+    public final boolean isDirty() {
+        return cellReader.isDirty();
+    }
+
+    /**
+     * Loads the cells that this evaluator's cell reader has been asked for
+     * but did not have, without waiting for the end of the current phase.
+     *
+     * <p>A function that scans a large set for its first few non-empty
+     * tuples calls this after each batch of tuples, so that it can tell
+     * which of them are empty and stop as soon as it has enough.
+     *
+     * <p>Values that other expressions computed earlier in the phase from
+     * the missing cells are wrong, and the load does not correct them. If
+     * there may be such values, the caller sets {@code keepDirty}, so that
+     * the phase runs again.
+     *
+     * @param keepDirty Whether the reader stays dirty after the load
+     * @return Whether cells were loaded; false if the reader does not batch
+     *   requests or has none pending
+     */
+    public boolean loadCellRequests(boolean keepDirty) {
+        if (!(cellReader instanceof FastBatchingCellReader)) {
+            return false;
+        }
+        final FastBatchingCellReader reader =
+            (FastBatchingCellReader) cellReader;
+        if (!reader.loadAggregations()) {
+            return false;
+        }
+        if (keepDirty) {
+            reader.setDirty(true);
+        }
+        // Results computed from the missing cells were cached as invalid.
+        clearExpResultCache(false);
+        return true;
+    }
+
     public final Object getParameterValue(ParameterSlot slot) {
         return root.getParameterValue(slot);
     }
@@ -0,0 +1,398 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.calc.*;
+import mondrian.mdx.ResolvedFunCall;
+import mondrian.olap.*;
+import mondrian.rolap.sql.*;
+import mondrian.spi.Dialect;
+
+import java.util.*;
+
+/**
+ * Computes an Order, and a Head or Subset of an Order, in SQL.
+ *
+ * <p>The set is sorted by an ORDER BY clause. If the call is a
+ * <code>Head</code> or <code>Subset</code>, the query returns only the
+ * requested range of rows, using LIMIT and OFFSET if the dialect
+ * {@link Dialect#supportsLimitAndOffset() supports them}. For example,
+ *
+ * <blockquote><code>Subset(Order([Customers].[Name].Members,
+ * [Measures].[Unit Sales], BDESC), 100, 20)</code></blockquote>
+ *
+ * <p>reads only the 20 customers of the sixth page of a grid.
+ *
+ * <p>Like a native crossjoin, the query joins to the fact table, and is
+ * therefore used only in a non-empty context. Because Mondrian sorts empty
+ * values before all others, a <code>Head</code> or <code>Subset</code> of
+ * a set sorted in ascending order would contain the empty tuples that the
+ * query does not return; only descending orders are paged in SQL.
+ */
+public class RolapNativeOrder extends RolapNativeSet {
+
+    /**
+     * Creates a RolapNativeOrder.
+     */
+    public RolapNativeOrder() {
+        super.setEnabled(
+            MondrianProperties.instance().EnableNativeOrder.get());
+    }
+
+    static class OrderConstraint extends SetConstraint {
+        private final Exp orderByExpr;
+        private final boolean ascending;
+        private final int limit;
+        private final int offset;
+        private final int start;
+        private final int count;
+
+        /**
+         * Creates an OrderConstraint.
+         *
+         * @param args Cross-join args
+         * @param evaluator Evaluator
+         * @param measureGroupList List of measure groups to join to
+         * @param orderByExpr Expression to order by
+         * @param ascending Whether ascending
+         * @param limit Maximum number of rows to read in SQL, or -1
+         * @param offset Number of rows to skip in SQL
+         * @param start Index of the first row of the page that the query
+         *     asks for, 0 if not paged
+         * @param count Number of rows of the page that the query asks for,
+         *     or -1 if not paged
+         */
+        public OrderConstraint(
+            CrossJoinArg[] args,
+            RolapEvaluator evaluator,
+            List<RolapMeasureGroup> measureGroupList,
+            Exp orderByExpr,
+            boolean ascending,
+            int limit,
+            int offset,
+            int start,
+            int count)
+        {
+            super(args, evaluator, measureGroupList, true);
+            this.orderByExpr = orderByExpr;
+            this.ascending = ascending;
+            this.limit = limit;
+            this.offset = offset;
+            this.start = start;
+            this.count = count;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * <p>Order always needs to join the fact table because the sort key
+         * may involve a fact.
+         */
+        public boolean isJoinRequired() {
+            return true;
+        }
+
+        public void addConstraint(
+            SqlQueryBuilder queryBuilder,
+            RolapStarSet starSet)
+        {
+            final SqlQuery sqlQuery = queryBuilder.sqlQuery;
+            RolapNativeSql sql =
+                new RolapNativeSql(
+                    sqlQuery, starSet.getAggStar(), getEvaluator(),
+                    args[0].getLevel());
+            String orderBySql = sql.generateOrderBy(orderByExpr);
+            Dialect dialect = queryBuilder.getDialect();
+            // Mondrian sorts empty values first, so put NULL values last
+            // only if descending.
+            if (dialect.requiresOrderByAlias()) {
+                String alias = sqlQuery.nextColumnAlias();
+                alias = dialect.quoteIdentifier(alias);
+                sqlQuery.addSelect(orderBySql, null, alias);
+                sqlQuery.addOrderBy(alias, ascending, true, true, !ascending);
+            } else {
+                sqlQuery.addOrderBy(
+                    orderBySql, ascending, true, true, !ascending);
+            }
+            if (limit >= 0 || offset > 0) {
+                sqlQuery.setLimitAndOffset(limit, offset);
+            }
+            super.addConstraint(queryBuilder, starSet);
+        }
+
+        public Object getCacheKey() {
+            List<Object> key = new ArrayList<Object>();
+            key.add(super.getCacheKey());
+            // Note: need to use string in order for caching to work
+            key.add(orderByExpr.toString());
+            key.add(ascending);
+            key.add(limit);
+            key.add(offset);
+            // The page is part of the key even if it is not applied in SQL,
+            // because the evaluator truncates the list it caches.
+            key.add(start);
+            key.add(count);
+            return key;
+        }
+    }
+
+    /**
+     * Evaluator that skips the first rows of the result, for dialects that
+     * cannot skip them in SQL.
+     */
+    private class OrderEvaluator extends SetEvaluator {
+        private final int skip;
+
+        OrderEvaluator(
+            CrossJoinArg[] args,
+            SchemaReader schemaReader,
+            TupleConstraint constraint,
+            int skip)
+        {
+            super(args, schemaReader, constraint);
+            this.skip = skip;
+        }
+
+        public Object execute(ResultStyle desiredResultStyle) {
+            final TupleList list =
+                (TupleList) super.execute(desiredResultStyle);
+            if (skip == 0) {
+                return list;
+            }
+            if (skip >= list.size()) {
+                return TupleCollections.emptyList(list.getArity());
+            }
+            return list.subList(skip, list.size());
+        }
+    }
+
+    protected boolean restrictMemberTypes() {
+        return true;
+    }
+
+    NativeEvaluator createEvaluator(
+        RolapEvaluator evaluator,
+        FunDef fun,
+        Exp[] args)
+    {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        // is this "Order(<set>, <expr>[, <flag>])", or a "Head(<order>[,
+        // <count>])" or "Subset(<order>, <start>[, <count>])" of one?
+        final String funName = fun.getName();
+        final Exp[] orderArgs;
+        final int start;
+        final int count;
+        if ("Order".equalsIgnoreCase(funName)) {
+            orderArgs = args;
+            start = 0;
+            count = -1;
+        } else if ("Head".equalsIgnoreCase(funName)
+            || "Subset".equalsIgnoreCase(funName))
+        {
+            if (!(args[0] instanceof ResolvedFunCall)
+                || !((ResolvedFunCall) args[0]).getFunName()
+                    .equalsIgnoreCase("Order"))
+            {
+                return null;
+            }
+            orderArgs = ((ResolvedFunCall) args[0]).getArgs();
+            final boolean head = "Head".equalsIgnoreCase(funName);
+            final int countOrdinal = head ? 1 : 2;
+            if ((!head && !(args[1] instanceof Literal))
+                || (args.length > countOrdinal
+                    && !(args[countOrdinal] instanceof Literal)))
+            {
+                return null;
+            }
+            start = head ? 0 : ((Literal) args[1]).getIntValue();
+            count =
+                args.length > countOrdinal
+                    ? ((Literal) args[countOrdinal]).getIntValue()
+                    : head ? 1 : -1;
+            if (start < 0 || count == 0 || count < -1) {
+                return null;
+            }
+        } else {
+            return null;
+        }
+        if (orderArgs.length < 2 || orderArgs.length > 3) {
+            return null;
+        }
+
+        // extract the sort direction
+        String flag = "ASC";
+        if (orderArgs.length == 3) {
+            if (!(orderArgs[2] instanceof Literal)
+                || orderArgs[2].getCategory() != Category.Symbol)
+            {
+                return null;
+            }
+            flag = String.valueOf(((Literal) orderArgs[2]).getValue());
+        }
+        final boolean ascending;
+        final boolean brk;
+        if (flag.equalsIgnoreCase("ASC")) {
+            ascending = true;
+            brk = false;
+        } else if (flag.equalsIgnoreCase("DESC")) {
+            ascending = false;
+            brk = false;
+        } else if (flag.equalsIgnoreCase("BASC")) {
+            ascending = true;
+            brk = true;
+        } else if (flag.equalsIgnoreCase("BDESC")) {
+            ascending = false;
+            brk = true;
+        } else {
+            return null;
+        }
+        final boolean paged = start > 0 || count >= 0;
+        if (paged && ascending) {
+            return null;
+        }
+
+        final List<RolapMeasureGroup> measureGroupList =
+            new ArrayList<RolapMeasureGroup>();
+        if (!SqlContextConstraint.checkValidContext(
+                evaluator,
+                true,
+                Collections.<RolapCubeLevel>emptyList(),
+                restrictMemberTypes(),
+                measureGroupList))
+        {
+            return null;
+        }
+
+        // A UNION of several fact tables cannot be sorted and paged as one.
+        if (measureGroupList.size() > 1) {
+            return null;
+        }
+
+        // join with fact table will always filter out those members
+        // that don't have a row in the fact table
+        if (!evaluator.isNonEmpty()) {
+            return null;
+        }
+
+        // extract the set expression
+        List<CrossJoinArg[]> allArgs =
+            crossJoinArgFactory().checkCrossJoinArg(evaluator, orderArgs[0]);
+
+        // checkCrossJoinArg returns a list of CrossJoinArg arrays.  The first
+        // array is the CrossJoin dimensions.  The second array, if any,
+        // contains additional constraints on the dimensions. If either the list
+        // or the first array is null, then native cross join is not feasible.
+        if (allArgs == null || allArgs.isEmpty() || allArgs.get(0) == null) {
+            return null;
+        }
+
+        CrossJoinArg[] cjArgs = allArgs.get(0);
+        if (isPreferInterpreter(cjArgs, false)) {
+            return null;
+        }
+
+        final Role role = evaluator.getSchemaReader().getRole();
+        for (CrossJoinArg cjArg : cjArgs) {
+            // Calculated members are added to the result after it has been
+            // read, and so are not sorted.
+            if (cjArg instanceof MemberListCrossJoinArg
+                && ((MemberListCrossJoinArg) cjArg).hasCalcMembers())
+            {
+                return null;
+            }
+            final RolapCubeLevel level = cjArg.getLevel();
+            if (level == null) {
+                return null;
+            }
+            // Inaccessible members are removed after the rows are read, so
+            // would leave gaps in a page.
+            if (paged && role.getAccess(level.getHierarchy()) != Access.ALL) {
+                return null;
+            }
+        }
+
+        // A hierarchized sort keeps children with their parents; it is the
+        // same as a breaking sort only for a set of top-level members.
+        if (!brk
+            && (cjArgs.length > 1
+                || cjArgs[0].getLevel().getDepth()
+                    > (cjArgs[0].getLevel().getHierarchy().hasAll() ? 1 : 0)))
+        {
+            return null;
+        }
+
+        // Need to generate the order by to determine whether or not it can be
+        // created. The order could change to use an aggregate table later in
+        // evaluation.
+        SqlQuery sqlQuery =
+            SqlQuery.newQuery(evaluator.getDialect(), "NativeOrder");
+        RolapNativeSql sql =
+            new RolapNativeSql(
+                sqlQuery, null, evaluator, cjArgs[0].getLevel());
+        final Exp orderByExpr = orderArgs[1];
+        if (sql.generateOrderBy(orderByExpr) == null) {
+            return null;
+        }
+
+        // Check to see if evaluator contains a calculated member.  This is
+        // necessary due to the SqlConstraintsUtils.addContextConstraint()
+        // method which gets called when generating the native SQL.
+        if (SqlConstraintUtils.containsCalculatedMember(
+                evaluator.getNonAllMembers()))
+        {
+            return null;
+        }
+
+        LOGGER.debug("using native order");
+        final int savepoint = evaluator.savepoint();
+        try {
+            overrideContext(evaluator, cjArgs, sql.getStoredMeasure());
+
+            CrossJoinArg[] combinedArgs = cjArgs;
+            if (allArgs.size() == 2) {
+                CrossJoinArg[] predicateArgs = allArgs.get(1);
+                if (predicateArgs != null) {
+                    // Combined the CJ and the additional predicate args to
+                    // form the TupleConstraint.
+                    combinedArgs =
+                        Util.appendArrays(cjArgs, predicateArgs);
+                }
+            }
+
+            // If the dialect cannot skip rows, read the rows up to the end
+            // of the page and skip the first ones afterwards.
+            final boolean limitInSql =
+                paged && evaluator.getDialect().supportsLimitAndOffset();
+            TupleConstraint constraint =
+                new OrderConstraint(
+                    combinedArgs, evaluator, measureGroupList, orderByExpr,
+                    ascending,
+                    limitInSql ? count : -1,
+                    limitInSql ? start : 0,
+                    start,
+                    count);
+            OrderEvaluator sev =
+                new OrderEvaluator(
+                    cjArgs, evaluator.getSchemaReader(), constraint,
+                    limitInSql ? 0 : start);
+            if (count >= 0) {
+                sev.setMaxRows(limitInSql ? count : start + count);
+            }
+            return sev;
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+}
+
+// End RolapNativeOrder.java
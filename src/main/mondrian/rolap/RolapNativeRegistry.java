@@ -34,6 +34,10 @@ public class RolapNativeRegistry extends RolapNative {
         register("CrossJoin".toUpperCase(), new RolapNativeCrossJoin());
         register("TopCount".toUpperCase(), new RolapNativeTopCount());
         register("Filter".toUpperCase(), new RolapNativeFilter());
+        final RolapNativeOrder nativeOrder = new RolapNativeOrder();
+        register("Order".toUpperCase(), nativeOrder);
+        register("Head".toUpperCase(), nativeOrder);
+        register("Subset".toUpperCase(), nativeOrder);
     }
 
     /**
@@ -384,6 +384,56 @@ public class RolapNativeSql {
         }
     }
 
+    /**
+     * Compiles a numeric property of the current member of the level being
+     * evaluated,
+     * <code>&lt;Hierarchy&gt;.CurrentMember.Properties("name")</code>, into
+     * the column that holds the property.
+     *
+     * <p>String properties are not compiled, because the collation of the
+     * database may not match the order in which Mondrian compares strings.
+     */
+    class MemberPropertySqlCompiler implements SqlCompiler {
+        public String compile(Exp exp) {
+            if (rolapLevel == null
+                || !(exp instanceof ResolvedFunCall)
+                || !((ResolvedFunCall) exp).getFunName().equals("Properties")
+                || ((ResolvedFunCall) exp).getArgCount() != 2
+                || !(((ResolvedFunCall) exp).getArg(1) instanceof Literal))
+            {
+                return null;
+            }
+            final ResolvedFunCall call = (ResolvedFunCall) exp;
+            final Exp memberExpr = call.getArg(0);
+            if (!(memberExpr instanceof ResolvedFunCall)
+                || !((ResolvedFunCall) memberExpr).getFunName()
+                    .equals("CurrentMember")
+                || !rolapLevel.getHierarchy().equals(
+                    memberExpr.getType().getHierarchy()))
+            {
+                return null;
+            }
+            final Object name = ((Literal) call.getArg(1)).getValue();
+            for (RolapProperty property
+                : rolapLevel.attribute.getExplicitProperties())
+            {
+                if (Util.equalName(property.getName(), String.valueOf(name))) {
+                    if (property.getType() != Property.Datatype.TYPE_NUMERIC
+                        || property.attribute.getKeyList().size() != 1)
+                    {
+                        return null;
+                    }
+                    return property.attribute.getKeyList().get(0).toSql();
+                }
+            }
+            return null;
+        }
+
+        public String toString() {
+            return "MemberPropertySqlCompiler";
+        }
+    }
+
     /**
      * Contains utility methods to compile FunCall expressions into SQL.
      */
@@ -687,6 +737,21 @@ public class RolapNativeSql {
         return numericCompiler.compile(exp);
     }
 
+    /**
+     * Generates the expression by which to sort the tuples of a set in
+     * {@code Order}: an aggregate of measures, as for
+     * {@link #generateTopCountOrderBy(Exp)}, or a numeric member property of
+     * the level being evaluated. The returned expression will be added to the
+     * order by clause.
+     */
+    public String generateOrderBy(Exp exp) {
+        final String sql = numericCompiler.compile(exp);
+        if (sql != null) {
+            return sql;
+        }
+        return new MemberPropertySqlCompiler().compile(exp);
+    }
+
     public String generateFilterCondition(Exp exp) {
         return booleanCompiler.compile(exp);
     }
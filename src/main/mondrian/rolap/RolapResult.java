@@ -28,6 +28,7 @@ import mondrian.util.*;
 import org.apache.log4j.Logger;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * A <code>RolapResult</code> is the result of running a query.
@@ -39,6 +40,27 @@ public class RolapResult extends ResultBase {
 
     static final Logger LOGGER = Logger.getLogger(ResultBase.class);
 
+    /**
+     * Executor that determines the members of axes, and evaluates cells, in
+     * parallel.
+     *
+     * @see MondrianProperties#AxisEvaluationParallelism
+     * @see MondrianProperties#CellEvaluationParallelism
+     */
+    private static final ExecutorService EXECUTOR =
+        Util.getExecutorService(
+            Runtime.getRuntime().availableProcessors(),
+            0, 1,
+            "mondrian.rolap.RolapResult$executor",
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    /**
+     * Minimum number of cells for a result's cells to be evaluated in
+     * parallel. For smaller results, handing work to other threads costs
+     * more than it saves.
+     */
+    private static final int MIN_PARALLEL_CELL_COUNT = 1000;
+
     private RolapEvaluator evaluator;
     RolapEvaluator slicerEvaluator;
     private final CellKey point;
@@ -46,10 +68,23 @@ public class RolapResult extends ResultBase {
     private CellInfoContainer cellInfos;
     private FastBatchingCellReader batchingReader;
     private final CellReader aggregatingReader;
+    private final AggregationManager aggMgr;
     private Modulos modulos = null;
     private final int maxEvalDepth =
             MondrianProperties.instance().MaxEvalDepth.get();
 
+    /**
+     * Axes and cells of an earlier result that this result reuses, or null
+     * if this result was evaluated.
+     */
+    private Snapshot snapshot;
+
+    /**
+     * Whether this result has been counted as an open result of its query,
+     * and not yet closed. Guarded by this result.
+     */
+    private boolean open;
+
     /**
      * Creates a RolapResult.
      *
@@ -63,7 +98,7 @@ public class RolapResult extends ResultBase {
         super(execution, null);
 
         this.point = CellKey.Generator.newCellKey(axes.length);
-        final AggregationManager aggMgr =
+        this.aggMgr =
             execution.getMondrianStatement()
                 .getMondrianConnection()
                 .getServer().getAggregationManager();
@@ -87,7 +122,7 @@ public class RolapResult extends ResultBase {
 
         this.cellInfos =
             (query.axes.length > 4)
-                ? new CellInfoMap(point)
+                ? new CellInfoMap()
                 : new CellInfoPool(query.axes.length);
 
         if (!execute) {
@@ -273,11 +308,13 @@ public class RolapResult extends ResultBase {
             // reset to total member count
             axisMembers.clearTotalCellCount();
 
-            for (int i = 0; i < axes.length; i++) {
-                final QueryAxis axis = query.axes[i];
-                final Calc calc = query.axisCalcs[i];
-                loadMembers(
-                    emptyNonAllMembers, evaluator, axis, calc, axisMembers);
+            if (!loadMembersInParallel(emptyNonAllMembers, axisMembers)) {
+                for (int i = 0; i < axes.length; i++) {
+                    final QueryAxis axis = query.axes[i];
+                    final Calc calc = query.axisCalcs[i];
+                    loadMembers(
+                        emptyNonAllMembers, evaluator, axis, calc, axisMembers);
+                }
             }
 
             if (!axisMembers.isEmpty()) {
@@ -501,6 +538,42 @@ public class RolapResult extends ResultBase {
                 LOGGER.debug("RolapResult<init>: " + Util.printMemory());
             }
         }
+        markOpen();
+    }
+
+    /**
+     * Creates a RolapResult that reuses the axes and cells of an earlier
+     * result, without evaluating the query.
+     *
+     * <p>The result has its own evaluator, whose context is that of the
+     * earlier result, so cell properties and drill-through are evaluated in
+     * the given execution, not the execution that created the snapshot.</p>
+     *
+     * @param execution Execution of a statement
+     * @param snapshot Axes and cells of an earlier result of the same query
+     */
+    RolapResult(Execution execution, Snapshot snapshot) {
+        this(execution, false);
+        this.snapshot = snapshot;
+        System.arraycopy(snapshot.axes, 0, axes, 0, axes.length);
+        this.slicerAxis = snapshot.slicerAxis;
+        for (RolapMember member : snapshot.slicerMembers) {
+            evaluator.setSlicerContext(member);
+        }
+        evaluator.setContext(snapshot.contextMembers);
+        this.slicerEvaluator = evaluator.push();
+        markOpen();
+    }
+
+    /**
+     * Counts this result as an open result of its query, so that the query
+     * is not reused by another statement until this result is closed.
+     */
+    private void markOpen() {
+        query.resultOpened();
+        synchronized (this) {
+            open = true;
+        }
     }
 
     /**
@@ -542,13 +615,21 @@ public class RolapResult extends ResultBase {
     }
 
     private boolean phase() {
-        if (batchingReader.isDirty()) {
-            execution.tracePhase(
-                batchingReader.getHitCount(),
-                batchingReader.getMissCount(),
-                batchingReader.getPendingCount());
+        return phase(batchingReader);
+    }
+
+    private boolean phase(FastBatchingCellReader reader) {
+        if (reader.isDirty()) {
+            // Readers of axes evaluated in parallel keep their own counts;
+            // only the query's main reader is traced.
+            if (reader == batchingReader) {
+                execution.tracePhase(
+                    reader.getHitCount(),
+                    reader.getMissCount(),
+                    reader.getPendingCount());
+            }
 
-            return batchingReader.loadAggregations();
+            return reader.loadAggregations();
         } else {
             return false;
         }
@@ -557,6 +638,14 @@ public class RolapResult extends ResultBase {
     @Override
     public void close() {
         super.close();
+        final boolean wasOpen;
+        synchronized (this) {
+            wasOpen = open;
+            open = false;
+        }
+        if (wasOpen) {
+            query.resultClosed();
+        }
     }
 
     protected boolean removeDimension(
@@ -603,6 +692,143 @@ public class RolapResult extends ResultBase {
         }
     }
 
+    /**
+     * Visitor that collects the names of the named sets used in an
+     * expression.
+     */
+    private static class NamedSetVisitor extends MdxVisitorImpl {
+        final Set<String> names = new HashSet<String>();
+
+        public Object visit(NamedSetExpr namedSetExpr) {
+            names.add(
+                namedSetExpr.getNamedSet().getNameUniqueWithinQuery());
+            return null;
+        }
+    }
+
+    /**
+     * Task that determines the members of one or more axes, using its own
+     * evaluator and cell reader.
+     *
+     * @see RolapResult#loadMembersInParallel
+     */
+    private class AxisLoader implements Callable<Void> {
+        private final RolapEvaluator evaluator;
+        private final FastBatchingCellReader reader;
+        private final List<List<Member>> nonAllMembers;
+        private final List<Integer> axisOrdinals;
+        private final AxisMemberList[] axisMemberLists;
+        private final Thread callingThread;
+
+        AxisLoader(
+            RolapEvaluator evaluator,
+            FastBatchingCellReader reader,
+            List<List<Member>> nonAllMembers,
+            List<Integer> axisOrdinals,
+            AxisMemberList[] axisMemberLists,
+            Thread callingThread)
+        {
+            this.evaluator = evaluator;
+            this.reader = reader;
+            this.nonAllMembers = nonAllMembers;
+            this.axisOrdinals = axisOrdinals;
+            this.axisMemberLists = axisMemberLists;
+            this.callingThread = callingThread;
+        }
+
+        public Void call() {
+            if (Thread.currentThread() != callingThread) {
+                preparePoolThread();
+            }
+            final Locus locus =
+                new Locus(execution, "RolapResult", "Determining axes");
+            Locus.push(locus);
+            try {
+                for (int i : axisOrdinals) {
+                    loadMembers(
+                        nonAllMembers,
+                        evaluator,
+                        query.axes[i],
+                        query.axisCalcs[i],
+                        axisMemberLists[i],
+                        reader);
+                }
+                return null;
+            } finally {
+                Locus.pop(locus);
+            }
+        }
+    }
+
+    /**
+     * Task that evaluates the cells for a range of positions of the last
+     * axis, using its own evaluator and cell reader.
+     *
+     * @see RolapResult#executeStripeInParallel
+     */
+    private class CellLoader implements Callable<Void> {
+        private final RolapEvaluator evaluator;
+        private final FastBatchingCellReader reader;
+        private final int start;
+        private final int end;
+        private final Thread callingThread;
+        private boolean quantumExceeded;
+
+        CellLoader(
+            RolapEvaluator evaluator,
+            FastBatchingCellReader reader,
+            int start,
+            int end,
+            Thread callingThread)
+        {
+            this.evaluator = evaluator;
+            this.reader = reader;
+            this.start = start;
+            this.end = end;
+            this.callingThread = callingThread;
+            evaluator.setCellReader(reader);
+        }
+
+        public Void call() {
+            if (Thread.currentThread() != callingThread) {
+                preparePoolThread();
+            }
+            final Locus locus =
+                new Locus(execution, "RolapResult", "Loading cells");
+            Locus.push(locus);
+            quantumExceeded = false;
+            try {
+                final int axisOrdinal = axes.length - 1;
+                final TupleList tupleList =
+                    ((RolapAxis) axes[axisOrdinal]).getTupleList();
+                final CellKey point = RolapResult.this.point.copy();
+                int tupleIndex = start;
+                for (List<Member> tuple : tupleList.subList(start, end)) {
+                    point.setAxis(axisOrdinal, tupleIndex);
+                    final int savepoint = evaluator.savepoint();
+                    try {
+                        evaluator.setContext(tuple);
+                        execution.checkCancelOrTimeout();
+                        // The calling thread has processed the
+                        // distinct-count measures of every axis.
+                        executeStripe(
+                            axisOrdinal - 1, evaluator, point, false);
+                    } finally {
+                        evaluator.restore(savepoint);
+                    }
+                    tupleIndex++;
+                }
+            } catch (CellRequestQuantumExceededException e) {
+                // Stop. The requests collected so far will be loaded, and
+                // the cells evaluated again.
+                quantumExceeded = true;
+            } finally {
+                Locus.pop(locus);
+            }
+            return null;
+        }
+    }
+
     protected boolean replaceNonAllMembers(
         List<List<Member>> nonAllMembers,
         AxisMemberList axisMembers)
@@ -634,9 +860,21 @@ public class RolapResult extends ResultBase {
         QueryAxis axis,
         Calc calc,
         AxisMemberList axisMembers)
+    {
+        loadMembers(
+            nonAllMembers, evaluator, axis, calc, axisMembers, batchingReader);
+    }
+
+    private void loadMembers(
+        List<List<Member>> nonAllMembers,
+        RolapEvaluator evaluator,
+        QueryAxis axis,
+        Calc calc,
+        AxisMemberList axisMembers,
+        FastBatchingCellReader reader)
     {
         int attempt = 0;
-        evaluator.setCellReader(batchingReader);
+        evaluator.setCellReader(reader);
         while (true) {
             axisMembers.clearAxisCount();
             final int savepoint = evaluator.savepoint();
@@ -657,7 +895,7 @@ public class RolapResult extends ResultBase {
                 evaluator.restore(savepoint);
             }
 
-            if (!phase()) {
+            if (!phase(reader)) {
                 break;
             } else {
                 // Clear invalid expression result so that the next evaluation
@@ -674,6 +912,114 @@ public class RolapResult extends ResultBase {
         }
     }
 
+    /**
+     * Determines the members of each axis, evaluating several axes at the
+     * same time.
+     *
+     * <p>The axes are divided into groups, and each group is evaluated by a
+     * task that has its own evaluator root, cell reader and member list, so
+     * that the SQL to read members (for example, for a native crossjoin) on
+     * one axis overlaps with the SQL for another. The calling thread
+     * evaluates the first group. Members are merged into {@code axisMembers}
+     * in axis order, as if the axes had been evaluated one after another.
+     *
+     * @param nonAllMembers Lists of members of hierarchies with no 'all'
+     *     member
+     * @param axisMembers Members of axes (output)
+     * @return Whether the axes were evaluated; false if parallel evaluation
+     *     is disabled or not suitable for this query, and the caller must
+     *     evaluate the axes sequentially
+     */
+    private boolean loadMembersInParallel(
+        final List<List<Member>> nonAllMembers,
+        AxisMemberList axisMembers)
+    {
+        int parallelism =
+            MondrianProperties.instance().AxisEvaluationParallelism.get();
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        parallelism = Math.min(parallelism, axes.length);
+        if (parallelism <= 1
+            || evaluator.getClass() != RolapEvaluator.class
+            || !areAxesIndependent(query))
+        {
+            return false;
+        }
+
+        final AxisMemberList[] axisMemberLists =
+            new AxisMemberList[axes.length];
+        for (int i = 0; i < axes.length; i++) {
+            axisMemberLists[i] = new AxisMemberList();
+        }
+
+        // Create the tasks' evaluators in this thread. The tasks read the
+        // main evaluator (their parent) but nothing may modify it until they
+        // have finished.
+        final List<AxisLoader> loaders = new ArrayList<AxisLoader>();
+        for (int g = 0; g < parallelism; g++) {
+            final List<Integer> axisOrdinals = new ArrayList<Integer>();
+            for (int i = g; i < axes.length; i += parallelism) {
+                axisOrdinals.add(i);
+            }
+            loaders.add(
+                new AxisLoader(
+                    new RolapEvaluator(
+                        new RolapResultEvaluatorRoot(this), evaluator, null),
+                    new FastBatchingCellReader(
+                        execution, (RolapCube) query.getCube(), aggMgr),
+                    nonAllMembers,
+                    axisOrdinals,
+                    axisMemberLists,
+                    Thread.currentThread()));
+        }
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (AxisLoader loader : loaders.subList(1, loaders.size())) {
+            futures.add(EXECUTOR.submit(loader));
+        }
+        boolean success = false;
+        try {
+            loaders.get(0).call();
+            for (Future<Void> future : futures) {
+                Util.safeGet(future, "Error while determining axes");
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                for (Future<Void> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+
+        for (AxisMemberList list : axisMemberLists) {
+            axisMembers.merge(list);
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the axes of a query can be evaluated independently of
+     * each other. They cannot if a named set is used on more than one axis;
+     * each axis would evaluate the set again.
+     *
+     * @param query Query
+     * @return Whether axes are independent
+     */
+    private static boolean areAxesIndependent(Query query) {
+        final Set<String> namedSets = new HashSet<String>();
+        for (QueryAxis axis : query.getAxes()) {
+            final NamedSetVisitor visitor = new NamedSetVisitor();
+            axis.getSet().accept(visitor);
+            for (String name : visitor.names) {
+                if (!namedSets.add(name)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     void evalLoad(
         List<List<Member>> nonAllMembers,
         int cnt,
@@ -816,20 +1162,30 @@ public class RolapResult extends ResultBase {
                 "coordinates should have dimension " + point.size());
         }
 
+        if (snapshot != null) {
+            checkCoordinates(pos);
+            return new RolapCell(
+                this, pos.clone(), snapshot.getCellInfo(getCellOrdinal(pos)));
+        }
+
         CellInfo ci = cellInfos.lookup(pos);
         if (ci.value == null) {
-            for (int i = 0; i < pos.length; i++) {
-                int po = pos[i];
-                if (po < 0 || po >= axes[i].getPositions().size()) {
-                    throw Util.newError("coordinates out of range");
-                }
-            }
+            checkCoordinates(pos);
             ci.value = Util.nullValue;
         }
 
         return new RolapCell(this, pos.clone(), ci);
     }
 
+    private void checkCoordinates(int[] pos) {
+        for (int i = 0; i < pos.length; i++) {
+            int po = pos[i];
+            if (po < 0 || po >= axes[i].getPositions().size()) {
+                throw Util.newError("coordinates out of range");
+            }
+        }
+    }
+
     private TupleIterable executeAxis(
         Evaluator evaluator,
         QueryAxis queryAxis,
@@ -882,10 +1238,16 @@ public class RolapResult extends ResultBase {
         // evaluator which collects requests.
         int count = 0;
         final int savepoint = evaluator.savepoint();
+        final List<CellLoader> cellLoaders = createCellLoaders(evaluator);
         while (true) {
             evaluator.setCellReader(batchingReader);
             try {
-                executeStripe(query.axes.length - 1, evaluator, pos);
+                if (cellLoaders == null) {
+                    executeStripe(
+                        query.axes.length - 1, evaluator, point, true);
+                } else {
+                    executeStripeInParallel(cellLoaders);
+                }
             } catch (CellRequestQuantumExceededException e) {
                 // Safe to ignore. Need to call 'phase' and loop again.
                 // Decrement count because it wasn't a recursive formula that
@@ -904,6 +1266,11 @@ public class RolapResult extends ResultBase {
                 // Clear invalid expression result so that the next evaluation
                 // will pick up the newly loaded aggregates.
                 evaluator.clearExpResultCache(false);
+                if (cellLoaders != null) {
+                    for (CellLoader cellLoader : cellLoaders) {
+                        cellLoader.evaluator.clearExpResultCache(false);
+                    }
+                }
             }
 
             if (count++ > maxEvalDepth) {
@@ -928,6 +1295,115 @@ public class RolapResult extends ResultBase {
         }
     }
 
+    /**
+     * Creates the tasks that evaluate the cells of this result in parallel,
+     * or returns null if the cells are to be evaluated in the calling thread.
+     *
+     * <p>The positions of the last axis are divided into ranges, one per
+     * task. Each task has its own evaluator, forked from the given one, and
+     * its own cell reader. The tasks are created once and re-used in each
+     * phase, so that each evaluator keeps its expression cache.
+     *
+     * @param evaluator Evaluator whose context the cells are evaluated in
+     * @return List of tasks, or null
+     */
+    private List<CellLoader> createCellLoaders(RolapEvaluator evaluator) {
+        int parallelism =
+            MondrianProperties.instance().CellEvaluationParallelism.get();
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        if (parallelism <= 1
+            || axes.length == 0
+            || evaluator.getClass() != RolapEvaluator.class)
+        {
+            return null;
+        }
+        long cellCount = 1;
+        for (Axis axis : axes) {
+            cellCount *= ((RolapAxis) axis).getTupleList().size();
+        }
+        final int positionCount =
+            ((RolapAxis) axes[axes.length - 1]).getTupleList().size();
+        parallelism = Math.min(parallelism, positionCount);
+        if (parallelism <= 1 || cellCount < MIN_PARALLEL_CELL_COUNT) {
+            return null;
+        }
+        final List<CellLoader> cellLoaders = new ArrayList<CellLoader>();
+        for (int i = 0; i < parallelism; i++) {
+            cellLoaders.add(
+                new CellLoader(
+                    new RolapEvaluator(
+                        new RolapResultEvaluatorRoot(this), evaluator, null),
+                    new FastBatchingCellReader(
+                        execution, (RolapCube) query.getCube(), aggMgr),
+                    (int) ((long) positionCount * i / parallelism),
+                    (int) ((long) positionCount * (i + 1) / parallelism),
+                    Thread.currentThread()));
+        }
+        return cellLoaders;
+    }
+
+    /**
+     * Evaluates the cells of this result in parallel. The cell requests
+     * collected by each task are added to the main cell reader, to be loaded
+     * in the next phase.
+     *
+     * @param cellLoaders Tasks, each evaluating a range of positions of the
+     *     last axis
+     * @throws CellRequestQuantumExceededException if any task collected too
+     *     many cell requests
+     */
+    private void executeStripeInParallel(List<CellLoader> cellLoaders) {
+        // Processing distinct-count measures modifies the root evaluator and
+        // shared members, so do it for all axes before the tasks start.
+        for (Axis axis : axes) {
+            processDistinctMeasureExprs(((RolapAxis) axis).getTupleList());
+        }
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (CellLoader cellLoader : cellLoaders.subList(1, cellLoaders.size()))
+        {
+            futures.add(EXECUTOR.submit(cellLoader));
+        }
+        boolean success = false;
+        try {
+            cellLoaders.get(0).call();
+            for (Future<Void> future : futures) {
+                Util.safeGet(future, "Error while evaluating cells");
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                for (Future<Void> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+        boolean quantumExceeded = false;
+        for (CellLoader cellLoader : cellLoaders) {
+            batchingReader.merge(cellLoader.reader);
+            quantumExceeded |= cellLoader.quantumExceeded;
+        }
+        if (quantumExceeded) {
+            throw CellRequestQuantumExceededException.INSTANCE;
+        }
+    }
+
+    /**
+     * Prepares a pool thread to evaluate part of this result.
+     *
+     * <p>Segments are registered in a thread-local cache. Clears the
+     * thread's cache as the constructor does for the calling thread (that
+     * is, only if caching is disabled), then registers the segments that
+     * this result has loaded so far.
+     */
+    private void preparePoolThread() {
+        for (RolapStar star : ((RolapCube) query.getCube()).getStars()) {
+            star.clearCachedAggregations(false);
+        }
+        batchingReader.registerSegments();
+    }
+
     boolean isDirty() {
         return batchingReader.isDirty();
     }
@@ -937,11 +1413,14 @@ public class RolapResult extends ResultBase {
      *
      * <p>Does not modify the contents of the evaluator.
      *
+     * <p>Synchronized because axes evaluated in parallel may each need a
+     * named set, and this method uses the result's main cell reader.
+     *
      * @param calc Compiled expression
      * @param evaluator Evaluation context
      * @return Result
      */
-    Object evaluateExp(Calc calc, RolapEvaluator evaluator) {
+    synchronized Object evaluateExp(Calc calc, RolapEvaluator evaluator) {
         int attempt = 0;
         final int savepoint = evaluator.savepoint();
         boolean dirty = batchingReader.isDirty();
@@ -993,10 +1472,20 @@ public class RolapResult extends ResultBase {
         }
     }
 
+    /**
+     * Evaluates the cells of the given axis and the axes before it.
+     *
+     * @param axisOrdinal Ordinal of axis, or -1 for the slicer
+     * @param revaluator Evaluator
+     * @param point Coordinates of the cell being evaluated
+     * @param processDistinct Whether to process distinct-count measures
+     *     for each axis; false if the caller has already done so
+     */
     private void executeStripe(
         int axisOrdinal,
         RolapEvaluator revaluator,
-        final int[] pos)
+        CellKey point,
+        boolean processDistinct)
     {
         if (axisOrdinal < 0) {
             RolapAxis axis = (RolapAxis) slicerAxis;
@@ -1029,7 +1518,10 @@ public class RolapResult extends ResultBase {
 
                     // Create a CellInfo object for the given position
                     // integer array.
-                    ci = cellInfos.create(point.getOrdinals());
+                    // Cells may be evaluated in several threads.
+                    synchronized (cellInfos) {
+                        ci = cellInfos.create(point.getOrdinals());
+                    }
 
                     String cachedFormatString = null;
 
@@ -1069,22 +1561,8 @@ public class RolapResult extends ResultBase {
             TupleList tupleList = axis.getTupleList();
             Util.discard(tupleList.size()); // force materialize
 
-            for (List<Member> tuple : tupleList) {
-                List<Member> measures =
-                    new ArrayList<Member>(
-                        statement.getQuery().getMeasuresMembers());
-                for (Member measure : measures) {
-                    if (measure instanceof RolapBaseCubeMeasure) {
-                        RolapBaseCubeMeasure baseCubeMeasure =
-                            (RolapBaseCubeMeasure) measure;
-                        if (baseCubeMeasure.getAggregator()
-                            == RolapAggregator.DistinctCount)
-                        {
-                            processDistinctMeasureExpr(
-                                tuple, baseCubeMeasure);
-                        }
-                    }
-                }
+            if (processDistinct) {
+                processDistinctMeasureExprs(tupleList);
             }
             int tupleIndex = 0;
             for (final List<Member> tuple : tupleList) {
@@ -1093,7 +1571,8 @@ public class RolapResult extends ResultBase {
                 try {
                     revaluator.setContext(tuple);
                     execution.checkCancelOrTimeout();
-                    executeStripe(axisOrdinal - 1, revaluator, pos);
+                    executeStripe(
+                        axisOrdinal - 1, revaluator, point, processDistinct);
                 } finally {
                     revaluator.restore(savepoint);
                 }
@@ -1102,6 +1581,32 @@ public class RolapResult extends ResultBase {
         }
     }
 
+    /**
+     * Calls {@link #processDistinctMeasureExpr} for each tuple of an axis and
+     * each distinct-count measure in the query.
+     *
+     * @param tupleList Tuples of an axis
+     */
+    private void processDistinctMeasureExprs(TupleList tupleList) {
+        for (List<Member> tuple : tupleList) {
+            List<Member> measures =
+                new ArrayList<Member>(
+                    statement.getQuery().getMeasuresMembers());
+            for (Member measure : measures) {
+                if (measure instanceof RolapBaseCubeMeasure) {
+                    RolapBaseCubeMeasure baseCubeMeasure =
+                        (RolapBaseCubeMeasure) measure;
+                    if (baseCubeMeasure.getAggregator()
+                        == RolapAggregator.DistinctCount)
+                    {
+                        processDistinctMeasureExpr(
+                            tuple, baseCubeMeasure);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Distinct counts are aggregated separately from other measures.
      * We need to apply filters to each level in the query.
@@ -1345,6 +1850,20 @@ public class RolapResult extends ResultBase {
             return this.members;
         }
 
+        /**
+         * Adds the members of another list that are not already in this
+         * list. The axis count becomes that of the other list, as if its
+         * axis had been evaluated last.
+         */
+        void merge(AxisMemberList list) {
+            for (Member member : list.members) {
+                if (!members.contains(member)) {
+                    members.add(member);
+                }
+            }
+            this.axisCount = list.axisCount;
+        }
+
         void mergeTupleList(TupleList list) {
             mergeTupleIter(list.tupleCursor());
         }
@@ -1607,6 +2126,88 @@ public class RolapResult extends ResultBase {
         formatValueFormatters =
             Collections.synchronizedMap(new HashMap<Locale, ValueFormatter>());
 
+    /**
+     * Immutable copy of the axes, cell values and formatted cell values of a
+     * result, with the evaluation context of its slicer.
+     *
+     * <p>A snapshot refers to no statement, execution or evaluator, so it
+     * can be shared by threads. {@link RolapResultCache} holds snapshots,
+     * and creates a new {@link RolapResult} from a snapshot for each
+     * statement that reuses it.</p>
+     */
+    static class Snapshot {
+        final Axis[] axes;
+        final Axis slicerAxis;
+        final RolapMember[] contextMembers;
+        final List<RolapMember> slicerMembers;
+        private final Object[] values;
+        private final String[] formatStrings;
+        private final String[] formattedValues;
+
+        private Snapshot(Result result, RolapResult rolapResult) {
+            this.axes = result.getAxes().clone();
+            this.slicerAxis = result.getSlicerAxis();
+            this.contextMembers = rolapResult.evaluator.getMembers().clone();
+            this.slicerMembers =
+                Collections.unmodifiableList(
+                    new ArrayList<RolapMember>(
+                        rolapResult.evaluator.getSlicerMembers()));
+            final Modulos modulos = Modulos.Generator.create(axes);
+            int cellCount = 1;
+            for (Axis axis : axes) {
+                cellCount *= axis.getPositions().size();
+            }
+            this.values = new Object[cellCount];
+            this.formatStrings = new String[cellCount];
+            this.formattedValues = new String[cellCount];
+            for (int i = 0; i < cellCount; i++) {
+                final Cell cell = result.getCell(modulos.getCellPos(i));
+                values[i] = cell.isNull() ? Util.nullValue : cell.getValue();
+                formatStrings[i] = cell.getCachedFormatString();
+                formattedValues[i] = cell.getFormattedValue();
+            }
+        }
+
+        /**
+         * Creates a snapshot of a result, or returns null if the result is
+         * not based on a {@link RolapResult}.
+         *
+         * @param result Result; must not be used by another thread while the
+         *     snapshot is being made
+         * @return Snapshot, or null
+         */
+        static Snapshot of(Result result) {
+            Result underlying = result;
+            while (underlying instanceof RolapConnection.NonEmptyResult) {
+                underlying =
+                    ((RolapConnection.NonEmptyResult) underlying).underlying;
+            }
+            if (!(underlying instanceof RolapResult)
+                || ((RolapResult) underlying).evaluator == null)
+            {
+                return null;
+            }
+            return new Snapshot(result, (RolapResult) underlying);
+        }
+
+        /**
+         * Creates a CellInfo for the cell with a given ordinal. Each call
+         * returns a new CellInfo, so that the caller may modify it.
+         */
+        CellInfo getCellInfo(int ordinal) {
+            final String formattedValue = formattedValues[ordinal];
+            return new CellInfo(
+                ordinal,
+                values[ordinal],
+                formatStrings[ordinal],
+                new ValueFormatter() {
+                    public String format(Object value, String formatString) {
+                        return formattedValue;
+                    }
+                });
+        }
+    }
+
     /**
      * A CellInfo contains all of the information that a Cell requires.
      * It is placed in the cellInfos map during evaluation and
@@ -1721,23 +2322,14 @@ public class RolapResult extends ResultBase {
     /**
      * Implementation of {@link CellInfoContainer} which uses a {@link Map} to
      * store CellInfo Objects.
-     *
-     * <p>Note that the CellKey point instance variable is the same
-     * Object (NOT a copy) that is used and modified during
-     * the recursive calls to executeStripe - the
-     * <code>create</code> method relies on this fact.
      */
     static class CellInfoMap implements CellInfoContainer {
         private final Map<CellKey, CellInfo> cellInfoMap;
-        private final CellKey point;
 
         /**
          * Creates a CellInfoMap
-         *
-         * @param point Cell position
          */
-        CellInfoMap(CellKey point) {
-            this.point = point;
+        CellInfoMap() {
             this.cellInfoMap = new HashMap<CellKey, CellInfo>();
         }
         public int size() {
@@ -1750,7 +2342,7 @@ public class RolapResult extends ResultBase {
             this.cellInfoMap.clear();
         }
         public CellInfo create(int[] pos) {
-            CellKey key = this.point.copy();
+            CellKey key = CellKey.Generator.newCellKey(pos);
             CellInfo ci = this.cellInfoMap.get(key);
             if (ci == null) {
                 ci = new CellInfo(0);
@@ -0,0 +1,336 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.*;
+import mondrian.rolap.cache.LruSmartCache;
+import mondrian.rolap.cache.SmartCache;
+import mondrian.server.Execution;
+import mondrian.server.Statement;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the results of MDX queries, shared by all connections to a
+ * server.
+ *
+ * <p>A result is reused if a later query has the same text (as unparsed
+ * from its {@link Query}), schema, {@link Role}, locale and parameter
+ * values. The cache holds results of at most
+ * {@link MondrianProperties#ResultCacheMaxCells} cells in total, and evicts
+ * the least-recently-used results when that budget is exceeded; if the
+ * budget is 0, the cache is disabled.</p>
+ *
+ * <p>Entries are invalidated when {@link CacheControlImpl} flushes a region
+ * of cells that belongs to a star that the query's cube reads, or flushes a
+ * schema. A result whose execution overlapped a flush is not cached, because
+ * it may have been computed from cells that were flushed.</p>
+ *
+ * <p>The cache holds an immutable {@link RolapResult.Snapshot snapshot} of
+ * each result's axes and cells, which refers to no statement. Each statement
+ * that reuses it gets a new result, bound to its own statement and
+ * execution; so cell properties and drill-through use that statement, and
+ * threads do not share an evaluator.</p>
+ *
+ * <p>Queries are not cached if caching is disabled
+ * ({@link MondrianProperties#DisableCaching}), if the connection has a
+ * {@link mondrian.olap.Scenario scenario}, or if the statement is being
+ * profiled.</p>
+ */
+public class RolapResultCache {
+    private SmartCache<Key, CachedResult> cache;
+    private int maxCells;
+
+    /**
+     * Number of flushes. An execution records the count when it starts, and
+     * its result is cached only if the count has not changed.
+     */
+    private final AtomicLong flushCount = new AtomicLong();
+
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    /**
+     * Creates a RolapResultCache.
+     */
+    public RolapResultCache() {
+    }
+
+    /**
+     * Returns the cache, creating or discarding it if the
+     * {@link MondrianProperties#ResultCacheMaxCells} property has changed;
+     * null if the cache is disabled.
+     */
+    private synchronized SmartCache<Key, CachedResult> getCache() {
+        final int maxCells =
+            MondrianProperties.instance().ResultCacheMaxCells.get();
+        if (maxCells != this.maxCells) {
+            this.maxCells = maxCells;
+            this.cache =
+                maxCells > 0
+                    ? new LruSmartCache<Key, CachedResult>(
+                        CACHED_RESULT_WEIGHER, maxCells)
+                    : null;
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the key under which to cache the result of an execution, or
+     * null if the result must not be cached.
+     *
+     * @param execution Execution
+     * @return Key, or null
+     */
+    public Key key(Execution execution) {
+        if (getCache() == null
+            || MondrianProperties.instance().DisableCaching.get())
+        {
+            return null;
+        }
+        final Statement statement = execution.getMondrianStatement();
+        final RolapConnection connection = statement.getMondrianConnection();
+        final Query query = statement.getQuery();
+        if (query == null
+            || query.hasVolatileFunctions()
+            || connection.getScenario() != null
+            || statement.getProfileHandler() != null)
+        {
+            return null;
+        }
+        final List<Object> parameterValues = new ArrayList<Object>();
+        for (Parameter parameter : query.getParameters()) {
+            parameterValues.add(parameter.getName());
+            parameterValues.add(parameter.getValue());
+        }
+        return new Key(
+            connection.getSchema(),
+            connection.getRole(),
+            connection.getLocale(),
+            Util.unparse(query),
+            parameterValues);
+    }
+
+    /**
+     * Returns the number of flushes so far. Call before executing a query,
+     * and pass the value to {@link #put}.
+     *
+     * @return Number of flushes
+     */
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * Looks up the snapshot of a result, and counts a hit or miss.
+     *
+     * @param key Key
+     * @return Snapshot of cached result, or null
+     */
+    RolapResult.Snapshot get(Key key) {
+        final SmartCache<Key, CachedResult> cache = getCache();
+        final CachedResult cachedResult =
+            cache == null ? null : cache.get(key);
+        if (cachedResult == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return cachedResult.snapshot;
+    }
+
+    /**
+     * Caches a snapshot of the result of an execution, unless there has been
+     * a flush since it started, or the result is larger than the cache.
+     *
+     * @param key Key
+     * @param result Result
+     * @param startFlushCount Value of {@link #getFlushCount()} before the
+     *     execution started
+     */
+    public void put(Key key, Result result, long startFlushCount) {
+        final SmartCache<Key, CachedResult> cache = getCache();
+        if (cache == null) {
+            return;
+        }
+        final int weight = weigh(result);
+        if (weight > maxCells) {
+            return;
+        }
+        final RolapResult.Snapshot snapshot = RolapResult.Snapshot.of(result);
+        if (snapshot == null) {
+            return;
+        }
+        final RolapCube cube = (RolapCube) result.getQuery().getCube();
+        final CachedResult cachedResult =
+            new CachedResult(
+                snapshot,
+                new HashSet<RolapStar>(cube.getStars()),
+                weight);
+        synchronized (this) {
+            // Holding the lock, so that a flush cannot intervene between the
+            // check and the put.
+            if (flushCount.get() == startFlushCount) {
+                cache.put(key, cachedResult);
+            }
+        }
+    }
+
+    /**
+     * Removes the results of queries whose cubes read any of the given
+     * stars.
+     *
+     * @param stars Stars whose cells have been flushed
+     */
+    public void flush(final Collection<RolapStar> stars) {
+        synchronized (this) {
+            flushCount.incrementAndGet();
+            if (cache == null) {
+                return;
+            }
+            cache.execute(
+                new SmartCache.SmartCacheTask<Key, CachedResult>() {
+                    public void execute(
+                        Iterator<Map.Entry<Key, CachedResult>> iterator)
+                    {
+                        while (iterator.hasNext()) {
+                            if (!Collections.disjoint(
+                                    iterator.next().getValue().stars,
+                                    stars))
+                            {
+                                iterator.remove();
+                            }
+                        }
+                    }
+                });
+        }
+    }
+
+    /**
+     * Removes all results; for example, because a schema has been flushed.
+     */
+    public void clear() {
+        synchronized (this) {
+            flushCount.incrementAndGet();
+            if (cache != null) {
+                cache.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found a result.
+     */
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of lookups that did not find a result.
+     */
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the weight of a result: the number of cells, plus the number of
+     * positions on each axis.
+     */
+    private static int weigh(Result result) {
+        long cellCount = 1;
+        long positionCount = 0;
+        for (Axis axis : result.getAxes()) {
+            final int size = axis.getPositions().size();
+            cellCount *= size;
+            positionCount += size;
+        }
+        return (int) Math.min(
+            Integer.MAX_VALUE, Math.max(1, cellCount + positionCount));
+    }
+
+    private static final LruSmartCache.Weigher<CachedResult>
+        CACHED_RESULT_WEIGHER =
+        new LruSmartCache.Weigher<CachedResult>() {
+            public int weigh(CachedResult value) {
+                return value.weight;
+            }
+        };
+
+    /**
+     * Key of a cached result.
+     */
+    public static final class Key {
+        private final RolapSchema schema;
+        private final Role role;
+        private final Locale locale;
+        private final String mdx;
+        private final List<Object> parameterValues;
+        private final int hashCode;
+
+        Key(
+            RolapSchema schema,
+            Role role,
+            Locale locale,
+            String mdx,
+            List<Object> parameterValues)
+        {
+            this.schema = schema;
+            this.role = role;
+            this.locale = locale;
+            this.mdx = mdx;
+            this.parameterValues = parameterValues;
+            this.hashCode =
+                Util.hashV(0, schema, role, locale, mdx, parameterValues);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) obj;
+            return hashCode == that.hashCode
+                && schema == that.schema
+                && role.equals(that.role)
+                && Util.equals(locale, that.locale)
+                && mdx.equals(that.mdx)
+                && parameterValues.equals(that.parameterValues);
+        }
+    }
+
+    /**
+     * Snapshot of a result in the cache, with the stars that it depends on.
+     */
+    private static class CachedResult {
+        final RolapResult.Snapshot snapshot;
+        final Set<RolapStar> stars;
+        final int weight;
+
+        CachedResult(
+            RolapResult.Snapshot snapshot,
+            Set<RolapStar> stars,
+            int weight)
+        {
+            this.snapshot = snapshot;
+            this.stars = stars;
+            this.weight = weight;
+        }
+    }
+}
+
+// End RolapResultCache.java
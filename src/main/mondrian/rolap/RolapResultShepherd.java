@@ -12,12 +12,14 @@ package mondrian.rolap;
 import mondrian.olap.*;
 import mondrian.resource.MondrianResource;
 import mondrian.server.Execution;
-import mondrian.util.Pair;
+import mondrian.util.CoarseClock;
 
-import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.PriorityQueue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A utility class for {@link RolapConnection}. It specializes in
@@ -30,75 +32,124 @@ import java.util.concurrent.*;
  * <li>Gracefully cancel all SQL statements and cleanup in the background.</li>
  * </ul>
  *
+ * <p>At most {@link MondrianProperties#RolapConnectionShepherdNbThreads}
+ * executions run at a time. Further executions wait in a queue of at most
+ * {@link MondrianProperties#RolapConnectionShepherdQueueSize} entries,
+ * highest {@link RolapConnectionProperties#QueryPriority priority} first and
+ * then in order of arrival; if the queue is full, the execution fails with
+ * a "query limit reached" error.</p>
+ *
+ * <p>Nothing polls. If an execution has a timeout, its deadline is put in a
+ * {@link DelayQueue}, and a thread wakes when the deadline passes; an
+ * execution that is canceled or runs out of memory wakes its user thread
+ * via {@link Execution#setCancelHandler}. A query that waits in the queue
+ * for longer than its timeout fails without running.</p>
+ *
  * @author LBoudreau
  */
 public class RolapResultShepherd {
+    private static final Logger LOGGER =
+        Logger.getLogger(RolapResultShepherd.class);
 
     /**
-     * An executor service used for both the shepherd thread and the
-     * Execution objects.
+     * An executor service that runs the executions. Its size is not limited;
+     * the shepherd admits at most {@link #maxRunning} executions at a time.
      */
-    private final ExecutorService executor =
-        Util.getExecutorService(
-            MondrianProperties.instance()
-                .RolapConnectionShepherdNbThreads.get(),
-            0, 1,
-            "mondrian.rolap.RolapResultShepherd$executor",
-            new RejectedExecutionHandler() {
-                public void rejectedExecution(
-                    Runnable r,
-                    ThreadPoolExecutor executor)
-                {
-                    throw MondrianResource.instance()
-                        .QueryLimitReached.ex();
-                }
-            });
+    private final ExecutorService executor;
 
     /**
-     * List of tasks that should be monitored by the shepherd thread.
+     * Maximum number of executions that run at a time, or 0 if unlimited.
      */
-    private final List<Pair<FutureTask<Result>, Execution>> tasks =
-        new CopyOnWriteArrayList<Pair<FutureTask<Result>,Execution>>();
+    private final int maxRunning;
 
-    private final Timer timer =
-        Util.newTimer("mondrian.rolap.RolapResultShepherd#timer", true);
+    /**
+     * Maximum number of executions that wait to run.
+     */
+    private final int maxQueued;
+
+    /**
+     * Executions waiting to run. All operations on the queue, and on
+     * {@link #runningCount}, must be synchronized on it.
+     */
+    private final PriorityQueue<ShepherdTask> queue =
+        new PriorityQueue<ShepherdTask>();
+
+    /**
+     * Number of executions running, or about to run.
+     */
+    private int runningCount;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Deadlines of the executions that have a timeout.
+     */
+    private final DelayQueue<Deadline> deadlines = new DelayQueue<Deadline>();
+
+    /**
+     * Thread that takes deadlines from {@link #deadlines} as they pass.
+     */
+    private final Thread deadlineThread;
 
     public RolapResultShepherd() {
-        final Pair<Long, TimeUnit> interval =
-            Util.parseInterval(
-                MondrianProperties.instance()
-                    .RolapConnectionShepherdThreadPollingInterval.get(),
-                TimeUnit.MILLISECONDS);
+        this(
+            MondrianProperties.instance()
+                .RolapConnectionShepherdNbThreads.get(),
+            MondrianProperties.instance()
+                .RolapConnectionShepherdQueueSize.get(),
+            MondrianProperties.instance()
+                .RolapConnectionShepherdVirtualThreads.get());
+    }
 
-        long period = interval.right.toMillis(interval.left);
-        timer.schedule(
-            new TimerTask() {
-                public void run() {
-                    for (final Pair<FutureTask<Result>, Execution> task
-                        : tasks)
-                    {
-                        if (task.left.isDone()) {
-                            tasks.remove(task);
-                            continue;
-                        }
-                        if (task.right.isCancelOrTimeout()) {
-                            // Remove it from the list so that we know
-                            // it was cleaned once.
-                            tasks.remove(task);
-
-                            // Cancel the FutureTask for which
-                            // the user thread awaits. The user
-                            // thread will call
-                            // Execution.checkCancelOrTimeout
-                            // later and take care of sending
-                            // an exception on the user thread.
-                            task.left.cancel(false);
-                        }
+    /**
+     * Creates a RolapResultShepherd.
+     *
+     * @param maxRunning Maximum number of executions that run at a time, or
+     *     0 if unlimited
+     * @param maxQueued Maximum number of executions that wait to run
+     * @param virtualThreads Whether to run executions on virtual threads, if
+     *     the JVM supports them
+     */
+    RolapResultShepherd(
+        int maxRunning,
+        int maxQueued,
+        boolean virtualThreads)
+    {
+        this.maxRunning = Math.max(maxRunning, 0);
+        this.maxQueued = Math.max(maxQueued, 0);
+        this.executor = createExecutor(virtualThreads);
+        this.deadlineThread =
+            new Thread(
+                new Runnable() {
+                    public void run() {
+                        watchDeadlines();
                     }
-                }
-            },
-            period,
-            period);
+                },
+                "mondrian.rolap.RolapResultShepherd$deadlines");
+        deadlineThread.setDaemon(true);
+        deadlineThread.start();
+    }
+
+    private static ExecutorService createExecutor(boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                // JDK 21 and later; look up by reflection so that Mondrian
+                // still builds and runs on earlier JDKs.
+                final Method method =
+                    Executors.class.getMethod(
+                        "newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) method.invoke(null);
+            } catch (Exception e) {
+                LOGGER.warn(
+                    "Virtual threads are not supported by this JVM; "
+                    + "running queries on a thread pool",
+                    e);
+            }
+        }
+        return Util.getExecutorService(
+            0, 0, 1,
+            "mondrian.rolap.RolapResultShepherd$executor",
+            null);
     }
 
     /**
@@ -125,18 +176,26 @@ public class RolapResultShepherd {
     {
         // We must wrap this execution into a task that so that we are able
         // to monitor, cancel and detach from it.
-        FutureTask<Result> task = new FutureTask<Result>(callable);
+        final ShepherdTask task =
+            new ShepherdTask(
+                callable, execution, getPriority(execution),
+                sequence.getAndIncrement());
 
-        // Register this task with the shepherd thread
-        final Pair<FutureTask<Result>, Execution> pair =
-            new Pair<FutureTask<Result>, Execution>(
-                task,
-                execution);
-        tasks.add(pair);
+        // If the execution is canceled, stop waiting for it.
+        execution.setCancelHandler(
+            new Runnable() {
+                public void run() {
+                    task.cancel(false);
+                }
+            });
+        final long timeoutMillis = execution.getTimeoutIntervalMillis();
+        if (timeoutMillis > 0) {
+            setDeadline(task, System.currentTimeMillis() + timeoutMillis);
+        }
 
         try {
-            // Now run it.
-            executor.execute(task);
+            // Now run it, or queue it.
+            submit(task);
             return task.get();
         } catch (Throwable e) {
             // Make sure to clean up pending SQL queries.
@@ -154,6 +213,12 @@ public class RolapResultShepherd {
                 node = executionException.getCause();
             }
 
+            // The query timed out before it could start.
+            if (task.expired) {
+                throw MondrianResource.instance().QueryTimeout.ex(
+                    timeoutMillis / 1000);
+            }
+
             // Let the Execution throw whatever it wants to, this way the
             // API contract is respected. The program should in most cases
             // stop here as most exceptions will originate from the Execution
@@ -190,13 +255,222 @@ public class RolapResultShepherd {
             } else {
                 throw new MondrianException(node);
             }
+        } finally {
+            execution.setCancelHandler(null);
+        }
+    }
+
+    /**
+     * Returns the priority of an execution, from the
+     * {@link RolapConnectionProperties#QueryPriority} property of its
+     * connection.
+     */
+    private static int getPriority(Execution execution) {
+        return execution.getMondrianStatement().getMondrianConnection()
+            .getQueryPriority();
+    }
+
+    /**
+     * Runs a task if fewer than {@link #maxRunning} tasks are running;
+     * otherwise queues it.
+     *
+     * @throws mondrian.olap.MondrianException if the queue is full
+     */
+    private void submit(ShepherdTask task) {
+        synchronized (queue) {
+            if (maxRunning > 0 && runningCount >= maxRunning) {
+                if (queue.size() >= maxQueued) {
+                    // Cancel, to remove the task's deadline.
+                    task.cancel(false);
+                    throw MondrianResource.instance().QueryLimitReached.ex();
+                }
+                queue.add(task);
+                return;
+            }
+            ++runningCount;
+            task.admitted = true;
+        }
+        execute(task);
+    }
+
+    /**
+     * Called when a task has finished running. Runs the next queued task in
+     * its place, if there is one.
+     */
+    private void release() {
+        final ShepherdTask next;
+        synchronized (queue) {
+            next = queue.poll();
+            if (next == null) {
+                --runningCount;
+                return;
+            }
+            next.admitted = true;
+        }
+        execute(next);
+    }
+
+    private void execute(ShepherdTask task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // The shepherd has been shut down.
+            release();
+            throw e;
+        }
+    }
+
+    private void setDeadline(ShepherdTask task, long timeMillis) {
+        final Deadline deadline = new Deadline(task, timeMillis);
+        task.deadline = deadline;
+        deadlines.add(deadline);
+    }
+
+    /**
+     * Body of the {@link #deadlineThread}. Cancels each task whose deadline
+     * has passed, so that its user thread stops waiting and throws.
+     */
+    private void watchDeadlines() {
+        try {
+            while (true) {
+                final ShepherdTask task = deadlines.take().task;
+                if (task.isDone()) {
+                    continue;
+                }
+                if (!task.admitted) {
+                    final boolean removed;
+                    synchronized (queue) {
+                        removed = queue.remove(task);
+                    }
+                    if (removed) {
+                        task.expired = true;
+                        task.cancel(false);
+                        continue;
+                    }
+                }
+                final Execution execution = task.execution;
+                if (execution.isCancelOrTimeout()) {
+                    // The user thread will call
+                    // Execution.checkCancelOrTimeout and throw.
+                    task.cancel(false);
+                } else {
+                    // The execution's own timeout started when it started
+                    // to run, after it was queued; or the clock that the
+                    // execution reads has not yet caught up. Look again
+                    // later.
+                    final long now = System.currentTimeMillis();
+                    setDeadline(
+                        task,
+                        Math.max(
+                            execution.getStartTime()
+                                + execution.getTimeoutIntervalMillis(),
+                            now + CoarseClock.RESOLUTION_MILLIS));
+                }
+            }
+        } catch (InterruptedException e) {
+            // The shepherd has been shut down.
         }
     }
 
     public void shutdown() {
-        this.timer.cancel();
+        this.deadlineThread.interrupt();
         this.executor.shutdown();
-        this.tasks.clear();
+        synchronized (queue) {
+            for (ShepherdTask task : queue) {
+                task.cancel(false);
+            }
+            queue.clear();
+        }
+        this.deadlines.clear();
+    }
+
+    /**
+     * Task that computes the result of an execution, and which is ordered in
+     * the queue by priority and then by order of arrival.
+     */
+    private class ShepherdTask
+        extends FutureTask<Result>
+        implements Comparable<ShepherdTask>
+    {
+        final Execution execution;
+        private final int priority;
+        private final long sequence;
+
+        /** Whether the task has been given a slot to run; set holding
+         * {@link RolapResultShepherd#queue}. */
+        volatile boolean admitted;
+
+        /** Whether the task timed out while it was queued. */
+        volatile boolean expired;
+
+        /** Current deadline, or null. */
+        volatile Deadline deadline;
+
+        ShepherdTask(
+            Callable<Result> callable,
+            Execution execution,
+            int priority,
+            long sequence)
+        {
+            super(callable);
+            this.execution = execution;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                release();
+            }
+        }
+
+        protected void done() {
+            final Deadline deadline = this.deadline;
+            if (deadline != null) {
+                deadlines.remove(deadline);
+            }
+            if (isCancelled() && !admitted) {
+                synchronized (queue) {
+                    queue.remove(this);
+                }
+            }
+        }
+
+        public int compareTo(ShepherdTask o) {
+            if (priority != o.priority) {
+                return priority > o.priority ? -1 : 1;
+            }
+            return sequence < o.sequence ? -1 : sequence > o.sequence ? 1 : 0;
+        }
+    }
+
+    /**
+     * Time at which a task times out, as an element of a
+     * {@link DelayQueue}.
+     */
+    private static class Deadline implements Delayed {
+        final ShepherdTask task;
+        private final long timeMillis;
+
+        Deadline(ShepherdTask task, long timeMillis) {
+            this.task = task;
+            this.timeMillis = timeMillis;
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(
+                timeMillis - System.currentTimeMillis(),
+                TimeUnit.MILLISECONDS);
+        }
+
+        public int compareTo(Delayed o) {
+            final long otherTimeMillis = ((Deadline) o).timeMillis;
+            return timeMillis < otherTimeMillis
+                ? -1
+                : timeMillis > otherTimeMillis ? 1 : 0;
+        }
     }
 }
 
@@ -148,6 +148,12 @@ public class RolapSchema extends OlapElementBase implements Schema {
 
     private String dataServicesProvider;
 
+    /**
+     * Parsed, validated and compiled queries, ready to be reused by
+     * statements that execute the same MDX.
+     */
+    private final QueryPlanCache queryPlanCache = new QueryPlanCache();
+
     /**
      * Creates a schema.
      *
@@ -748,6 +754,15 @@ public class RolapSchema extends OlapElementBase implements Schema {
         return rolapStarRegistry;
     }
 
+    /**
+     * Returns the cache of compiled queries of this schema.
+     *
+     * @return Query plan cache
+     */
+    public QueryPlanCache getQueryPlanCache() {
+        return queryPlanCache;
+    }
+
     /**
      * Function table which contains all of the user-defined functions in this
      * schema, plus all of the standard functions.
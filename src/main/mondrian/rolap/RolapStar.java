@@ -722,6 +722,17 @@ public class RolapStar {
             return approxCardinality;
         }
 
+        /**
+         * Returns the column cardinality if it is already known, from the
+         * schema or from a previous call to {@link #getCardinality()};
+         * otherwise -1. Never issues a query.
+         *
+         * @return the column cardinality, or -1 if not known
+         */
+        public int getKnownCardinality() {
+            return approxCardinality < 0 ? -1 : approxCardinality;
+        }
+
         public String toString() {
             StringWriter sw = new StringWriter(256);
             PrintWriter pw = new PrintWriter(sw);
@@ -336,11 +336,56 @@ public class RolapUtil {
         int resultSetType,
         int resultSetConcurrency,
         Util.Function1<java.sql.Statement, Void> callback)
+    {
+        return executeQuery(
+            dataSource, sql, types, maxRowCount, firstRowOrdinal, locus,
+            resultSetType, resultSetConcurrency, callback, null, -1);
+    }
+
+    /**
+     * Executes a query, choosing the JDBC fetch size, and whether to stream
+     * the result set, based on the number of rows it is expected to return.
+     *
+     * <p>If the query fails, it wraps the {@link SQLException} in a runtime
+     * exception with <code>message</code> as description, and closes the result
+     * set.
+     *
+     * <p>If it succeeds, the caller must call the {@link SqlStatement#close}
+     * method of the returned {@link SqlStatement}.
+     *
+     * @param dataSource DataSource
+     * @param sql SQL string
+     * @param types Suggested types of columns, or null
+     * @param maxRowCount Maximum number of rows to retrieve, <= 0 if unlimited
+     * @param firstRowOrdinal Ordinal of row to skip to (1-based), or 0 to
+     *   start from beginning
+     * @param locus Execution context of this statement
+     * @param resultSetType Result set type, or -1 to use default
+     * @param resultSetConcurrency Result set concurrency, or -1 to use default
+     * @param callback Callback, called with the JDBC statement before it is
+     *   executed, or null
+     * @param dialect Dialect
+     * @param expectedRowCount Expected number of rows, or -1 if not known
+     * @return ResultSet
+     */
+    public static SqlStatement executeQuery(
+        DataSource dataSource,
+        String sql,
+        List<SqlStatement.Type> types,
+        int maxRowCount,
+        int firstRowOrdinal,
+        Locus locus,
+        int resultSetType,
+        int resultSetConcurrency,
+        Util.Function1<java.sql.Statement, Void> callback,
+        Dialect dialect,
+        int expectedRowCount)
     {
         SqlStatement stmt =
             new SqlStatement(
                 dataSource, sql, types, maxRowCount, firstRowOrdinal, locus,
-                resultSetType, resultSetConcurrency, callback);
+                resultSetType, resultSetConcurrency, callback, dialect,
+                expectedRowCount);
         stmt.execute();
         return stmt;
     }
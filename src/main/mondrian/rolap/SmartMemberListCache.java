@@ -51,7 +51,16 @@ public class SmartMemberListCache <K, V> {
     SmartCache<Pair<K, Object>, V> cache;
 
     public SmartMemberListCache() {
-        cache = new SoftSmartCache<Pair<K, Object>, V>();
+        this(new SoftSmartCache<Pair<K, Object>, V>());
+    }
+
+    /**
+     * Creates a SmartMemberListCache that stores its lists in a given cache.
+     *
+     * @param cache Cache
+     */
+    public SmartMemberListCache(SmartCache<Pair<K, Object>, V> cache) {
+        this.cache = cache;
     }
 
     public Object put(K key, SqlConstraint constraint, V value) {
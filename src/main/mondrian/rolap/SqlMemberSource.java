@@ -290,6 +290,8 @@ public class SqlMemberSource
     }
 
     private List<RolapMember> getMembers(DataSource dataSource) {
+        final int approxRowCount =
+            Util.last(hierarchy.levelList).getApproxRowCount();
         SqlTupleReader.ColumnLayoutBuilder layoutBuilder =
             new SqlTupleReader.ColumnLayoutBuilder();
         String sql =
@@ -305,7 +307,8 @@ public class SqlMemberSource
                     "SqlMemberSource.getMembers",
                     "while building member cache",
                     SqlStatementEvent.Purpose.TUPLES, 0),
-                -1, -1, null);
+                -1, -1, null, getDialect(),
+                approxRowCount <= 0 ? -1 : approxRowCount);
         final SqlTupleReader.ColumnLayout columnLayout =
             layoutBuilder.toLayout();
         try {
@@ -1102,7 +1105,7 @@ public class SqlMemberSource
                     "SqlMemberSource.getMemberChildren",
                     "while building member cache",
                     SqlStatementEvent.Purpose.TUPLES, 0),
-                -1, -1, null);
+                -1, -1, null, getDialect(), -1);
         try {
             int limit = MondrianProperties.instance().ResultLimit.get();
 
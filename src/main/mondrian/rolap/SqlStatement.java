@@ -13,8 +13,10 @@ import mondrian.olap.MondrianProperties;
 import mondrian.olap.Util;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
+import mondrian.server.WorkloadManager;
 import mondrian.server.monitor.*;
 import mondrian.server.monitor.SqlStatementEvent.Purpose;
+import mondrian.spi.Dialect;
 import mondrian.util.*;
 
 import org.apache.log4j.Logger;
@@ -64,6 +66,12 @@ public class SqlStatement implements DBStatement {
     // used for SQL logging, allows for a SQL Statement UID
     private static final AtomicLong ID_GENERATOR = new AtomicLong();
 
+    /**
+     * Smallest fetch size that is chosen based on the expected number of
+     * rows.
+     */
+    private static final int MIN_FETCH_SIZE = 100;
+
     private static final Semaphore querySemaphore = new Semaphore(
         MondrianProperties.instance().QueryLimit.get(), true);
 
@@ -77,7 +85,15 @@ public class SqlStatement implements DBStatement {
     private final Locus locus;
     private final int resultSetType;
     private final int resultSetConcurrency;
+    private final Dialect dialect;
+    private final int expectedRowCount;
     private boolean haveSemaphore;
+
+    /**
+     * Class of workload whose quota this statement counts against, or null.
+     */
+    private WorkloadManager.WorkloadClass workloadClass;
+    private boolean restoreAutoCommit;
     public int rowCount;
     private long startTimeNanos;
     private long startTimeMillis;
@@ -112,6 +128,46 @@ public class SqlStatement implements DBStatement {
         int resultSetConcurrency,
         Util.Function1<Statement, Void> callback)
     {
+        this(
+            dataSource, sql, types, maxRows, firstRowOrdinal, locus,
+            resultSetType, resultSetConcurrency, callback, null, -1);
+    }
+
+    /**
+     * Creates a SqlStatement that chooses its JDBC fetch size, and whether to
+     * stream its result set, based on the number of rows it is expected to
+     * return.
+     *
+     * @param dataSource Data source
+     * @param sql SQL
+     * @param types Suggested types of columns, or null;
+     *     if present, must have one element for each SQL column;
+     *     each not-null entry overrides deduced JDBC type of the column
+     * @param maxRows Maximum rows; <= 0 means no maximum
+     * @param firstRowOrdinal Ordinal of first row to skip to; <= 0 do not skip
+     * @param locus Execution context of this statement
+     * @param resultSetType Result set type
+     * @param resultSetConcurrency Result set concurrency
+     * @param callback Callback, called with the JDBC statement before it is
+     *     executed, or null
+     * @param dialect Dialect, or null to leave the fetch size to the driver
+     * @param expectedRowCount Expected number of rows, or -1 if not known
+     */
+    public SqlStatement(
+        DataSource dataSource,
+        String sql,
+        List<Type> types,
+        int maxRows,
+        int firstRowOrdinal,
+        Locus locus,
+        int resultSetType,
+        int resultSetConcurrency,
+        Util.Function1<Statement, Void> callback,
+        Dialect dialect,
+        int expectedRowCount)
+    {
+        this.dialect = dialect;
+        this.expectedRowCount = expectedRowCount;
         this.callback = callback;
         this.id = ID_GENERATOR.getAndIncrement();
         this.dataSource = dataSource;
@@ -138,6 +194,12 @@ public class SqlStatement implements DBStatement {
             // Check execution state
             locus.execution.checkCancelOrTimeout();
 
+            // Wait until the execution's class of workload is under its SQL
+            // quota.
+            workloadClass =
+                locus.getServer().getWorkloadManager()
+                    .admitSql(locus.execution);
+
             this.jdbcConnection = dataSource.getConnection();
             querySemaphore.acquire();
             haveSemaphore = true;
@@ -170,7 +232,19 @@ public class SqlStatement implements DBStatement {
             startTimeNanos = System.nanoTime();
             startTimeMillis = System.currentTimeMillis();
 
-            if (resultSetType < 0 || resultSetConcurrency < 0) {
+            final boolean streaming = isStreaming();
+            if (streaming
+                && dialect.requiresTransactionForCursor()
+                && jdbcConnection.getAutoCommit())
+            {
+                jdbcConnection.setAutoCommit(false);
+                restoreAutoCommit = true;
+            }
+            if (streaming) {
+                statement = jdbcConnection.createStatement(
+                    ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            } else if (resultSetType < 0 || resultSetConcurrency < 0) {
                 statement = jdbcConnection.createStatement();
             } else {
                 statement = jdbcConnection.createStatement(
@@ -180,6 +254,10 @@ public class SqlStatement implements DBStatement {
             if (maxRows > 0) {
                 statement.setMaxRows(maxRows);
             }
+            final int fetchSize = getFetchSize(streaming);
+            if (fetchSize != 0) {
+                statement.setFetchSize(fetchSize);
+            }
 
             // First make sure to register with the execution instance.
             if (getPurpose() != Purpose.CELL_SEGMENT) {
@@ -204,7 +282,11 @@ public class SqlStatement implements DBStatement {
             // skip to first row specified in request
             this.state = State.ACTIVE;
             if (firstRowOrdinal > 0) {
-                if (resultSetType == ResultSet.TYPE_FORWARD_ONLY) {
+                // A streaming statement is forward-only, whatever type the
+                // caller asked for, so cannot call absolute().
+                if (streaming
+                    || resultSetType == ResultSet.TYPE_FORWARD_ONLY)
+                {
                     for (int i = 0; i < firstRowOrdinal; ++i) {
                         if (!this.resultSet.next()) {
                             this.state = State.DONE;
@@ -292,12 +374,31 @@ public class SqlStatement implements DBStatement {
             haveSemaphore = false;
             querySemaphore.release();
         }
+        if (workloadClass != null) {
+            workloadClass.releaseSql();
+            workloadClass = null;
+        }
 
         // According to the JDBC spec, closing a statement automatically closes
         // its result sets, and closing a connection automatically closes its
         // statements. But let's be conservative and close everything
         // explicitly.
-        SQLException ex = Util.close(resultSet, null, jdbcConnection);
+        SQLException ex = Util.close(resultSet, null, null);
+        if (restoreAutoCommit) {
+            // Ends the transaction that held the server-side cursor.
+            restoreAutoCommit = false;
+            try {
+                jdbcConnection.setAutoCommit(true);
+            } catch (SQLException e) {
+                if (ex == null) {
+                    ex = e;
+                }
+            }
+        }
+        final SQLException ex2 = Util.close(null, null, jdbcConnection);
+        if (ex == null) {
+            ex = ex2;
+        }
         resultSet = null;
         jdbcConnection = null;
 
@@ -350,6 +451,59 @@ public class SqlStatement implements DBStatement {
         return resultSet;
     }
 
+    /**
+     * Returns whether this statement should stream its result set: that is,
+     * read it using a forward-only cursor rather than all at once. True if
+     * the statement is expected to return at least
+     * {@link MondrianProperties#JdbcStreamingThreshold} rows.
+     */
+    private boolean isStreaming() {
+        final int threshold =
+            MondrianProperties.instance().JdbcStreamingThreshold.get();
+        return dialect != null
+            && threshold >= 0
+            && expectedRowCount >= threshold
+            && (maxRows <= 0 || maxRows >= threshold)
+            && (resultSetType < 0
+                || resultSetType == ResultSet.TYPE_FORWARD_ONLY)
+            && (resultSetConcurrency < 0
+                || resultSetConcurrency == ResultSet.CONCUR_READ_ONLY)
+            && MondrianProperties.instance().JdbcFetchSize.get() > 0;
+    }
+
+    /**
+     * Returns the JDBC fetch size for this statement, or 0 to use the
+     * driver's default.
+     *
+     * <p>A statement that is expected to return few rows reads them all in
+     * one round trip; a larger statement reads them
+     * {@link MondrianProperties#JdbcFetchSize} at a time.
+     *
+     * @param streaming Whether the statement streams its result set
+     * @return Fetch size
+     */
+    private int getFetchSize(boolean streaming) {
+        int fetchSize = MondrianProperties.instance().JdbcFetchSize.get();
+        if (dialect == null || fetchSize <= 0) {
+            return 0;
+        }
+        if (expectedRowCount >= 0) {
+            // One more than expected, so that the driver need not make
+            // another round trip to find that there are no more rows; but
+            // not so few that a low estimate leads to many round trips.
+            fetchSize =
+                Math.min(
+                    fetchSize,
+                    Math.max(expectedRowCount + 1, MIN_FETCH_SIZE));
+        }
+        if (maxRows > 0) {
+            fetchSize = Math.min(fetchSize, maxRows);
+        }
+        return streaming
+            ? dialect.getStreamingFetchSize(fetchSize)
+            : fetchSize;
+    }
+
     /**
      * Handles an exception thrown from the ResultSet, implicitly calls
      * {@link #close}, and returns an exception which includes the full
@@ -12,6 +12,7 @@
 package mondrian.rolap;
 
 import mondrian.calc.TupleList;
+import mondrian.calc.impl.ColumnarTupleList;
 import mondrian.calc.impl.ListTupleList;
 import mondrian.calc.impl.UnaryTupleList;
 import mondrian.olap.*;
@@ -21,6 +22,7 @@ import mondrian.rolap.agg.AggregationManager;
 import mondrian.rolap.agg.CellRequest;
 import mondrian.rolap.aggmatcher.AggStar;
 import mondrian.rolap.sql.*;
+import mondrian.server.CancellationToken;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
 import mondrian.server.Statement;
@@ -467,6 +469,26 @@ public class SqlTupleReader implements TupleReader {
         return enumTargetCount;
     }
 
+    /**
+     * Estimates the number of rows that the query for some targets will
+     * return, from the approximate cardinality of their levels. Constraints
+     * may make the actual number much smaller.
+     *
+     * @param targets Targets read by the query
+     * @return Estimated number of rows, or -1 if not known
+     */
+    private static int estimateRowCount(List<Target> targets) {
+        long rowCount = 1;
+        for (Target target : targets) {
+            final int levelRowCount = target.level.getApproxRowCount();
+            if (levelRowCount <= 0) {
+                return -1;
+            }
+            rowCount = Math.min(rowCount * levelRowCount, Integer.MAX_VALUE);
+        }
+        return (int) rowCount;
+    }
+
     private void prepareTuples(
         Dialect dialect,
         DataSource dataSource,
@@ -500,7 +522,7 @@ public class SqlTupleReader implements TupleReader {
                         "SqlTupleReader.readTuples " + partialTargets,
                         message,
                         SqlStatementEvent.Purpose.TUPLES, 0),
-                    -1, -1, null);
+                    -1, -1, null, dialect, estimateRowCount(partialTargets));
                 resultSet = stmt.getResultSet();
             } else {
                 resultSet = null;
@@ -520,6 +542,9 @@ public class SqlTupleReader implements TupleReader {
                 srcMemberIdxes = new int[enumTargetCount];
             }
 
+            // Rows are cheap to read; check for cancel every few rows.
+            final CancellationToken cancellationToken =
+                CancellationToken.current();
             boolean moreRows;
             int currPartialResultIdx = 0;
             if (execQuery) {
@@ -531,6 +556,7 @@ public class SqlTupleReader implements TupleReader {
                 moreRows = currPartialResultIdx < partialResult.size();
             }
             while (moreRows) {
+                cancellationToken.check();
                 if (limit > 0 && limit < ++fetchCount) {
                     // result limit exceeded, throw an exception
                     throw MondrianResource.instance().MemberFetchLimitExceeded
@@ -689,24 +715,35 @@ public class SqlTupleReader implements TupleReader {
 
         // List of tuples
         final int n = targets.size();
-        @SuppressWarnings({"unchecked"})
-        final Iterator<Member>[] iter = new Iterator[n];
-        for (int i = 0; i < n; i++) {
-            Target t = targets.get(i);
-            iter[i] = t.close().iterator();
+        final List<List<Member>> columns = new ArrayList<List<Member>>(n);
+        for (Target target : targets) {
+            columns.add(target.close());
         }
-        List<Member> members = new ArrayList<Member>();
-        while (iter[0].hasNext()) {
+
+        TupleList tupleList;
+        if (n + emptySets == 1) {
+            tupleList = new UnaryTupleList(columns.get(0));
+        } else if (emptySets == 0
+            && ColumnarTupleList.isPreferred(columns.get(0).size()))
+        {
+            // Large result. Store the columns we read as they are, rather
+            // than interleaving them into tuples.
+            tupleList = ColumnarTupleList.fromColumns(columns);
+        } else {
+            @SuppressWarnings({"unchecked"})
+            final Iterator<Member>[] iter = new Iterator[n];
             for (int i = 0; i < n; i++) {
-                members.add(iter[i].next());
+                iter[i] = columns.get(i).iterator();
             }
+            List<Member> members = new ArrayList<Member>();
+            while (iter[0].hasNext()) {
+                for (int i = 0; i < n; i++) {
+                    members.add(iter[i].next());
+                }
+            }
+            tupleList = new ListTupleList(n + emptySets, members);
         }
 
-        TupleList tupleList =
-            n + emptySets == 1
-                ? new UnaryTupleList(members)
-                : new ListTupleList(n + emptySets, members);
-
         // need to hierarchize the columns from the enumerated targets
         // since we didn't necessarily add them in the order in which
         // they originally appeared in the cross product
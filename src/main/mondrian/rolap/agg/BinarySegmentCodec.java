@@ -0,0 +1,711 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.olap.Util;
+import mondrian.rolap.BitKey;
+import mondrian.rolap.CellKey;
+import mondrian.spi.*;
+import mondrian.util.*;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Compact binary implementation of {@link SegmentCodec}.
+ *
+ * <p>Each record consists of a version byte, a kind byte ('H' for a header,
+ * 'B' for a body), a dictionary of the distinct strings in the record, and a
+ * payload. In the payload:</p>
+ *
+ * <ul>
+ * <li>Strings (names, column expressions, and string values of
+ *     {@link SegmentColumn}s and axes) are written as an index into the
+ *     dictionary, so a value that occurs many times is stored once;</li>
+ * <li>Counts, ordinals and integer values are written as variable-length
+ *     integers (7 bits per byte, zig-zag encoded if they may be
+ *     negative);</li>
+ * <li>Other values are preceded by a one-byte type tag; types the codec
+ *     does not know are written using Java serialization;</li>
+ * <li>The cells of {@link DenseDoubleSegmentBody},
+ *     {@link DenseIntSegmentBody}, {@link SparseDoubleSegmentBody} and
+ *     {@link SparseIntSegmentBody} are written as raw primitive arrays, and
+ *     their null indicators as the words of a bit set. The ascending cell
+ *     offsets of sparse native bodies are written as differences.</li>
+ * </ul>
+ *
+ * <p>This class is stateless and thread safe.</p>
+ */
+public class BinarySegmentCodec implements SegmentCodec {
+    /**
+     * The singleton instance.
+     */
+    public static final BinarySegmentCodec INSTANCE = new BinarySegmentCodec();
+
+    /**
+     * Current format version. Increment when the format changes, and teach
+     * the reader to read the previous versions.
+     */
+    static final int VERSION = 1;
+
+    private static final byte KIND_HEADER = 'H';
+    private static final byte KIND_BODY = 'B';
+
+    private static final byte BODY_DENSE_DOUBLE = 1;
+    private static final byte BODY_DENSE_INT = 2;
+    private static final byte BODY_DENSE_OBJECT = 3;
+    private static final byte BODY_SPARSE = 4;
+    private static final byte BODY_SPARSE_DOUBLE = 5;
+    private static final byte BODY_SPARSE_INT = 6;
+
+    private static final byte BIT_KEY_NULL = 0;
+    private static final byte BIT_KEY_SMALL = 1;
+    private static final byte BIT_KEY_MID = 2;
+    private static final byte BIT_KEY_BIG = 3;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_INT = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_DOUBLE = 4;
+    private static final byte TAG_FALSE = 5;
+    private static final byte TAG_TRUE = 6;
+    private static final byte TAG_BIG_DECIMAL = 7;
+    private static final byte TAG_BIG_INTEGER = 8;
+    private static final byte TAG_FLOAT = 9;
+    private static final byte TAG_SHORT = 10;
+    private static final byte TAG_BYTE = 11;
+    private static final byte TAG_SQL_DATE = 12;
+    private static final byte TAG_SQL_TIME = 13;
+    private static final byte TAG_SQL_TIMESTAMP = 14;
+    private static final byte TAG_DATE = 15;
+    private static final byte TAG_SERIALIZED = 16;
+
+    /** Use {@link #INSTANCE}. */
+    private BinarySegmentCodec() {
+    }
+
+    public void writeHeader(SegmentHeader header, OutputStream out)
+        throws IOException
+    {
+        final Writer w = new Writer();
+        w.writeString(header.schemaName);
+        w.writeBytes(header.schemaChecksum);
+        w.writeString(header.cubeName);
+        w.writeString(header.measureName);
+        w.writeColumns(header.getConstrainedColumns());
+        w.writeVarInt(header.compoundPredicates.size());
+        for (String compoundPredicate : header.compoundPredicates) {
+            w.writeString(compoundPredicate);
+        }
+        w.writeString(header.rolapStarFactTableName);
+        w.writeBitKey(header.constrainedColsBitKey);
+        w.writeColumns(header.getExcludedRegions());
+        w.finish(KIND_HEADER, out);
+    }
+
+    public SegmentHeader readHeader(InputStream in) throws IOException {
+        final Reader r = new Reader(in, KIND_HEADER);
+        final String schemaName = r.readString();
+        final ByteString schemaChecksum = r.readBytes();
+        final String cubeName = r.readString();
+        final String measureName = r.readString();
+        final List<SegmentColumn> constrainedColumns = r.readColumns();
+        final int compoundPredicateCount = r.readVarInt();
+        final List<String> compoundPredicates =
+            new ArrayList<String>(compoundPredicateCount);
+        for (int i = 0; i < compoundPredicateCount; i++) {
+            compoundPredicates.add(r.readString());
+        }
+        final String rolapStarFactTableName = r.readString();
+        final BitKey constrainedColsBitKey = r.readBitKey();
+        final List<SegmentColumn> excludedRegions = r.readColumns();
+        return new SegmentHeader(
+            schemaName,
+            schemaChecksum,
+            cubeName,
+            measureName,
+            constrainedColumns,
+            compoundPredicates,
+            rolapStarFactTableName,
+            constrainedColsBitKey,
+            excludedRegions);
+    }
+
+    public void writeBody(SegmentBody body, OutputStream out)
+        throws IOException
+    {
+        if (body instanceof OffHeapSegmentBody) {
+            body = ((OffHeapSegmentBody) body).toHeap();
+        }
+        final Writer w = new Writer();
+        if (body instanceof DenseDoubleSegmentBody) {
+            w.out.writeByte(BODY_DENSE_DOUBLE);
+            w.writeAxes(body);
+            w.writeBitSet(body.getIndicators());
+            final double[] values = (double[]) body.getValueArray();
+            w.writeVarInt(values.length);
+            final ByteBuffer buffer = ByteBuffer.allocate(values.length * 8);
+            buffer.asDoubleBuffer().put(values);
+            w.out.write(buffer.array());
+        } else if (body instanceof DenseIntSegmentBody) {
+            w.out.writeByte(BODY_DENSE_INT);
+            w.writeAxes(body);
+            w.writeBitSet(body.getIndicators());
+            final int[] values = (int[]) body.getValueArray();
+            w.writeVarInt(values.length);
+            final ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+            buffer.asIntBuffer().put(values);
+            w.out.write(buffer.array());
+        } else if (body instanceof DenseObjectSegmentBody) {
+            w.out.writeByte(BODY_DENSE_OBJECT);
+            w.writeAxes(body);
+            final Object[] values = (Object[]) body.getValueArray();
+            w.writeVarInt(values.length);
+            for (Object value : values) {
+                w.writeValue(value);
+            }
+        } else if (body instanceof SparseSegmentBody) {
+            final SparseSegmentBody sparseBody = (SparseSegmentBody) body;
+            w.out.writeByte(BODY_SPARSE);
+            w.writeAxes(body);
+            w.writeVarInt(sparseBody.keys.length);
+            for (int i = 0; i < sparseBody.keys.length; i++) {
+                for (int ordinal : sparseBody.keys[i].getOrdinals()) {
+                    w.writeVarInt(ordinal);
+                }
+                w.writeValue(sparseBody.data[i]);
+            }
+        } else if (body instanceof SparseDoubleSegmentBody) {
+            final SparseDoubleSegmentBody sparseBody =
+                (SparseDoubleSegmentBody) body;
+            w.out.writeByte(BODY_SPARSE_DOUBLE);
+            w.writeAxes(body);
+            w.writeOffsets(sparseBody.offsets);
+            w.writeBitSet(sparseBody.nullIndicators);
+            final ByteBuffer buffer =
+                ByteBuffer.allocate(sparseBody.values.length * 8);
+            buffer.asDoubleBuffer().put(sparseBody.values);
+            w.out.write(buffer.array());
+        } else if (body instanceof SparseIntSegmentBody) {
+            final SparseIntSegmentBody sparseBody =
+                (SparseIntSegmentBody) body;
+            w.out.writeByte(BODY_SPARSE_INT);
+            w.writeAxes(body);
+            w.writeOffsets(sparseBody.offsets);
+            w.writeBitSet(sparseBody.nullIndicators);
+            final ByteBuffer buffer =
+                ByteBuffer.allocate(sparseBody.values.length * 4);
+            buffer.asIntBuffer().put(sparseBody.values);
+            w.out.write(buffer.array());
+        } else {
+            throw Util.newInternal(
+                "Unknown segment body type: " + body.getClass() + ": " + body);
+        }
+        w.finish(KIND_BODY, out);
+    }
+
+    public SegmentBody readBody(InputStream in) throws IOException {
+        final Reader r = new Reader(in, KIND_BODY);
+        final byte bodyType = r.in.readByte();
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            r.readAxes();
+        switch (bodyType) {
+        case BODY_DENSE_DOUBLE: {
+            final BitSet nullIndicators = r.readBitSet();
+            final double[] values = new double[r.readVarInt()];
+            final byte[] bytes = new byte[values.length * 8];
+            r.in.readFully(bytes);
+            ByteBuffer.wrap(bytes).asDoubleBuffer().get(values);
+            return new DenseDoubleSegmentBody(nullIndicators, values, axes);
+        }
+        case BODY_DENSE_INT: {
+            final BitSet nullIndicators = r.readBitSet();
+            final int[] values = new int[r.readVarInt()];
+            final byte[] bytes = new byte[values.length * 4];
+            r.in.readFully(bytes);
+            ByteBuffer.wrap(bytes).asIntBuffer().get(values);
+            return new DenseIntSegmentBody(nullIndicators, values, axes);
+        }
+        case BODY_DENSE_OBJECT: {
+            final Object[] values = new Object[r.readVarInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = r.readValue();
+            }
+            return new DenseObjectSegmentBody(values, axes);
+        }
+        case BODY_SPARSE: {
+            final int cellCount = r.readVarInt();
+            final Map<CellKey, Object> map =
+                new LinkedHashMap<CellKey, Object>(cellCount * 4 / 3 + 1);
+            for (int i = 0; i < cellCount; i++) {
+                final int[] ordinals = new int[axes.size()];
+                for (int j = 0; j < ordinals.length; j++) {
+                    ordinals[j] = r.readVarInt();
+                }
+                map.put(CellKey.Generator.newCellKey(ordinals), r.readValue());
+            }
+            return new SparseSegmentBody(map, axes);
+        }
+        case BODY_SPARSE_DOUBLE: {
+            final long[] offsets = r.readOffsets();
+            final BitSet nullIndicators = r.readBitSet();
+            final double[] values = new double[offsets.length];
+            final byte[] bytes = new byte[values.length * 8];
+            r.in.readFully(bytes);
+            ByteBuffer.wrap(bytes).asDoubleBuffer().get(values);
+            return new SparseDoubleSegmentBody(
+                offsets, values, nullIndicators, axes);
+        }
+        case BODY_SPARSE_INT: {
+            final long[] offsets = r.readOffsets();
+            final BitSet nullIndicators = r.readBitSet();
+            final int[] values = new int[offsets.length];
+            final byte[] bytes = new byte[values.length * 4];
+            r.in.readFully(bytes);
+            ByteBuffer.wrap(bytes).asIntBuffer().get(values);
+            return new SparseIntSegmentBody(
+                offsets, values, nullIndicators, axes);
+        }
+        default:
+            throw new IOException("Unknown segment body type " + bodyType);
+        }
+    }
+
+    /**
+     * Writes an unsigned variable-length integer.
+     */
+    private static void writeVarLong(DataOutput out, long v)
+        throws IOException
+    {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    /**
+     * Reads an unsigned variable-length integer.
+     */
+    private static long readVarLong(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    /**
+     * Accumulates a payload and its string dictionary.
+     */
+    private static class Writer {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        final Map<String, Integer> dictionary =
+            new LinkedHashMap<String, Integer>();
+
+        void finish(byte kind, OutputStream outputStream) throws IOException {
+            out.flush();
+            final DataOutputStream dataOut =
+                new DataOutputStream(outputStream);
+            dataOut.writeByte(VERSION);
+            dataOut.writeByte(kind);
+            writeVarLong(dataOut, dictionary.size());
+            for (String s : dictionary.keySet()) {
+                final byte[] utf8 = s.getBytes("UTF-8");
+                writeVarLong(dataOut, utf8.length);
+                dataOut.write(utf8);
+            }
+            writeVarLong(dataOut, bytes.size());
+            bytes.writeTo(dataOut);
+            dataOut.flush();
+        }
+
+        void writeVarInt(int v) throws IOException {
+            assert v >= 0;
+            writeVarLong(out, v);
+        }
+
+        void writeZigZag(long v) throws IOException {
+            writeVarLong(out, (v << 1) ^ (v >> 63));
+        }
+
+        /** Writes a string as a dictionary reference; 0 means null. */
+        void writeString(String s) throws IOException {
+            if (s == null) {
+                writeVarInt(0);
+                return;
+            }
+            Integer index = dictionary.get(s);
+            if (index == null) {
+                index = dictionary.size();
+                dictionary.put(s, index);
+            }
+            writeVarInt(index + 1);
+        }
+
+        void writeBytes(ByteString byteString) throws IOException {
+            writeVarInt(byteString.length());
+            for (int i = 0; i < byteString.length(); i++) {
+                out.writeByte(byteString.byteAt(i));
+            }
+        }
+
+        void writeBitSet(BitSet bitSet) throws IOException {
+            final int wordCount = (bitSet.length() + 63) / 64;
+            writeVarInt(wordCount);
+            for (int w = 0; w < wordCount; w++) {
+                long word = 0;
+                for (int i = bitSet.nextSetBit(w * 64);
+                     i >= 0 && i < (w + 1) * 64;
+                     i = bitSet.nextSetBit(i + 1))
+                {
+                    word |= 1L << i;
+                }
+                out.writeLong(word);
+            }
+        }
+
+        /** Writes ascending offsets as differences from their predecessor. */
+        void writeOffsets(long[] offsets) throws IOException {
+            writeVarInt(offsets.length);
+            long previous = 0;
+            for (long offset : offsets) {
+                writeVarLong(out, offset - previous);
+                previous = offset;
+            }
+        }
+
+        void writeBitKey(BitKey bitKey) throws IOException {
+            if (bitKey == null) {
+                out.writeByte(BIT_KEY_NULL);
+                return;
+            }
+            out.writeByte(
+                bitKey instanceof BitKey.Small
+                    ? BIT_KEY_SMALL
+                    : bitKey instanceof BitKey.Mid128
+                    ? BIT_KEY_MID
+                    : BIT_KEY_BIG);
+            writeVarInt(bitKey.cardinality());
+            int previous = -1;
+            for (int i = bitKey.nextSetBit(0);
+                 i >= 0;
+                 i = bitKey.nextSetBit(i + 1))
+            {
+                writeVarInt(i - previous - 1);
+                previous = i;
+            }
+        }
+
+        /** Writes a set of values; null means a wildcard. */
+        void writeValues(SortedSet<Comparable> values) throws IOException {
+            if (values == null) {
+                writeVarInt(0);
+                return;
+            }
+            writeVarInt(values.size() + 1);
+            for (Comparable value : values) {
+                writeValue(value);
+            }
+        }
+
+        void writeColumns(List<SegmentColumn> columns) throws IOException {
+            writeVarInt(columns.size());
+            for (SegmentColumn column : columns) {
+                writeString(column.columnExpression);
+                writeZigZag(column.valueCount);
+                writeValues(column.values);
+            }
+        }
+
+        void writeAxes(SegmentBody body) throws IOException {
+            final SortedSet<Comparable>[] axisValueSets =
+                body.getAxisValueSets();
+            final boolean[] nullAxisFlags = body.getNullAxisFlags();
+            writeVarInt(axisValueSets.length);
+            for (int i = 0; i < axisValueSets.length; i++) {
+                out.writeBoolean(nullAxisFlags[i]);
+                writeValues(axisValueSets[i]);
+            }
+        }
+
+        void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(TAG_NULL);
+            } else if (value instanceof String) {
+                out.writeByte(TAG_STRING);
+                writeString((String) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(TAG_INT);
+                writeZigZag((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(TAG_LONG);
+                writeZigZag((Long) value);
+            } else if (value instanceof Double) {
+                out.writeByte(TAG_DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+            } else if (value instanceof BigDecimal) {
+                final BigDecimal bigDecimal = (BigDecimal) value;
+                out.writeByte(TAG_BIG_DECIMAL);
+                writeZigZag(bigDecimal.scale());
+                writeByteArray(bigDecimal.unscaledValue().toByteArray());
+            } else if (value instanceof BigInteger) {
+                out.writeByte(TAG_BIG_INTEGER);
+                writeByteArray(((BigInteger) value).toByteArray());
+            } else if (value instanceof Float) {
+                out.writeByte(TAG_FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Short) {
+                out.writeByte(TAG_SHORT);
+                writeZigZag((Short) value);
+            } else if (value instanceof Byte) {
+                out.writeByte(TAG_BYTE);
+                out.writeByte((Byte) value);
+            } else if (value instanceof java.sql.Timestamp) {
+                final java.sql.Timestamp timestamp = (java.sql.Timestamp) value;
+                out.writeByte(TAG_SQL_TIMESTAMP);
+                writeZigZag(timestamp.getTime());
+                writeVarInt(timestamp.getNanos());
+            } else if (value instanceof java.sql.Date) {
+                out.writeByte(TAG_SQL_DATE);
+                writeZigZag(((java.sql.Date) value).getTime());
+            } else if (value instanceof java.sql.Time) {
+                out.writeByte(TAG_SQL_TIME);
+                writeZigZag(((java.sql.Time) value).getTime());
+            } else if (value.getClass() == java.util.Date.class) {
+                out.writeByte(TAG_DATE);
+                writeZigZag(((java.util.Date) value).getTime());
+            } else {
+                out.writeByte(TAG_SERIALIZED);
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                final ObjectOutputStream oos = new ObjectOutputStream(baos);
+                oos.writeObject(value);
+                oos.close();
+                writeByteArray(baos.toByteArray());
+            }
+        }
+
+        void writeByteArray(byte[] byteArray) throws IOException {
+            writeVarInt(byteArray.length);
+            out.write(byteArray);
+        }
+    }
+
+    /**
+     * Reads a payload, having read its string dictionary.
+     */
+    private static class Reader {
+        final DataInputStream in;
+        final String[] dictionary;
+
+        Reader(InputStream inputStream, byte kind) throws IOException {
+            final DataInputStream dataIn = new DataInputStream(inputStream);
+            final int version = dataIn.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException(
+                    "Unknown segment codec version " + version);
+            }
+            final byte actualKind = dataIn.readByte();
+            if (actualKind != kind) {
+                throw new IOException(
+                    "Expected record of kind '" + (char) kind
+                    + "', got '" + (char) actualKind + "'");
+            }
+            dictionary = new String[(int) readVarLong(dataIn)];
+            for (int i = 0; i < dictionary.length; i++) {
+                final byte[] utf8 = new byte[(int) readVarLong(dataIn)];
+                dataIn.readFully(utf8);
+                dictionary[i] = new String(utf8, "UTF-8");
+            }
+            // Read the whole payload, so that a malformed record cannot
+            // consume bytes belonging to the next record in the stream.
+            final byte[] payload = new byte[(int) readVarLong(dataIn)];
+            dataIn.readFully(payload);
+            in = new DataInputStream(new ByteArrayInputStream(payload));
+        }
+
+        int readVarInt() throws IOException {
+            return (int) readVarLong(in);
+        }
+
+        long readZigZag() throws IOException {
+            final long v = readVarLong(in);
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        String readString() throws IOException {
+            final int index = readVarInt();
+            return index == 0 ? null : dictionary[index - 1];
+        }
+
+        ByteString readBytes() throws IOException {
+            final byte[] bytes = new byte[readVarInt()];
+            in.readFully(bytes);
+            return new ByteString(bytes);
+        }
+
+        BitSet readBitSet() throws IOException {
+            final int wordCount = readVarInt();
+            final BitSet bitSet = new BitSet(wordCount * 64);
+            for (int w = 0; w < wordCount; w++) {
+                long word = in.readLong();
+                while (word != 0) {
+                    bitSet.set(w * 64 + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return bitSet;
+        }
+
+        long[] readOffsets() throws IOException {
+            final long[] offsets = new long[readVarInt()];
+            long previous = 0;
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = previous = previous + readVarLong(in);
+            }
+            return offsets;
+        }
+
+        BitKey readBitKey() throws IOException {
+            final byte kind = in.readByte();
+            if (kind == BIT_KEY_NULL) {
+                return null;
+            }
+            final int cardinality = readVarInt();
+            final int[] bits = new int[cardinality];
+            int previous = -1;
+            for (int i = 0; i < cardinality; i++) {
+                bits[i] = previous = previous + 1 + readVarInt();
+            }
+            // Re-create a bit key of the same class, or larger if the bits
+            // demand it.
+            final int minSize =
+                kind == BIT_KEY_SMALL ? 0 : kind == BIT_KEY_MID ? 64 : 128;
+            final BitKey bitKey =
+                BitKey.Factory.makeBitKey(Math.max(minSize, previous + 1));
+            for (int bit : bits) {
+                bitKey.set(bit);
+            }
+            return bitKey;
+        }
+
+        SortedSet<Comparable> readValues() throws IOException {
+            final int n = readVarInt();
+            if (n == 0) {
+                return null;
+            }
+            final Comparable[] values = new Comparable[n - 1];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (Comparable) readValue();
+            }
+            return new ArraySortedSet<Comparable>(values);
+        }
+
+        List<SegmentColumn> readColumns() throws IOException {
+            final int n = readVarInt();
+            final List<SegmentColumn> columns =
+                new ArrayList<SegmentColumn>(n);
+            for (int i = 0; i < n; i++) {
+                final String columnExpression = readString();
+                final int valueCount = (int) readZigZag();
+                columns.add(
+                    new SegmentColumn(
+                        columnExpression, valueCount, readValues()));
+            }
+            return columns;
+        }
+
+        List<Pair<SortedSet<Comparable>, Boolean>> readAxes()
+            throws IOException
+        {
+            final int n = readVarInt();
+            final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+                new ArrayList<Pair<SortedSet<Comparable>, Boolean>>(n);
+            for (int i = 0; i < n; i++) {
+                final boolean nullAxisFlag = in.readBoolean();
+                axes.add(Pair.of(readValues(), nullAxisFlag));
+            }
+            return axes;
+        }
+
+        Object readValue() throws IOException {
+            final byte tag = in.readByte();
+            switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_STRING:
+                return readString();
+            case TAG_INT:
+                return (int) readZigZag();
+            case TAG_LONG:
+                return readZigZag();
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_BIG_DECIMAL: {
+                final int scale = (int) readZigZag();
+                return new BigDecimal(new BigInteger(readByteArray()), scale);
+            }
+            case TAG_BIG_INTEGER:
+                return new BigInteger(readByteArray());
+            case TAG_FLOAT:
+                return in.readFloat();
+            case TAG_SHORT:
+                return (short) readZigZag();
+            case TAG_BYTE:
+                return in.readByte();
+            case TAG_SQL_TIMESTAMP: {
+                final java.sql.Timestamp timestamp =
+                    new java.sql.Timestamp(readZigZag());
+                timestamp.setNanos(readVarInt());
+                return timestamp;
+            }
+            case TAG_SQL_DATE:
+                return new java.sql.Date(readZigZag());
+            case TAG_SQL_TIME:
+                return new java.sql.Time(readZigZag());
+            case TAG_DATE:
+                return new java.util.Date(readZigZag());
+            case TAG_SERIALIZED:
+                try {
+                    return new ObjectInputStream(
+                        new ByteArrayInputStream(readByteArray()))
+                        .readObject();
+                } catch (ClassNotFoundException e) {
+                    throw Util.newError(e, "Could not read segment value");
+                }
+            default:
+                throw new IOException("Unknown value tag " + tag);
+            }
+        }
+
+        byte[] readByteArray() throws IOException {
+            final byte[] bytes = new byte[readVarInt()];
+            in.readFully(bytes);
+            return bytes;
+        }
+    }
+}
+
+// End BinarySegmentCodec.java
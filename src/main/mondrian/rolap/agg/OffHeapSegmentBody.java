@@ -0,0 +1,328 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.spi.SegmentBody;
+import mondrian.util.Pair;
+
+import java.io.ObjectStreamException;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Segment body that stores its cell values and null indicators outside the
+ * Java heap, in a direct {@link ByteBuffer}.
+ *
+ * <p>Only the axis value sets (the dictionaries of axis keys, which are small
+ * compared to the cells) are kept on the heap. The buffer has the following
+ * layout:</p>
+ *
+ * <pre>
+ * long[(valueCount + 63) / 64]   null indicators, one bit per cell
+ * double[valueCount] or int[valueCount]   cell values
+ * </pre>
+ *
+ * <p>Values are read straight from the buffer when iterating over the body
+ * (for example, when rolling up). {@link #getValueArray()} and
+ * {@link #getIndicators()} copy onto the heap, as does serialization, which
+ * writes the equivalent heap-based body.</p>
+ *
+ * <p>Native memory is released when the body is garbage-collected. Set the
+ * JVM's {@code -XX:MaxDirectMemorySize} option large enough for the cache
+ * that holds these bodies.</p>
+ *
+ * @see mondrian.rolap.cache.OffHeapSegmentCache
+ */
+public abstract class OffHeapSegmentBody extends AbstractSegmentBody {
+    private static final long serialVersionUID = 7519385406421338047L;
+
+    /** Buffer holding null indicators followed by values. */
+    protected final transient ByteBuffer buffer;
+
+    /** Number of cells, null or not. */
+    protected final int valueCount;
+
+    /** Offset in {@link #buffer} of the first value. */
+    protected final int valueOffset;
+
+    private OffHeapSegmentBody(
+        List<Pair<SortedSet<Comparable>, Boolean>> axes,
+        BitSet nullIndicators,
+        int valueCount,
+        int valueWidth)
+    {
+        super(axes);
+        final long byteCount = byteCount(valueCount, valueWidth);
+        if (byteCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                "Too many cells for an off-heap segment body: " + valueCount);
+        }
+        this.valueCount = valueCount;
+        this.valueOffset = (int) (byteCount - (long) valueCount * valueWidth);
+        this.buffer =
+            ByteBuffer.allocateDirect((int) byteCount)
+                .order(ByteOrder.nativeOrder());
+        // Direct buffers are zeroed on allocation, so we only need to write
+        // the set bits. (BitSet.toLongArray requires JDK 1.7.)
+        for (int i = nullIndicators.nextSetBit(0);
+             i >= 0 && i < valueCount;
+             i = nullIndicators.nextSetBit(i + 1))
+        {
+            final int index = (i >>> 6) * 8;
+            buffer.putLong(index, buffer.getLong(index) | (1L << i));
+        }
+    }
+
+    /**
+     * Creates an off-heap copy of a segment body, or returns null if the body
+     * does not consist of native values or is too large for one buffer.
+     *
+     * @param body Heap-based segment body
+     * @return Off-heap segment body, or null
+     */
+    public static OffHeapSegmentBody create(SegmentBody body) {
+        if (body instanceof OffHeapSegmentBody) {
+            return (OffHeapSegmentBody) body;
+        } else if (!fits(body)) {
+            return null;
+        } else if (body instanceof DenseDoubleSegmentBody) {
+            return new DoubleBody(
+                axes(body),
+                body.getIndicators(),
+                (double[]) body.getValueArray());
+        } else if (body instanceof DenseIntSegmentBody) {
+            return new IntBody(
+                axes(body),
+                body.getIndicators(),
+                (int[]) body.getValueArray());
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of bytes needed to hold the null indicators and
+     * values of a given number of cells. Computed in {@code long}, because
+     * it may exceed the capacity of a buffer.
+     */
+    private static long byteCount(int valueCount, int valueWidth) {
+        return (valueCount + 63L) / 64L * 8L + (long) valueCount * valueWidth;
+    }
+
+    /**
+     * Returns whether an off-heap copy of a dense body fits in one buffer.
+     */
+    private static boolean fits(SegmentBody body) {
+        if (body instanceof DenseDoubleSegmentBody) {
+            return byteCount(((double[]) body.getValueArray()).length, 8)
+                <= Integer.MAX_VALUE;
+        } else if (body instanceof DenseIntSegmentBody) {
+            return byteCount(((int[]) body.getValueArray()).length, 4)
+                <= Integer.MAX_VALUE;
+        } else {
+            return true;
+        }
+    }
+
+    private static List<Pair<SortedSet<Comparable>, Boolean>> axes(
+        SegmentBody body)
+    {
+        final SortedSet<Comparable>[] axisValueSets = body.getAxisValueSets();
+        final boolean[] nullAxisFlags = body.getNullAxisFlags();
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>(
+                axisValueSets.length);
+        for (int i = 0; i < axisValueSets.length; i++) {
+            axes.add(Pair.of(axisValueSets[i], nullAxisFlags[i]));
+        }
+        return axes;
+    }
+
+    /**
+     * Returns the number of bytes of native memory used by this body.
+     *
+     * @return Number of bytes outside the Java heap
+     */
+    public int getByteCount() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public BitSet getIndicators() {
+        final BitSet bitSet = new BitSet(valueCount);
+        for (int w = 0; w < valueOffset; w += 8) {
+            long word = buffer.getLong(w);
+            while (word != 0) {
+                final int bit = Long.numberOfTrailingZeros(word);
+                bitSet.set(w * 8 + bit);
+                word &= word - 1;
+            }
+        }
+        return bitSet;
+    }
+
+    /**
+     * Returns whether a given bit is set in the null indicators.
+     */
+    protected final boolean getIndicator(int i) {
+        return (buffer.getLong((i >>> 6) * 8) & (1L << i)) != 0;
+    }
+
+    /**
+     * Returns the number of bits set in the null indicators.
+     */
+    protected final int indicatorCardinality() {
+        int n = 0;
+        for (int i = 0; i < valueOffset; i += 8) {
+            n += Long.bitCount(buffer.getLong(i));
+        }
+        return n;
+    }
+
+    /**
+     * Returns an equivalent segment body on the Java heap.
+     *
+     * @return Heap-based segment body
+     */
+    public abstract SegmentBody toHeap();
+
+    /**
+     * Serializes this body as its heap-based equivalent. Direct buffers
+     * cannot be serialized, and readers need not know about off-heap
+     * storage.
+     */
+    protected Object writeReplace() throws ObjectStreamException {
+        return toHeap();
+    }
+
+    /**
+     * Off-heap equivalent of {@link DenseDoubleSegmentBody}.
+     */
+    static class DoubleBody extends OffHeapSegmentBody {
+        private static final long serialVersionUID = -1836429880373853457L;
+
+        DoubleBody(
+            List<Pair<SortedSet<Comparable>, Boolean>> axes,
+            BitSet nullIndicators,
+            double[] values)
+        {
+            super(axes, nullIndicators, values.length, 8);
+            final DoubleBuffer doubles = valueBuffer();
+            doubles.put(values);
+        }
+
+        private DoubleBuffer valueBuffer() {
+            final ByteBuffer b = buffer.duplicate().order(buffer.order());
+            b.position(valueOffset);
+            return b.slice().order(buffer.order()).asDoubleBuffer();
+        }
+
+        @Override
+        public Object getValueArray() {
+            final double[] values = new double[valueCount];
+            valueBuffer().get(values);
+            return values;
+        }
+
+        @Override
+        protected int getSize() {
+            return valueCount - indicatorCardinality();
+        }
+
+        @Override
+        protected Object getObject(int i) {
+            // Same semantics as DenseDoubleSegmentBody.
+            final double value = buffer.getDouble(valueOffset + i * 8);
+            if (value == 0d && getIndicator(i)) {
+                return null;
+            }
+            return value;
+        }
+
+        public SegmentBody toHeap() {
+            return new DenseDoubleSegmentBody(
+                getIndicators(),
+                (double[]) getValueArray(),
+                axes(this));
+        }
+
+        @Override
+        public String toString() {
+            return "OffHeapSegmentBody.DoubleBody(size=" + valueCount
+                + ", bytes=" + getByteCount()
+                + ", axisValueSets=" + Arrays.toString(getAxisValueSets())
+                + ", nullAxisFlags=" + Arrays.toString(getNullAxisFlags())
+                + ")";
+        }
+    }
+
+    /**
+     * Off-heap equivalent of {@link DenseIntSegmentBody}.
+     */
+    static class IntBody extends OffHeapSegmentBody {
+        private static final long serialVersionUID = 4018934622158791553L;
+
+        IntBody(
+            List<Pair<SortedSet<Comparable>, Boolean>> axes,
+            BitSet nullIndicators,
+            int[] values)
+        {
+            super(axes, nullIndicators, values.length, 4);
+            final IntBuffer ints = valueBuffer();
+            ints.put(values);
+        }
+
+        private IntBuffer valueBuffer() {
+            final ByteBuffer b = buffer.duplicate().order(buffer.order());
+            b.position(valueOffset);
+            return b.slice().order(buffer.order()).asIntBuffer();
+        }
+
+        @Override
+        public Object getValueArray() {
+            final int[] values = new int[valueCount];
+            valueBuffer().get(values);
+            return values;
+        }
+
+        @Override
+        protected int getSize() {
+            return valueCount - indicatorCardinality();
+        }
+
+        @Override
+        protected Object getObject(int i) {
+            // Same semantics as DenseIntSegmentBody.
+            final int value = buffer.getInt(valueOffset + i * 4);
+            if (value == 0 && getIndicator(i)) {
+                return null;
+            }
+            return value;
+        }
+
+        public SegmentBody toHeap() {
+            return new DenseIntSegmentBody(
+                getIndicators(),
+                (int[]) getValueArray(),
+                axes(this));
+        }
+
+        @Override
+        public String toString() {
+            return "OffHeapSegmentBody.IntBody(size=" + valueCount
+                + ", bytes=" + getByteCount()
+                + ", axisValueSets=" + Arrays.toString(getAxisValueSets())
+                + ", nullAxisFlags=" + Arrays.toString(getNullAxisFlags())
+                + ")";
+        }
+    }
+}
+
+// End OffHeapSegmentBody.java
@@ -0,0 +1,584 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.olap.*;
+import mondrian.rolap.CellKey;
+import mondrian.rolap.RolapAggregator;
+import mondrian.spi.Dialect.Datatype;
+import mondrian.spi.SegmentBody;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Aggregates the cells of source segments into the cells of a rolled up
+ * segment, using several threads.
+ *
+ * <p>The cells of the source bodies are divided into partitions. Each
+ * partition is aggregated by a task into its own {@link Accumulator}, a hash
+ * table from target cell offset to a primitive value, and the accumulators
+ * are then merged. Values are never boxed, and there is no list of values
+ * per target cell.</p>
+ *
+ * <p>Only the aggregators that can be computed this way are supported:
+ * {@link RolapAggregator#Sum}, {@link RolapAggregator#Min} and
+ * {@link RolapAggregator#Max} over {@link Datatype#Integer} and
+ * {@link Datatype#Numeric} values. For other aggregators,
+ * {@link SegmentBuilder#rollup} uses
+ * {@link Aggregator#aggregate(java.util.List, Datatype)}.</p>
+ *
+ * <p>The number of tasks is limited by
+ * {@link MondrianProperties#RollupParallelism}. Tasks run in a shared pool;
+ * if the pool is busy, the calling thread runs them.</p>
+ *
+ * @see SegmentBuilder#rollup
+ */
+class ParallelRollup {
+    /**
+     * Minimum number of source cells per partition. Below this, the cost of
+     * handing a partition to another thread exceeds the cost of
+     * aggregating it.
+     */
+    static final int MIN_PARTITION_SIZE = 50000;
+
+    private static final ExecutorService EXECUTOR =
+        Util.getExecutorService(
+            Runtime.getRuntime().availableProcessors(),
+            0, 1,
+            "mondrian.rolap.agg.ParallelRollup$executor",
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    private ParallelRollup() {
+    }
+
+    /**
+     * Operation applied to the values of a target cell.
+     */
+    enum Op {
+        SUM, MIN, MAX
+    }
+
+    /**
+     * Returns the operation that implements an aggregator over a given
+     * datatype, or null if the aggregator must be applied to lists of
+     * objects.
+     */
+    static Op opFor(Aggregator aggregator, Datatype datatype) {
+        if (datatype != Datatype.Integer && datatype != Datatype.Numeric) {
+            return null;
+        }
+        if (aggregator == RolapAggregator.Sum) {
+            return Op.SUM;
+        } else if (aggregator == RolapAggregator.Min) {
+            return Op.MIN;
+        } else if (aggregator == RolapAggregator.Max) {
+            return Op.MAX;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Aggregates source segment bodies.
+     *
+     * <p>For each body, {@code ordinalMaps} contains, for each axis, an array
+     * that maps a source ordinal to the ordinal on the target axis, or -1 if
+     * the value is not on the target axis (the cell is ignored). The array
+     * for an axis that is being rolled up is null.</p>
+     *
+     * @param bodies Source segment bodies
+     * @param ordinalMaps Ordinal maps of each body
+     * @param targetMultipliers Multipliers of target axes, as in
+     *   {@link SparseNativeSegmentDataset}
+     * @param op Aggregate operation
+     * @param datatype Datatype of values
+     * @return Accumulator containing a value for each target cell
+     */
+    static Accumulator aggregate(
+        List<SegmentBody> bodies,
+        List<int[][]> ordinalMaps,
+        long[] targetMultipliers,
+        final Op op,
+        Datatype datatype)
+    {
+        final List<Partition> partitions = new ArrayList<Partition>();
+        int totalSize = 0;
+        for (int i = 0; i < bodies.size(); i++) {
+            final Source source =
+                Source.of(bodies.get(i), ordinalMaps.get(i), targetMultipliers);
+            partitions.add(new Partition(source, 0, source.size()));
+            totalSize += source.size();
+        }
+        int parallelism =
+            MondrianProperties.instance().RollupParallelism.get();
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        final int partitionSize =
+            Math.max(
+                MIN_PARTITION_SIZE,
+                (totalSize + parallelism - 1) / parallelism);
+        final List<Partition> splitPartitions = new ArrayList<Partition>();
+        for (Partition partition : partitions) {
+            for (int from = partition.from; from < partition.to;
+                from += partitionSize)
+            {
+                splitPartitions.add(
+                    new Partition(
+                        partition.source,
+                        from,
+                        Math.min(partition.to, from + partitionSize)));
+            }
+        }
+        final boolean integer = datatype == Datatype.Integer;
+        if (parallelism == 1 || splitPartitions.size() <= 1) {
+            final Accumulator accumulator = new Accumulator(op, integer);
+            for (Partition partition : splitPartitions) {
+                partition.source.accumulate(
+                    partition.from, partition.to, accumulator);
+            }
+            return accumulator;
+        }
+
+        // Hand all partitions but the first to the pool, and aggregate the
+        // first in this thread while the others run.
+        final List<Future<Accumulator>> futures =
+            new ArrayList<Future<Accumulator>>();
+        for (final Partition partition
+            : splitPartitions.subList(1, splitPartitions.size()))
+        {
+            futures.add(
+                EXECUTOR.submit(
+                    new Callable<Accumulator>() {
+                        public Accumulator call() {
+                            final Accumulator accumulator =
+                                new Accumulator(op, integer);
+                            partition.source.accumulate(
+                                partition.from, partition.to, accumulator);
+                            return accumulator;
+                        }
+                    }));
+        }
+        final Partition first = splitPartitions.get(0);
+        final Accumulator accumulator = new Accumulator(op, integer);
+        first.source.accumulate(first.from, first.to, accumulator);
+        for (Future<Accumulator> future : futures) {
+            accumulator.merge(Util.safeGet(future, "Error during rollup"));
+        }
+        return accumulator;
+    }
+
+    /**
+     * Range of cells of a source body.
+     */
+    private static class Partition {
+        final Source source;
+        final int from;
+        final int to;
+
+        Partition(Source source, int from, int to) {
+            this.source = source;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Cells of a source segment body, addressable by index so that they can
+     * be divided into partitions.
+     */
+    private static abstract class Source {
+        private final int[][] ordinalMaps;
+        private final long[] targetMultipliers;
+
+        Source(int[][] ordinalMaps, long[] targetMultipliers) {
+            this.ordinalMaps = ordinalMaps;
+            this.targetMultipliers = targetMultipliers;
+        }
+
+        static Source of(
+            SegmentBody body,
+            int[][] ordinalMaps,
+            long[] targetMultipliers)
+        {
+            if (body instanceof SparseDoubleSegmentBody) {
+                return new SparseDoubleSource(
+                    (SparseDoubleSegmentBody) body,
+                    ordinalMaps,
+                    targetMultipliers);
+            } else if (body instanceof SparseIntSegmentBody) {
+                return new SparseIntSource(
+                    (SparseIntSegmentBody) body,
+                    ordinalMaps,
+                    targetMultipliers);
+            } else {
+                return new EntrySource(body, ordinalMaps, targetMultipliers);
+            }
+        }
+
+        abstract int size();
+
+        /**
+         * Adds the cells in a given range to an accumulator.
+         */
+        abstract void accumulate(int from, int to, Accumulator accumulator);
+
+        /**
+         * Returns the offset of the target cell of a source cell, or -1 if
+         * the source cell is not in the target segment.
+         */
+        final long targetOffset(int[] ordinals) {
+            long offset = 0;
+            int z = 0;
+            for (int i = 0; i < ordinals.length; i++) {
+                final int[] ordinalMap = ordinalMaps[i];
+                if (ordinalMap == null) {
+                    continue;
+                }
+                final int targetOrdinal = ordinalMap[ordinals[i]];
+                if (targetOrdinal < 0) {
+                    // This happens when one of the rollup candidates
+                    // doesn't contain the requested cell.
+                    return -1;
+                }
+                offset += targetOrdinal * targetMultipliers[z++];
+            }
+            return offset;
+        }
+    }
+
+    private static class SparseDoubleSource extends Source {
+        private final SparseDoubleSegmentBody body;
+
+        SparseDoubleSource(
+            SparseDoubleSegmentBody body,
+            int[][] ordinalMaps,
+            long[] targetMultipliers)
+        {
+            super(ordinalMaps, targetMultipliers);
+            this.body = body;
+        }
+
+        int size() {
+            return body.offsets.length;
+        }
+
+        void accumulate(int from, int to, Accumulator accumulator) {
+            final int[] ordinals = new int[body.axisMultipliers.length];
+            for (int i = from; i < to; i++) {
+                SparseNativeSegmentDataset.toOrdinals(
+                    body.offsets[i], body.axisMultipliers, ordinals);
+                final long offset = targetOffset(ordinals);
+                if (offset < 0) {
+                    continue;
+                }
+                if (body.nullIndicators.get(i)) {
+                    accumulator.addNull(offset);
+                } else {
+                    accumulator.add(offset, body.values[i]);
+                }
+            }
+        }
+    }
+
+    private static class SparseIntSource extends Source {
+        private final SparseIntSegmentBody body;
+
+        SparseIntSource(
+            SparseIntSegmentBody body,
+            int[][] ordinalMaps,
+            long[] targetMultipliers)
+        {
+            super(ordinalMaps, targetMultipliers);
+            this.body = body;
+        }
+
+        int size() {
+            return body.offsets.length;
+        }
+
+        void accumulate(int from, int to, Accumulator accumulator) {
+            final int[] ordinals = new int[body.axisMultipliers.length];
+            for (int i = from; i < to; i++) {
+                SparseNativeSegmentDataset.toOrdinals(
+                    body.offsets[i], body.axisMultipliers, ordinals);
+                final long offset = targetOffset(ordinals);
+                if (offset < 0) {
+                    continue;
+                }
+                if (body.nullIndicators.get(i)) {
+                    accumulator.addNull(offset);
+                } else {
+                    accumulator.add(offset, (long) body.values[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Source that reads any kind of body via its
+     * {@link SegmentBody#getValueMap() value map}. The entries are copied
+     * into an array first, so that partitions can address them by index.
+     */
+    private static class EntrySource extends Source {
+        private final Map.Entry<CellKey, Object>[] entries;
+
+        EntrySource(
+            SegmentBody body,
+            int[][] ordinalMaps,
+            long[] targetMultipliers)
+        {
+            super(ordinalMaps, targetMultipliers);
+            final Set<Map.Entry<CellKey, Object>> entrySet =
+                body.getValueMap().entrySet();
+            //noinspection unchecked
+            this.entries =
+                entrySet.toArray(new Map.Entry[entrySet.size()]);
+        }
+
+        int size() {
+            return entries.length;
+        }
+
+        void accumulate(int from, int to, Accumulator accumulator) {
+            for (int i = from; i < to; i++) {
+                final Map.Entry<CellKey, Object> entry = entries[i];
+                final long offset =
+                    targetOffset(entry.getKey().getOrdinals());
+                if (offset < 0) {
+                    continue;
+                }
+                final Object value = entry.getValue();
+                if (value == null || value == Util.nullValue) {
+                    accumulator.addNull(offset);
+                } else if (value instanceof Integer
+                    || value instanceof Long
+                    || value instanceof Short
+                    || value instanceof Byte)
+                {
+                    accumulator.add(offset, ((Number) value).longValue());
+                } else {
+                    // Double, Float, and also BigDecimal, which many JDBC
+                    // drivers return for DECIMAL sums; longValue() would
+                    // truncate them.
+                    accumulator.add(offset, ((Number) value).doubleValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Hash table from the offset of a target cell to its aggregated value.
+     * Values are held as {@code long} for {@link Datatype#Integer} and as
+     * {@code double} otherwise. A cell whose source values are all null
+     * exists, and has a null value.
+     *
+     * <p>NOTE: This class is not synchronized. Each task has its own
+     * accumulator.</p>
+     */
+    static class Accumulator {
+        private static final long EMPTY = -1L;
+        private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+        private final Op op;
+        private final boolean integer;
+        private long[] keys;
+        private long[] longs;
+        private double[] doubles;
+        /** Slots that have at least one non-null value. */
+        private BitSet nonNull;
+        private int size;
+        private int bits;
+
+        Accumulator(Op op, boolean integer) {
+            this.op = op;
+            this.integer = integer;
+            allocate(4);
+        }
+
+        private void allocate(int bits) {
+            this.bits = bits;
+            keys = new long[1 << bits];
+            Arrays.fill(keys, EMPTY);
+            if (integer) {
+                longs = new long[1 << bits];
+            } else {
+                doubles = new double[1 << bits];
+            }
+            nonNull = new BitSet(1 << bits);
+        }
+
+        /**
+         * Returns the number of target cells.
+         */
+        int size() {
+            return size;
+        }
+
+        private int hash(long offset) {
+            return (int) ((offset * GOLDEN_RATIO) >>> (64 - bits));
+        }
+
+        /**
+         * Returns the slot of an offset, creating it if it does not exist.
+         */
+        private int slot(long offset) {
+            final int mask = keys.length - 1;
+            int slot = hash(offset);
+            for (;;) {
+                final long key = keys[slot];
+                if (key == offset) {
+                    return slot;
+                }
+                if (key == EMPTY) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if ((size + 1) * 3 > keys.length * 2) {
+                grow();
+                return slot(offset);
+            }
+            keys[slot] = offset;
+            ++size;
+            return slot;
+        }
+
+        private void grow() {
+            final long[] oldKeys = keys;
+            final long[] oldLongs = longs;
+            final double[] oldDoubles = doubles;
+            final BitSet oldNonNull = nonNull;
+            allocate(bits + 1);
+            final int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                final long offset = oldKeys[i];
+                if (offset == EMPTY) {
+                    continue;
+                }
+                int slot = hash(offset);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = offset;
+                if (integer) {
+                    longs[slot] = oldLongs[i];
+                } else {
+                    doubles[slot] = oldDoubles[i];
+                }
+                if (oldNonNull.get(i)) {
+                    nonNull.set(slot);
+                }
+            }
+        }
+
+        void addNull(long offset) {
+            slot(offset);
+        }
+
+        void add(long offset, long value) {
+            if (!integer) {
+                add(offset, (double) value);
+                return;
+            }
+            final int slot = slot(offset);
+            if (!nonNull.get(slot)) {
+                nonNull.set(slot);
+                longs[slot] = value;
+                return;
+            }
+            switch (op) {
+            case SUM:
+                longs[slot] += value;
+                break;
+            case MIN:
+                longs[slot] = Math.min(longs[slot], value);
+                break;
+            case MAX:
+                longs[slot] = Math.max(longs[slot], value);
+                break;
+            }
+        }
+
+        void add(long offset, double value) {
+            if (integer) {
+                add(offset, (long) value);
+                return;
+            }
+            final int slot = slot(offset);
+            if (!nonNull.get(slot)) {
+                nonNull.set(slot);
+                doubles[slot] = value;
+                return;
+            }
+            switch (op) {
+            case SUM:
+                doubles[slot] += value;
+                break;
+            case MIN:
+                doubles[slot] = Math.min(doubles[slot], value);
+                break;
+            case MAX:
+                doubles[slot] = Math.max(doubles[slot], value);
+                break;
+            }
+        }
+
+        /**
+         * Adds the cells of another accumulator to this one.
+         */
+        void merge(Accumulator other) {
+            for (int i = 0; i < other.keys.length; i++) {
+                final long offset = other.keys[i];
+                if (offset == EMPTY) {
+                    continue;
+                }
+                if (!other.nonNull.get(i)) {
+                    addNull(offset);
+                } else if (integer) {
+                    add(offset, other.longs[i]);
+                } else {
+                    add(offset, other.doubles[i]);
+                }
+            }
+        }
+
+        /**
+         * Calls a handler for each target cell, in no particular order.
+         * The value is an {@link Integer}, a {@link Double}, or null.
+         */
+        void forEach(int[] ordinals, long[] multipliers, Handler handler) {
+            for (int i = 0; i < keys.length; i++) {
+                final long offset = keys[i];
+                if (offset == EMPTY) {
+                    continue;
+                }
+                SparseNativeSegmentDataset.toOrdinals(
+                    offset, multipliers, ordinals);
+                final Object value;
+                if (!nonNull.get(i)) {
+                    value = null;
+                } else if (integer) {
+                    value = (int) longs[i];
+                } else {
+                    value = doubles[i];
+                }
+                handler.cell(ordinals, value);
+            }
+        }
+
+        interface Handler {
+            void cell(int[] ordinals, Object value);
+        }
+    }
+}
+
+// End ParallelRollup.java
@@ -340,6 +340,18 @@ public class Segment {
         int size)
     {
         if (sparse) {
+            // Native values are stored without boxing, keyed by offset, if
+            // the offset of every cell fits into a long.
+            if (SparseNativeSegmentDataset.computeAxisMultipliers(axes)
+                != null)
+            {
+                switch (type) {
+                case INT:
+                    return new SparseIntSegmentDataset(axes, 0);
+                case DOUBLE:
+                    return new SparseDoubleSegmentDataset(axes, 0);
+                }
+            }
             return new SparseSegmentDataset();
         } else {
             switch (type) {
@@ -70,6 +70,11 @@ public class SegmentBuilder {
         SegmentAxis[] axes)
     {
         final SegmentDataset dataSet;
+        if (body instanceof OffHeapSegmentBody) {
+            // Datasets live on the heap. Copy the values out of native
+            // memory; the cached body stays where it is.
+            body = ((OffHeapSegmentBody) body).toHeap();
+        }
         if (body instanceof DenseDoubleSegmentBody) {
             dataSet =
                 new DenseDoubleSegmentDataset(
@@ -86,6 +91,12 @@ public class SegmentBuilder {
                     axes, (Object[]) body.getValueArray());
         } else if (body instanceof SparseSegmentBody) {
             dataSet = new SparseSegmentDataset(body.getValueMap());
+        } else if (body instanceof SparseDoubleSegmentBody) {
+            dataSet =
+                new SparseDoubleSegmentDataset((SparseDoubleSegmentBody) body);
+        } else if (body instanceof SparseIntSegmentBody) {
+            dataSet =
+                new SparseIntSegmentDataset((SparseIntSegmentBody) body);
         } else {
             throw Util.newInternal(
                 "Unknown segment body type: " + body.getClass() + ": " + body);
@@ -274,77 +285,6 @@ public class SegmentBuilder {
                 axis.valueSet.toArray(new Comparable[axis.valueSet.size()]);
         }
 
-        // Populate cells.
-        //
-        // (This is a rough implementation, very inefficient. It makes all
-        // segment types pretend to be sparse, for purposes of reading. It
-        // maps all axis ordinals to a value, then back to an axis ordinal,
-        // even if this translation were not necessary, say if the source and
-        // target axes had the same set of values. And it always creates a
-        // sparse segment.
-        //
-        // We should do really efficient rollup if the source is an array: we
-        // should box values (e.g double to Double and back), and we should read
-        // a stripe of values from the and add them up into a single cell.
-        final Map<CellKey, List<Object>> cellValues =
-            new HashMap<CellKey, List<Object>>();
-        for (Map.Entry<SegmentHeader, SegmentBody> entry : map.entrySet()) {
-            final int[] pos = new int[axes.length];
-            final Comparable[][] valueArrays =
-                new Comparable[firstHeader.getConstrainedColumns().size()][];
-            final SegmentBody body = entry.getValue();
-
-            // Copy source value sets into arrays. For axes that are being
-            // projected away, store null.
-            z = 0;
-            for (SortedSet<Comparable> set : body.getAxisValueSets()) {
-                valueArrays[z] = keepColumns.contains(
-                    firstHeader.getConstrainedColumns().get(z).columnExpression)
-                        ? set.toArray(new Comparable[set.size()])
-                        : null;
-                ++z;
-            }
-            Map<CellKey, Object> v = body.getValueMap();
-            entryLoop:
-            for (Map.Entry<CellKey, Object> vEntry : v.entrySet()) {
-                z = 0;
-                for (int i = 0; i < vEntry.getKey().size(); i++) {
-                    final Comparable[] valueArray = valueArrays[i];
-                    if (valueArray == null) {
-                        continue;
-                    }
-                    final int ordinal = vEntry.getKey().getOrdinals()[i];
-                    final int targetOrdinal;
-                    if (axes[z].hasNull && ordinal == valueArray.length) {
-                        targetOrdinal = axes[z].valueSet.size();
-                    } else {
-                        final Comparable value = valueArray[ordinal];
-                        if (value == null) {
-                            targetOrdinal = axes[z].valueSet.size();
-                        } else {
-                            targetOrdinal =
-                                Util.binarySearch(
-                                    axes[z].values,
-                                    0, axes[z].values.length,
-                                    value);
-                        }
-                    }
-                    if (targetOrdinal >= 0) {
-                        pos[z++] = targetOrdinal;
-                    } else {
-                        // This happens when one of the rollup candidate doesn't
-                        // contain the requested cell.
-                        continue entryLoop;
-                    }
-                }
-                final CellKey ck = CellKey.Generator.newCellKey(pos);
-                if (!cellValues.containsKey(ck)) {
-                    cellValues.put(ck, new ArrayList<Object>());
-                }
-                cellValues.get(ck).add(vEntry.getValue());
-            }
-        }
-
         // Build the axis list.
         final List<Pair<SortedSet<Comparable>, Boolean>> axisList =
             new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
@@ -377,10 +317,151 @@ public class SegmentBuilder {
         final int[] axisMultipliers =
             computeAxisMultipliers(axisList);
 
+        // If the aggregator can be applied to primitive values, aggregate
+        // in parallel, without boxing (see ParallelRollup). Each source
+        // ordinal is mapped to a target ordinal once per body, not once per
+        // cell.
+        final ParallelRollup.Op op =
+            ParallelRollup.opFor(rollupAggregator, datatype);
+        final int[] targetAxisLengths = new int[axes.length];
+        for (int i = 0; i < axes.length; i++) {
+            targetAxisLengths[i] =
+                axes[i].values.length + (axes[i].hasNull ? 1 : 0);
+        }
+        final long[] targetMultipliers =
+            SparseNativeSegmentDataset.computeAxisMultipliers(
+                targetAxisLengths);
+        ParallelRollup.Accumulator accumulator = null;
+        final Map<CellKey, List<Object>> cellValues =
+            new HashMap<CellKey, List<Object>>();
+        if (op != null && targetMultipliers != null) {
+            final List<SegmentBody> bodies = new ArrayList<SegmentBody>();
+            final List<int[][]> ordinalMaps = new ArrayList<int[][]>();
+            for (Map.Entry<SegmentHeader, SegmentBody> entry : segments) {
+                final SegmentBody sourceBody = entry.getValue();
+                final SortedSet<Comparable>[] axisValueSets =
+                    sourceBody.getAxisValueSets();
+                final int[][] ordinalMap = new int[axisValueSets.length][];
+                z = 0;
+                for (int i = 0; i < axisValueSets.length; i++) {
+                    if (!keepColumns.contains(
+                            firstHeader.getConstrainedColumns().get(i)
+                                .columnExpression))
+                    {
+                        continue;
+                    }
+                    final AxisInfo axis = axes[z++];
+                    final int nullOrdinal = axis.valueSet.size();
+                    final int[] axisOrdinalMap = ordinalMap[i] =
+                        new int[axisValueSets[i].size() + 1];
+                    int k = 0;
+                    for (Comparable value : axisValueSets[i]) {
+                        final int targetOrdinal =
+                            value == null
+                                ? nullOrdinal
+                                : Util.binarySearch(
+                                    axis.values, 0, axis.values.length,
+                                    value);
+                        axisOrdinalMap[k++] =
+                            targetOrdinal < 0 ? -1 : targetOrdinal;
+                    }
+                    axisOrdinalMap[k] = axis.hasNull ? nullOrdinal : -1;
+                }
+                bodies.add(sourceBody);
+                ordinalMaps.add(ordinalMap);
+            }
+            accumulator =
+                ParallelRollup.aggregate(
+                    bodies, ordinalMaps, targetMultipliers, op, datatype);
+        } else {
+            // Populate cells.
+            //
+            // (This is a rough implementation, very inefficient. It makes
+            // all segment types pretend to be sparse, for purposes of
+            // reading. It maps all axis ordinals to a value, then back to an
+            // axis ordinal, even if this translation were not necessary, say
+            // if the source and target axes had the same set of values. And
+            // it always creates a sparse segment.
+            //
+            // It is used only for aggregators that ParallelRollup cannot
+            // apply to primitive values.
+            for (Map.Entry<SegmentHeader, SegmentBody> entry
+                : map.entrySet())
+            {
+                final int[] pos = new int[axes.length];
+                final Comparable[][] valueArrays =
+                    new Comparable[
+                        firstHeader.getConstrainedColumns().size()][];
+                final SegmentBody body = entry.getValue();
+
+                // Copy source value sets into arrays. For axes that are being
+                // projected away, store null.
+                z = 0;
+                for (SortedSet<Comparable> set : body.getAxisValueSets()) {
+                    valueArrays[z] = keepColumns.contains(
+                        firstHeader.getConstrainedColumns().get(z)
+                            .columnExpression)
+                            ? set.toArray(new Comparable[set.size()])
+                            : null;
+                    ++z;
+                }
+                Map<CellKey, Object> v = body.getValueMap();
+                entryLoop:
+                for (Map.Entry<CellKey, Object> vEntry : v.entrySet()) {
+                    z = 0;
+                    for (int i = 0; i < vEntry.getKey().size(); i++) {
+                        final Comparable[] valueArray = valueArrays[i];
+                        if (valueArray == null) {
+                            continue;
+                        }
+                        final int ordinal = vEntry.getKey().getOrdinals()[i];
+                        final int targetOrdinal;
+                        if (axes[z].hasNull && ordinal == valueArray.length) {
+                            targetOrdinal = axes[z].valueSet.size();
+                        } else {
+                            final Comparable value = valueArray[ordinal];
+                            if (value == null) {
+                                targetOrdinal = axes[z].valueSet.size();
+                            } else {
+                                targetOrdinal =
+                                    Util.binarySearch(
+                                        axes[z].values,
+                                        0, axes[z].values.length,
+                                        value);
+                            }
+                        }
+                        if (targetOrdinal >= 0) {
+                            pos[z++] = targetOrdinal;
+                        } else {
+                            // This happens when one of the rollup candidate
+                            // doesn't contain the requested cell.
+                            continue entryLoop;
+                        }
+                    }
+                    final CellKey ck = CellKey.Generator.newCellKey(pos);
+                    if (!cellValues.containsKey(ck)) {
+                        cellValues.put(ck, new ArrayList<Object>());
+                    }
+                    cellValues.get(ck).add(vEntry.getValue());
+                }
+            }
+        }
+
         final SegmentBody body;
         // Peak at the values and determine the best way to store them
         // (whether to use a dense native dataset or a sparse one.
-        if (cellValues.size() == 0) {
+        if (accumulator != null) {
+            body =
+                createBody(
+                    accumulator,
+                    axisList,
+                    nullIndicators,
+                    nbValues,
+                    sparse,
+                    axisMultipliers,
+                    targetMultipliers,
+                    datatype);
+        } else if (cellValues.size() == 0) {
             // Just store the data into an empty dense object dataset.
             body =
                 new DenseObjectSegmentBody(
@@ -391,22 +472,60 @@ public class SegmentBuilder {
                 nbValues, cellValues.size()))
         {
             // The rule says we must use a sparse dataset.
-            // First, aggregate the values of each key.
-            final Map<CellKey, Object> data =
-                new HashMap<CellKey, Object>();
-            for (Entry<CellKey, List<Object>> entry
-                : cellValues.entrySet())
-            {
-                data.put(
-                    CellKey.Generator.newCellKey(entry.getKey().getOrdinals()),
-                    rollupAggregator.aggregate(
-                        entry.getValue(),
-                        datatype));
+            // Numeric values are stored without boxing if the offset of
+            // every cell fits into a long.
+            final int[] axisLengths = new int[axes.length];
+            for (int i = 0; i < axes.length; i++) {
+                axisLengths[i] =
+                    axes[i].values.length + (axes[i].hasNull ? 1 : 0);
+            }
+            final long[] sparseAxisMultipliers =
+                SparseNativeSegmentDataset.computeAxisMultipliers(
+                    axisLengths);
+            final SparseNativeSegmentDataset nativeData;
+            if (sparseAxisMultipliers == null) {
+                nativeData = null;
+            } else if (datatype == Datatype.Numeric) {
+                nativeData =
+                    new SparseDoubleSegmentDataset(
+                        sparseAxisMultipliers, cellValues.size());
+            } else if (datatype == Datatype.Integer) {
+                nativeData =
+                    new SparseIntSegmentDataset(
+                        sparseAxisMultipliers, cellValues.size());
+            } else {
+                nativeData = null;
+            }
+            if (nativeData != null) {
+                for (Entry<CellKey, List<Object>> entry
+                    : cellValues.entrySet())
+                {
+                    nativeData.put(
+                        entry.getKey().getOrdinals(),
+                        rollupAggregator.aggregate(
+                            entry.getValue(),
+                            datatype));
+                }
+                body = nativeData.createSegmentBody(axisList);
+            } else {
+                // First, aggregate the values of each key.
+                final Map<CellKey, Object> data =
+                    new HashMap<CellKey, Object>();
+                for (Entry<CellKey, List<Object>> entry
+                    : cellValues.entrySet())
+                {
+                    data.put(
+                        CellKey.Generator.newCellKey(
+                            entry.getKey().getOrdinals()),
+                        rollupAggregator.aggregate(
+                            entry.getValue(),
+                            datatype));
+                }
+                body =
+                    new SparseSegmentBody(
+                        data,
+                        axisList);
             }
-            body =
-                new SparseSegmentBody(
-                    data,
-                    axisList);
         } else {
             switch (datatype) {
             case Integer:
@@ -501,6 +620,75 @@ public class SegmentBuilder {
         return Pair.of(header, body);
     }
 
+    /**
+     * Creates the body of a rolled up segment from the cells aggregated by
+     * {@link ParallelRollup}. Chooses between sparse and dense storage by
+     * the same rules as {@link #rollup}.
+     */
+    private static SegmentBody createBody(
+        ParallelRollup.Accumulator accumulator,
+        List<Pair<SortedSet<Comparable>, Boolean>> axisList,
+        BitSet nullIndicators,
+        int nbValues,
+        boolean sparse,
+        final int[] axisMultipliers,
+        long[] targetMultipliers,
+        Datatype datatype)
+    {
+        final int[] ordinals = new int[axisList.size()];
+        if (accumulator.size() == 0) {
+            // Just store the data into an empty dense object dataset.
+            return new DenseObjectSegmentBody(new Object[0], axisList);
+        } else if (
+            sparse || SegmentLoader.useSparse(nbValues, accumulator.size()))
+        {
+            final SparseNativeSegmentDataset data =
+                datatype == Datatype.Integer
+                    ? new SparseIntSegmentDataset(
+                        targetMultipliers, accumulator.size())
+                    : new SparseDoubleSegmentDataset(
+                        targetMultipliers, accumulator.size());
+            accumulator.forEach(
+                ordinals,
+                targetMultipliers,
+                new ParallelRollup.Accumulator.Handler() {
+                    public void cell(int[] pos, Object value) {
+                        data.put(pos, value);
+                    }
+                });
+            return data.createSegmentBody(axisList);
+        } else if (datatype == Datatype.Integer) {
+            final int[] ints = new int[nbValues];
+            accumulator.forEach(
+                ordinals,
+                targetMultipliers,
+                new ParallelRollup.Accumulator.Handler() {
+                    public void cell(int[] pos, Object value) {
+                        if (value != null) {
+                            ints[CellKey.Generator.getOffset(
+                                pos, axisMultipliers)] = (Integer) value;
+                        }
+                    }
+                });
+            return new DenseIntSegmentBody(nullIndicators, ints, axisList);
+        } else {
+            final double[] doubles = new double[nbValues];
+            accumulator.forEach(
+                ordinals,
+                targetMultipliers,
+                new ParallelRollup.Accumulator.Handler() {
+                    public void cell(int[] pos, Object value) {
+                        if (value != null) {
+                            doubles[CellKey.Generator.getOffset(
+                                pos, axisMultipliers)] = (Double) value;
+                        }
+                    }
+                });
+            return new DenseDoubleSegmentBody(
+                nullIndicators, doubles, axisList);
+        }
+    }
+
     private static boolean allHeadersHaveSameDimensionality(
         Set<SegmentHeader> headers)
     {
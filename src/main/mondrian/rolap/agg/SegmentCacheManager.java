@@ -22,10 +22,12 @@ import mondrian.util.*;
 
 import org.apache.log4j.Logger;
 
+import java.io.File;
 import java.io.PrintWriter;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Active object that maintains the "global cache" (in JVM, but shared between
@@ -43,7 +45,11 @@ import java.util.concurrent.*;
  *
  * <p>1. Create variant of actor that processes all requests synchronously,
  * and does not need a thread. This would be a more 'embedded' mode of operation
- * (albeit with worse scale-out).</p>
+ * (albeit with worse scale-out). (Partly done: see
+ * {@link StripedDispatcher}, enabled by
+ * {@link MondrianProperties#SegmentCacheManagerNumberStripes}. Requests run
+ * on the calling thread, and requests for unrelated stars run in
+ * parallel.)</p>
  *
  * <p>2. Move functionality into AggregationManager?</p>
  *
@@ -209,7 +215,13 @@ import java.util.concurrent.*;
  */
 public class SegmentCacheManager {
     private final Handler handler = new Handler();
-    private final Actor ACTOR;
+    private final Dispatcher dispatcher;
+
+    /**
+     * Thread of the actor that executes commands and events, or null if the
+     * cache manager is in striped mode and executes them on the calling
+     * thread.
+     */
     public final Thread thread;
 
     /**
@@ -261,17 +273,32 @@ public class SegmentCacheManager {
     public final SegmentCache compositeCache;
     private final SegmentCacheIndexRegistry indexRegistry;
 
+    /**
+     * Cache whose segments survived a restart, or null. Its headers are added
+     * to the index of each star as the star is first used.
+     */
+    private DiskSegmentCache diskCache;
+
     private static final Logger LOGGER =
         Logger.getLogger(AggregationManager.class);
     private final MondrianServer server;
 
     public SegmentCacheManager(MondrianServer server) {
         this.server = server;
-        ACTOR = new Actor();
-        thread = new Thread(
-            ACTOR, "mondrian.rolap.agg.SegmentCacheManager$ACTOR");
-        thread.setDaemon(true);
-        thread.start();
+        final int stripeCount =
+            MondrianProperties.instance()
+                .SegmentCacheManagerNumberStripes.get();
+        if (stripeCount > 0) {
+            dispatcher = new StripedDispatcher(stripeCount);
+            thread = null;
+        } else {
+            final Actor actor = new Actor();
+            dispatcher = actor;
+            thread = new Thread(
+                actor, "mondrian.rolap.agg.SegmentCacheManager$ACTOR");
+            thread.setDaemon(true);
+            thread.start();
+        }
 
         // Create the index registry.
         this.indexRegistry = new SegmentCacheIndexRegistry();
@@ -280,12 +307,31 @@ public class SegmentCacheManager {
         if (!MondrianProperties.instance().DisableLocalSegmentCache.get()
             && !MondrianProperties.instance().DisableCaching.get())
         {
-            final MemorySegmentCache cache = new MemorySegmentCache();
+            final String directory =
+                MondrianProperties.instance().SegmentCacheDirectory.get();
+            final int offHeapMegabytes =
+                MondrianProperties.instance().SegmentCacheOffHeapMegabytes
+                    .get();
+            final SegmentCache cache;
+            if (directory != null && directory.length() > 0) {
+                cache = DiskSegmentCache.acquire(new File(directory));
+            } else if (offHeapMegabytes > 0) {
+                cache =
+                    new OffHeapSegmentCache(offHeapMegabytes * 1024L * 1024L);
+            } else {
+                cache = new MemorySegmentCache();
+            }
             segmentCacheWorkers.add(
                 new SegmentCacheWorker(cache, thread));
+            if (cache instanceof DiskSegmentCache) {
+                diskCache = (DiskSegmentCache) cache;
+            }
         }
         // Add an external cache, if configured.
         final SegmentCache externalCache = SegmentCacheWorker.initCache();
+        if (externalCache instanceof DiskSegmentCache) {
+            diskCache = (DiskSegmentCache) externalCache;
+        }
         if (externalCache != null) {
             // Create a worker for this external cache
             segmentCacheWorkers.add(
@@ -299,7 +345,7 @@ public class SegmentCacheManager {
     }
 
     public <T> T execute(Command<T> command) {
-        return ACTOR.execute(handler, command);
+        return dispatcher.execute(handler, command);
     }
 
     public SegmentCacheIndexRegistry getIndexRegistry() {
@@ -323,7 +369,7 @@ public class SegmentCacheManager {
         SegmentBody body)
     {
         final Locus locus = Locus.peek();
-        ACTOR.event(
+        dispatcher.event(
             handler,
             new SegmentLoadSucceededEvent(
                 System.currentTimeMillis(),
@@ -353,7 +399,7 @@ public class SegmentCacheManager {
         Throwable throwable)
     {
         final Locus locus = Locus.peek();
-        ACTOR.event(
+        dispatcher.event(
             handler,
             new SegmentLoadFailedEvent(
                 System.currentTimeMillis(),
@@ -382,7 +428,7 @@ public class SegmentCacheManager {
         SegmentHeader header)
     {
         final Locus locus = Locus.peek();
-        ACTOR.event(
+        dispatcher.event(
             handler,
             new SegmentRemoveEvent(
                 System.currentTimeMillis(),
@@ -408,7 +454,7 @@ public class SegmentCacheManager {
             // Ignore cache requests.
             return;
         }
-        ACTOR.event(
+        dispatcher.event(
             handler,
             new ExternalSegmentCreatedEvent(
                 System.currentTimeMillis(),
@@ -433,7 +479,7 @@ public class SegmentCacheManager {
             // Ignore cache requests.
             return;
         }
-        ACTOR.event(
+        dispatcher.event(
             handler,
             new ExternalSegmentDeletedEvent(
                 System.currentTimeMillis(),
@@ -451,7 +497,7 @@ public class SegmentCacheManager {
         PrintWriter pw,
         Locus locus)
     {
-        ACTOR.execute(
+        dispatcher.execute(
             handler,
             new PrintCacheStateCommand(region, pw, locus));
     }
@@ -589,8 +635,7 @@ public class SegmentCacheManager {
                     CellCacheEvent.Source.CACHE_CONTROL));
 
             // Remove the segment from external caches. Use an executor, because
-            // it may take some time. We discard the future, because we don't
-            // care too much if it fails.
+            // it may take some time. We don't care too much if it fails.
             final Future<?> future = event.cacheMgr.cacheExecutor.submit(
                 new Runnable() {
                     public void run() {
@@ -607,7 +652,12 @@ public class SegmentCacheManager {
                     }
                 }
             );
-            Util.safeGet(future, "SegmentCacheManager.segmentremoved");
+            // In striped mode, this event is handled while holding the stripe
+            // lock of its star. Do not wait for the external caches there, or
+            // every command on that stripe would wait too.
+            if (!(event.cacheMgr.dispatcher instanceof StripedDispatcher)) {
+                Util.safeGet(future, "SegmentCacheManager.segmentremoved");
+            }
         }
 
         public void visit(ExternalSegmentCreatedEvent event) {
@@ -653,6 +703,25 @@ public class SegmentCacheManager {
         Locus getLocus();
     }
 
+    /**
+     * Command that reads or modifies only the indexes of a known set of
+     * stars.
+     *
+     * <p>In striped mode, the cache manager locks only the stripes of those
+     * stars while the command executes, so commands that concern unrelated
+     * stars can run in parallel. A command that is not a {@code StarCommand}
+     * locks every stripe. In actor mode, the distinction is ignored.</p>
+     */
+    public static interface StarCommand<T> extends Command<T> {
+        /**
+         * Returns the stars whose indexes this command accesses, or null if
+         * not known.
+         *
+         * @return Stars whose indexes this command accesses, or null
+         */
+        Collection<RolapStar> getStars();
+    }
+
     /**
      * Command to flush a particular region from cache.
      */
@@ -897,13 +966,43 @@ public class SegmentCacheManager {
          * @param visitor Visitor
          */
         public abstract void acceptWithoutResponse(Visitor visitor);
+
+        /**
+         * Returns the star whose index this event affects, or null if the
+         * event may affect any index.
+         */
+        public RolapStar getStar() {
+            return null;
+        }
+    }
+
+    /**
+     * Strategy by which the cache manager executes commands and events
+     * against its indexes.
+     */
+    private interface Dispatcher {
+        /**
+         * Executes a command and returns its result.
+         */
+        <T> T execute(Handler handler, Command<T> command);
+
+        /**
+         * Handles an event. May return before the event has been handled.
+         */
+        void event(Handler handler, Event event);
+
+        /**
+         * Returns whether the current thread may access the index of a
+         * given star.
+         */
+        boolean canAccess(RolapStar star);
     }
 
     /**
      * Copy-pasted from {@link mondrian.server.monitor.Monitor}. Consider
      * abstracting common code.
      */
-    private static class Actor implements Runnable {
+    private static class Actor implements Runnable, Dispatcher {
 
         private final BlockingQueue<Pair<Handler, Message>> eventQueue =
             new ArrayBlockingQueue<Pair<Handler, Message>>(1000);
@@ -966,7 +1065,7 @@ public class SegmentCacheManager {
             }
         }
 
-        <T> T execute(Handler handler, Command<T> command) {
+        public <T> T execute(Handler handler, Command<T> command) {
             try {
                 eventQueue.put(Pair.<Handler, Message>of(handler, command));
             } catch (InterruptedException e) {
@@ -998,6 +1097,122 @@ public class SegmentCacheManager {
                 throw Util.newError(e, "Exception while executing " + event);
             }
         }
+
+        public boolean canAccess(RolapStar star) {
+            // The index checks that it is being called from the actor thread.
+            return true;
+        }
+    }
+
+    /**
+     * Dispatcher that executes commands and events on the calling thread,
+     * guarded by a fixed number of locks ("stripes"). Each star maps to one
+     * stripe.
+     *
+     * <p>Commands that implement {@link StarCommand}, and events that know
+     * their star, lock only the stripes of the stars they concern; so peeks
+     * and load completions for unrelated stars proceed in parallel. Other
+     * commands, such as flush, lock every stripe. Stripes are always locked
+     * in ascending order, so dispatchers cannot deadlock one another.</p>
+     */
+    private static class StripedDispatcher implements Dispatcher {
+        private final ReentrantLock[] locks;
+
+        StripedDispatcher(int stripeCount) {
+            assert stripeCount > 0;
+            locks = new ReentrantLock[stripeCount];
+            for (int i = 0; i < stripeCount; i++) {
+                locks[i] = new ReentrantLock();
+            }
+        }
+
+        private int stripe(RolapStar star) {
+            return (star.hashCode() & Integer.MAX_VALUE) % locks.length;
+        }
+
+        /**
+         * Returns the stripes of a collection of stars, or all stripes if
+         * the collection is null.
+         */
+        private BitSet stripes(Collection<RolapStar> stars) {
+            final BitSet stripes = new BitSet(locks.length);
+            if (stars == null) {
+                stripes.set(0, locks.length);
+            } else {
+                for (RolapStar star : stars) {
+                    stripes.set(stripe(star));
+                }
+            }
+            return stripes;
+        }
+
+        private void lock(BitSet stripes) {
+            for (int i = stripes.nextSetBit(0);
+                 i >= 0;
+                 i = stripes.nextSetBit(i + 1))
+            {
+                locks[i].lock();
+            }
+        }
+
+        private void unlock(BitSet stripes) {
+            for (int i = stripes.nextSetBit(0);
+                 i >= 0;
+                 i = stripes.nextSetBit(i + 1))
+            {
+                locks[i].unlock();
+            }
+        }
+
+        public <T> T execute(Handler handler, Command<T> command) {
+            final BitSet stripes =
+                stripes(
+                    command instanceof StarCommand
+                        ? ((StarCommand<T>) command).getStars()
+                        : null);
+            lock(stripes);
+            Locus.push(command.getLocus());
+            try {
+                return command.call();
+            } catch (PleaseShutdownException e) {
+                return null;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            } finally {
+                Locus.pop(command.getLocus());
+                unlock(stripes);
+            }
+        }
+
+        public void event(Handler handler, Event event) {
+            final RolapStar star = event.getStar();
+            final BitSet stripes =
+                stripes(
+                    star == null
+                        ? null
+                        : Collections.singletonList(star));
+            lock(stripes);
+            try {
+                event.acceptWithoutResponse(handler);
+
+                // Broadcast the event to anyone who is interested.
+                RolapUtil.MONITOR_LOGGER.debug(event);
+            } catch (Throwable e) {
+                // As in actor mode, the sender of an event does not hear
+                // about failures.
+                LOGGER.error("Error while handling event " + event, e);
+            } finally {
+                unlock(stripes);
+            }
+        }
+
+        public boolean canAccess(RolapStar star) {
+            return locks[stripe(star)].isHeldByCurrentThread();
+        }
     }
 
     private static class SegmentLoadSucceededEvent extends Event {
@@ -1038,6 +1253,10 @@ public class SegmentCacheManager {
         public void acceptWithoutResponse(Visitor visitor) {
             visitor.visit(this);
         }
+
+        public RolapStar getStar() {
+            return star;
+        }
     }
 
     private static class SegmentLoadFailedEvent extends Event {
@@ -1077,6 +1296,10 @@ public class SegmentCacheManager {
         public void acceptWithoutResponse(Visitor visitor) {
             visitor.visit(this);
         }
+
+        public RolapStar getStar() {
+            return star;
+        }
     }
 
     private static class SegmentRemoveEvent extends Event {
@@ -1116,6 +1339,10 @@ public class SegmentCacheManager {
         public void acceptWithoutResponse(Visitor visitor) {
             visitor.visit(this);
         }
+
+        public RolapStar getStar() {
+            return star;
+        }
     }
 
     private static class ExternalSegmentCreatedEvent extends Event {
@@ -1387,7 +1614,7 @@ public class SegmentCacheManager {
      * For (b), the client will have to wait for the segment to arrive.</p>
      */
     private class PeekCommand
-        implements SegmentCacheManager.Command<PeekResponse>
+        implements SegmentCacheManager.StarCommand<PeekResponse>
     {
         private final CellRequest request;
         private final Locus locus;
@@ -1448,6 +1675,10 @@ public class SegmentCacheManager {
             return new PeekResponse(headerMap, converterMap);
         }
 
+        public Collection<RolapStar> getStars() {
+            return Collections.singletonList(request.getMeasure().getStar());
+        }
+
         public Locus getLocus() {
             return locus;
         }
@@ -1469,6 +1700,11 @@ public class SegmentCacheManager {
     /**
      * Registry of all the indexes that were created for this
      * cache manager, per {@link RolapStar}.
+     *
+     * <p>The map of indexes is synchronized, because in striped mode
+     * commands on different stars access it concurrently. Each index is
+     * accessed only by the actor thread, or, in striped mode, by a thread
+     * that holds the lock of the index's stripe.</p>
      */
     public class SegmentCacheIndexRegistry {
         private final Map<RolapStar, SegmentCacheIndex> indexes =
@@ -1479,10 +1715,41 @@ public class SegmentCacheManager {
          * {@link RolapStar}.
          */
         public SegmentCacheIndex getIndex(RolapStar star) {
-            if (!indexes.containsKey(star)) {
-                indexes.put(star, new SegmentCacheIndexImpl(thread));
+            assert dispatcher.canAccess(star)
+                : "stripe of star " + star.getFactTable().getAlias()
+                  + " is not locked by " + Thread.currentThread();
+            synchronized (indexes) {
+                SegmentCacheIndex index = indexes.get(star);
+                if (index == null) {
+                    index = new SegmentCacheIndexImpl(thread);
+                    indexes.put(star, index);
+                    addPersistentHeaders(star, index);
+                }
+                return index;
+            }
+        }
+
+        /**
+         * Adds to a new index the headers of the star's segments that the
+         * disk cache loaded at startup. The disk cache holds its headers in
+         * memory, so it is safe to call it from the cache manager's thread.
+         */
+        private void addPersistentHeaders(
+            RolapStar star,
+            SegmentCacheIndex index)
+        {
+            if (diskCache == null) {
+                return;
+            }
+            final String factTableName = star.getFactTable().getTableName();
+            final ByteString schemaChecksum = star.getSchema().getChecksum();
+            for (SegmentHeader header : diskCache.getSegmentHeaders()) {
+                if (factTableName.equals(header.rolapStarFactTableName)
+                    && schemaChecksum.equals(header.schemaChecksum))
+                {
+                    index.add(header, false, null);
+                }
             }
-            return indexes.get(star);
         }
         /**
          * Returns the {@link SegmentCacheIndex} for a given
@@ -1493,8 +1760,13 @@ public class SegmentCacheManager {
         {
             // First we check the indexes that already exist.
             // This is fast.
+            final Map<RolapStar, SegmentCacheIndex> indexesCopy;
+            synchronized (indexes) {
+                indexesCopy =
+                    new HashMap<RolapStar, SegmentCacheIndex>(indexes);
+            }
             for (Entry<RolapStar, SegmentCacheIndex> entry
-                : indexes.entrySet())
+                : indexesCopy.entrySet())
             {
                 final String factTableName =
                     entry.getKey().getFactTable().getTableName();
@@ -1521,7 +1793,11 @@ public class SegmentCacheManager {
             return null;
         }
         public void cancelExecutionSegments(Execution exec) {
-            for (SegmentCacheIndex index : indexes.values()) {
+            final List<SegmentCacheIndex> indexList;
+            synchronized (indexes) {
+                indexList = new ArrayList<SegmentCacheIndex>(indexes.values());
+            }
+            for (SegmentCacheIndex index : indexList) {
                 index.cancel(exec);
             }
         }
@@ -24,6 +24,7 @@ import mondrian.util.*;
 
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -204,6 +205,15 @@ public class SegmentLoader {
 
             boolean[] axisContainsNull = new boolean[arity];
 
+            if (MondrianProperties.instance().StreamingSegmentLoad.get()) {
+                return loadStreaming(
+                    stmt,
+                    axisContainsNull,
+                    axisValueSets,
+                    groupingSetsList,
+                    segmentMap);
+            }
+
             RowList rows =
                 processData(
                     stmt,
@@ -253,6 +263,56 @@ public class SegmentLoader {
         }
     }
 
+    /**
+     * Loads segments from an executed statement without materializing its
+     * rows as objects. Called by {@link #loadImpl} if
+     * {@link MondrianProperties#StreamingSegmentLoad} is set.
+     */
+    private Map<Segment, SegmentWithData> loadStreaming(
+        SqlStatement stmt,
+        boolean[] axisContainsNull,
+        SortedSet<Comparable>[] axisValueSets,
+        GroupingSetsList groupingSetsList,
+        Map<Segment, SegmentWithData> segmentMap)
+        throws SQLException, IOException
+    {
+        final int arity = axisValueSets.length;
+        final SegmentRowBuffer rows =
+            processDataStreaming(
+                stmt,
+                axisContainsNull,
+                axisValueSets,
+                groupingSetsList);
+        try {
+            boolean sparse =
+                setAxisDataAndDecideSparseUse(
+                    axisValueSets,
+                    axisContainsNull,
+                    groupingSetsList,
+                    rows.size());
+
+            final List<SqlStatement.Type> types = stmt.guessTypes();
+            final Map<BitKey, GroupingSetsList.Cohort> groupingDataSetsMap =
+                createDataSetsForGroupingSets(
+                    groupingSetsList,
+                    sparse,
+                    types.subList(
+                        arity,
+                        arity + groupingSetsList.getDefaultSegments().size()));
+
+            rows.loadDataToDataSets(groupingSetsList, groupingDataSetsMap);
+
+            setDataToSegments(
+                this.cacheMgr,
+                groupingSetsList,
+                groupingDataSetsMap,
+                segmentMap);
+            return segmentMap;
+        } finally {
+            rows.close();
+        }
+    }
+
     /**
      * Called when a segment has been loaded from SQL, to put into the segment
      * index and the external cache.
@@ -381,13 +441,56 @@ public class SegmentLoader {
         boolean[] axisContainsNull,
         GroupingSetsList groupingSetsList,
         RowList rows)
+    {
+        final long n =
+            setAxisData(axisValueSets, axisContainsNull, groupingSetsList);
+        // Use a sparse array if the size of the dense array would overflow.
+        if (n > Integer.MAX_VALUE) {
+            return useSparse(true, Integer.MAX_VALUE, rows);
+        }
+        return useSparse(false, (int) n, rows);
+    }
+
+    /**
+     * Creates the axes of the segments, and decides whether to use a sparse
+     * representation, for a load whose rows were read by
+     * {@link #processDataStreaming}.
+     *
+     * @param axisValueSets Distinct values of each axis
+     * @param axisContainsNull Whether each axis contains null
+     * @param groupingSetsList Grouping sets
+     * @param rowCount Number of rows
+     * @return Whether to use a sparse representation
+     */
+    public boolean setAxisDataAndDecideSparseUse(
+        SortedSet<Comparable>[] axisValueSets,
+        boolean[] axisContainsNull,
+        GroupingSetsList groupingSetsList,
+        int rowCount)
+    {
+        final long n =
+            setAxisData(axisValueSets, axisContainsNull, groupingSetsList);
+        if (n > Integer.MAX_VALUE) {
+            return useSparse(true, Integer.MAX_VALUE, rowCount);
+        }
+        return useSparse(false, (int) n, rowCount);
+    }
+
+    /**
+     * Creates the axes of the default segments and of the rollup grouping
+     * sets, and returns the number of cells in a dense array over those
+     * axes. The result is greater than {@link Integer#MAX_VALUE} if the
+     * array would be too large.
+     */
+    private long setAxisData(
+        SortedSet<Comparable>[] axisValueSets,
+        boolean[] axisContainsNull,
+        GroupingSetsList groupingSetsList)
     {
         SegmentAxis[] axes = groupingSetsList.getDefaultAxes();
         RolapStar.Column[] allColumns = groupingSetsList.getDefaultColumns();
-        // Figure out size of dense array, and allocate it, or use a sparse
-        // array if appropriate.
-        boolean sparse = false;
-        int n = 1;
+        // Figure out size of dense array.
+        long n = 1;
         for (int i = 0; i < axes.length; i++) {
             SortedSet<Comparable> valueSet = axisValueSets[i];
             axes[i] =
@@ -401,19 +504,22 @@ public class SegmentLoader {
                 valueSet,
                 axisContainsNull[i],
                 allColumns[i]);
-            int previous = n;
             n *= size;
-            if ((n < previous) || (n < size)) {
-                // Overflow has occurred.
-                n = Integer.MAX_VALUE;
-                sparse = true;
+            if (n > Integer.MAX_VALUE) {
+                // Overflow has occurred. Keep going, to create the
+                // remaining axes, but stop the product from growing.
+                n = Integer.MAX_VALUE + 1L;
             }
         }
-        return useSparse(sparse, n, rows);
+        return n;
     }
 
     public boolean useSparse(boolean sparse, int n, RowList rows) {
-        sparse = sparse || useSparse(n, rows.size());
+        return useSparse(sparse, n, rows.size());
+    }
+
+    public boolean useSparse(boolean sparse, int n, int rowCount) {
+        sparse = sparse || useSparse(n, rowCount);
         return sparse;
     }
 
@@ -584,7 +690,7 @@ public class SegmentLoader {
             new Util.Function1<Statement, Void>() {
                 public Void apply(final Statement stmt) {
                     cacheMgr.execute(
-                        new SegmentCacheManager.Command<Void>() {
+                        new SegmentCacheManager.StarCommand<Void>() {
                             public Void call() throws Exception {
                                 boolean atLeastOneActive = false;
                                 for (Segment seg
@@ -611,6 +717,16 @@ public class SegmentLoader {
                                 }
                                 return null;
                             }
+                            public Collection<RolapStar> getStars() {
+                                final Set<RolapStar> stars =
+                                    new LinkedHashSet<RolapStar>();
+                                for (Segment seg
+                                    : groupingSetsList.getDefaultSegments())
+                                {
+                                    stars.add(seg.star);
+                                }
+                                return stars;
+                            }
                             public Locus getLocus() {
                               return locus;
                             }
@@ -643,7 +759,9 @@ public class SegmentLoader {
                 // cache the segments or not.
                 MondrianProperties.instance().DisableCaching.get()
                     ? callbackNoCaching
-                    : callbackWithCaching);
+                    : callbackWithCaching,
+                star.getSqlQueryDialect(),
+                estimateRowCount(groupingSetsList));
         } catch (Throwable t) {
             if (Util.getMatchingCause(t, AbortException.class) != null) {
                 return null;
@@ -655,6 +773,46 @@ public class SegmentLoader {
         }
     }
 
+    /**
+     * Estimates the number of rows that the statement for a list of grouping
+     * sets will return: for each grouping set, the product of the number of
+     * values of each of its columns.
+     *
+     * <p>Uses only column cardinalities that are already known; never issues
+     * a query to count the values of an unconstrained column.</p>
+     *
+     * @param groupingSetsList Grouping sets
+     * @return Estimated number of rows, or -1 if not known
+     */
+    static int estimateRowCount(GroupingSetsList groupingSetsList) {
+        long rowCount = 0;
+        for (GroupingSet groupingSet : groupingSetsList.getGroupingSets()) {
+            final RolapStar.Column[] columns = groupingSet.getColumns();
+            final StarColumnPredicate[] predicates =
+                groupingSet.getPredicates();
+            long cellCount = 1;
+            for (int i = 0; i < columns.length && cellCount > 0; i++) {
+                final StarColumnPredicate predicate = predicates[i];
+                final int valueCount;
+                if (predicate instanceof ValueColumnPredicate) {
+                    valueCount = 1;
+                } else if (predicate instanceof ListColumnPredicate) {
+                    valueCount =
+                        ((ListColumnPredicate) predicate).getPredicates()
+                            .size();
+                } else {
+                    valueCount = columns[i].getKnownCardinality();
+                }
+                if (valueCount < 0) {
+                    return -1;
+                }
+                cellCount = Math.min(cellCount * valueCount, Integer.MAX_VALUE);
+            }
+            rowCount += cellCount;
+        }
+        return (int) Math.min(rowCount, Integer.MAX_VALUE);
+    }
+
     RowList processData(
         SqlStatement stmt,
         final boolean[] axisContainsNull,
@@ -844,6 +1002,195 @@ public class SegmentLoader {
         return processedRows;
     }
 
+    /**
+     * Reads the rows of a segment load into a {@link SegmentRowBuffer}.
+     *
+     * <p>Applies the same conversions as {@link #processData}, and fills
+     * in the same distinct value sets and null flags, but the rows are held
+     * as axis ids and primitive measure values, and are spilled to a
+     * temporary file if there are more than
+     * {@link MondrianProperties#SegmentLoadSpillThreshold} of them.
+     */
+    SegmentRowBuffer processDataStreaming(
+        SqlStatement stmt,
+        final boolean[] axisContainsNull,
+        final SortedSet<Comparable>[] axisValueSets,
+        final GroupingSetsList groupingSetsList)
+        throws SQLException, IOException
+    {
+        List<Segment> segments = groupingSetsList.getDefaultSegments();
+        int measureCount = segments.size();
+        ResultSet rawRows = loadData(stmt, groupingSetsList);
+        assert stmt != null;
+        final List<SqlStatement.Type> types = stmt.guessTypes();
+        int arity = axisValueSets.length;
+        final int groupingColumnStartIndex = arity + measureCount;
+        final boolean useGroupingSets = groupingSetsList.useGroupingSets();
+
+        final List<SqlStatement.Type> processedTypes;
+        if (useGroupingSets) {
+            processedTypes =
+                new ArrayList<SqlStatement.Type>(
+                    types.subList(0, groupingColumnStartIndex));
+            processedTypes.add(SqlStatement.Type.OBJECT);
+        } else {
+            processedTypes = types;
+        }
+
+        // pre-compute which measures are numeric
+        final boolean[] numeric = new boolean[measureCount];
+        int k = 0;
+        for (Segment segment : segments) {
+            numeric[k++] = segment.measure.getDatatype().isNumeric();
+        }
+
+        final SegmentRowBuffer rows =
+            new SegmentRowBuffer(
+                processedTypes,
+                arity,
+                measureCount,
+                useGroupingSets,
+                MondrianProperties.instance().SegmentLoadSpillThreshold.get());
+        boolean success = false;
+        try {
+            while (rawRows.next()) {
+                checkResultLimit(++stmt.rowCount);
+                rows.createRow();
+
+                // get the columns
+                int columnIndex = 0;
+                for (int axisIndex = 0; axisIndex < arity;
+                     axisIndex++, columnIndex++)
+                {
+                    final SqlStatement.Type type = types.get(columnIndex);
+                    final Comparable value;
+                    switch (type) {
+                    case OBJECT:
+                    case STRING:
+                        value = (Comparable) rawRows.getObject(columnIndex + 1);
+                        break;
+                    case INT:
+                        final int intValue = rawRows.getInt(columnIndex + 1);
+                        value =
+                            intValue == 0 && rawRows.wasNull()
+                                ? null
+                                : Integer.valueOf(intValue);
+                        break;
+                    case LONG:
+                        final long longValue =
+                            rawRows.getLong(columnIndex + 1);
+                        value =
+                            longValue == 0 && rawRows.wasNull()
+                                ? null
+                                : Long.valueOf(longValue);
+                        break;
+                    case DOUBLE:
+                        // As in processData, a null double is stored as 0.
+                        final double doubleValue =
+                            rawRows.getDouble(columnIndex + 1);
+                        if (doubleValue == 0 && rawRows.wasNull()) {
+                            setAxisContainsNull(
+                                rawRows, axisContainsNull,
+                                groupingColumnStartIndex, groupingSetsList,
+                                axisIndex);
+                        }
+                        rows.setAxisValue(axisIndex, doubleValue);
+                        continue;
+                    default:
+                        throw Util.unexpected(type);
+                    }
+                    if (value == null) {
+                        setAxisContainsNull(
+                            rawRows, axisContainsNull,
+                            groupingColumnStartIndex, groupingSetsList,
+                            axisIndex);
+                    }
+                    rows.setAxisValue(axisIndex, value);
+                }
+
+                // get the measure
+                for (int i = 0; i < measureCount; i++, columnIndex++) {
+                    final SqlStatement.Type type = types.get(columnIndex);
+                    switch (type) {
+                    case OBJECT:
+                    case STRING:
+                        Object o = rawRows.getObject(columnIndex + 1);
+                        if (o == null) {
+                            o = Util.nullValue; // convert to placeholder
+                        } else if (numeric[i]) {
+                            if (o instanceof Double) {
+                                // nothing to do
+                            } else if (o instanceof Number) {
+                                o = ((Number) o).doubleValue();
+                            } else if (o instanceof byte[]) {
+                                // See processData; bug 1594119.
+                                o = Double.parseDouble(
+                                    new String((byte[]) o));
+                            } else {
+                                o = Double.parseDouble(o.toString());
+                            }
+                        }
+                        rows.setObject(i, o);
+                        break;
+                    case INT:
+                        final int intValue = rawRows.getInt(columnIndex + 1);
+                        rows.setInt(
+                            i, intValue, intValue == 0 && rawRows.wasNull());
+                        break;
+                    case LONG:
+                        final long longValue =
+                            rawRows.getLong(columnIndex + 1);
+                        rows.setLong(
+                            i, longValue, longValue == 0 && rawRows.wasNull());
+                        break;
+                    case DOUBLE:
+                        final double doubleValue =
+                            rawRows.getDouble(columnIndex + 1);
+                        rows.setDouble(
+                            i,
+                            doubleValue,
+                            doubleValue == 0 && rawRows.wasNull());
+                        break;
+                    default:
+                        throw Util.unexpected(type);
+                    }
+                }
+
+                if (useGroupingSets) {
+                    rows.setGroupingBitKey(
+                        getRollupBitKey(
+                            groupingSetsList.getRollupColumns().size(),
+                            rawRows, columnIndex));
+                }
+            }
+            rows.collectAxisValues(axisValueSets);
+            success = true;
+            return rows;
+        } finally {
+            if (!success) {
+                rows.close();
+            }
+        }
+    }
+
+    private void setAxisContainsNull(
+        ResultSet rawRows,
+        boolean[] axisContainsNull,
+        int groupingColumnStartIndex,
+        GroupingSetsList groupingSetsList,
+        int axisIndex) throws SQLException
+    {
+        if (!groupingSetsList.useGroupingSets()
+            || !isAggregateNull(
+                rawRows,
+                groupingColumnStartIndex,
+                groupingSetsList,
+                axisIndex))
+        {
+            axisContainsNull[axisIndex] = true;
+        }
+    }
+
     protected static void checkResultLimit(int currentCount) {
         final int limit =
             MondrianProperties.instance().ResultLimit.get();
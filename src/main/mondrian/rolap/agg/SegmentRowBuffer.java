@@ -0,0 +1,545 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.olap.Util;
+import mondrian.rolap.*;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Compact, columnar buffer of the rows read by a segment load.
+ *
+ * <p>Unlike {@link SegmentLoader.RowList}, which holds each axis value as an
+ * object, this buffer replaces each axis value with an {@code int} id from a
+ * per-axis dictionary as rows arrive. Measures are held in primitive arrays
+ * where their type allows. Once the result set is exhausted, the
+ * dictionaries are sorted (they become the segment axes) and the ids are
+ * mapped to axis ordinals, so datasets can be populated in a single pass.</p>
+ *
+ * <p>When the number of buffered rows reaches the spill threshold, the
+ * buffered rows are appended to a temporary file and the buffer is reused.
+ * Memory use is therefore bounded by the threshold plus the dictionaries,
+ * whatever the size of the result set. (Values of OBJECT measures are
+ * written to the file, using Java serialization for types other than
+ * {@link Double}, {@link String}, {@link java.math.BigDecimal} and
+ * {@link Long}; the rare value that is not serializable is held in
+ * memory.)</p>
+ *
+ * <p>NOTE: This class is not synchronized. Call {@link #close()} when
+ * done, to delete the temporary file.</p>
+ *
+ * @see SegmentLoader#processDataStreaming
+ */
+class SegmentRowBuffer {
+    /** Axis id of a null value. */
+    private static final int NULL_ID = -1;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_DOUBLE = 1;
+    private static final byte TAG_STRING = 2;
+    private static final byte TAG_OTHER = 3;
+    private static final byte TAG_BIG_DECIMAL = 4;
+    private static final byte TAG_LONG = 5;
+    private static final byte TAG_REFERENCE = 6;
+
+    private final List<SqlStatement.Type> types;
+    private final int arity;
+    private final int measureCount;
+    private final boolean useGroupingSets;
+    private final int spillThreshold;
+
+    private final List<Map<Comparable, Integer>> axisIdMaps;
+    private final List<List<Comparable>> axisValueLists;
+    private final Map<BitKey, Integer> groupingKeyIds =
+        new HashMap<BitKey, Integer>();
+    private final List<BitKey> groupingKeys = new ArrayList<BitKey>();
+
+    private int[][] axisIds;
+    private int[] groupingIds;
+    private final Object[] measureValues;
+    private final BitSet[] measureNulls;
+
+    /**
+     * Values of OBJECT measures that are not serializable, so cannot be
+     * written to the spill file.
+     */
+    private final List<Object> spilledObjects = new ArrayList<Object>();
+
+    private int capacity;
+    private int bufferedCount;
+    private int spilledCount;
+    private int currentRow = -1;
+    private File spillFile;
+    private DataOutputStream spillOut;
+
+    /**
+     * Creates a SegmentRowBuffer.
+     *
+     * @param types Types of the processed columns: axes, then measures, then
+     *   (if grouping sets are used) the grouping bit key
+     * @param arity Number of axes
+     * @param measureCount Number of measures
+     * @param useGroupingSets Whether the rows contain a grouping bit key
+     * @param spillThreshold Number of rows to buffer in memory before
+     *   spilling to a temporary file; 0 or less means never spill
+     */
+    SegmentRowBuffer(
+        List<SqlStatement.Type> types,
+        int arity,
+        int measureCount,
+        boolean useGroupingSets,
+        int spillThreshold)
+    {
+        this.types = types;
+        this.arity = arity;
+        this.measureCount = measureCount;
+        this.useGroupingSets = useGroupingSets;
+        this.spillThreshold = spillThreshold;
+        this.capacity =
+            spillThreshold > 0 ? Math.min(spillThreshold, 100) : 100;
+        this.axisIdMaps = new ArrayList<Map<Comparable, Integer>>(arity);
+        this.axisValueLists = new ArrayList<List<Comparable>>(arity);
+        this.axisIds = new int[arity][capacity];
+        for (int i = 0; i < arity; i++) {
+            axisIdMaps.add(new HashMap<Comparable, Integer>());
+            axisValueLists.add(new ArrayList<Comparable>());
+        }
+        this.groupingIds = useGroupingSets ? new int[capacity] : null;
+        this.measureValues = new Object[measureCount];
+        this.measureNulls = new BitSet[measureCount];
+        for (int i = 0; i < measureCount; i++) {
+            measureValues[i] = newArray(types.get(arity + i), capacity);
+            measureNulls[i] = new BitSet();
+        }
+    }
+
+    private static Object newArray(SqlStatement.Type type, int capacity) {
+        switch (type) {
+        case OBJECT:
+        case STRING:
+            return new Object[capacity];
+        case INT:
+            return new int[capacity];
+        case LONG:
+            return new long[capacity];
+        case DOUBLE:
+            return new double[capacity];
+        default:
+            throw Util.unexpected(type);
+        }
+    }
+
+    /**
+     * Returns the total number of rows, buffered and spilled.
+     */
+    public int size() {
+        return spilledCount + bufferedCount;
+    }
+
+    /**
+     * Returns whether any rows have been spilled to disk.
+     */
+    public boolean hasSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * Starts a new row.
+     */
+    public void createRow() throws IOException {
+        if (spillThreshold > 0 && bufferedCount >= spillThreshold) {
+            spill();
+        }
+        if (bufferedCount >= capacity) {
+            capacity = spillThreshold > 0
+                ? Math.min(capacity * 2, spillThreshold)
+                : capacity * 2;
+            for (int i = 0; i < arity; i++) {
+                axisIds[i] = Util.copyOf(axisIds[i], capacity);
+            }
+            if (groupingIds != null) {
+                groupingIds = Util.copyOf(groupingIds, capacity);
+            }
+            for (int i = 0; i < measureCount; i++) {
+                final Object values = measureValues[i];
+                if (values instanceof int[]) {
+                    measureValues[i] = Util.copyOf((int[]) values, capacity);
+                } else if (values instanceof long[]) {
+                    measureValues[i] = Util.copyOf((long[]) values, capacity);
+                } else if (values instanceof double[]) {
+                    measureValues[i] =
+                        Util.copyOf((double[]) values, capacity);
+                } else {
+                    measureValues[i] =
+                        Util.copyOf((Object[]) values, capacity);
+                }
+            }
+        }
+        currentRow = bufferedCount++;
+    }
+
+    /**
+     * Sets the value of an axis in the current row.
+     *
+     * @param axis Axis ordinal
+     * @param value Value, or null
+     */
+    public void setAxisValue(int axis, Comparable value) {
+        final int id;
+        if (value == null) {
+            id = NULL_ID;
+        } else {
+            final Map<Comparable, Integer> idMap = axisIdMaps.get(axis);
+            final Integer existingId = idMap.get(value);
+            if (existingId != null) {
+                id = existingId;
+            } else {
+                final List<Comparable> valueList = axisValueLists.get(axis);
+                id = valueList.size();
+                valueList.add(value);
+                idMap.put(value, id);
+            }
+        }
+        axisIds[axis][currentRow] = id;
+    }
+
+    public void setInt(int measure, int value, boolean isNull) {
+        ((int[]) measureValues[measure])[currentRow] = value;
+        measureNulls[measure].set(currentRow, isNull);
+    }
+
+    public void setLong(int measure, long value, boolean isNull) {
+        ((long[]) measureValues[measure])[currentRow] = value;
+        measureNulls[measure].set(currentRow, isNull);
+    }
+
+    public void setDouble(int measure, double value, boolean isNull) {
+        ((double[]) measureValues[measure])[currentRow] = value;
+        measureNulls[measure].set(currentRow, isNull);
+    }
+
+    public void setObject(int measure, Object value) {
+        ((Object[]) measureValues[measure])[currentRow] = value;
+    }
+
+    /**
+     * Sets the grouping bit key of the current row. Bit keys are interned,
+     * because a result set contains only one distinct key per grouping set.
+     */
+    public void setGroupingBitKey(BitKey bitKey) {
+        Integer id = groupingKeyIds.get(bitKey);
+        if (id == null) {
+            id = groupingKeys.size();
+            groupingKeys.add(bitKey);
+            groupingKeyIds.put(bitKey, id);
+        }
+        groupingIds[currentRow] = id;
+    }
+
+    /**
+     * Adds the distinct values of each axis to the given sets.
+     *
+     * @param axisValueSets Sorted value set of each axis
+     */
+    public void collectAxisValues(SortedSet<Comparable>[] axisValueSets) {
+        for (int i = 0; i < arity; i++) {
+            axisValueSets[i].addAll(axisValueLists.get(i));
+        }
+    }
+
+    /**
+     * Appends the buffered rows to the spill file, and empties the buffer.
+     */
+    private void spill() throws IOException {
+        if (spillOut == null) {
+            spillFile = File.createTempFile("mondrian-segment", ".rows");
+            spillFile.deleteOnExit();
+            spillOut =
+                new DataOutputStream(
+                    new BufferedOutputStream(
+                        new FileOutputStream(spillFile), 65536));
+        }
+        for (int row = 0; row < bufferedCount; row++) {
+            for (int i = 0; i < arity; i++) {
+                spillOut.writeInt(axisIds[i][row]);
+            }
+            if (groupingIds != null) {
+                spillOut.writeInt(groupingIds[row]);
+            }
+            for (int i = 0; i < measureCount; i++) {
+                final Object values = measureValues[i];
+                if (values instanceof Object[]) {
+                    writeObject(((Object[]) values)[row]);
+                    continue;
+                }
+                spillOut.writeBoolean(measureNulls[i].get(row));
+                if (values instanceof int[]) {
+                    spillOut.writeInt(((int[]) values)[row]);
+                } else if (values instanceof long[]) {
+                    spillOut.writeLong(((long[]) values)[row]);
+                } else {
+                    spillOut.writeDouble(((double[]) values)[row]);
+                }
+            }
+        }
+        spilledCount += bufferedCount;
+        bufferedCount = 0;
+        for (int i = 0; i < measureCount; i++) {
+            measureNulls[i].clear();
+            if (measureValues[i] instanceof Object[]) {
+                Arrays.fill((Object[]) measureValues[i], null);
+            }
+        }
+    }
+
+    private void writeObject(Object o) throws IOException {
+        if (o == Util.nullValue) {
+            spillOut.writeByte(TAG_NULL);
+        } else if (o instanceof Double) {
+            spillOut.writeByte(TAG_DOUBLE);
+            spillOut.writeDouble((Double) o);
+        } else if (o instanceof String) {
+            final byte[] bytes = ((String) o).getBytes("UTF-8");
+            spillOut.writeByte(TAG_STRING);
+            spillOut.writeInt(bytes.length);
+            spillOut.write(bytes);
+        } else if (o instanceof BigDecimal) {
+            spillOut.writeByte(TAG_BIG_DECIMAL);
+            spillOut.writeUTF(o.toString());
+        } else if (o instanceof Long) {
+            spillOut.writeByte(TAG_LONG);
+            spillOut.writeLong((Long) o);
+        } else if (o instanceof Serializable) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(o);
+            out.close();
+            spillOut.writeByte(TAG_OTHER);
+            spillOut.writeInt(bytes.size());
+            bytes.writeTo(spillOut);
+        } else {
+            spillOut.writeByte(TAG_REFERENCE);
+            spillOut.writeInt(spilledObjects.size());
+            spilledObjects.add(o);
+        }
+    }
+
+    private Object readObject(DataInputStream in) throws IOException {
+        final byte tag = in.readByte();
+        switch (tag) {
+        case TAG_NULL:
+            return Util.nullValue;
+        case TAG_DOUBLE:
+            return in.readDouble();
+        case TAG_STRING:
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        case TAG_BIG_DECIMAL:
+            return new BigDecimal(in.readUTF());
+        case TAG_LONG:
+            return in.readLong();
+        case TAG_OTHER:
+            final byte[] objectBytes = new byte[in.readInt()];
+            in.readFully(objectBytes);
+            final ObjectInputStream objectIn =
+                new ObjectInputStream(new ByteArrayInputStream(objectBytes));
+            try {
+                return objectIn.readObject();
+            } catch (ClassNotFoundException e) {
+                throw Util.newError(e, "Reading spilled value");
+            } finally {
+                objectIn.close();
+            }
+        case TAG_REFERENCE:
+            return spilledObjects.get(in.readInt());
+        default:
+            throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    /**
+     * Populates datasets from the rows: first the spilled rows, in the order
+     * they were written, then the buffered rows.
+     *
+     * <p>The segment axes must have been created, from the value sets
+     * returned by {@link #collectAxisValues}, before calling this method.
+     * Rows are presented to each dataset through a one-row
+     * {@link SegmentLoader.RowList}, so datasets need no new methods.</p>
+     *
+     * @param groupingSetsList Grouping sets
+     * @param groupingDataSetMap Datasets for each grouping bit key
+     */
+    public void loadDataToDataSets(
+        GroupingSetsList groupingSetsList,
+        Map<BitKey, GroupingSetsList.Cohort> groupingDataSetMap)
+        throws IOException
+    {
+        // Map each axis id to the ordinal of its value on the axis.
+        final SegmentAxis[] axes = groupingSetsList.getDefaultAxes();
+        final int[][] ordinals = new int[arity][];
+        final int[] nullOrdinals = new int[arity];
+        final int[] groupingFunctionIndexes = new int[arity];
+        for (int i = 0; i < arity; i++) {
+            final List<Comparable> values = axisValueLists.get(i);
+            ordinals[i] = new int[values.size()];
+            for (int j = 0; j < ordinals[i].length; j++) {
+                ordinals[i][j] = axes[i].getOffset(values.get(j));
+            }
+            nullOrdinals[i] = axes[i].getOffset(RolapUtil.sqlNullValue);
+            groupingFunctionIndexes[i] =
+                useGroupingSets
+                    ? groupingSetsList.findGroupingFunctionIndex(i)
+                    : -1;
+        }
+
+        final SegmentLoader.RowList cursor =
+            new SegmentLoader.RowList(types, 1);
+        cursor.createRow();
+        final int[] ids = new int[arity];
+
+        if (spillOut != null) {
+            spillOut.close();
+            spillOut = null;
+            final DataInputStream in =
+                new DataInputStream(
+                    new BufferedInputStream(
+                        new FileInputStream(spillFile), 65536));
+            try {
+                for (int row = 0; row < spilledCount; row++) {
+                    for (int i = 0; i < arity; i++) {
+                        ids[i] = in.readInt();
+                    }
+                    final int groupingId =
+                        groupingIds != null ? in.readInt() : -1;
+                    for (int i = 0; i < measureCount; i++) {
+                        final int column = arity + i;
+                        final Object values = measureValues[i];
+                        if (values instanceof Object[]) {
+                            cursor.setObject(column, readObject(in));
+                            continue;
+                        }
+                        final boolean isNull = in.readBoolean();
+                        if (values instanceof int[]) {
+                            cursor.setInt(column, in.readInt());
+                        } else if (values instanceof long[]) {
+                            cursor.setLong(column, in.readLong());
+                        } else {
+                            cursor.setDouble(column, in.readDouble());
+                        }
+                        cursor.setNull(column, isNull);
+                    }
+                    populate(
+                        groupingSetsList, groupingDataSetMap, cursor, ids,
+                        groupingId, ordinals, nullOrdinals,
+                        groupingFunctionIndexes);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        for (int row = 0; row < bufferedCount; row++) {
+            for (int i = 0; i < arity; i++) {
+                ids[i] = axisIds[i][row];
+            }
+            final int groupingId = groupingIds != null ? groupingIds[row] : -1;
+            for (int i = 0; i < measureCount; i++) {
+                final int column = arity + i;
+                final Object values = measureValues[i];
+                if (values instanceof Object[]) {
+                    cursor.setObject(column, ((Object[]) values)[row]);
+                    continue;
+                }
+                if (values instanceof int[]) {
+                    cursor.setInt(column, ((int[]) values)[row]);
+                } else if (values instanceof long[]) {
+                    cursor.setLong(column, ((long[]) values)[row]);
+                } else {
+                    cursor.setDouble(column, ((double[]) values)[row]);
+                }
+                cursor.setNull(column, measureNulls[i].get(row));
+            }
+            populate(
+                groupingSetsList, groupingDataSetMap, cursor, ids,
+                groupingId, ordinals, nullOrdinals, groupingFunctionIndexes);
+        }
+    }
+
+    /**
+     * Populates the datasets of the cohort of one row. Follows the same
+     * rules as {@link SegmentLoader#loadDataToDataSets}: a null value in a
+     * column that has been rolled up does not occupy an axis position.
+     */
+    private void populate(
+        GroupingSetsList groupingSetsList,
+        Map<BitKey, GroupingSetsList.Cohort> groupingDataSetMap,
+        SegmentLoader.RowList cursor,
+        int[] ids,
+        int groupingId,
+        int[][] ordinals,
+        int[] nullOrdinals,
+        int[] groupingFunctionIndexes)
+    {
+        final BitKey groupingBitKey;
+        final GroupingSetsList.Cohort cohort;
+        if (useGroupingSets) {
+            groupingBitKey = groupingKeys.get(groupingId);
+            cohort = groupingDataSetMap.get(groupingBitKey);
+        } else {
+            groupingBitKey = null;
+            cohort = groupingDataSetMap.get(BitKey.EMPTY);
+        }
+        final int[] pos = cohort.pos;
+        for (int j = 0, k = 0; j < arity; j++) {
+            final int id = ids[j];
+            if (id == NULL_ID) {
+                if (groupingBitKey != null
+                    && groupingFunctionIndexes[j] >= 0
+                    && groupingBitKey.get(groupingFunctionIndexes[j]))
+                {
+                    continue;
+                }
+                pos[k++] = nullOrdinals[j];
+            } else {
+                pos[k++] = ordinals[j][id];
+            }
+        }
+        final List<SegmentDataset> datasets = cohort.segmentDatasetList;
+        for (int j = 0; j < measureCount; j++) {
+            datasets.get(j).populateFrom(pos, cursor, arity + j);
+        }
+    }
+
+    /**
+     * Releases resources; deletes the spill file, if any.
+     */
+    public void close() {
+        if (spillOut != null) {
+            try {
+                spillOut.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            spillOut = null;
+        }
+        if (spillFile != null) {
+            if (!spillFile.delete()) {
+                spillFile.deleteOnExit();
+            }
+            spillFile = null;
+        }
+    }
+}
+
+// End SegmentRowBuffer.java
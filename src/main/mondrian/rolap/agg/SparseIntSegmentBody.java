@@ -0,0 +1,60 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.util.Pair;
+
+import java.util.*;
+
+/**
+ * Implementation of a sparse segment body which stores values of type
+ * {@code int}.
+ */
+class SparseIntSegmentBody extends SparseNativeSegmentBody {
+    private static final long serialVersionUID = -6712209478213590131L;
+
+    final int[] values;
+
+    /**
+     * Creates a SparseIntSegmentBody.
+     *
+     * <p>Stores the given arrays; caller must not modify them afterwards.</p>
+     *
+     * @param offsets Offsets of cells, ascending
+     * @param values Cell values
+     * @param nullIndicators Which cells have null values
+     * @param axes Axes
+     */
+    SparseIntSegmentBody(
+        long[] offsets,
+        int[] values,
+        BitSet nullIndicators,
+        List<Pair<SortedSet<Comparable>, Boolean>> axes)
+    {
+        super(offsets, nullIndicators, axes);
+        assert values.length == offsets.length;
+        this.values = values;
+    }
+
+    @Override
+    protected Object getObject(int i) {
+        if (nullIndicators.get(i)) {
+            return null;
+        }
+        return values[i];
+    }
+
+    @Override
+    public String toString() {
+        return toString("SparseIntSegmentBody", Arrays.toString(values));
+    }
+}
+
+// End SparseIntSegmentBody.java
@@ -0,0 +1,146 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.CellKey;
+import mondrian.rolap.SqlStatement;
+import mondrian.spi.SegmentBody;
+import mondrian.util.Pair;
+
+import java.util.*;
+
+/**
+ * Implementation of {@link SparseNativeSegmentDataset} that stores
+ * values of type {@code int}.
+ */
+class SparseIntSegmentDataset extends SparseNativeSegmentDataset {
+    private int[] values;
+
+    /**
+     * Creates an empty SparseIntSegmentDataset.
+     *
+     * @param axes Segment axes, containing actual column values
+     * @param expectedSize Expected number of cells
+     */
+    SparseIntSegmentDataset(SegmentAxis[] axes, int expectedSize) {
+        super(axes, expectedSize);
+        this.values = new int[keys.length];
+    }
+
+    /**
+     * Creates an empty SparseIntSegmentDataset with given axis multipliers.
+     *
+     * @param axisMultipliers Multiplier of each axis
+     * @param expectedSize Expected number of cells
+     */
+    SparseIntSegmentDataset(long[] axisMultipliers, int expectedSize) {
+        super(axisMultipliers, expectedSize);
+        this.values = new int[keys.length];
+    }
+
+    /**
+     * Creates a SparseIntSegmentDataset populated from a segment body.
+     *
+     * @param body Segment body
+     */
+    SparseIntSegmentDataset(SparseIntSegmentBody body) {
+        super(body.axisMultipliers, body.offsets.length);
+        this.values = new int[keys.length];
+        for (int i = 0; i < body.offsets.length; i++) {
+            final int slot = insert(body.offsets[i]);
+            values[slot] = body.values[i];
+            if (body.nullIndicators.get(i)) {
+                nullIndicators.set(slot);
+            }
+        }
+    }
+
+    protected void rehash(int[] newSlots, int capacity) {
+        final int[] newValues = new int[capacity];
+        for (int i = 0; i < newSlots.length; i++) {
+            if (newSlots[i] >= 0) {
+                newValues[newSlots[i]] = values[i];
+            }
+        }
+        values = newValues;
+    }
+
+    protected int getValueWidth() {
+        return 4;
+    }
+
+    protected Object getObject(int slot) {
+        if (nullIndicators.get(slot)) {
+            return null;
+        }
+        return values[slot];
+    }
+
+    public int getInt(CellKey pos) {
+        final int slot = find(getOffset(pos));
+        return slot < 0 ? 0 : values[slot];
+    }
+
+    public double getDouble(CellKey pos) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void populateFrom(int[] pos, SegmentDataset data, CellKey key) {
+        final int slot = insert(getOffset(pos));
+        final int value = values[slot] = data.getInt(key);
+        if (value == 0) {
+            nullIndicators.set(slot, data.isNull(key));
+        }
+    }
+
+    public void populateFrom(
+        int[] pos, SegmentLoader.RowList rowList, int column)
+    {
+        final int slot = insert(getOffset(pos));
+        final int value = values[slot] = rowList.getInt(column);
+        if (value == 0) {
+            nullIndicators.set(slot, rowList.isNull(column));
+        }
+    }
+
+    void put(int[] pos, Object value) {
+        final int slot = insert(getOffset(pos));
+        if (value == null) {
+            values[slot] = 0;
+            nullIndicators.set(slot);
+        } else {
+            nullIndicators.clear(slot);
+            values[slot] = ((Number) value).intValue();
+        }
+    }
+
+    public SqlStatement.Type getType() {
+        return SqlStatement.Type.INT;
+    }
+
+    public SegmentBody createSegmentBody(
+        List<Pair<SortedSet<Comparable>, Boolean>> axes)
+    {
+        final long[] offsets = sortedOffsets();
+        final int[] bodyValues = new int[offsets.length];
+        final BitSet bodyNullIndicators = new BitSet();
+        for (int i = 0; i < offsets.length; i++) {
+            final int slot = find(offsets[i]);
+            bodyValues[i] = values[slot];
+            if (nullIndicators.get(slot)) {
+                bodyNullIndicators.set(i);
+            }
+        }
+        return new SparseIntSegmentBody(
+            offsets, bodyValues, bodyNullIndicators, axes);
+    }
+}
+
+// End SparseIntSegmentDataset.java
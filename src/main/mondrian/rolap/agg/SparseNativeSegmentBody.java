@@ -0,0 +1,90 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.CellKey;
+import mondrian.util.Pair;
+
+import java.util.*;
+
+/**
+ * Sparse segment body whose values are of a native type.
+ *
+ * <p>Cells are stored in parallel arrays: their offsets (see
+ * {@link SparseNativeSegmentDataset}) in ascending order, and their values.
+ * A cell that exists but whose value is null has its bit set in
+ * {@link #nullIndicators}.</p>
+ *
+ * @see SparseNativeSegmentDataset
+ */
+abstract class SparseNativeSegmentBody extends AbstractSegmentBody {
+    private static final long serialVersionUID = -3197612574338107236L;
+
+    final long[] offsets;
+    final BitSet nullIndicators;
+    final long[] axisMultipliers;
+
+    /**
+     * Creates a SparseNativeSegmentBody.
+     *
+     * <p>Stores the given arrays; caller must not modify them afterwards.</p>
+     *
+     * @param offsets Offsets of cells, ascending
+     * @param nullIndicators Which cells have null values
+     * @param axes Axes
+     */
+    SparseNativeSegmentBody(
+        long[] offsets,
+        BitSet nullIndicators,
+        List<Pair<SortedSet<Comparable>, Boolean>> axes)
+    {
+        super(axes);
+        this.offsets = offsets;
+        this.nullIndicators = nullIndicators;
+        final int[] axisLengths = new int[axes.size()];
+        for (int i = 0; i < axisLengths.length; i++) {
+            final Pair<SortedSet<Comparable>, Boolean> axis = axes.get(i);
+            axisLengths[i] = axis.left.size() + (axis.right ? 1 : 0);
+        }
+        this.axisMultipliers =
+            SparseNativeSegmentDataset.computeAxisMultipliers(axisLengths);
+        assert axisMultipliers != null;
+    }
+
+    @Override
+    protected int getSize() {
+        return offsets.length;
+    }
+
+    @Override
+    public Map<CellKey, Object> getValueMap() {
+        final Map<CellKey, Object> map =
+            new HashMap<CellKey, Object>(offsets.length * 3 / 2);
+        for (int i = 0; i < offsets.length; i++) {
+            final int[] pos = new int[axisMultipliers.length];
+            SparseNativeSegmentDataset.toOrdinals(
+                offsets[i], axisMultipliers, pos);
+            map.put(CellKey.Generator.newCellKey(pos), getObject(i));
+        }
+        return map;
+    }
+
+    protected String toString(String name, Object values) {
+        return name + "(size=" + offsets.length
+            + ", offsets=" + Arrays.toString(offsets)
+            + ", data=" + values
+            + ", nullIndicators=" + nullIndicators
+            + ", axisValueSets=" + Arrays.toString(getAxisValueSets())
+            + ", nullAxisFlags=" + Arrays.toString(getNullAxisFlags())
+            + ")";
+    }
+}
+
+// End SparseNativeSegmentBody.java
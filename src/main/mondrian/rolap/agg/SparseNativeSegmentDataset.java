@@ -0,0 +1,329 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.CellKey;
+import mondrian.util.Pair;
+
+import java.util.*;
+
+/**
+ * Sparse segment dataset whose values are of a native type.
+ *
+ * <p>Unlike {@link SparseSegmentDataset}, which keeps a
+ * {@code HashMap<CellKey, Object>}, this dataset allocates no object per
+ * cell. Each cell's coordinates are packed into a {@code long} offset, the
+ * sum of each axis ordinal times that axis's multiplier, as in a dense
+ * dataset. Offsets are held in an open-addressing hash table (linear
+ * probing), and subclasses hold the values in a parallel array of the same
+ * capacity.</p>
+ *
+ * <p>The storage requirements are as follows. Each slot of the table costs 8
+ * bytes for the key plus the width of the value; the table is kept at most
+ * two-thirds full. Total space is about (8 + w) * 1.5 * v bytes, compared to
+ * roughly (40 + 4 * d) * v for {@code SparseSegmentDataset}.</p>
+ *
+ * <p>A cell can exist and have a null value. (This happens if SQL returns
+ * a NULL measure.) Such cells are recorded in {@link #nullIndicators}, and
+ * have value 0 in the value array.</p>
+ *
+ * <p>NOTE: This class is not synchronized.</p>
+ *
+ * @see SparseNativeSegmentBody
+ */
+abstract class SparseNativeSegmentDataset implements SegmentDataset {
+    /** Key of an empty slot. Offsets are never negative. */
+    private static final long EMPTY = -1L;
+
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    protected final long[] axisMultipliers;
+
+    /** Offset of the cell in each slot, or {@link #EMPTY}. */
+    protected long[] keys;
+
+    /** Slots whose cell exists but has a null value. */
+    protected BitSet nullIndicators;
+
+    /** Number of cells. */
+    protected int size;
+
+    /** Number of bits in the table's capacity. */
+    private int bits;
+
+    /**
+     * Creates a SparseNativeSegmentDataset.
+     *
+     * @param axes Segment axes, containing actual column values
+     * @param expectedSize Expected number of cells
+     */
+    SparseNativeSegmentDataset(SegmentAxis[] axes, int expectedSize) {
+        this(computeAxisMultipliers(axes), expectedSize);
+    }
+
+    /**
+     * Creates a SparseNativeSegmentDataset with given axis multipliers.
+     *
+     * @param axisMultipliers Multiplier of each axis
+     * @param expectedSize Expected number of cells
+     */
+    SparseNativeSegmentDataset(long[] axisMultipliers, int expectedSize) {
+        assert axisMultipliers != null;
+        this.axisMultipliers = axisMultipliers;
+        bits = 4;
+        while ((1 << bits) < INITIAL_CAPACITY
+            || (1 << bits) * 2 < expectedSize * 3)
+        {
+            ++bits;
+        }
+        keys = new long[1 << bits];
+        Arrays.fill(keys, EMPTY);
+        nullIndicators = new BitSet();
+    }
+
+    /**
+     * Computes the multiplier of each axis, such that the offset of a cell
+     * is the sum of its ordinals times the multipliers. Returns null if the
+     * number of possible cells would not fit into a {@code long}; then the
+     * segment must use {@link SparseSegmentDataset}.
+     *
+     * @param axes Segment axes
+     * @return Axis multipliers, or null
+     */
+    static long[] computeAxisMultipliers(SegmentAxis[] axes) {
+        final int[] axisLengths = new int[axes.length];
+        for (int i = 0; i < axes.length; i++) {
+            axisLengths[i] = axes[i].getKeys().length;
+        }
+        return computeAxisMultipliers(axisLengths);
+    }
+
+    /**
+     * Computes axis multipliers from the number of values on each axis.
+     *
+     * @param axisLengths Number of values (including null) on each axis
+     * @return Axis multipliers, or null if there are too many cells
+     */
+    static long[] computeAxisMultipliers(int[] axisLengths) {
+        final long[] axisMultipliers = new long[axisLengths.length];
+        long multiplier = 1;
+        for (int i = axisLengths.length - 1; i >= 0; --i) {
+            axisMultipliers[i] = multiplier;
+            final int axisLength = Math.max(axisLengths[i], 1);
+            if (multiplier > Long.MAX_VALUE / axisLength) {
+                return null;
+            }
+            multiplier *= axisLength;
+        }
+        return axisMultipliers;
+    }
+
+    /**
+     * Returns the offset of a cell.
+     */
+    protected final long getOffset(CellKey key) {
+        long offset = 0;
+        for (int i = 0; i < axisMultipliers.length; i++) {
+            offset += key.getAxis(i) * axisMultipliers[i];
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the offset of a cell.
+     */
+    protected final long getOffset(int[] pos) {
+        long offset = 0;
+        for (int i = 0; i < axisMultipliers.length; i++) {
+            offset += pos[i] * axisMultipliers[i];
+        }
+        return offset;
+    }
+
+    /**
+     * Converts an offset into ordinals.
+     */
+    static void toOrdinals(long offset, long[] axisMultipliers, int[] pos) {
+        for (int i = 0; i < axisMultipliers.length; i++) {
+            pos[i] = (int) (offset / axisMultipliers[i]);
+            offset %= axisMultipliers[i];
+        }
+    }
+
+    private int hash(long offset) {
+        return (int) ((offset * GOLDEN_RATIO) >>> (64 - bits));
+    }
+
+    /**
+     * Returns the slot that holds a given offset, or -1.
+     */
+    protected final int find(long offset) {
+        final int mask = keys.length - 1;
+        for (int slot = hash(offset);; slot = (slot + 1) & mask) {
+            final long key = keys[slot];
+            if (key == offset) {
+                return slot;
+            }
+            if (key == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Returns the slot that holds a given offset, creating it (with a value
+     * of 0) if it does not exist.
+     */
+    protected final int insert(long offset) {
+        assert offset >= 0;
+        final int existingSlot = find(offset);
+        if (existingSlot >= 0) {
+            return existingSlot;
+        }
+        if ((size + 1) * 3 > keys.length * 2) {
+            grow();
+        }
+        final int mask = keys.length - 1;
+        int slot = hash(offset);
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = offset;
+        ++size;
+        return slot;
+    }
+
+    private void grow() {
+        final long[] oldKeys = keys;
+        final BitSet oldNullIndicators = nullIndicators;
+        ++bits;
+        keys = new long[1 << bits];
+        Arrays.fill(keys, EMPTY);
+        nullIndicators = new BitSet();
+        final int mask = keys.length - 1;
+        final int[] newSlots = new int[oldKeys.length];
+        for (int i = 0; i < oldKeys.length; i++) {
+            final long offset = oldKeys[i];
+            if (offset == EMPTY) {
+                newSlots[i] = -1;
+                continue;
+            }
+            int slot = hash(offset);
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = offset;
+            newSlots[i] = slot;
+            if (oldNullIndicators.get(i)) {
+                nullIndicators.set(slot);
+            }
+        }
+        rehash(newSlots, keys.length);
+    }
+
+    /**
+     * Moves values to a new array after the table has grown.
+     *
+     * @param newSlots For each old slot, the new slot, or -1 if empty
+     * @param capacity Capacity of the new table
+     */
+    protected abstract void rehash(int[] newSlots, int capacity);
+
+    /**
+     * Sets the value of a cell.
+     *
+     * @param pos Ordinals of the cell
+     * @param value Value, a {@link Number}, or null
+     */
+    abstract void put(int[] pos, Object value);
+
+    /**
+     * Returns the value in a given slot, or null if the cell is null.
+     */
+    protected abstract Object getObject(int slot);
+
+    /**
+     * Returns the offsets of the cells in this dataset, in ascending order.
+     */
+    protected final long[] sortedOffsets() {
+        final long[] offsets = new long[size];
+        int n = 0;
+        for (long key : keys) {
+            if (key != EMPTY) {
+                offsets[n++] = key;
+            }
+        }
+        Arrays.sort(offsets);
+        return offsets;
+    }
+
+    public Object getObject(CellKey pos) {
+        final int slot = find(getOffset(pos));
+        if (slot < 0) {
+            return null;
+        }
+        return getObject(slot);
+    }
+
+    public boolean isNull(CellKey pos) {
+        final int slot = find(getOffset(pos));
+        return slot < 0 || nullIndicators.get(slot);
+    }
+
+    public boolean exists(CellKey pos) {
+        return find(getOffset(pos)) >= 0;
+    }
+
+    public double getBytes() {
+        return keys.length * (8 + getValueWidth());
+    }
+
+    /**
+     * Returns the number of bytes used by each value.
+     */
+    protected abstract int getValueWidth();
+
+    public Iterator<Map.Entry<CellKey, Object>> iterator() {
+        return new Iterator<Map.Entry<CellKey, Object>>() {
+            private int slot = advance(0);
+
+            private int advance(int slot) {
+                while (slot < keys.length && keys[slot] == EMPTY) {
+                    ++slot;
+                }
+                return slot;
+            }
+
+            public boolean hasNext() {
+                return slot < keys.length;
+            }
+
+            public Map.Entry<CellKey, Object> next() {
+                if (slot >= keys.length) {
+                    throw new NoSuchElementException();
+                }
+                final int[] pos = new int[axisMultipliers.length];
+                toOrdinals(keys[slot], axisMultipliers, pos);
+                final Map.Entry<CellKey, Object> entry =
+                    Pair.of(CellKey.Generator.newCellKey(pos), getObject(slot));
+                slot = advance(slot + 1);
+                return entry;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
+
+// End SparseNativeSegmentDataset.java
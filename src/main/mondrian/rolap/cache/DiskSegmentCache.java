@@ -0,0 +1,796 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.cache;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.agg.BinarySegmentCodec;
+import mondrian.spi.*;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Implementation of {@link mondrian.spi.SegmentCache} that stores segments
+ * in files in a local directory, so that they survive a restart of the
+ * server.
+ *
+ * <p>The directory contains:</p>
+ *
+ * <ul>
+ * <li>Data files, {@code segments-<i>n</i>.dat}, to which segment bodies
+ *     are appended, encoded using {@link BinarySegmentCodec}. When the
+ *     current data file reaches {@link #MAX_DATA_FILE_BYTES} (or a quarter of
+ *     the cache's size budget, if smaller), a new one is started;</li>
+ * <li>An index file, {@code index.dat}, a log to which a record is appended
+ *     for each segment added (its header, data file, offset and length) or
+ *     removed;</li>
+ * <li>A lock file, {@code lock}, locked while a cache has the directory
+ *     open.</li>
+ * </ul>
+ *
+ * <p>On startup, the cache replays the index to learn which headers are
+ * available, without reading any bodies, and rewrites the index without
+ * records of removed segments. {@link mondrian.rolap.agg.SegmentCacheManager}
+ * asks for these headers (see {@link #getSegmentHeaders()}) when it creates
+ * the index of a star, so segments loaded before the restart can satisfy
+ * queries straight away.</p>
+ *
+ * <p>A data file is memory-mapped the first time one of its bodies is read.
+ * A data file is deleted when every segment in it has been removed.</p>
+ *
+ * <p>If the data files exceed the cache's size budget
+ * ({@link MondrianProperties#SegmentCacheDiskMegabytes}), the segments in
+ * the oldest data files are removed, and the files deleted, until they fit.
+ * </p>
+ *
+ * <p>If the server crashes while writing, the index may end in a partial
+ * record; it and any body it refers to are ignored on startup.</p>
+ *
+ * <p>This class is thread safe. Only one cache may use a given directory at a
+ * time, in this or any other process; a cache that finds the directory
+ * locked fails. Cache managers in the same process share one cache per
+ * directory; see {@link #acquire(File)}.</p>
+ *
+ * @see mondrian.olap.MondrianProperties#SegmentCacheDirectory
+ */
+public class DiskSegmentCache implements SegmentCache {
+    private static final Logger LOGGER =
+        Logger.getLogger(DiskSegmentCache.class);
+
+    /**
+     * Size beyond which a data file is no longer appended to.
+     */
+    static final long MAX_DATA_FILE_BYTES = 64L * 1024L * 1024L;
+
+    private static final String INDEX_FILE_NAME = "index.dat";
+    private static final String LOCK_FILE_NAME = "lock";
+    private static final String DATA_FILE_PREFIX = "segments-";
+    private static final String DATA_FILE_SUFFIX = ".dat";
+
+    private static final byte OP_PUT = 'P';
+    private static final byte OP_REMOVE = 'R';
+
+    private static final SegmentCodec CODEC = BinarySegmentCodec.INSTANCE;
+
+    /**
+     * Caches shared by {@link #acquire(File)}, by canonical directory.
+     */
+    private static final Map<File, DiskSegmentCache> SHARED_CACHES =
+        new HashMap<File, DiskSegmentCache>();
+
+    private final File directory;
+
+    /**
+     * Maximum number of bytes in data files, or 0 if unlimited.
+     */
+    private final long maxBytes;
+
+    /**
+     * Size beyond which the current data file is no longer appended to.
+     */
+    private final long dataFileBytes;
+
+    /**
+     * Key of this cache in {@link #SHARED_CACHES}, or null if it is not
+     * shared.
+     */
+    private File sharedKey;
+
+    /**
+     * Number of users of a shared cache; guarded by {@link #SHARED_CACHES}.
+     */
+    private int refCount = 1;
+
+    private RandomAccessFile lockFile;
+    private FileLock lock;
+
+    /** Location of each segment's body. */
+    private final Map<SegmentHeader, Location> map =
+        new HashMap<SegmentHeader, Location>();
+
+    /** Data files, by number. */
+    private final Map<Integer, DataFile> dataFiles =
+        new HashMap<Integer, DataFile>();
+
+    /** Data file to which new bodies are appended. */
+    private DataFile currentFile;
+
+    private DataOutputStream indexOut;
+
+    private final List<SegmentCacheListener> listeners =
+        new CopyOnWriteArrayList<SegmentCacheListener>();
+
+    /**
+     * Creates a DiskSegmentCache in the directory given by the
+     * {@link MondrianProperties#SegmentCacheDirectory} property. This
+     * constructor allows the class to be named in the
+     * {@link MondrianProperties#SegmentCache} property.
+     */
+    public DiskSegmentCache() {
+        this(
+            new File(
+                MondrianProperties.instance().SegmentCacheDirectory.get()));
+    }
+
+    /**
+     * Creates a DiskSegmentCache whose size budget is given by the
+     * {@link MondrianProperties#SegmentCacheDiskMegabytes} property.
+     *
+     * @param directory Directory; created if it does not exist
+     */
+    public DiskSegmentCache(File directory) {
+        this(
+            directory,
+            MondrianProperties.instance().SegmentCacheDiskMegabytes.get()
+            * 1024L * 1024L);
+    }
+
+    /**
+     * Creates a DiskSegmentCache, loading the index of any segments
+     * previously stored in the directory.
+     *
+     * @param directory Directory; created if it does not exist
+     * @param maxBytes Maximum number of bytes in data files, or 0 if
+     *     unlimited
+     *
+     * @throws mondrian.olap.MondrianException if the directory cannot be
+     *     created, or is in use by another cache
+     */
+    public DiskSegmentCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.dataFileBytes =
+            maxBytes > 0
+                ? Math.min(MAX_DATA_FILE_BYTES, maxBytes / 4)
+                : MAX_DATA_FILE_BYTES;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw Util.newError(
+                "Could not create segment cache directory " + directory);
+        }
+        try {
+            lock();
+            open();
+        } catch (IOException e) {
+            unlock();
+            throw Util.newError(
+                e, "Could not open segment cache directory " + directory);
+        }
+    }
+
+    /**
+     * Returns the cache for a directory, creating it if this process has no
+     * cache open on the directory, otherwise sharing the existing cache.
+     * Each call must be matched by a call to {@link #tearDown()}; the cache
+     * is closed when the last user tears it down.
+     *
+     * @param directory Directory; created if it does not exist
+     * @return Cache
+     */
+    public static DiskSegmentCache acquire(File directory) {
+        File key;
+        try {
+            key = directory.getCanonicalFile();
+        } catch (IOException e) {
+            key = directory.getAbsoluteFile();
+        }
+        synchronized (SHARED_CACHES) {
+            DiskSegmentCache cache = SHARED_CACHES.get(key);
+            if (cache != null) {
+                ++cache.refCount;
+                return cache;
+            }
+            cache = new DiskSegmentCache(directory);
+            cache.sharedKey = key;
+            SHARED_CACHES.put(key, cache);
+            return cache;
+        }
+    }
+
+    /**
+     * Locks the directory, so that no other cache, in this process or
+     * another, can use it.
+     */
+    private void lock() throws IOException {
+        lockFile =
+            new RandomAccessFile(new File(directory, LOCK_FILE_NAME), "rw");
+        try {
+            lock = lockFile.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Another cache in this process holds the lock.
+            lock = null;
+        }
+        if (lock == null) {
+            throw new IOException(
+                "Directory is in use by another segment cache");
+        }
+    }
+
+    private void unlock() {
+        try {
+            if (lock != null) {
+                lock.release();
+            }
+            if (lockFile != null) {
+                lockFile.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Error while unlocking segment cache " + directory, e);
+        }
+        lock = null;
+        lockFile = null;
+    }
+
+    private void open() throws IOException {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                if (name.startsWith(DATA_FILE_PREFIX)
+                    && name.endsWith(DATA_FILE_SUFFIX))
+                {
+                    final int number;
+                    try {
+                        number = Integer.parseInt(
+                            name.substring(
+                                DATA_FILE_PREFIX.length(),
+                                name.length() - DATA_FILE_SUFFIX.length()));
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    dataFiles.put(number, new DataFile(number, file));
+                }
+            }
+        }
+
+        // Replay the index.
+        final File indexFile = new File(directory, INDEX_FILE_NAME);
+        if (indexFile.exists()) {
+            final DataInputStream in =
+                new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                replay(in);
+            } finally {
+                in.close();
+            }
+        }
+
+        // Delete data files that hold nothing, and choose a file to append to.
+        for (Iterator<DataFile> iterator = dataFiles.values().iterator();
+             iterator.hasNext();)
+        {
+            final DataFile dataFile = iterator.next();
+            if (dataFile.liveCount == 0) {
+                iterator.remove();
+                dataFile.delete();
+            } else if (dataFile.size < dataFileBytes
+                && (currentFile == null
+                    || dataFile.number > currentFile.number))
+            {
+                currentFile = dataFile;
+            }
+        }
+
+        // Rewrite the index with only the live segments, then append to it.
+        final File tempFile = new File(directory, INDEX_FILE_NAME + ".tmp");
+        final DataOutputStream out =
+            new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            for (Map.Entry<SegmentHeader, Location> entry : map.entrySet()) {
+                writePut(out, entry.getKey(), entry.getValue());
+            }
+        } finally {
+            out.close();
+        }
+        if (indexFile.exists() && !indexFile.delete()
+            || !tempFile.renameTo(indexFile))
+        {
+            throw new IOException("Could not replace " + indexFile);
+        }
+        indexOut =
+            new DataOutputStream(
+                new BufferedOutputStream(
+                    new FileOutputStream(indexFile, true)));
+        evict();
+        LOGGER.debug(
+            "Opened segment cache in " + directory + " with " + map.size()
+            + " segments in " + dataFiles.size() + " files");
+    }
+
+    private void replay(DataInputStream in) {
+        int recordCount = 0;
+        try {
+            while (true) {
+                final int op = in.read();
+                if (op < 0) {
+                    break;
+                }
+                if (op == OP_PUT) {
+                    final int number = in.readInt();
+                    final long offset = in.readLong();
+                    final int length = in.readInt();
+                    final SegmentHeader header = CODEC.readHeader(in);
+                    final DataFile dataFile = dataFiles.get(number);
+                    if (dataFile == null
+                        || offset + length > dataFile.size)
+                    {
+                        // Body was never completely written.
+                        continue;
+                    }
+                    putLocation(header, new Location(dataFile, offset, length));
+                } else if (op == OP_REMOVE) {
+                    removeLocation(CODEC.readHeader(in));
+                } else {
+                    throw new IOException("Unknown index record type " + op);
+                }
+                ++recordCount;
+            }
+        } catch (IOException e) {
+            LOGGER.warn(
+                "Segment cache index in " + directory
+                + " is truncated or corrupt after " + recordCount
+                + " records; ignoring the remainder",
+                e);
+        }
+    }
+
+    private static void writePut(
+        DataOutputStream out,
+        SegmentHeader header,
+        Location location)
+        throws IOException
+    {
+        out.writeByte(OP_PUT);
+        out.writeInt(location.dataFile.number);
+        out.writeLong(location.offset);
+        out.writeInt(location.length);
+        CODEC.writeHeader(header, out);
+    }
+
+    /**
+     * Records the location of a segment, releasing the location of the
+     * previous segment with the same header, if any.
+     */
+    private void putLocation(SegmentHeader header, Location location) {
+        ++location.dataFile.liveCount;
+        final Location previous = map.put(header, location);
+        if (previous != null) {
+            release(previous.dataFile);
+        }
+    }
+
+    private Location removeLocation(SegmentHeader header) {
+        final Location location = map.remove(header);
+        if (location != null) {
+            release(location.dataFile);
+        }
+        return location;
+    }
+
+    private static void writeRemove(
+        DataOutputStream out,
+        SegmentHeader header)
+        throws IOException
+    {
+        out.writeByte(OP_REMOVE);
+        CODEC.writeHeader(header, out);
+    }
+
+    /**
+     * Removes the segments in the oldest data files, and deletes the files,
+     * until the data files fit within {@link #maxBytes}. Never removes the
+     * current data file.
+     *
+     * @return Headers of the segments removed
+     */
+    private List<SegmentHeader> evict() throws IOException {
+        if (maxBytes <= 0) {
+            return Collections.emptyList();
+        }
+        long byteCount = 0;
+        for (DataFile dataFile : dataFiles.values()) {
+            byteCount += dataFile.size;
+        }
+        final List<SegmentHeader> evicted = new ArrayList<SegmentHeader>();
+        while (byteCount > maxBytes) {
+            DataFile oldest = null;
+            for (DataFile dataFile : dataFiles.values()) {
+                if (dataFile != currentFile
+                    && (oldest == null || dataFile.number < oldest.number))
+                {
+                    oldest = dataFile;
+                }
+            }
+            if (oldest == null) {
+                break;
+            }
+            byteCount -= oldest.size;
+            final List<SegmentHeader> headers = new ArrayList<SegmentHeader>();
+            for (Map.Entry<SegmentHeader, Location> entry : map.entrySet()) {
+                if (entry.getValue().dataFile == oldest) {
+                    headers.add(entry.getKey());
+                }
+            }
+            for (SegmentHeader header : headers) {
+                writeRemove(indexOut, header);
+                removeLocation(header);
+            }
+            if (dataFiles.get(oldest.number) == oldest) {
+                // Removing the last segment usually deletes the file, but
+                // make sure.
+                dataFiles.remove(oldest.number);
+                oldest.delete();
+            }
+            evicted.addAll(headers);
+        }
+        indexOut.flush();
+        return evicted;
+    }
+
+    private void release(DataFile dataFile) {
+        --dataFile.liveCount;
+        if (dataFile.liveCount == 0
+            && dataFile != currentFile
+            && indexOut != null)
+        {
+            // Nothing else refers to the file, and the index is open (that
+            // is, we are not replaying it).
+            dataFiles.remove(dataFile.number);
+            dataFile.delete();
+        }
+    }
+
+    public SegmentBody get(SegmentHeader header) {
+        final Location location;
+        synchronized (this) {
+            location = map.get(header);
+        }
+        if (location == null) {
+            return null;
+        }
+        try {
+            final ByteBuffer buffer = location.dataFile.map(
+                location.offset + location.length);
+            buffer.position((int) location.offset);
+            buffer.limit((int) location.offset + location.length);
+            return CODEC.readBody(new ByteBufferInputStream(buffer));
+        } catch (IOException e) {
+            LOGGER.warn("Could not read segment " + header, e);
+            return null;
+        }
+    }
+
+    public synchronized boolean contains(SegmentHeader header) {
+        return map.containsKey(header);
+    }
+
+    public synchronized List<SegmentHeader> getSegmentHeaders() {
+        return new ArrayList<SegmentHeader>(map.keySet());
+    }
+
+    public boolean put(SegmentHeader header, SegmentBody body) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            CODEC.writeBody(body, bytes);
+        } catch (IOException e) {
+            LOGGER.warn("Could not encode segment " + header, e);
+            return false;
+        }
+        List<SegmentHeader> evicted = Collections.emptyList();
+        synchronized (this) {
+            if (indexOut == null) {
+                return false;
+            }
+            try {
+                if (currentFile == null
+                    || currentFile.size > 0
+                    && currentFile.size + bytes.size() > dataFileBytes)
+                {
+                    newDataFile();
+                }
+                // Write the body before the index record, so that the index
+                // never refers to a body that is not on disk.
+                final long offset = currentFile.append(bytes.toByteArray());
+                final Location location =
+                    new Location(currentFile, offset, bytes.size());
+                writePut(indexOut, header, location);
+                indexOut.flush();
+                putLocation(header, location);
+                evicted = evict();
+            } catch (IOException e) {
+                LOGGER.warn("Could not write segment " + header, e);
+                return false;
+            }
+        }
+        for (SegmentHeader evictedHeader : evicted) {
+            fireSegmentCacheEvent(
+                evictedHeader,
+                SegmentCacheListener.SegmentCacheEvent.EventType
+                    .ENTRY_DELETED);
+        }
+        fireSegmentCacheEvent(
+            header,
+            SegmentCacheListener.SegmentCacheEvent.EventType.ENTRY_CREATED);
+        return true;
+    }
+
+    private void newDataFile() throws IOException {
+        int number = 0;
+        for (Integer n : dataFiles.keySet()) {
+            number = Math.max(number, n + 1);
+        }
+        final DataFile previous = currentFile;
+        currentFile =
+            new DataFile(
+                number,
+                new File(
+                    directory, DATA_FILE_PREFIX + number + DATA_FILE_SUFFIX));
+        dataFiles.put(number, currentFile);
+        if (previous != null && previous.liveCount == 0) {
+            dataFiles.remove(previous.number);
+            previous.delete();
+        }
+    }
+
+    public boolean remove(SegmentHeader header) {
+        synchronized (this) {
+            if (!map.containsKey(header)) {
+                return false;
+            }
+            try {
+                if (indexOut != null) {
+                    writeRemove(indexOut, header);
+                    indexOut.flush();
+                }
+            } catch (IOException e) {
+                // The segment will reappear after a restart. Not fatal: the
+                // cache manager discards segments it does not want.
+                LOGGER.warn("Could not record removal of segment " + header, e);
+            }
+            removeLocation(header);
+        }
+        fireSegmentCacheEvent(
+            header,
+            SegmentCacheListener.SegmentCacheEvent.EventType.ENTRY_DELETED);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Closes the files, but leaves them in the directory so that the next
+     * cache to use the directory can load them. If the cache is shared (see
+     * {@link #acquire(File)}), does nothing until its last user tears it
+     * down.</p>
+     */
+    public void tearDown() {
+        if (sharedKey != null) {
+            // Close while holding the lock, so that acquire cannot open a
+            // new cache on the directory while it is still locked.
+            synchronized (SHARED_CACHES) {
+                if (--refCount > 0) {
+                    return;
+                }
+                SHARED_CACHES.remove(sharedKey);
+                close();
+            }
+        } else {
+            close();
+        }
+        listeners.clear();
+    }
+
+    private void close() {
+        synchronized (this) {
+            try {
+                if (indexOut != null) {
+                    indexOut.close();
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Error while closing segment cache index", e);
+            }
+            indexOut = null;
+            for (DataFile dataFile : dataFiles.values()) {
+                dataFile.close();
+            }
+            dataFiles.clear();
+            map.clear();
+            currentFile = null;
+            unlock();
+        }
+    }
+
+    public void addListener(SegmentCacheListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SegmentCacheListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean supportsRichIndex() {
+        return true;
+    }
+
+    private void fireSegmentCacheEvent(
+        final SegmentHeader header,
+        final SegmentCacheListener.SegmentCacheEvent.EventType eventType)
+    {
+        final SegmentCacheListener.SegmentCacheEvent event =
+            new SegmentCacheListener.SegmentCacheEvent() {
+                public boolean isLocal() {
+                    return true;
+                }
+                public SegmentHeader getSource() {
+                    return header;
+                }
+                public EventType getEventType() {
+                    return eventType;
+                }
+            };
+        for (SegmentCacheListener listener : listeners) {
+            listener.handle(event);
+        }
+    }
+
+    /**
+     * Position of a segment body within a data file.
+     */
+    private static class Location {
+        final DataFile dataFile;
+        final long offset;
+        final int length;
+
+        Location(DataFile dataFile, long offset, int length) {
+            this.dataFile = dataFile;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Data file containing encoded segment bodies.
+     *
+     * <p>{@link #size} and {@link #liveCount} are guarded by the cache; the
+     * other fields by the data file itself.</p>
+     */
+    private static class DataFile {
+        final int number;
+        final File file;
+        long size;
+        int liveCount;
+        private RandomAccessFile raf;
+        private MappedByteBuffer mapped;
+        private boolean deleted;
+
+        DataFile(int number, File file) {
+            this.number = number;
+            this.file = file;
+            this.size = file.length();
+        }
+
+        private RandomAccessFile raf() throws IOException {
+            if (deleted) {
+                // A reader found the segment just before it was removed.
+                throw new IOException(
+                    "Segment cache file " + file + " has been deleted");
+            }
+            if (raf == null) {
+                raf = new RandomAccessFile(file, "rw");
+            }
+            return raf;
+        }
+
+        /**
+         * Appends bytes to the file, and returns the offset at which they
+         * were written.
+         */
+        synchronized long append(byte[] bytes) throws IOException {
+            final long offset = size;
+            final RandomAccessFile f = raf();
+            f.seek(offset);
+            f.write(bytes);
+            size += bytes.length;
+            return offset;
+        }
+
+        /**
+         * Returns a read-only view of the file that covers at least the given
+         * number of bytes, mapping the file into memory if necessary.
+         */
+        synchronized ByteBuffer map(long minSize) throws IOException {
+            if (mapped == null || mapped.capacity() < minSize) {
+                final FileChannel channel = raf().getChannel();
+                mapped = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (mapped.capacity() < minSize) {
+                    throw new IOException(
+                        "Segment cache file " + file + " is shorter than "
+                        + minSize + " bytes");
+                }
+            }
+            return mapped.duplicate();
+        }
+
+        synchronized void close() {
+            mapped = null;
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    LOGGER.warn("Error while closing " + file, e);
+                }
+                raf = null;
+            }
+        }
+
+        synchronized void delete() {
+            deleted = true;
+            close();
+            if (!file.delete()) {
+                LOGGER.warn("Could not delete segment cache file " + file);
+            }
+        }
+    }
+
+    /**
+     * Input stream that reads from a {@link ByteBuffer}.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        public int read(byte[] bytes, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, len);
+            return len;
+        }
+    }
+}
+
+// End DiskSegmentCache.java
@@ -0,0 +1,152 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.cache;
+
+import java.util.*;
+
+/**
+ * An implementation of {@link SmartCacheImpl} that holds hard references to
+ * at most a given total weight of values, evicting the least-recently-used
+ * entries when the budget is exceeded.
+ *
+ * <p>The weight of a value is computed by a {@link Weigher} when the value is
+ * put into the cache. A value heavier than the whole budget is not stored.
+ *
+ * <p>Unlike a {@link SoftSmartCache}, the cache does not grow until the
+ * garbage collector is under pressure; memory use is bounded no matter how
+ * many entries are read.
+ *
+ * <p>Reading an entry changes the order of the entries, so the methods of
+ * this class synchronize, even though {@link SmartCacheImpl} calls
+ * {@link #getImpl} holding only its read lock.
+ */
+public class LruSmartCache<K, V> extends SmartCacheImpl<K, V> {
+    private final LinkedHashMap<K, Entry<V>> cache =
+        new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+    private final Weigher<? super V> weigher;
+    private final long maxWeight;
+    private long weight;
+
+    /**
+     * Creates an LruSmartCache.
+     *
+     * @param weigher Computes the weight of a value
+     * @param maxWeight Maximum total weight of values
+     */
+    public LruSmartCache(Weigher<? super V> weigher, long maxWeight) {
+        assert weigher != null;
+        assert maxWeight > 0;
+        this.weigher = weigher;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Returns the total weight of the values in this cache.
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized V putImpl(K key, V value) {
+        final Entry<V> previous = cache.remove(key);
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        if (value != null) {
+            final int valueWeight = weigher.weigh(value);
+            if (valueWeight <= maxWeight) {
+                final Iterator<Entry<V>> iterator = cache.values().iterator();
+                while (weight + valueWeight > maxWeight) {
+                    weight -= iterator.next().weight;
+                    iterator.remove();
+                }
+                cache.put(key, new Entry<V>(value, valueWeight));
+                weight += valueWeight;
+            }
+        }
+        return previous == null ? null : previous.value;
+    }
+
+    public synchronized V getImpl(K key) {
+        final Entry<V> entry = cache.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    public synchronized V removeImpl(K key) {
+        final Entry<V> entry = cache.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        weight -= entry.weight;
+        return entry.value;
+    }
+
+    public synchronized void clearImpl() {
+        cache.clear();
+        weight = 0;
+    }
+
+    public synchronized int sizeImpl() {
+        return cache.size();
+    }
+
+    public Iterator<Map.Entry<K, V>> iteratorImpl() {
+        final Iterator<Map.Entry<K, Entry<V>>> iterator =
+            cache.entrySet().iterator();
+        return new Iterator<Map.Entry<K, V>>() {
+            private Map.Entry<K, Entry<V>> current;
+
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            public Map.Entry<K, V> next() {
+                current = iterator.next();
+                return new AbstractMap.SimpleImmutableEntry<K, V>(
+                    current.getKey(), current.getValue().value);
+            }
+
+            public void remove() {
+                iterator.remove();
+                synchronized (LruSmartCache.this) {
+                    weight -= current.getValue().weight;
+                }
+            }
+        };
+    }
+
+    /**
+     * Computes the weight of a value in an {@link LruSmartCache}.
+     */
+    public interface Weigher<V> {
+        /**
+         * Returns the weight of a value; must be positive.
+         *
+         * @param value Value
+         * @return Weight
+         */
+        int weigh(V value);
+    }
+
+    /**
+     * Value in the cache, with the weight it had when it was put.
+     */
+    private static class Entry<V> {
+        final V value;
+        final int weight;
+
+        Entry(V value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
+
+// End LruSmartCache.java
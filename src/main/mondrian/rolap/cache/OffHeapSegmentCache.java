@@ -0,0 +1,272 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.cache;
+
+import mondrian.olap.Util;
+import mondrian.rolap.agg.BinarySegmentCodec;
+import mondrian.rolap.agg.OffHeapSegmentBody;
+import mondrian.spi.*;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Implementation of {@link mondrian.spi.SegmentCache} that stores segment
+ * bodies outside the Java heap, so that cached cells do not count against
+ * heap size or garbage-collection pause time.
+ *
+ * <p>Dense segments of native values are stored as
+ * {@link OffHeapSegmentBody} objects, whose values can be read without
+ * copying them back onto the heap. Other segments are encoded using
+ * {@link BinarySegmentCodec} into a direct buffer, and decoded on each call
+ * to {@link #get}.</p>
+ *
+ * <p>The cache has a budget of bytes. When a new segment would exceed the
+ * budget, least-recently-used segments are evicted until it fits. A segment
+ * larger than the whole budget is not stored.</p>
+ *
+ * <p>Unlike {@link MemorySegmentCache}, this class is thread safe.</p>
+ *
+ * @see mondrian.olap.MondrianProperties#SegmentCacheOffHeapMegabytes
+ */
+public class OffHeapSegmentCache implements SegmentCache {
+    private static final Logger LOGGER =
+        Logger.getLogger(OffHeapSegmentCache.class);
+
+    private final long maxBytes;
+    private long bytes;
+
+    /** Entries in least-recently-used order. */
+    private final LinkedHashMap<SegmentHeader, Entry> map =
+        new LinkedHashMap<SegmentHeader, Entry>(16, 0.75f, true);
+
+    private final List<SegmentCacheListener> listeners =
+        new CopyOnWriteArrayList<SegmentCacheListener>();
+
+    /**
+     * Creates an OffHeapSegmentCache.
+     *
+     * @param maxBytes Maximum number of bytes of segment data to store
+     */
+    public OffHeapSegmentCache(long maxBytes) {
+        assert maxBytes > 0;
+        this.maxBytes = maxBytes;
+    }
+
+    public SegmentBody get(SegmentHeader header) {
+        final Entry entry;
+        synchronized (this) {
+            entry = map.get(header);
+        }
+        if (entry == null) {
+            return null;
+        }
+        return entry.getBody();
+    }
+
+    public synchronized boolean contains(SegmentHeader header) {
+        return map.containsKey(header);
+    }
+
+    public synchronized List<SegmentHeader> getSegmentHeaders() {
+        return new ArrayList<SegmentHeader>(map.keySet());
+    }
+
+    public boolean put(final SegmentHeader header, SegmentBody body) {
+        final Entry entry = Entry.of(body);
+        if (entry == null || entry.getByteCount() > maxBytes) {
+            return false;
+        }
+        final List<SegmentHeader> evicted = new ArrayList<SegmentHeader>();
+        synchronized (this) {
+            final Entry previous = map.remove(header);
+            if (previous != null) {
+                bytes -= previous.getByteCount();
+            }
+            final Iterator<Map.Entry<SegmentHeader, Entry>> iterator =
+                map.entrySet().iterator();
+            while (bytes + entry.getByteCount() > maxBytes
+                && iterator.hasNext())
+            {
+                final Map.Entry<SegmentHeader, Entry> eldest =
+                    iterator.next();
+                iterator.remove();
+                bytes -= eldest.getValue().getByteCount();
+                evicted.add(eldest.getKey());
+            }
+            map.put(header, entry);
+            bytes += entry.getByteCount();
+        }
+        for (SegmentHeader evictedHeader : evicted) {
+            fireSegmentCacheEvent(
+                evictedHeader,
+                SegmentCacheListener.SegmentCacheEvent.EventType
+                    .ENTRY_DELETED);
+        }
+        fireSegmentCacheEvent(
+            header,
+            SegmentCacheListener.SegmentCacheEvent.EventType.ENTRY_CREATED);
+        return true;
+    }
+
+    public boolean remove(final SegmentHeader header) {
+        final Entry entry;
+        synchronized (this) {
+            entry = map.remove(header);
+            if (entry != null) {
+                bytes -= entry.getByteCount();
+            }
+        }
+        if (entry == null) {
+            return false;
+        }
+        fireSegmentCacheEvent(
+            header,
+            SegmentCacheListener.SegmentCacheEvent.EventType.ENTRY_DELETED);
+        return true;
+    }
+
+    public void tearDown() {
+        synchronized (this) {
+            map.clear();
+            bytes = 0;
+        }
+        listeners.clear();
+    }
+
+    public void addListener(SegmentCacheListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SegmentCacheListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean supportsRichIndex() {
+        return true;
+    }
+
+    /**
+     * Returns the number of bytes of segment data currently stored.
+     *
+     * @return Number of bytes stored outside the Java heap
+     */
+    public synchronized long getByteCount() {
+        return bytes;
+    }
+
+    private void fireSegmentCacheEvent(
+        final SegmentHeader header,
+        final SegmentCacheListener.SegmentCacheEvent.EventType eventType)
+    {
+        final SegmentCacheListener.SegmentCacheEvent event =
+            new SegmentCacheListener.SegmentCacheEvent() {
+                public boolean isLocal() {
+                    return true;
+                }
+                public SegmentHeader getSource() {
+                    return header;
+                }
+                public EventType getEventType() {
+                    return eventType;
+                }
+            };
+        for (SegmentCacheListener listener : listeners) {
+            listener.handle(event);
+        }
+    }
+
+    /**
+     * Segment body stored in the cache.
+     */
+    private static abstract class Entry {
+        abstract SegmentBody getBody();
+
+        abstract int getByteCount();
+
+        /**
+         * Creates an entry for a segment body, or returns null if the body
+         * cannot be stored.
+         */
+        static Entry of(SegmentBody body) {
+            final OffHeapSegmentBody offHeapBody =
+                OffHeapSegmentBody.create(body);
+            if (offHeapBody != null) {
+                return new NativeEntry(offHeapBody);
+            }
+            try {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                BinarySegmentCodec.INSTANCE.writeBody(body, out);
+                final byte[] byteArray = out.toByteArray();
+                final ByteBuffer buffer =
+                    ByteBuffer.allocateDirect(byteArray.length);
+                buffer.put(byteArray);
+                return new SerializedEntry(buffer);
+            } catch (IOException e) {
+                LOGGER.warn("Could not encode segment body", e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Entry whose values are native and are read directly from native
+     * memory.
+     */
+    private static class NativeEntry extends Entry {
+        private final OffHeapSegmentBody body;
+
+        NativeEntry(OffHeapSegmentBody body) {
+            this.body = body;
+        }
+
+        SegmentBody getBody() {
+            return body;
+        }
+
+        int getByteCount() {
+            return body.getByteCount();
+        }
+    }
+
+    /**
+     * Entry that holds an encoded segment body in native memory.
+     */
+    private static class SerializedEntry extends Entry {
+        private final ByteBuffer buffer;
+
+        SerializedEntry(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        SegmentBody getBody() {
+            final byte[] byteArray = new byte[buffer.capacity()];
+            final ByteBuffer b = buffer.duplicate();
+            b.clear();
+            b.get(byteArray);
+            try {
+                return BinarySegmentCodec.INSTANCE.readBody(
+                    new ByteArrayInputStream(byteArray));
+            } catch (IOException e) {
+                throw Util.newError(e, "Could not decode segment body");
+            }
+        }
+
+        int getByteCount() {
+            return buffer.capacity();
+        }
+    }
+}
+
+// End OffHeapSegmentCache.java
@@ -172,10 +172,10 @@ public interface SegmentCacheIndex {
      * loading, otherwise null. This is the method to use to get segments
      * 'hot out of the oven'.
      *
-     * <p>When this method is invoked, the execution instance of the
-     * thread is automatically added to the list of clients for the
-     * given segment. The calling code is responsible for calling
-     * {@link #cancel(Execution)} when it is done with the segments,
+     * <p>When this method is invoked and the segment is loading, the
+     * execution instance of the thread is automatically added to the list
+     * of clients for the given segment. The calling code is responsible for
+     * calling {@link #cancel(Execution)} when it is done with the segments,
      * or else this registration will prevent others from canceling
      * the running SQL statements associated to this segment.
      *
@@ -184,6 +184,16 @@ public interface SegmentCacheIndex {
      */
     Future<SegmentBody> getFuture(Execution exec, SegmentHeader header);
 
+    /**
+     * Returns the execution on whose behalf a segment is loading, that is,
+     * the first execution that called {@link #getFuture} while it was
+     * loading; or null if the segment is not loading.
+     *
+     * @param header Segment header
+     * @return Execution that is loading the segment, or null
+     */
+    Execution getLoadingExecution(SegmentHeader header);
+
     /**
      * This method must remove all registrations as a client
      * for the given execution.
@@ -70,11 +70,12 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
     /**
      * Creates a SegmentCacheIndexImpl.
      *
-     * @param thread Thread that must be used to execute commands.
+     * @param thread Thread that must be used to execute commands, or null
+     *     if the caller guarantees that only one thread at a time accesses
+     *     this index (for example, by holding a lock)
      */
     public SegmentCacheIndexImpl(Thread thread) {
         this.thread = thread;
-        assert thread != null;
     }
 
     public static List makeConverterKey(SegmentHeader header) {
@@ -208,6 +209,7 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         }
         // Cleanup the HeaderInfo
         headerInfo.stmt = null;
+        headerInfo.loader = null;
         headerInfo.clients.clear();
     }
 
@@ -225,6 +227,7 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         remove(header);
         // Cleanup the HeaderInfo
         headerInfo.stmt = null;
+        headerInfo.loader = null;
         headerInfo.clients.clear();
     }
 
@@ -271,7 +274,7 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
     }
 
     private void checkThread() {
-        assert thread == Thread.currentThread()
+        assert thread == null || thread == Thread.currentThread()
             : "expected " + thread + ", but was " + Thread.currentThread();
     }
 
@@ -429,12 +432,27 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
     public Future<SegmentBody> getFuture(Execution exec, SegmentHeader header) {
         checkThread();
         HeaderInfo hi = headerMap.get(header);
-        if (!hi.clients.contains(exec)) {
-            hi.clients.add(exec);
+        if (hi.slot != null && !hi.slot.isDone()) {
+            // Register only while loading. The clients of a load are cleared
+            // when it finishes, so a later registration would never be.
+            if (hi.loader == null) {
+                hi.loader = exec;
+            }
+            if (!hi.clients.contains(exec)) {
+                hi.clients.add(exec);
+            }
         }
         return hi.slot;
     }
 
+    public Execution getLoadingExecution(SegmentHeader header) {
+        checkThread();
+        final HeaderInfo hi = headerMap.get(header);
+        return hi == null || hi.slot == null || hi.slot.isDone()
+            ? null
+            : hi.loader;
+    }
+
     public void linkSqlStatement(SegmentHeader header, Statement stmt) {
         checkThread();
         headerMap.get(header).stmt = stmt;
@@ -977,6 +995,11 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
          */
         private final List<Execution> clients =
             new CopyOnWriteArrayList<Execution>();
+        /**
+         * The execution on whose behalf this segment is loading: the first
+         * client to register while it is loading.
+         */
+        private Execution loader;
         /**
          * Whether this segment is already considered stale and must
          * be deleted after it is done loading. This can happen
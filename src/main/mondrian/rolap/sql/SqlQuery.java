@@ -82,6 +82,12 @@ public class SqlQuery {
     private final List<ClauseList> groupingSets;
     private final ClauseList groupingFunctions;
 
+    /** Maximum number of rows to return, or -1 if unlimited. */
+    private int limit = -1;
+
+    /** Number of rows to skip. */
+    private int offset;
+
     private final List<SqlStatement.Type> types =
         new ArrayList<SqlStatement.Type>();
 
@@ -161,6 +167,20 @@ public class SqlQuery {
         this.distinct = distinct;
     }
 
+    /**
+     * Restricts the query to a range of its rows. Requires a dialect that
+     * {@link Dialect#supportsLimitAndOffset() supports LIMIT and OFFSET}.
+     *
+     * @param limit Maximum number of rows to return, or -1 if unlimited
+     * @param offset Number of rows to skip
+     */
+    public void setLimitAndOffset(int limit, int offset) {
+        assert dialect.supportsLimitAndOffset();
+        assert limit >= -1 && offset >= 0;
+        this.limit = limit;
+        this.offset = offset;
+    }
+
     /**
      * Chooses whether table optimization hints may be used
      * (assuming the dialect supports it).
@@ -587,9 +607,18 @@ public class SqlQuery {
             buf, generateFormattedSql, prefix, " from ", fromSep, "", "");
         where.toBuffer(
             buf, generateFormattedSql, prefix, " where ", " and ", "", "");
+        final ClauseList rollupList;
         if (groupingSets.isEmpty()) {
             groupBy.toBuffer(
                 buf, generateFormattedSql, prefix, " group by ", ", ", "", "");
+        } else if ((rollupList = rollupList(groupingSets)) != null) {
+            rollupList.toBuffer(
+                buf, generateFormattedSql, prefix, " group by rollup (", ", ",
+                ")", "");
+        } else if (isCube(groupingSets)) {
+            groupingSets.get(0).toBuffer(
+                buf, generateFormattedSql, prefix, " group by cube (", ", ",
+                ")", "");
         } else {
             ClauseList.listToBuffer(
                 buf,
@@ -604,6 +633,13 @@ public class SqlQuery {
             buf, generateFormattedSql, prefix, " having ", " and ", "", "");
         orderBy.toBuffer(
             buf, generateFormattedSql, prefix, " order by ", ", ", "", "");
+        if (limit >= 0 || offset > 0) {
+            final StringBuilder clause = new StringBuilder();
+            dialect.appendLimitAndOffset(clause, limit, offset);
+            buf.append(
+                ClauseList.foo(
+                    generateFormattedSql, prefix, clause.toString()));
+        }
         return buf;
     }
 
@@ -644,6 +680,77 @@ public class SqlQuery {
         groupingSets.add(groupingList);
     }
 
+    /**
+     * Returns the columns of a ROLLUP equivalent to a list of grouping sets,
+     * or null if there is none.
+     *
+     * <p>The grouping sets <code>(a, b, c), (a, b), (a), ()</code>, in any
+     * order, are equivalent to <code>ROLLUP (a, b, c)</code>. A ROLLUP of
+     * fewer than two columns is no shorter than the grouping sets.
+     *
+     * @param groupingSets Grouping sets
+     * @return Columns of the ROLLUP, or null
+     */
+    private static ClauseList rollupList(List<ClauseList> groupingSets) {
+        final int columnCount = groupingSets.size() - 1;
+        if (columnCount < 2) {
+            return null;
+        }
+        final List<Set<String>> setsBySize =
+            new ArrayList<Set<String>>(
+                Collections.<Set<String>>nCopies(columnCount + 1, null));
+        for (ClauseList groupingSet : groupingSets) {
+            final Set<String> set = new HashSet<String>(groupingSet);
+            if (set.size() > columnCount
+                || setsBySize.get(set.size()) != null)
+            {
+                return null;
+            }
+            setsBySize.set(set.size(), set);
+        }
+        final ClauseList rollupList = new ClauseList(false);
+        for (int i = 1; i <= columnCount; i++) {
+            final Set<String> set = setsBySize.get(i);
+            if (!set.containsAll(setsBySize.get(i - 1))) {
+                return null;
+            }
+            for (String column : set) {
+                if (!setsBySize.get(i - 1).contains(column)) {
+                    rollupList.add(column);
+                }
+            }
+        }
+        return rollupList;
+    }
+
+    /**
+     * Returns whether a list of grouping sets is equivalent to
+     * <code>CUBE</code> of its first grouping set; that is, whether it
+     * contains every subset of the first grouping set exactly once.
+     *
+     * @param groupingSets Grouping sets
+     * @return Whether the grouping sets are a CUBE
+     */
+    private static boolean isCube(List<ClauseList> groupingSets) {
+        final Set<String> detailedSet =
+            new HashSet<String>(groupingSets.get(0));
+        // A CUBE of one column is a ROLLUP; limit the size of the bit mask.
+        if (detailedSet.size() < 2
+            || detailedSet.size() > 16
+            || groupingSets.size() != 1 << detailedSet.size())
+        {
+            return false;
+        }
+        final Set<Set<String>> sets = new HashSet<Set<String>>();
+        for (ClauseList groupingSet : groupingSets) {
+            final Set<String> set = new HashSet<String>(groupingSet);
+            if (!detailedSet.containsAll(set) || !sets.add(set)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public void addGroupingFunction(String columnExpr) {
         groupingFunctions.add(columnExpr);
 
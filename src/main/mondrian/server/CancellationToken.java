@@ -0,0 +1,90 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.server;
+
+import java.util.EmptyStackException;
+
+/**
+ * Checks whether an {@link Execution} has been canceled or has timed out,
+ * but only every <i>n</i> calls.
+ *
+ * <p>A loop that does little work per iteration calls {@link #check()} each
+ * time around; the token calls
+ * {@link Execution#checkCancelOrTimeout()} once every {@link #getInterval()}
+ * calls, and otherwise only increments a counter.
+ *
+ * <p>A token is not thread-safe. Create one per loop, on the thread that
+ * runs the loop.
+ */
+public final class CancellationToken {
+    /** Default number of calls to {@link #check()} between checks of the
+     * execution. */
+    public static final int DEFAULT_INTERVAL = 1024;
+
+    private final Execution execution;
+    private final int mask;
+    private int count;
+
+    /**
+     * Creates a CancellationToken.
+     *
+     * @param execution Execution
+     * @param interval Number of calls to {@link #check()} between checks of
+     *     the execution; must be a power of 2
+     */
+    public CancellationToken(Execution execution, int interval) {
+        assert execution != null;
+        assert interval > 0 && Integer.bitCount(interval) == 1 : interval;
+        this.execution = execution;
+        this.mask = interval - 1;
+    }
+
+    /**
+     * Creates a token for the execution of the current thread's
+     * {@link Locus}, checking every {@link #DEFAULT_INTERVAL} calls.
+     *
+     * <p>If there is no locus (for example, in a unit test that calls a
+     * function directly), returns a token that never throws.
+     *
+     * @return Cancellation token
+     */
+    public static CancellationToken current() {
+        Execution execution;
+        try {
+            execution = Locus.peek().execution;
+        } catch (EmptyStackException e) {
+            execution = Execution.NONE;
+        }
+        return new CancellationToken(execution, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Returns the number of calls to {@link #check()} between checks of the
+     * execution.
+     */
+    public int getInterval() {
+        return mask + 1;
+    }
+
+    /**
+     * Counts an iteration, and every {@link #getInterval()} iterations, checks
+     * whether the execution has been canceled or has timed out.
+     *
+     * @throws mondrian.olap.MondrianException if the execution has been
+     *     canceled or has timed out
+     */
+    public void check() {
+        if ((++count & mask) == 0) {
+            execution.checkCancelOrTimeout();
+        }
+    }
+}
+
+// End CancellationToken.java
@@ -14,12 +14,14 @@ import mondrian.resource.MondrianResource;
 import mondrian.rolap.RolapConnection;
 import mondrian.rolap.agg.SegmentCacheManager;
 import mondrian.server.monitor.*;
+import mondrian.util.CoarseClock;
 
 import org.apache.log4j.MDC;
 
 import java.util.*;
 import java.util.Map.Entry;
 
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -47,7 +49,11 @@ public class Execution {
     private final Map<Locus, java.sql.Statement> statements =
         new HashMap<Locus, java.sql.Statement>();
 
-    private State state = State.FRESH;
+    /**
+     * State of this execution. Volatile, so that
+     * {@link #checkCancelOrTimeout()} can read it without a lock.
+     */
+    private volatile State state = State.FRESH;
 
     /**
      * Lock monitor for SQL statements. All operations on
@@ -58,7 +64,7 @@ public class Execution {
 
     /**
      * This is a lock object to sync on when changing
-     * the {@link #state} variable.
+     * the {@link #state} variable. Readers of the state do not need it.
      */
     private final Object stateLock = new Object();
 
@@ -89,6 +95,20 @@ public class Execution {
 
     private final Execution parent;
 
+    /**
+     * Called when this execution is canceled or fails, so that whoever is
+     * waiting for it can stop waiting; or null.
+     */
+    private volatile Runnable cancelHandler;
+
+    /**
+     * Handlers of threads that are waiting on behalf of this execution, for
+     * example for a workload permit, and that are woken when it is canceled
+     * or fails.
+     */
+    private final Set<Runnable> cancelListeners =
+        new CopyOnWriteArraySet<Runnable>();
+
     public Execution(
         Statement statement,
         long timeoutIntervalMillis)
@@ -142,6 +162,8 @@ public class Execution {
             timeoutIntervalMillis > 0
                 ? this.startTimeMillis + timeoutIntervalMillis
                 : 0L;
+        // Write the state last; a thread that reads RUNNING also sees the
+        // deadline.
         this.state = State.RUNNING;
         this.queryTiming.init(true);
         fireExecutionStartEvent();
@@ -194,6 +216,7 @@ public class Execution {
             }
             fireExecutionEndEvent();
         }
+        fireCancel();
     }
 
     /**
@@ -210,6 +233,50 @@ public class Execution {
             this.outOfMemoryMsg = msg;
             this.state = State.ERROR;
         }
+        fireCancel();
+    }
+
+    /**
+     * Sets the handler that is called, without holding any lock, when this
+     * execution is canceled or runs out of memory. The
+     * {@link mondrian.rolap.RolapResultShepherd} uses it to wake the thread
+     * that is waiting for the result.
+     *
+     * @param cancelHandler Handler, or null
+     */
+    public void setCancelHandler(Runnable cancelHandler) {
+        this.cancelHandler = cancelHandler;
+    }
+
+    /**
+     * Adds a listener that is called, without holding any lock, when this
+     * execution is canceled or runs out of memory. Unlike the cancel
+     * handler, any number of threads may each register a listener, and
+     * remove it when they stop waiting.
+     *
+     * @param listener Listener
+     */
+    public void addCancelListener(Runnable listener) {
+        cancelListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added by {@link #addCancelListener(Runnable)}.
+     *
+     * @param listener Listener
+     */
+    public void removeCancelListener(Runnable listener) {
+        cancelListeners.remove(listener);
+    }
+
+    private void fireCancel() {
+        final Runnable handler = cancelHandler;
+        if (handler != null) {
+            handler.run();
+        }
+        for (Runnable listener : cancelListeners) {
+            listener.run();
+        }
     }
 
     /**
@@ -217,57 +284,84 @@ public class Execution {
      * if something is wrong. This method should be called by the
      * user thread.
      * <p>It won't throw anything if the query has successfully completed.
+     *
+     * <p>The method does not lock, and reads the time from a
+     * {@link CoarseClock}, so it is cheap enough to call for each iteration
+     * of an evaluation loop. A loop that does very little work per iteration
+     * should use a {@link CancellationToken}, which calls this method only
+     * every <i>n</i> iterations.
+     *
      * @throws MondrianException The exception encountered.
      */
-    public synchronized void checkCancelOrTimeout() throws MondrianException {
+    public void checkCancelOrTimeout() throws MondrianException {
         if (parent != null) {
             parent.checkCancelOrTimeout();
         }
+        final State state = this.state;
+        if (state == State.RUNNING) {
+            if (timeoutTimeMillis == 0
+                || CoarseClock.currentTimeMillis() <= timeoutTimeMillis)
+            {
+                return;
+            }
+        } else if (state != State.CANCELED && state != State.ERROR) {
+            return;
+        }
+        checkCancelOrTimeoutSlow();
+    }
+
+    /**
+     * Called by {@link #checkCancelOrTimeout()} if this execution has been
+     * canceled, has failed or has timed out; throws the appropriate
+     * exception.
+     */
+    private void checkCancelOrTimeoutSlow() throws MondrianException {
         boolean needInterrupt = false;
-        switch (this.state) {
-        case CANCELED:
-            try {
-                if (Thread.interrupted()) {
-                    // Checking the state of the thread will clear the
-                    // interrupted flag so we can send an event out.
-                    // After that, we make sure that we set it again
-                    // so the thread state remains consistent.
-                    needInterrupt = true;
-                }
-                fireExecutionEndEvent();
-            } finally {
-                if (needInterrupt) {
-                    Thread.currentThread().interrupt();
+        synchronized (stateLock) {
+            switch (this.state) {
+            case CANCELED:
+                try {
+                    if (Thread.interrupted()) {
+                        // Checking the state of the thread will clear the
+                        // interrupted flag so we can send an event out.
+                        // After that, we make sure that we set it again
+                        // so the thread state remains consistent.
+                        needInterrupt = true;
+                    }
+                    fireExecutionEndEvent();
+                } finally {
+                    if (needInterrupt) {
+                        Thread.currentThread().interrupt();
+                    }
                 }
-            }
-            throw MondrianResource.instance().QueryCanceled.ex();
-        case RUNNING:
-            if (timeoutTimeMillis > 0) {
-                long currTime = System.currentTimeMillis();
-                if (currTime > timeoutTimeMillis) {
+                throw MondrianResource.instance().QueryCanceled.ex();
+            case RUNNING:
+                if (timeoutTimeMillis > 0
+                    && CoarseClock.currentTimeMillis() > timeoutTimeMillis)
+                {
                     this.state = State.TIMEOUT;
                     fireExecutionEndEvent();
                     throw MondrianResource.instance().QueryTimeout.ex(
                         timeoutIntervalMillis / 1000);
                 }
-            }
-            break;
-        case ERROR:
-            try {
-                if (Thread.interrupted()) {
-                    // Checking the state of the thread will clear the
-                    // interrupted flag so we can send an event out.
-                    // After that, we make sure that we set it again
-                    // so the thread state remains consistent.
-                    needInterrupt = true;
-                }
-                fireExecutionEndEvent();
-            } finally {
-                if (needInterrupt) {
-                    Thread.currentThread().interrupt();
+                break;
+            case ERROR:
+                try {
+                    if (Thread.interrupted()) {
+                        // Checking the state of the thread will clear the
+                        // interrupted flag so we can send an event out.
+                        // After that, we make sure that we set it again
+                        // so the thread state remains consistent.
+                        needInterrupt = true;
+                    }
+                    fireExecutionEndEvent();
+                } finally {
+                    if (needInterrupt) {
+                        Thread.currentThread().interrupt();
+                    }
                 }
+                throw new MemoryLimitExceededException(outOfMemoryMsg);
             }
-            throw new MemoryLimitExceededException(outOfMemoryMsg);
         }
     }
 
@@ -283,34 +377,39 @@ public class Execution {
         {
             return true;
         }
-        synchronized (stateLock) {
-            if (state == State.CANCELED
-                || state == State.ERROR
-                || state == State.TIMEOUT
-                || (state == State.RUNNING
+        final State state = this.state;
+        return state == State.CANCELED
+            || state == State.ERROR
+            || state == State.TIMEOUT
+            || (state == State.RUNNING
                 && timeoutTimeMillis > 0
-                && System.currentTimeMillis() > timeoutTimeMillis))
-            {
-                return true;
-            }
-            return false;
-        }
+                && CoarseClock.currentTimeMillis() > timeoutTimeMillis);
+    }
+
+    /**
+     * Creates a token with which a loop on the current thread can check
+     * every {@link CancellationToken#DEFAULT_INTERVAL} iterations whether
+     * this execution has been canceled or has timed out.
+     *
+     * @return Cancellation token
+     */
+    public CancellationToken createCancellationToken() {
+        return new CancellationToken(
+            this, CancellationToken.DEFAULT_INTERVAL);
     }
 
     /**
      * Tells whether this execution is done executing.
      */
     public boolean isDone() {
-        synchronized (stateLock) {
-            switch (this.state) {
-            case CANCELED:
-            case DONE:
-            case ERROR:
-            case TIMEOUT:
-                return true;
-            default:
-                return false;
-            }
+        switch (this.state) {
+        case CANCELED:
+        case DONE:
+        case ERROR:
+        case TIMEOUT:
+            return true;
+        default:
+            return false;
         }
     }
 
@@ -426,6 +525,14 @@ public class Execution {
         return id;
     }
 
+    /**
+     * Returns the timeout of this execution, in milliseconds, or 0 if it has
+     * no timeout.
+     */
+    public final long getTimeoutIntervalMillis() {
+        return timeoutIntervalMillis;
+    }
+
     public final long getElapsedMillis() {
         return System.currentTimeMillis() - startTimeMillis;
     }
@@ -14,6 +14,7 @@ import mondrian.olap.MondrianServer;
 import mondrian.olap4j.*;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.RolapConnection;
+import mondrian.rolap.RolapResultCache;
 import mondrian.rolap.RolapResultShepherd;
 import mondrian.rolap.RolapSchema;
 import mondrian.rolap.agg.AggregationManager;
@@ -60,6 +61,10 @@ class MondrianServerImpl
 
     private final RolapResultShepherd shepherd;
 
+    private final WorkloadManager workloadManager = new WorkloadManager();
+
+    private final RolapResultCache resultCache = new RolapResultCache();
+
     /**
      * Map of open connections, by id. Connections are added just after
      * construction, and are removed when they call close. Garbage collection
@@ -90,7 +95,8 @@ class MondrianServerImpl
          // would be the case with a WeakHashMap.
         new ReferenceMap(ReferenceMap.WEAK, ReferenceMap.WEAK);
 
-    private final MonitorImpl monitor = new MonitorImpl();
+    private final MonitorImpl monitor =
+        new MonitorImpl(workloadManager, resultCache);
 
     private final AggregationManager aggMgr;
 
@@ -219,6 +225,22 @@ class MondrianServerImpl
         return this.shepherd;
     }
 
+    @Override
+    public WorkloadManager getWorkloadManager() {
+        if (shutdown) {
+            throw new MondrianException("Server already shutdown.");
+        }
+        return workloadManager;
+    }
+
+    @Override
+    public RolapResultCache getResultCache() {
+        if (shutdown) {
+            throw new MondrianException("Server already shutdown.");
+        }
+        return resultCache;
+    }
+
     public List<String> getKeywords() {
         return KEYWORD_LIST;
     }
@@ -11,6 +11,7 @@ package mondrian.server;
 
 import mondrian.olap.MondrianProperties;
 import mondrian.olap.Util;
+import mondrian.rolap.RolapResultCache;
 import mondrian.rolap.RolapUtil;
 import mondrian.server.monitor.*;
 import mondrian.util.*;
@@ -62,7 +63,8 @@ class MonitorImpl
     implements Monitor
 {
     private static final Logger LOGGER = Logger.getLogger(MonitorImpl.class);
-    private final Handler handler = new Handler();
+    private final Handler handler;
+    private final WorkloadManager workloadManager;
 
     protected static final Util.MemoryInfo MEMORY_INFO = Util.getMemoryInfo();
 
@@ -85,8 +87,16 @@ class MonitorImpl
 
     /**
      * Creates a Monitor.
+     *
+     * @param workloadManager Workload manager of the server
+     * @param resultCache Result cache of the server
      */
-    public MonitorImpl() {
+    public MonitorImpl(
+        WorkloadManager workloadManager,
+        RolapResultCache resultCache)
+    {
+        this.workloadManager = workloadManager;
+        this.handler = new Handler(workloadManager, resultCache);
     }
 
     // Commands
@@ -124,6 +134,12 @@ class MonitorImpl
         return (List<SqlStatementInfo>) execute(new SqlStatementsCommand());
     }
 
+    public List<WorkloadInfo> getWorkloads() {
+        // The workload manager's counters are thread-safe, so there is no
+        // need to ask the actor.
+        return workloadManager.getWorkloads();
+    }
+
     private Object execute(Command command) {
         return ACTOR.execute(handler, command);
     }
@@ -193,13 +209,27 @@ class MonitorImpl
         private final MutableConnectionInfo aggConn =
             new MutableConnectionInfo(null);
         private final String stack;
+        private final WorkloadManager workloadManager;
+        private final RolapResultCache resultCache;
 
-        public MutableServerInfo(String stack) {
+        public MutableServerInfo(
+            String stack,
+            WorkloadManager workloadManager,
+            RolapResultCache resultCache)
+        {
             this.stack = stack;
+            this.workloadManager = workloadManager;
+            this.resultCache = resultCache;
         }
 
         public ServerInfo fix() {
             Util.MemoryInfo.Usage memoryUsage = MEMORY_INFO.get();
+            int workloadQueuedQueryCount = 0;
+            int workloadQueuedSqlCount = 0;
+            for (WorkloadInfo workload : workloadManager.getWorkloads()) {
+                workloadQueuedQueryCount += workload.queuedQueryCount;
+                workloadQueuedSqlCount += workload.queuedSqlCount;
+            }
             return new ServerInfo(
                 stack,
                 aggConn.startCount,
@@ -229,7 +259,14 @@ class MonitorImpl
                 aggExec.cellCacheSegmentCreateViaRollupCount,
                 aggExec.cellCacheSegmentCreateViaSqlCount,
                 aggExec.cellCacheSegmentCellCount,
-                aggExec.cellCacheSegmentCoordinateSum);
+                aggExec.cellCacheSegmentCoordinateSum,
+                aggExec.rollupChosenCount,
+                aggExec.rollupRejectedCount,
+                aggExec.sqlStatementCoalescedCount,
+                workloadQueuedQueryCount,
+                workloadQueuedSqlCount,
+                resultCache.getHitCount(),
+                resultCache.getMissCount());
         }
     }
 
@@ -344,6 +381,9 @@ class MonitorImpl
         private int cellCacheSegmentDeleteCount;
         private int cellCacheSegmentCoordinateSum;
         private int cellCacheSegmentCellCount;
+        private int rollupChosenCount;
+        private int rollupRejectedCount;
+        private int sqlStatementCoalescedCount;
         private final String stack;
 
         public MutableExecutionInfo(
@@ -413,8 +453,7 @@ class MonitorImpl
 
     private static class Handler implements CommandVisitor<Object> {
 
-        private final MutableServerInfo server =
-            new MutableServerInfo(null);
+        private final MutableServerInfo server;
 
         private final Map<Integer, MutableConnectionInfo> connectionMap =
             new LinkedHashMap<Integer, MutableConnectionInfo>(
@@ -555,6 +594,14 @@ class MonitorImpl
                 }
         };
 
+        Handler(
+            WorkloadManager workloadManager,
+            RolapResultCache resultCache)
+        {
+            this.server =
+                new MutableServerInfo(null, workloadManager, resultCache);
+        }
+
         /**
          * Method for debugging that does nothing, but is a place to put a break
          * point to find out places where an event or its parent should be
@@ -834,6 +881,63 @@ class MonitorImpl
             }
         }
 
+        public Object visit(CellCacheRollupDecisionEvent event) {
+            MutableExecutionInfo exec =
+                executionMap.get(event.executionId);
+            if (exec == null) {
+                exec = retiredExecutionMap.get(event.executionId);
+                if (exec == null) {
+                    return missing(event);
+                }
+            }
+
+            foo(exec, event);
+            foo(exec.stmt.aggExec, event);
+            foo(exec.stmt.conn.aggExec, event);
+            foo(server.aggExec, event);
+            return null;
+        }
+
+        private void foo(
+            MutableExecutionInfo exec,
+            CellCacheRollupDecisionEvent event)
+        {
+            switch (event.source) {
+            case ROLLUP:
+                ++exec.rollupChosenCount;
+                break;
+            case SQL:
+                ++exec.rollupRejectedCount;
+                break;
+            default:
+                throw Util.unexpected(event.source);
+            }
+        }
+
+        public Object visit(CellCacheSegmentCoalesceEvent event) {
+            MutableExecutionInfo exec =
+                executionMap.get(event.executionId);
+            if (exec == null) {
+                exec = retiredExecutionMap.get(event.executionId);
+                if (exec == null) {
+                    return missing(event);
+                }
+            }
+
+            foo(exec, event);
+            foo(exec.stmt.aggExec, event);
+            foo(exec.stmt.conn.aggExec, event);
+            foo(server.aggExec, event);
+            return null;
+        }
+
+        private void foo(
+            MutableExecutionInfo exec,
+            CellCacheSegmentCoalesceEvent event)
+        {
+            exec.sqlStatementCoalescedCount += event.sqlStatementCount;
+        }
+
         public Object visit(SqlStatementStartEvent event) {
             final MutableStatementInfo stmt =
                 statementMap.get(
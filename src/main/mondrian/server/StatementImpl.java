@@ -138,7 +138,24 @@ public abstract class StatementImpl implements Statement {
     }
 
     public void setQuery(Query query) {
+        final Query previousQuery = this.query;
         this.query = query;
+        if (previousQuery != null && previousQuery != query) {
+            previousQuery.release(this);
+        }
+    }
+
+    /**
+     * Releases this statement's current query, so that other statements can
+     * reuse its compiled form. Call when the statement is closed.
+     *
+     * @see Query#release(Statement)
+     */
+    protected void releaseQuery() {
+        final Query query = this.query;
+        if (query != null) {
+            query.release(this);
+        }
     }
 
     public Execution getCurrentExecution() {
@@ -0,0 +1,413 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.server;
+
+import mondrian.olap.*;
+import mondrian.resource.MondrianResource;
+import mondrian.rolap.RolapConnection;
+import mondrian.rolap.RolapConnectionProperties;
+import mondrian.server.monitor.WorkloadInfo;
+import mondrian.util.Pair;
+
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of MDX statements, and of SQL statements, that each
+ * class of workload may run at a time.
+ *
+ * <p>Classes and their quotas are defined by
+ * {@link MondrianProperties#WorkloadQuotas}; for example,
+ * "{@code Analyst=2/4,Dashboard=20/0}" lets executions of class "Analyst"
+ * run 2 MDX statements and 4 SQL statements at a time, and executions of
+ * class "Dashboard" run 20 MDX statements and any number of SQL
+ * statements.</p>
+ *
+ * <p>An execution belongs to the first of the following that names a class:
+ * the {@link RolapConnectionProperties#WorkloadClass} property of its
+ * connection; the name of each role in the
+ * {@link RolapConnectionProperties#Role} property; the name of its schema.
+ * An execution that belongs to no class is limited only by the server-wide
+ * limits.</p>
+ *
+ * <p>If its class is at its quota, an execution waits, in order of arrival,
+ * for at most {@link MondrianProperties#WorkloadMaxWait}, then fails.</p>
+ */
+public class WorkloadManager {
+    private final Map<String, WorkloadClass> classMap;
+    private final long maxWaitMillis;
+
+    /**
+     * Creates a WorkloadManager with quotas from the
+     * {@link MondrianProperties#WorkloadQuotas} property.
+     */
+    public WorkloadManager() {
+        this(
+            MondrianProperties.instance().WorkloadQuotas.get(),
+            toMillis(MondrianProperties.instance().WorkloadMaxWait.get()));
+    }
+
+    /**
+     * Creates a WorkloadManager.
+     *
+     * @param quotas Quotas, in the format of the
+     *     {@link MondrianProperties#WorkloadQuotas} property
+     * @param maxWaitMillis Maximum time that an execution waits for its
+     *     class to be under quota
+     */
+    public WorkloadManager(String quotas, long maxWaitMillis) {
+        this.classMap = parseQuotas(quotas);
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    private static long toMillis(String interval) {
+        final Pair<Long, TimeUnit> pair =
+            Util.parseInterval(interval, TimeUnit.MILLISECONDS);
+        return pair.right.toMillis(pair.left);
+    }
+
+    private static Map<String, WorkloadClass> parseQuotas(String quotas) {
+        final Map<String, WorkloadClass> map =
+            new LinkedHashMap<String, WorkloadClass>();
+        if (quotas == null) {
+            return map;
+        }
+        for (String quota : quotas.split(",")) {
+            quota = quota.trim();
+            if (quota.length() == 0) {
+                continue;
+            }
+            final int eq = quota.lastIndexOf('=');
+            final int slash = quota.indexOf('/', eq + 1);
+            if (eq <= 0 || slash < 0) {
+                throw Util.newError(
+                    "Invalid workload quota '" + quota
+                    + "'; expected <class>=<queries>/<sql statements>");
+            }
+            final String name = quota.substring(0, eq).trim();
+            try {
+                map.put(
+                    name,
+                    new WorkloadClass(
+                        name,
+                        Integer.parseInt(
+                            quota.substring(eq + 1, slash).trim()),
+                        Integer.parseInt(
+                            quota.substring(slash + 1).trim())));
+            } catch (NumberFormatException e) {
+                throw Util.newError(
+                    e, "Invalid workload quota '" + quota + "'");
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Returns the class of an execution, or null if it belongs to no class.
+     *
+     * @param execution Execution
+     * @return Workload class, or null
+     */
+    public WorkloadClass classify(Execution execution) {
+        if (classMap.isEmpty()) {
+            return null;
+        }
+        final Statement statement = execution.getMondrianStatement();
+        if (statement == null) {
+            return null;
+        }
+        final RolapConnection connection = statement.getMondrianConnection();
+        final Util.PropertyList connectInfo = connection.getConnectInfo();
+        final String className =
+            connectInfo.get(RolapConnectionProperties.WorkloadClass.name());
+        if (className != null) {
+            final WorkloadClass workloadClass = classMap.get(className);
+            if (workloadClass != null) {
+                return workloadClass;
+            }
+        }
+        final String roleNames =
+            connectInfo.get(RolapConnectionProperties.Role.name());
+        if (roleNames != null) {
+            for (String roleName : Util.parseCommaList(roleNames)) {
+                final WorkloadClass workloadClass = classMap.get(roleName);
+                if (workloadClass != null) {
+                    return workloadClass;
+                }
+            }
+        }
+        return classMap.get(connection.getSchema().getName());
+    }
+
+    /**
+     * Waits until the class of an execution may run another MDX statement.
+     * The caller must call {@link WorkloadClass#releaseQuery()} on the
+     * returned class, if not null, when the statement has finished.
+     *
+     * @param execution Execution
+     * @return Workload class, or null if the execution belongs to no class
+     *
+     * @throws MondrianException if the class does not go under its quota in
+     *     time
+     */
+    public WorkloadClass admitQuery(Execution execution) {
+        final WorkloadClass workloadClass = classify(execution);
+        if (workloadClass != null
+            && workloadClass.querySemaphore != null
+            && !acquire(
+                execution,
+                workloadClass.querySemaphore,
+                workloadClass.queuedQueryCount))
+        {
+            throw MondrianResource.instance().WorkloadQueryLimitReached.ex(
+                workloadClass.name, maxWaitMillis);
+        }
+        return workloadClass;
+    }
+
+    /**
+     * Waits until the class of an execution may run another SQL statement.
+     * The caller must call {@link WorkloadClass#releaseSql()} on the
+     * returned class, if not null, when the statement has been closed.
+     *
+     * @param execution Execution
+     * @return Workload class, or null if the execution belongs to no class
+     *
+     * @throws MondrianException if the class does not go under its quota in
+     *     time
+     */
+    public WorkloadClass admitSql(Execution execution) {
+        final WorkloadClass workloadClass = classify(execution);
+        if (workloadClass != null
+            && workloadClass.sqlSemaphore != null
+            && !acquire(
+                execution,
+                workloadClass.sqlSemaphore,
+                workloadClass.queuedSqlCount))
+        {
+            throw MondrianResource.instance().WorkloadSqlLimitReached.ex(
+                workloadClass.name, maxWaitMillis);
+        }
+        return workloadClass;
+    }
+
+    /**
+     * Acquires a permit, waiting at most {@link #maxWaitMillis}, and
+     * throwing if the execution is canceled or times out while it waits.
+     *
+     * <p>The semaphore is fair, and the execution waits by a single timed
+     * acquire, so that permits are granted in order of arrival. If the
+     * execution is canceled, a cancel listener interrupts the waiting
+     * thread; each waiting thread has its own listener, so executions with
+     * several threads waiting at once are all woken.</p>
+     *
+     * @return Whether the permit was acquired
+     */
+    private boolean acquire(
+        Execution execution,
+        Semaphore semaphore,
+        AtomicInteger queuedCount)
+    {
+        // Unlike tryAcquire(), a timed acquire does not barge ahead of
+        // executions that are already waiting.
+        try {
+            if (semaphore.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Util.newError(e, "Interrupted while waiting for workload");
+        }
+
+        // Wait no longer than the execution has left to run.
+        long waitMillis = maxWaitMillis;
+        boolean timeoutFirst = false;
+        final long timeoutMillis = execution.getTimeoutIntervalMillis();
+        if (timeoutMillis > 0 && execution.getStartTime() > 0) {
+            final long remainingMillis =
+                execution.getStartTime() + timeoutMillis
+                - System.currentTimeMillis();
+            if (remainingMillis < waitMillis) {
+                waitMillis = Math.max(remainingMillis, 0);
+                timeoutFirst = true;
+            }
+        }
+
+        final Waiter waiter = new Waiter(Thread.currentThread());
+        execution.addCancelListener(waiter);
+        queuedCount.incrementAndGet();
+        boolean acquired = false;
+        try {
+            // If the execution was canceled before the listener was
+            // added, fail now.
+            execution.checkCancelOrTimeout();
+            acquired =
+                semaphore.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            if (!waiter.isFired()) {
+                Thread.currentThread().interrupt();
+                throw Util.newError(
+                    e, "Interrupted while waiting for workload");
+            }
+        } finally {
+            queuedCount.decrementAndGet();
+            execution.removeCancelListener(waiter);
+            if (waiter.finish()) {
+                // Clear the interrupt that the waiter made.
+                Thread.interrupted();
+            }
+        }
+        if (waiter.isFired()) {
+            if (acquired) {
+                semaphore.release();
+            }
+            execution.checkCancelOrTimeout();
+            return false;
+        }
+        if (!acquired && timeoutFirst) {
+            throw MondrianResource.instance().QueryTimeout.ex(
+                timeoutMillis / 1000);
+        }
+        return acquired;
+    }
+
+    /**
+     * Returns the current state of each workload class.
+     *
+     * @return List of workload information, one per class
+     */
+    public List<WorkloadInfo> getWorkloads() {
+        final List<WorkloadInfo> list = new ArrayList<WorkloadInfo>();
+        for (WorkloadClass workloadClass : classMap.values()) {
+            list.add(workloadClass.fix());
+        }
+        return list;
+    }
+
+    /**
+     * Class of workload, with quotas for the number of MDX and SQL
+     * statements that its executions may run at a time.
+     */
+    public static class WorkloadClass {
+        public final String name;
+        private final int maxQueryCount;
+        private final int maxSqlCount;
+
+        /** Permits to run MDX statements, or null if unlimited. */
+        private final Semaphore querySemaphore;
+
+        /** Permits to run SQL statements, or null if unlimited. */
+        private final Semaphore sqlSemaphore;
+
+        private final AtomicInteger queuedQueryCount = new AtomicInteger();
+        private final AtomicInteger queuedSqlCount = new AtomicInteger();
+
+        WorkloadClass(String name, int maxQueryCount, int maxSqlCount) {
+            this.name = name;
+            this.maxQueryCount = maxQueryCount;
+            this.maxSqlCount = maxSqlCount;
+            this.querySemaphore =
+                maxQueryCount > 0 ? new Semaphore(maxQueryCount, true) : null;
+            this.sqlSemaphore =
+                maxSqlCount > 0 ? new Semaphore(maxSqlCount, true) : null;
+        }
+
+        /**
+         * Called when an MDX statement admitted by
+         * {@link WorkloadManager#admitQuery} has finished.
+         */
+        public void releaseQuery() {
+            if (querySemaphore != null) {
+                querySemaphore.release();
+            }
+        }
+
+        /**
+         * Called when a SQL statement admitted by
+         * {@link WorkloadManager#admitSql} has been closed.
+         */
+        public void releaseSql() {
+            if (sqlSemaphore != null) {
+                sqlSemaphore.release();
+            }
+        }
+
+        /**
+         * Returns an estimate of the number of threads that are blocked
+         * waiting to run an MDX statement. Unlike the queued count in
+         * {@link WorkloadInfo}, which is incremented just before a thread
+         * starts to wait, it counts only threads that are in the queue of
+         * the semaphore; so tests can tell when a thread has taken its
+         * place in the queue.
+         *
+         * @return Number of threads waiting to run an MDX statement
+         */
+        public int getQueueLength() {
+            return querySemaphore == null
+                ? 0
+                : querySemaphore.getQueueLength();
+        }
+
+        WorkloadInfo fix() {
+            return new WorkloadInfo(
+                null,
+                name,
+                maxQueryCount,
+                querySemaphore == null
+                    ? -1
+                    : maxQueryCount - querySemaphore.availablePermits(),
+                queuedQueryCount.get(),
+                maxSqlCount,
+                sqlSemaphore == null
+                    ? -1
+                    : maxSqlCount - sqlSemaphore.availablePermits(),
+                queuedSqlCount.get());
+        }
+    }
+
+    /**
+     * Cancel listener that wakes a thread that is waiting for a permit.
+     */
+    private static class Waiter implements Runnable {
+        private final Thread thread;
+        private boolean fired;
+        private boolean finished;
+
+        Waiter(Thread thread) {
+            this.thread = thread;
+        }
+
+        public synchronized void run() {
+            if (!finished) {
+                fired = true;
+                thread.interrupt();
+            }
+        }
+
+        synchronized boolean isFired() {
+            return fired;
+        }
+
+        /**
+         * Called when the thread has stopped waiting; after this, the
+         * handler no longer interrupts it.
+         *
+         * @return Whether the handler interrupted the thread
+         */
+        synchronized boolean finish() {
+            finished = true;
+            return fired;
+        }
+    }
+}
+
+// End WorkloadManager.java
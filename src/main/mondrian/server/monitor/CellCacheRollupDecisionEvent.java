@@ -0,0 +1,61 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.server.monitor;
+
+/**
+ * Decision whether to satisfy a cell request by rolling up segments in the
+ * cell cache or by generating SQL.
+ *
+ * <p>The {@link #source} is {@link Source#ROLLUP} if the rollup was chosen,
+ * {@link Source#SQL} otherwise.</p>
+ */
+public class CellCacheRollupDecisionEvent extends CellCacheEvent {
+
+    public final long rollupCost;
+    public final long sqlCost;
+
+    /**
+     * Creates a CellCacheRollupDecisionEvent.
+     *
+     * @param timestamp Timestamp
+     * @param serverId ID of the server from which the event originates.
+     * @param connectionId ID of the connection from which the event
+     * originates.
+     * @param statementId ID of the statement from which the event originates.
+     * @param executionId ID of the execution from which the event originates.
+     * @param rollupCost Estimated cost of rolling up; the number of cells
+     *     to be read from cached segments
+     * @param sqlCost Estimated cost of SQL; the number of rows to be read
+     *     from the fact or aggregate table, plus a fixed overhead
+     * @param source Path chosen; ROLLUP or SQL
+     */
+    public CellCacheRollupDecisionEvent(
+        long timestamp,
+        int serverId,
+        int connectionId,
+        long statementId,
+        long executionId,
+        long rollupCost,
+        long sqlCost,
+        Source source)
+    {
+        super(
+            timestamp, serverId, connectionId,
+            statementId, executionId, source);
+        this.rollupCost = rollupCost;
+        this.sqlCost = sqlCost;
+    }
+
+    public <T> T accept(Visitor<T> visitor) {
+        return visitor.visit(this);
+    }
+}
+
+// End CellCacheRollupDecisionEvent.java
@@ -0,0 +1,50 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.server.monitor;
+
+/**
+ * Joining of segment loads that were already in flight, on behalf of another
+ * execution, instead of issuing new SQL.
+ */
+public class CellCacheSegmentCoalesceEvent extends CellCacheEvent {
+
+    public final int sqlStatementCount;
+
+    /**
+     * Creates a CellCacheSegmentCoalesceEvent.
+     *
+     * @param timestamp Timestamp
+     * @param serverId ID of the server from which the event originates.
+     * @param connectionId ID of the connection from which the event
+     * originates.
+     * @param statementId ID of the statement from which the event originates.
+     * @param executionId ID of the execution from which the event originates.
+     * @param sqlStatementCount Number of in-flight SQL statements joined
+     */
+    public CellCacheSegmentCoalesceEvent(
+        long timestamp,
+        int serverId,
+        int connectionId,
+        long statementId,
+        long executionId,
+        int sqlStatementCount)
+    {
+        super(
+            timestamp, serverId, connectionId,
+            statementId, executionId, Source.SQL);
+        this.sqlStatementCount = sqlStatementCount;
+    }
+
+    public <T> T accept(Visitor<T> visitor) {
+        return visitor.visit(this);
+    }
+}
+
+// End CellCacheSegmentCoalesceEvent.java
@@ -31,6 +31,14 @@ public interface Monitor {
 
     List<SqlStatementInfo> getSqlStatements();
 
+    /**
+     * Returns the state of each class of workload: its quotas, and how many
+     * MDX and SQL statements are running and waiting.
+     *
+     * @return List of workload information, one per class
+     */
+    List<WorkloadInfo> getWorkloads();
+
     /**
      * Sends an event to the monitor.
      *
@@ -102,6 +102,57 @@ public class ServerInfo extends Info {
      */
     public final int cellCoordinateCount;
 
+    /**
+     * The number of cell requests, since the server started, for which
+     * a rollup of cached segments was possible and was estimated to be
+     * cheaper than SQL.
+     */
+    public final int rollupChosenCount;
+
+    /**
+     * The number of cell requests, since the server started, for which
+     * a rollup of cached segments was possible but SQL was estimated to be
+     * cheaper.
+     */
+    public final int rollupRejectedCount;
+
+    /**
+     * The number of SQL statements, since the server started, that were not
+     * issued because a cell request waited for a segment that was already
+     * being loaded on behalf of another request.
+     */
+    public final int sqlStatementCoalescedCount;
+
+    /**
+     * The number of MDX statements currently waiting because their class of
+     * workload is at its quota.
+     *
+     * @see mondrian.server.WorkloadManager
+     */
+    public final int workloadQueuedQueryCount;
+
+    /**
+     * The number of SQL statements currently waiting because their class of
+     * workload is at its quota.
+     *
+     * @see mondrian.server.WorkloadManager
+     */
+    public final int workloadQueuedSqlCount;
+
+    /**
+     * The number of MDX queries, since the server started, whose result was
+     * found in the result cache.
+     *
+     * @see mondrian.rolap.RolapResultCache
+     */
+    public final int resultCacheHitCount;
+
+    /**
+     * The number of MDX queries, since the server started, that were
+     * eligible for the result cache but whose result was not found there.
+     */
+    public final int resultCacheMissCount;
+
     public ServerInfo(
         String stack,
         int connectionStartCount,
@@ -130,7 +181,14 @@ public class ServerInfo extends Info {
         int segmentCreateViaRollupCount,
         int segmentCreateViaSqlCount,
         int cellCount,
-        int cellCoordinateCount)
+        int cellCoordinateCount,
+        int rollupChosenCount,
+        int rollupRejectedCount,
+        int sqlStatementCoalescedCount,
+        int workloadQueuedQueryCount,
+        int workloadQueuedSqlCount,
+        int resultCacheHitCount,
+        int resultCacheMissCount)
     {
         super(stack);
         this.connectionStartCount = connectionStartCount;
@@ -160,6 +218,13 @@ public class ServerInfo extends Info {
         this.segmentCreateViaSqlCount = segmentCreateViaSqlCount;
         this.cellCount = cellCount;
         this.cellCoordinateCount = cellCoordinateCount;
+        this.rollupChosenCount = rollupChosenCount;
+        this.rollupRejectedCount = rollupRejectedCount;
+        this.sqlStatementCoalescedCount = sqlStatementCoalescedCount;
+        this.workloadQueuedQueryCount = workloadQueuedQueryCount;
+        this.workloadQueuedSqlCount = workloadQueuedSqlCount;
+        this.resultCacheHitCount = resultCacheHitCount;
+        this.resultCacheMissCount = resultCacheMissCount;
     }
 
     public int cellCacheMissCount() {
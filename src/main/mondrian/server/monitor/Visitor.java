@@ -25,6 +25,8 @@ public interface Visitor<T> {
     T visit(SqlStatementEndEvent event);
     T visit(CellCacheSegmentCreateEvent event);
     T visit(CellCacheSegmentDeleteEvent event);
+    T visit(CellCacheRollupDecisionEvent event);
+    T visit(CellCacheSegmentCoalesceEvent event);
 }
 
 // End Visitor.java
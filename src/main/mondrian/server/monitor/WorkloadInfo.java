@@ -0,0 +1,76 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.server.monitor;
+
+/**
+ * Information about a class of workload, and how many of its MDX and SQL
+ * statements are running and waiting.
+ *
+ * @see mondrian.server.WorkloadManager
+ */
+public class WorkloadInfo extends Info {
+    public final String name;
+
+    /**
+     * Maximum number of MDX statements that may run at a time, or 0 if
+     * unlimited.
+     */
+    public final int maxQueryCount;
+
+    /**
+     * Number of MDX statements running, or -1 if not counted (because
+     * there is no limit).
+     */
+    public final int runningQueryCount;
+
+    /**
+     * Number of MDX statements waiting to run.
+     */
+    public final int queuedQueryCount;
+
+    /**
+     * Maximum number of SQL statements that may run at a time, or 0 if
+     * unlimited.
+     */
+    public final int maxSqlCount;
+
+    /**
+     * Number of SQL statements running, or -1 if not counted (because there
+     * is no limit).
+     */
+    public final int runningSqlCount;
+
+    /**
+     * Number of SQL statements waiting to run.
+     */
+    public final int queuedSqlCount;
+
+    public WorkloadInfo(
+        String stack,
+        String name,
+        int maxQueryCount,
+        int runningQueryCount,
+        int queuedQueryCount,
+        int maxSqlCount,
+        int runningSqlCount,
+        int queuedSqlCount)
+    {
+        super(stack);
+        this.name = name;
+        this.maxQueryCount = maxQueryCount;
+        this.runningQueryCount = runningQueryCount;
+        this.queuedQueryCount = queuedQueryCount;
+        this.maxSqlCount = maxSqlCount;
+        this.runningSqlCount = runningSqlCount;
+        this.queuedSqlCount = queuedSqlCount;
+    }
+}
+
+// End WorkloadInfo.java
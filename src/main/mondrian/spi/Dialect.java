@@ -650,6 +650,53 @@ public interface Dialect {
      */
     boolean supportsMultiValueInExpr();
 
+    /**
+     * Returns whether this Dialect can restrict a query to a range of its
+     * rows, using the clause generated by {@link #appendLimitAndOffset}.
+     * Currently MySQL, PostgreSQL and its derivatives, and Vertica.
+     *
+     * @return Whether this Dialect supports LIMIT and OFFSET
+     */
+    boolean supportsLimitAndOffset();
+
+    /**
+     * Appends to a query a clause that skips its first {@code offset} rows
+     * and returns at most {@code limit} of the remaining rows; for example,
+     * " limit 10 offset 20". The clause follows the ORDER BY clause, if any.
+     *
+     * <p>Only called if {@link #supportsLimitAndOffset()} returns true.
+     *
+     * @param buf Buffer containing the query
+     * @param limit Maximum number of rows to return, or -1 if unlimited
+     * @param offset Number of rows to skip
+     */
+    void appendLimitAndOffset(StringBuilder buf, int limit, int offset);
+
+    /**
+     * Returns the JDBC fetch size that makes this Dialect's driver stream a
+     * large result set, reading at most about {@code fetchSize} rows at a
+     * time, rather than reading every row into memory before returning the
+     * first.
+     *
+     * <p>Most drivers honor the fetch size as it is. The MySQL driver
+     * streams row by row if the fetch size is {@link Integer#MIN_VALUE},
+     * and uses a server-side cursor for other fetch sizes only if the
+     * connection has the {@code useCursorFetch} property.
+     *
+     * @param fetchSize Number of rows to read at a time
+     * @return Fetch size to give the driver, or 0 to use the driver's default
+     */
+    int getStreamingFetchSize(int fetchSize);
+
+    /**
+     * Returns whether this Dialect's driver uses a server-side cursor, and
+     * therefore honors the fetch size, only if the connection is not in
+     * auto-commit mode. Currently PostgreSQL and its derivatives.
+     *
+     * @return Whether streaming a result set requires auto-commit to be off
+     */
+    boolean requiresTransactionForCursor();
+
     /**
      * Returns whether this Dialect supports the given concurrency type
      * in combination with the given result set type.
@@ -0,0 +1,68 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.spi;
+
+import java.io.*;
+
+/**
+ * Converts {@link SegmentHeader} and {@link SegmentBody} objects to and from
+ * a sequence of bytes.
+ *
+ * <p>Headers and bodies are {@link java.io.Serializable}, but default Java
+ * serialization is slow and verbose. Implementations of
+ * {@link SegmentCache} that move segments across the network or to disk
+ * should use a codec instead. Mondrian's codec is
+ * {@link mondrian.rolap.agg.BinarySegmentCodec#INSTANCE}.</p>
+ *
+ * <p>Each encoded header or body starts with a format version, so that
+ * a codec can read data written by previous versions of itself.</p>
+ */
+public interface SegmentCodec {
+    /**
+     * Writes a segment header.
+     *
+     * @param header Segment header
+     * @param out Output stream
+     * @throws IOException on error
+     */
+    void writeHeader(SegmentHeader header, OutputStream out)
+        throws IOException;
+
+    /**
+     * Reads a segment header written by {@link #writeHeader}.
+     *
+     * @param in Input stream
+     * @return Segment header
+     * @throws IOException on error, or if the data is not in a format known
+     *     to this codec
+     */
+    SegmentHeader readHeader(InputStream in) throws IOException;
+
+    /**
+     * Writes a segment body.
+     *
+     * @param body Segment body
+     * @param out Output stream
+     * @throws IOException on error
+     */
+    void writeBody(SegmentBody body, OutputStream out) throws IOException;
+
+    /**
+     * Reads a segment body written by {@link #writeBody}.
+     *
+     * @param in Input stream
+     * @return Segment body
+     * @throws IOException on error, or if the data is not in a format known
+     *     to this codec
+     */
+    SegmentBody readBody(InputStream in) throws IOException;
+}
+
+// End SegmentCodec.java
@@ -185,6 +185,22 @@ public class DelegatingDialect implements Dialect {
         return dialect.supportsMultiValueInExpr();
     }
 
+    public boolean supportsLimitAndOffset() {
+        return dialect.supportsLimitAndOffset();
+    }
+
+    public void appendLimitAndOffset(StringBuilder buf, int limit, int offset) {
+        dialect.appendLimitAndOffset(buf, limit, offset);
+    }
+
+    public int getStreamingFetchSize(int fetchSize) {
+        return dialect.getStreamingFetchSize(fetchSize);
+    }
+
+    public boolean requiresTransactionForCursor() {
+        return dialect.requiresTransactionForCursor();
+    }
+
     public boolean supportsResultSetConcurrency(int type, int concurrency) {
         return dialect.supportsResultSetConcurrency(type, concurrency);
     }
@@ -860,6 +860,32 @@ public class JdbcDialectImpl implements Dialect {
         return false;
     }
 
+    public boolean supportsLimitAndOffset() {
+        return false;
+    }
+
+    public void appendLimitAndOffset(
+        StringBuilder buf,
+        int limit,
+        int offset)
+    {
+        // SQL:2008 syntax
+        if (offset > 0) {
+            buf.append(" offset ").append(offset).append(" rows");
+        }
+        if (limit >= 0) {
+            buf.append(" fetch next ").append(limit).append(" rows only");
+        }
+    }
+
+    public int getStreamingFetchSize(int fetchSize) {
+        return fetchSize;
+    }
+
+    public boolean requiresTransactionForCursor() {
+        return false;
+    }
+
     public boolean supportsResultSetConcurrency(
         int type,
         int concurrency)
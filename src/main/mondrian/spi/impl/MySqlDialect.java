@@ -29,6 +29,12 @@ public class MySqlDialect extends JdbcDialectImpl {
     private final String escapeRegexp = "(\\\\Q([^\\\\Q]+)\\\\E)";
     private final Pattern escapePattern = Pattern.compile(escapeRegexp);
 
+    /**
+     * Whether the connection reads result sets using a server-side cursor,
+     * per the {@code useCursorFetch} connection property.
+     */
+    private final boolean useCursorFetch;
+
     public static final JdbcDialectFactory FACTORY =
         new JdbcDialectFactory(
             MySqlDialect.class,
@@ -56,6 +62,9 @@ public class MySqlDialect extends JdbcDialectImpl {
      */
     public MySqlDialect(Connection connection) throws SQLException {
         super(connection);
+        final String url = connection.getMetaData().getURL();
+        this.useCursorFetch =
+            url != null && url.toLowerCase().contains("usecursorfetch=true");
     }
 
     /**
@@ -261,6 +270,32 @@ public class MySqlDialect extends JdbcDialectImpl {
         return true;
     }
 
+    public boolean supportsLimitAndOffset() {
+        return true;
+    }
+
+    public void appendLimitAndOffset(
+        StringBuilder buf,
+        int limit,
+        int offset)
+    {
+        // MySQL does not allow OFFSET without LIMIT; the manual recommends
+        // the largest BIGINT UNSIGNED value as an unlimited LIMIT.
+        buf.append(" limit ")
+            .append(
+                limit >= 0 ? String.valueOf(limit) : "18446744073709551615");
+        if (offset > 0) {
+            buf.append(" offset ").append(offset);
+        }
+    }
+
+    public int getStreamingFetchSize(int fetchSize) {
+        // Unless the connection uses a server-side cursor, the driver reads
+        // the whole result set into memory, or streams it one row at a time
+        // if the fetch size is MIN_VALUE.
+        return useCursorFetch ? fetchSize : Integer.MIN_VALUE;
+    }
+
     private enum Scope {
         SESSION,
         GLOBAL
@@ -56,6 +56,12 @@ public class NetezzaDialect extends PostgreSqlDialect {
         return false;
     }
 
+    @Override
+    public boolean requiresTransactionForCursor() {
+        // Netezza has its own driver.
+        return false;
+    }
+
     @Override
     public String generateRegularExpression(String source, String javaRegex) {
         throw new UnsupportedOperationException();
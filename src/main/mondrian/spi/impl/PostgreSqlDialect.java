@@ -76,6 +76,30 @@ public class PostgreSqlDialect extends JdbcDialectImpl {
         return DatabaseProduct.POSTGRESQL;
     }
 
+    @Override
+    public boolean supportsLimitAndOffset() {
+        return true;
+    }
+
+    @Override
+    public void appendLimitAndOffset(
+        StringBuilder buf,
+        int limit,
+        int offset)
+    {
+        if (limit >= 0) {
+            buf.append(" limit ").append(limit);
+        }
+        if (offset > 0) {
+            buf.append(" offset ").append(offset);
+        }
+    }
+
+    @Override
+    public boolean requiresTransactionForCursor() {
+        return true;
+    }
+
     @Override
     public boolean allowsRegularExpressionInWhereClause() {
         return true;
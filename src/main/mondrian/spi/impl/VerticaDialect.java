@@ -53,6 +53,25 @@ public class VerticaDialect extends JdbcDialectImpl {
         return false;
     }
 
+    @Override
+    public boolean supportsLimitAndOffset() {
+        return true;
+    }
+
+    @Override
+    public void appendLimitAndOffset(
+        StringBuilder buf,
+        int limit,
+        int offset)
+    {
+        if (limit >= 0) {
+            buf.append(" limit ").append(limit);
+        }
+        if (offset > 0) {
+            buf.append(" offset ").append(offset);
+        }
+    }
+
     public String generateInline(
         List<String> columnNames,
         List<String> columnTypes,
@@ -0,0 +1,62 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.util;
+
+import mondrian.olap.Util;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Clock that is cheap to read, but only accurate to within a few
+ * milliseconds.
+ *
+ * <p>A daemon timer thread writes the time to a volatile field every
+ * {@link #RESOLUTION_MILLIS} milliseconds; {@link #currentTimeMillis()}
+ * just reads the field. Use it where the time is read far more often than
+ * it changes, such as checking for a query timeout in an evaluation loop.
+ *
+ * <p>The value lags {@link System#currentTimeMillis()}; it never runs
+ * ahead of it.
+ */
+public final class CoarseClock {
+    /** Interval at which the time is updated, in milliseconds. */
+    public static final long RESOLUTION_MILLIS = 10;
+
+    private static volatile long millis = System.currentTimeMillis();
+
+    static {
+        final Timer timer =
+            Util.newTimer("mondrian.util.CoarseClock$timer", true);
+        timer.scheduleAtFixedRate(
+            new TimerTask() {
+                public void run() {
+                    millis = System.currentTimeMillis();
+                }
+            },
+            RESOLUTION_MILLIS,
+            RESOLUTION_MILLIS);
+    }
+
+    private CoarseClock() {
+    }
+
+    /**
+     * Returns the current time in milliseconds, to within
+     * {@link #RESOLUTION_MILLIS} (longer if the timer thread is starved).
+     *
+     * @return Current time, in milliseconds since the epoch
+     */
+    public static long currentTimeMillis() {
+        return millis;
+    }
+}
+
+// End CoarseClock.java
@@ -25,6 +25,12 @@ public abstract class Counters {
     /** Number of times {@code SqlStatement.close} has been called. */
     public static final AtomicLong SQL_STATEMENT_CLOSE_COUNT = new AtomicLong();
 
+    /** Number of batches of cell requests that
+     * {@code FastBatchingCellReader} has sent to the cache manager before
+     * the end of a phase. */
+    public static final AtomicLong PIPELINED_DISPATCH_COUNT =
+        new AtomicLong();
+
     /** Ids of all {@code SqlStatement} instances that are executing. */
     public static final Set<Long> SQL_STATEMENT_EXECUTING_IDS =
         Collections.synchronizedSet(new HashSet<Long>());
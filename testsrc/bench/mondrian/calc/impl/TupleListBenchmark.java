@@ -0,0 +1,150 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.calc.*;
+import mondrian.olap.*;
+import mondrian.olap.fun.CrossJoinFunDef;
+import mondrian.rolap.RolapConnection;
+import mondrian.server.Locus;
+import mondrian.test.TestContext;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for building, filtering and scanning a crossjoin of about 5
+ * million tuples, in the {@link ListTupleList} and {@link ColumnarTupleList}
+ * layouts.
+ *
+ * <p>The crossjoin is {@code [Customers].[Name]} (10,281 members) by the
+ * first {@link #PRODUCT_COUNT} members of {@code [Product].[Product Name]}.
+ * {@link #nonEmptyCrossJoin()} keeps one tuple in {@link #DENSITY}, chosen
+ * at random, the way {@link CrossJoinFunDef} keeps the tuples of a NON EMPTY
+ * crossjoin that have data; evaluating the cells themselves is not part of
+ * the measurement.</p>
+ *
+ * <p>To compare memory use, run with the GC profiler; for example,
+ * {@code ant -Dbench.args="-prof gc TupleList" bench}.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Thread)
+public class TupleListBenchmark {
+    private static final int PRODUCT_COUNT = 487;
+    private static final int DENSITY = 50;
+
+    @Param({"list", "columnar"})
+    public String layout;
+
+    private TupleList customers;
+    private TupleList products;
+    private TupleList crossJoin;
+    private BitSet nonEmpty;
+    private int savedThreshold;
+
+    @Setup
+    public void setUp() {
+        savedThreshold =
+            MondrianProperties.instance().ColumnarTupleListThreshold.get();
+        MondrianProperties.instance().ColumnarTupleListThreshold.set(
+            layout.equals("columnar") ? 0 : -1);
+        final RolapConnection connection =
+            (RolapConnection) TestContext.instance().getConnection();
+        Locus.execute(
+            connection,
+            "TupleListBenchmark",
+            new Locus.Action<Void>() {
+                public Void execute() {
+                    final Cube cube =
+                        connection.getSchema().lookupCube("Sales", true);
+                    final SchemaReader schemaReader =
+                        cube.getSchemaReader(null);
+                    customers =
+                        new UnaryTupleList(
+                            levelMembers(
+                                schemaReader, cube, "[Customers].[Name]"));
+                    products =
+                        new UnaryTupleList(
+                            levelMembers(
+                                schemaReader, cube,
+                                "[Product].[Product Name]")
+                                .subList(0, PRODUCT_COUNT));
+                    return null;
+                }
+            });
+        crossJoin = CrossJoinFunDef.mutableCrossJoin(customers, products);
+        final Random random = new Random(1);
+        nonEmpty = new BitSet(crossJoin.size());
+        for (int i = 0; i < crossJoin.size(); i++) {
+            if (random.nextInt(DENSITY) == 0) {
+                nonEmpty.set(i);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        MondrianProperties.instance().ColumnarTupleListThreshold.set(
+            savedThreshold);
+    }
+
+    private static List<Member> levelMembers(
+        SchemaReader schemaReader, Cube cube, String name)
+    {
+        final Level level =
+            (Level) schemaReader.lookupCompound(
+                cube, Util.parseIdentifier(name), true, Category.Level);
+        return new ArrayList<Member>(
+            schemaReader.getLevelMembers(level, false));
+    }
+
+    @Benchmark
+    public TupleList crossJoin() {
+        return CrossJoinFunDef.mutableCrossJoin(customers, products);
+    }
+
+    @Benchmark
+    public TupleList nonEmptyCrossJoin() {
+        final TupleList list =
+            CrossJoinFunDef.mutableCrossJoin(customers, products);
+        final TupleList result =
+            list instanceof ColumnarTupleList
+                ? list.cloneList((list.size() + 2) >> 1)
+                : TupleCollections.createList(
+                    list.getArity(), (list.size() + 2) >> 1);
+        final TupleCursor cursor = list.tupleCursor();
+        int i = 0;
+        while (cursor.forward()) {
+            if (nonEmpty.get(i++)) {
+                result.addCurrent(cursor);
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int scan() {
+        int hash = 0;
+        final TupleCursor cursor = crossJoin.tupleCursor();
+        while (cursor.forward()) {
+            hash += System.identityHashCode(cursor.member(0))
+                ^ System.identityHashCode(cursor.member(1));
+        }
+        return hash;
+    }
+}
+
+// End TupleListBenchmark.java
@@ -0,0 +1,99 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.olap.fun;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for finding the top <i>k</i> of a large set by a numeric key,
+ * as {@code TopCount} and {@code Head(Order(...))} do.
+ *
+ * <p>Compares a full sort, {@link FunUtil#stablePartialSort} with a
+ * comparator of boxed cell values (the way {@link FunUtil#partiallySortTuples}
+ * sorts), and {@link FunUtil.TopKHeap} with primitive keys (the way
+ * {@link FunUtil#partiallySortByNumber} sorts). One key in 20 is empty, and
+ * keys repeat, so that ties are broken by position.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Thread)
+public class PartialSortBenchmark {
+    @Param({"1000000", "4000000"})
+    public int size;
+
+    @Param({"10", "1000"})
+    public int limit;
+
+    private Object[] values;
+    private double[] keys;
+    private boolean[] nulls;
+    private List<Integer> ordinals;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(1);
+        values = new Object[size];
+        keys = new double[size];
+        nulls = new boolean[size];
+        final Integer[] ordinalArray = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            ordinalArray[i] = i;
+            if (random.nextInt(20) == 0) {
+                nulls[i] = true;
+            } else {
+                keys[i] = random.nextInt(size / 4);
+                values[i] = keys[i];
+            }
+        }
+        ordinals = Arrays.asList(ordinalArray);
+    }
+
+    private Comparator<Integer> comparator() {
+        return Collections.reverseOrder(
+            new Comparator<Integer>() {
+                public int compare(Integer o1, Integer o2) {
+                    return FunUtil.compareValues(values[o1], values[o2]);
+                }
+            });
+    }
+
+    @Benchmark
+    public List<Integer> fullSort() {
+        final List<Integer> list = new ArrayList<Integer>(ordinals);
+        Collections.sort(list, comparator());
+        return list.subList(0, limit);
+    }
+
+    @Benchmark
+    public List<Integer> stablePartialSort() {
+        return FunUtil.stablePartialSort(ordinals, comparator(), limit);
+    }
+
+    @Benchmark
+    public int[] topKHeap() {
+        final FunUtil.TopKHeap heap = new FunUtil.TopKHeap(limit, true);
+        for (int i = 0; i < size; i++) {
+            if (nulls[i]) {
+                heap.addNull(i);
+            } else {
+                heap.add(i, keys[i]);
+            }
+        }
+        return heap.ordinals();
+    }
+}
+
+// End PartialSortBenchmark.java
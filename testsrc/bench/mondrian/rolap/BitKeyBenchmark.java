@@ -0,0 +1,98 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link BitKey} operations used when matching requests to
+ * segments and aggregate tables.
+ *
+ * <p>The sizes are chosen to exercise each implementation:
+ * {@link BitKey.Small} (up to 64 bits), {@link BitKey.Mid128} and
+ * {@link BitKey.Big}.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class BitKeyBenchmark {
+    @Param({"60", "120", "400"})
+    public int size;
+
+    private BitKey key1;
+    private BitKey key2;
+    private BitKey subset;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(1);
+        key1 = BitKey.Factory.makeBitKey(size);
+        key2 = BitKey.Factory.makeBitKey(size);
+        subset = BitKey.Factory.makeBitKey(size);
+        for (int i = 0; i < size; i++) {
+            if (random.nextInt(3) == 0) {
+                key1.set(i);
+                if (random.nextBoolean()) {
+                    subset.set(i);
+                }
+            }
+            if (random.nextInt(3) == 0) {
+                key2.set(i);
+            }
+        }
+    }
+
+    @Benchmark
+    public BitKey or() {
+        return key1.or(key2);
+    }
+
+    @Benchmark
+    public BitKey and() {
+        return key1.and(key2);
+    }
+
+    @Benchmark
+    public boolean isSuperSetOf() {
+        return key1.isSuperSetOf(subset);
+    }
+
+    @Benchmark
+    public boolean intersects() {
+        return key1.intersects(key2);
+    }
+
+    @Benchmark
+    public boolean equalsCopy() {
+        return key1.equals(key1.copy());
+    }
+
+    @Benchmark
+    public int hashCodeBitKey() {
+        return key1.hashCode();
+    }
+
+    @Benchmark
+    public int iterateSetBits() {
+        int n = 0;
+        for (int i = key1.nextSetBit(0); i >= 0; i = key1.nextSetBit(i + 1)) {
+            n += i;
+        }
+        return n;
+    }
+}
+
+// End BitKeyBenchmark.java
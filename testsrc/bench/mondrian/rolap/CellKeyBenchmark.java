@@ -0,0 +1,100 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link CellKey}: hashing, equality (via hash map lookup)
+ * and computing offsets into dense datasets.
+ *
+ * <p>Each operation is applied to a batch of {@link #KEY_COUNT} keys, so
+ * results are per batch, not per key.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class CellKeyBenchmark {
+    private static final int KEY_COUNT = 1024;
+
+    /** Number of axes; 1 to 3 use specialized implementations. */
+    @Param({"1", "2", "3", "6"})
+    public int arity;
+
+    private CellKey[] keys;
+    private CellKey[] probes;
+    private Map<CellKey, Integer> map;
+    private int[] axisMultipliers;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(1);
+        keys = new CellKey[KEY_COUNT];
+        probes = new CellKey[KEY_COUNT];
+        map = new HashMap<CellKey, Integer>();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            final int[] ordinals = new int[arity];
+            for (int j = 0; j < arity; j++) {
+                ordinals[j] = random.nextInt(10);
+            }
+            keys[i] = CellKey.Generator.newCellKey(ordinals);
+            // Equal but not identical, as when looking up a key built by
+            // the evaluator.
+            probes[i] = CellKey.Generator.newCellKey(ordinals.clone());
+            map.put(keys[i], i);
+        }
+        axisMultipliers = new int[arity];
+        int multiplier = 1;
+        for (int j = arity - 1; j >= 0; j--) {
+            axisMultipliers[j] = multiplier;
+            multiplier *= 10;
+        }
+    }
+
+    @Benchmark
+    public int hashCodeBatch() {
+        int h = 0;
+        for (CellKey key : keys) {
+            h += key.hashCode();
+        }
+        return h;
+    }
+
+    @Benchmark
+    public int mapLookupBatch() {
+        int n = 0;
+        for (CellKey probe : probes) {
+            n += map.get(probe);
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int offsetBatch() {
+        int n = 0;
+        for (CellKey key : keys) {
+            n += key.getOffset(axisMultipliers);
+        }
+        return n;
+    }
+
+    @Benchmark
+    public CellKey newCellKey() {
+        return CellKey.Generator.newCellKey(keys[0].getOrdinals());
+    }
+}
+
+// End CellKeyBenchmark.java
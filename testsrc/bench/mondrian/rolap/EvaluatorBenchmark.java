@@ -0,0 +1,133 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.*;
+import mondrian.rolap.agg.AggregationManager;
+import mondrian.server.*;
+import mondrian.test.TestContext;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link RolapEvaluator} context changes and for reading a
+ * cached cell through {@link FastBatchingCellReader}, against FoodMart.
+ *
+ * <p>The database is the one the test suite uses, given by the
+ * {@code mondrian.foodmart.jdbcURL} property. To measure without network
+ * noise, use an in-process HSQLDB FoodMart; for example,
+ * {@code ant -Dmondrian.foodmart.jdbcURL=jdbc:hsqldb:file:/data/foodmart
+ * bench}.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class EvaluatorBenchmark {
+    private static final String QUERY =
+        "select {[Measures].[Unit Sales]} on 0,\n"
+        + " [Gender].Members * [Store].[USA].Children on 1\n"
+        + "from [Sales]";
+
+    private Locus locus;
+    private RolapEvaluator evaluator;
+    private Member[] members;
+    private Member[] otherMembers;
+    private FastBatchingCellReader reader;
+
+    @Setup
+    public void setUp() {
+        final TestContext testContext = TestContext.instance();
+        final RolapConnection connection =
+            (RolapConnection) testContext.getConnection();
+
+        // Populate the cache with the cells that the benchmarks read.
+        testContext.executeQuery(QUERY);
+
+        final Query query = connection.parseQuery(QUERY);
+        final Statement statement = connection.getInternalStatement();
+        statement.setQuery(query);
+        final Execution execution = new Execution(statement, 0);
+        locus = new Locus(execution, "EvaluatorBenchmark", null);
+        Locus.push(locus);
+
+        final SchemaReader schemaReader = query.getSchemaReader(true);
+        members = new Member[] {
+            lookup(schemaReader, "[Measures].[Unit Sales]"),
+            lookup(schemaReader, "[Gender].[F]"),
+            lookup(schemaReader, "[Store].[USA].[CA]")
+        };
+        otherMembers = new Member[] {
+            lookup(schemaReader, "[Gender].[M]"),
+            lookup(schemaReader, "[Store].[USA].[WA]")
+        };
+
+        final AggregationManager aggMgr =
+            connection.getServer().getAggregationManager();
+        reader =
+            new FastBatchingCellReader(
+                execution, (RolapCube) query.getCube(), aggMgr);
+        evaluator = new RolapEvaluator(new RolapEvaluatorRoot(execution));
+        evaluator.setCellReader(reader);
+        evaluator.setContext(members);
+
+        // Pin the segment into the reader, so that get is a cache hit.
+        if (reader.get(evaluator) == RolapUtil.valueNotReadyException) {
+            reader.loadAggregations();
+        }
+        if (!(reader.get(evaluator) instanceof Number)) {
+            throw new IllegalStateException("cell not in cache");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Locus.pop(locus);
+    }
+
+    private static Member lookup(SchemaReader schemaReader, String name) {
+        return schemaReader.getMemberByUniqueName(
+            Util.parseIdentifier(name), true);
+    }
+
+    @Benchmark
+    public RolapEvaluator push() {
+        return evaluator.push();
+    }
+
+    @Benchmark
+    public RolapEvaluator pushWithContext() {
+        return evaluator.push(otherMembers);
+    }
+
+    @Benchmark
+    public int savepointRestore() {
+        final int savepoint = evaluator.savepoint();
+        evaluator.setContext(otherMembers);
+        evaluator.restore(savepoint);
+        return savepoint;
+    }
+
+    @Benchmark
+    public Object cellReaderGet() {
+        return reader.get(evaluator);
+    }
+
+    @Benchmark
+    public Object evaluateCurrent() {
+        return evaluator.evaluateCurrent();
+    }
+}
+
+// End EvaluatorBenchmark.java
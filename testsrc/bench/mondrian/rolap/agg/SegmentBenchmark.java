@@ -0,0 +1,170 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.*;
+import mondrian.spi.*;
+import mondrian.util.ByteString;
+import mondrian.util.Pair;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for segment datasets and for rolling up segment bodies.
+ *
+ * <p>The source segment has three columns of {@link #axisLength} values
+ * each. {@link #denseLookupBatch()} reads {@link #LOOKUP_COUNT} random cells
+ * of a {@link DenseDoubleSegmentDataset}; {@link #rollupSum()} and
+ * {@link #rollupMax()} aggregate away the middle column of a sparse body
+ * holding {@link #cellCount} cells, as {@link SegmentBuilder#rollup} does
+ * when it satisfies a request from cache.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class SegmentBenchmark {
+    private static final int LOOKUP_COUNT = 1024;
+
+    @Param({"50"})
+    public int axisLength;
+
+    @Param({"10000", "100000"})
+    public int cellCount;
+
+    private DenseDoubleSegmentDataset denseDataset;
+    private CellKey[] lookupKeys;
+    private Map<SegmentHeader, SegmentBody> rollupSource;
+    private Set<String> keepColumns;
+    private BitKey targetBitKey;
+
+    @Setup
+    public void setUp() {
+        final String[] columnNames = {"col0", "col1", "col2"};
+        final List<SegmentColumn> columns = new ArrayList<SegmentColumn>();
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        final SegmentAxis[] segmentAxes = new SegmentAxis[3];
+        final int[] axisLengths = new int[3];
+        for (int i = 0; i < columnNames.length; i++) {
+            final SortedSet<Comparable> values = new TreeSet<Comparable>();
+            for (int j = 0; j < axisLength; j++) {
+                values.add(j);
+            }
+            columns.add(new SegmentColumn(columnNames[i], axisLength, values));
+            axes.add(Pair.of(values, Boolean.FALSE));
+            // Lookups never evaluate the axis predicate, so there is none.
+            // (SegmentAxis asserts that there is; benchmarks run without
+            // assertions, which would distort timings anyway.)
+            segmentAxes[i] =
+                new SegmentAxis(
+                    null, values.toArray(new Comparable[values.size()]));
+            axisLengths[i] = axisLength;
+        }
+
+        // Dense dataset with every cell populated.
+        final Random random = new Random(1);
+        final double[] values =
+            new double[axisLength * axisLength * axisLength];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(1000);
+        }
+        denseDataset =
+            new DenseDoubleSegmentDataset(segmentAxes, values, new BitSet());
+        lookupKeys = new CellKey[LOOKUP_COUNT];
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            lookupKeys[i] =
+                CellKey.Generator.newCellKey(
+                    new int[] {
+                        random.nextInt(axisLength),
+                        random.nextInt(axisLength),
+                        random.nextInt(axisLength)});
+        }
+
+        // Sparse body to roll up.
+        final SparseDoubleSegmentDataset sparseDataset =
+            new SparseDoubleSegmentDataset(
+                SparseNativeSegmentDataset.computeAxisMultipliers(axisLengths),
+                cellCount);
+        final int[] pos = new int[3];
+        for (int i = 0; i < cellCount; i++) {
+            pos[0] = random.nextInt(axisLength);
+            pos[1] = random.nextInt(axisLength);
+            pos[2] = random.nextInt(axisLength);
+            sparseDataset.put(pos, (double) random.nextInt(1000));
+        }
+        final BitKey bitKey = BitKey.Factory.makeBitKey(3);
+        bitKey.set(0);
+        bitKey.set(1);
+        bitKey.set(2);
+        rollupSource =
+            Collections.singletonMap(
+                new SegmentHeader(
+                    "schema",
+                    new ByteString(new byte[0]),
+                    "cube",
+                    "measure",
+                    columns,
+                    Collections.<String>emptyList(),
+                    "fact",
+                    bitKey,
+                    Collections.<SegmentColumn>emptyList()),
+                sparseDataset.createSegmentBody(axes));
+        keepColumns = new HashSet<String>(Arrays.asList("col0", "col2"));
+        targetBitKey = BitKey.Factory.makeBitKey(3);
+        targetBitKey.set(0);
+        targetBitKey.set(2);
+    }
+
+    @Benchmark
+    public double denseLookupBatch() {
+        double sum = 0;
+        for (CellKey key : lookupKeys) {
+            sum += denseDataset.getDouble(key);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public Object denseGetObjectBatch() {
+        Object last = null;
+        for (CellKey key : lookupKeys) {
+            last = denseDataset.getObject(key);
+        }
+        return last;
+    }
+
+    @Benchmark
+    public Pair<SegmentHeader, SegmentBody> rollupSum() {
+        return SegmentBuilder.rollup(
+            rollupSource,
+            keepColumns,
+            targetBitKey,
+            RolapAggregator.Sum,
+            Dialect.Datatype.Numeric);
+    }
+
+    @Benchmark
+    public Pair<SegmentHeader, SegmentBody> rollupMax() {
+        return SegmentBuilder.rollup(
+            rollupSource,
+            keepColumns,
+            targetBitKey,
+            RolapAggregator.Max,
+            Dialect.Datatype.Numeric);
+    }
+}
+
+// End SegmentBenchmark.java
@@ -0,0 +1,105 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.cache;
+
+import mondrian.rolap.BitKey;
+import mondrian.spi.SegmentColumn;
+import mondrian.spi.SegmentHeader;
+import mondrian.util.ByteString;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for {@link SegmentCacheIndexImpl#locate}, which the cache
+ * manager calls for every cell request that misses the local cache.
+ *
+ * <p>The index holds {@link #headerCount} segments of the same
+ * dimensionality, each constraining the first column to a few values and
+ * leaving the second unconstrained; each lookup matches one of them.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class SegmentCacheIndexBenchmark {
+    private static final int VALUES_PER_HEADER = 4;
+
+    @Param({"10", "100", "1000"})
+    public int headerCount;
+
+    private final ByteString checksum = new ByteString(new byte[0]);
+    private final List<String> compoundPredicates =
+        Collections.emptyList();
+    private SegmentCacheIndexImpl index;
+    private BitKey bitKey;
+    private List<Map<String, Comparable>> coordinateList;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        index = new SegmentCacheIndexImpl(null);
+        bitKey = BitKey.Factory.makeBitKey(2);
+        bitKey.set(0);
+        bitKey.set(1);
+        final int valueCount = headerCount * VALUES_PER_HEADER;
+        for (int i = 0; i < headerCount; i++) {
+            final SortedSet<Comparable> values = new TreeSet<Comparable>();
+            for (int j = 0; j < VALUES_PER_HEADER; j++) {
+                values.add(i * VALUES_PER_HEADER + j);
+            }
+            index.add(
+                new SegmentHeader(
+                    "schema",
+                    checksum,
+                    "cube",
+                    "measure",
+                    Arrays.asList(
+                        new SegmentColumn("col0", valueCount, values),
+                        new SegmentColumn("col1", 100, null)),
+                    compoundPredicates,
+                    "fact",
+                    bitKey,
+                    Collections.<SegmentColumn>emptyList()),
+                false,
+                null);
+        }
+        final Random random = new Random(1);
+        coordinateList = new ArrayList<Map<String, Comparable>>();
+        for (int i = 0; i < 1024; i++) {
+            final Map<String, Comparable> coordinates =
+                new HashMap<String, Comparable>();
+            coordinates.put("col0", random.nextInt(valueCount));
+            coordinates.put("col1", random.nextInt(100));
+            coordinateList.add(coordinates);
+        }
+    }
+
+    @Benchmark
+    public List<SegmentHeader> locate() {
+        final Map<String, Comparable> coordinates =
+            coordinateList.get(next++ & 1023);
+        return index.locate(
+            "schema",
+            checksum,
+            "cube",
+            "measure",
+            "fact",
+            bitKey,
+            coordinates,
+            compoundPredicates);
+    }
+}
+
+// End SegmentCacheIndexBenchmark.java
@@ -0,0 +1,175 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.server;
+
+import mondrian.calc.TupleCursor;
+import mondrian.calc.TupleList;
+import mondrian.calc.impl.UnaryTupleList;
+import mondrian.olap.*;
+import mondrian.olap.fun.CrossJoinFunDef;
+import mondrian.rolap.RolapConnection;
+import mondrian.test.TestContext;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the cost of checking for cancel and timeout while iterating
+ * over a large crossjoin, {@code [Customers].[Name].Members *
+ * [Store].[Store Name].Members} in FoodMart.
+ *
+ * <p>The loop does little work per tuple, as an evaluation loop does when
+ * the cells are in cache, so the cost of the check dominates. Compares
+ * no check; a check as {@link Execution#checkCancelOrTimeout()} used to be
+ * implemented (synchronized, reading the system clock); the lock-free
+ * check; and a {@link CancellationToken}. The execution has a timeout, so
+ * that the checks compare the deadline.</p>
+ *
+ * <p>The database is the one the test suite uses, given by the
+ * {@code mondrian.foodmart.jdbcURL} property.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class CancellationBenchmark {
+    private Locus locus;
+    private Execution execution;
+    private SynchronizedCheck synchronizedCheck;
+    private TupleList tupleList;
+
+    @Setup
+    public void setUp() {
+        final TestContext testContext = TestContext.instance();
+        final RolapConnection connection =
+            (RolapConnection) testContext.getConnection();
+        final Query query = connection.parseQuery("select from [Sales]");
+        final Statement statement = connection.getInternalStatement();
+        statement.setQuery(query);
+        execution = new Execution(statement, TimeUnit.HOURS.toMillis(1));
+        locus = new Locus(execution, "CancellationBenchmark", null);
+        Locus.push(locus);
+        execution.start();
+        synchronizedCheck =
+            new SynchronizedCheck(TimeUnit.HOURS.toMillis(1));
+
+        final SchemaReader schemaReader = query.getSchemaReader(true);
+        tupleList =
+            CrossJoinFunDef.mutableCrossJoin(
+                levelMembers(schemaReader, "[Customers].[All Customers]"),
+                levelMembers(schemaReader, "[Store].[All Stores]"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        execution.end();
+        Locus.pop(locus);
+    }
+
+    /**
+     * Returns the members of the lowest level of the hierarchy of a given
+     * member.
+     */
+    private static TupleList levelMembers(
+        SchemaReader schemaReader,
+        String name)
+    {
+        final Member member =
+            schemaReader.getMemberByUniqueName(
+                Util.parseIdentifier(name), true);
+        final Level level =
+            Util.last(member.getHierarchy().getLevelList());
+        return new UnaryTupleList(
+            schemaReader.getLevelMembers(level, false));
+    }
+
+    @Benchmark
+    public int noCheck() {
+        int total = 0;
+        final TupleCursor cursor = tupleList.tupleCursor();
+        while (cursor.forward()) {
+            total += work(cursor);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int synchronizedCheck() {
+        int total = 0;
+        final TupleCursor cursor = tupleList.tupleCursor();
+        while (cursor.forward()) {
+            synchronizedCheck.check();
+            total += work(cursor);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int lockFreeCheck() {
+        int total = 0;
+        final TupleCursor cursor = tupleList.tupleCursor();
+        while (cursor.forward()) {
+            execution.checkCancelOrTimeout();
+            total += work(cursor);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int cancellationToken() {
+        int total = 0;
+        final TupleCursor cursor = tupleList.tupleCursor();
+        final CancellationToken cancellationToken =
+            execution.createCancellationToken();
+        while (cursor.forward()) {
+            cancellationToken.check();
+            total += work(cursor);
+        }
+        return total;
+    }
+
+    private static int work(TupleCursor cursor) {
+        return cursor.member(0).getDepth() + cursor.member(1).getDepth();
+    }
+
+    /**
+     * Check for cancel or timeout as {@link Execution#checkCancelOrTimeout()}
+     * was implemented before it became lock-free.
+     */
+    private static class SynchronizedCheck {
+        private final long timeoutTimeMillis;
+        private Execution.State state = Execution.State.RUNNING;
+
+        SynchronizedCheck(long timeoutIntervalMillis) {
+            this.timeoutTimeMillis =
+                System.currentTimeMillis() + timeoutIntervalMillis;
+        }
+
+        synchronized void check() {
+            switch (state) {
+            case CANCELED:
+                throw new IllegalStateException("canceled");
+            case RUNNING:
+                if (timeoutTimeMillis > 0
+                    && System.currentTimeMillis() > timeoutTimeMillis)
+                {
+                    state = Execution.State.TIMEOUT;
+                    throw new IllegalStateException("timeout");
+                }
+                break;
+            }
+        }
+    }
+}
+
+// End CancellationBenchmark.java
@@ -11,10 +11,12 @@ package mondrian.olap.fun;
 
 import mondrian.calc.*;
 import mondrian.calc.impl.ArrayTupleList;
+import mondrian.calc.impl.ColumnarTupleList;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
 import mondrian.olap.type.*;
 import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
 
 import junit.framework.Assert;
 
@@ -207,6 +209,58 @@ if (! Util.Retrowoven) {
         doMTupleTupleListTest(calc);
     }
 
+    /**
+     * Tests that a mutable crossjoin above
+     * {@link MondrianProperties#ColumnarTupleListThreshold} is columnar and
+     * behaves like a regular list.
+     */
+    public void testMutableListColumnarTupleListCalc() {
+        propSaver.set(propSaver.props.ColumnarTupleListThreshold, 0);
+        CrossJoinFunDef.MutableListCalc calc =
+            crossJoinFunDef.new MutableListCalc(
+                getResolvedFunCall(), null);
+        assertTrue(
+            calc.makeList(makeListTuple(m3), makeListTuple(m4))
+            instanceof ColumnarTupleList);
+
+        doMTupleTupleListTest(calc);
+    }
+
+    /**
+     * Tests that {@code Head}, {@code Subset} and {@code TopCount} over a
+     * streamed {@code NonEmptyCrossJoin} (see
+     * {@link MondrianProperties#NonEmptyCrossJoinBatchSize}) return the same
+     * tuples as when the crossjoin is evaluated in full.
+     */
+    public void testStreamingNonEmptyCrossJoin() {
+        propSaver.set(propSaver.props.EnableNativeCrossJoin, false);
+        final String crossJoin =
+            "NonEmptyCrossJoin([Store].[Store Name].Members, "
+            + "[Product].[Product Category].Members)";
+        final String[] sets = {
+            "Head(" + crossJoin + ", 5)",
+            "Head(" + crossJoin + ", 1000)",
+            "Subset(" + crossJoin + ", 10, 7)",
+            "Subset(" + crossJoin + ", 500)",
+            "TopCount(" + crossJoin + ", 4)",
+        };
+        for (String set : sets) {
+            final String mdx =
+                "select [Measures].[Unit Sales] on 0,\n"
+                + set + " on 1\n"
+                + "from [Sales]\n"
+                + "where [Time].[1997].[Q1]";
+            propSaver.set(propSaver.props.NonEmptyCrossJoinBatchSize, 0);
+            final String expected =
+                TestContext.toString(executeQuery(mdx));
+            // Start with an empty cache, so that batches load cells.
+            getTestContext().flushSchemaCache();
+            propSaver.set(propSaver.props.NonEmptyCrossJoinBatchSize, 3);
+            assertEquals(
+                set, expected, TestContext.toString(executeQuery(mdx)));
+        }
+    }
+
     protected void doMTupleTupleListTest(
         CrossJoinFunDef.BaseListCalc calc)
     {
@@ -502,6 +502,66 @@ public class PartialSortTest extends TestCase
         randomItemTests(50000, 12000);
     }
 
+    // finds the first LIMIT items using a bounded heap of primitive keys
+    private Item[] doTopKHeap(Item[] vec, boolean desc, int limit) {
+        FunUtil.TopKHeap heap = new FunUtil.TopKHeap(limit, desc);
+        for (Item item : vec) {
+            heap.add(item.index, item.key);
+        }
+        int[] ordinals = heap.ordinals();
+        Item[] result = new Item[ordinals.length];
+        for (int i = 0; i < ordinals.length; i++) {
+            result[i] = vec[ordinals[i]];
+        }
+        return result;
+    }
+
+    // tests that the bounded heap finds the same items, in the same order,
+    // as stable partial sort
+    private void topKHeapTests(int length, int limit, int maxKey) {
+        for (boolean desc : new boolean[] {true, false}) {
+            Item[] vec = newRandomItems(length, 0, maxKey);
+            Item[] expected = doStablePartialSort(vec, desc, limit);
+            Item[] actual = doTopKHeap(vec, desc, limit);
+            assertEquals(limit, actual.length);
+            for (int i = 0; i < limit; i++) {
+                assertSame(expected[i], actual[i]);
+            }
+        }
+    }
+
+    public void testTopKHeapOnRandomItems() {
+        topKHeapTests(100, 20, 100);
+        topKHeapTests(100, 100, 100);
+        topKHeapTests(50000, 1, 50000);
+        topKHeapTests(50000, 10, 50000);
+        topKHeapTests(50000, 500, 5000);
+        topKHeapTests(50000, 12000, 50);
+    }
+
+    public void testTopKHeapNulls() {
+        FunUtil.TopKHeap heap = new FunUtil.TopKHeap(3, true);
+        heap.add(0, 5d);
+        heap.addNull(1);
+        heap.add(2, 7d);
+        heap.add(3, 5d);
+        heap.add(4, 6d);
+        // Nulls sort first, so come last when descending.
+        assertEquals("[2, 4, 0]", Arrays.toString(heap.ordinals()));
+
+        heap = new FunUtil.TopKHeap(3, false);
+        heap.add(0, 5d);
+        heap.addNull(1);
+        heap.add(2, 7d);
+        heap.addNull(3);
+        heap.add(4, 1d);
+        assertEquals("[1, 3, 4]", Arrays.toString(heap.ordinals()));
+
+        heap = new FunUtil.TopKHeap(0, false);
+        heap.add(0, 5d);
+        assertEquals("[]", Arrays.toString(heap.ordinals()));
+    }
+
 
     // Compares elapsed time of full sort (mergesort), partial sort, and stable
     // partial sort on the same input set.
@@ -515,6 +575,10 @@ public class PartialSortTest extends TestCase
         Integer[] vec2 = vec1.clone();
         Integer[] vec3 = vec1.clone();
         Integer[] vec4 = vec1.clone();
+        double[] keys5 = new double[length];
+        for (int i = 0; i < length; i++) {
+            keys5[i] = vec1[i];
+        }
 
         // full sort vec1
         long now = System.currentTimeMillis();
@@ -545,6 +609,16 @@ public class PartialSortTest extends TestCase
         FunUtil.stablePartialSort(vec4List, comp, limit, 4);
         dt = System.currentTimeMillis() - now;
         logger.debug(" julian's stable partial sort took " + dt + " msecs");
+
+        // bounded heap of primitive keys
+        now = System.currentTimeMillis();
+        FunUtil.TopKHeap heap = new FunUtil.TopKHeap(limit, true);
+        for (int i = 0; i < length; i++) {
+            heap.add(i, keys5[i]);
+        }
+        heap.ordinals();
+        dt = System.currentTimeMillis() - now;
+        logger.debug(" bounded heap took " + dt + " msecs");
     }
 
     // compare speed on different sizes of input
@@ -565,6 +639,7 @@ public class PartialSortTest extends TestCase
 
         // very large; needs bigger heap
         //speedTest(PerformanceTest.LOGGER, 1600 * 1600, 4);
+        //speedTest(PerformanceTest.LOGGER, 4000000, 10);
     }
 }
 
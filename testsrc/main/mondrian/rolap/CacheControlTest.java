@@ -11,8 +11,12 @@ package mondrian.rolap;
 
 import mondrian.olap.*;
 import mondrian.olap.CacheControl.CellRegion;
+import mondrian.server.UrlRepositoryContentFinder;
 import mondrian.spi.Dialect;
 import mondrian.test.*;
+import mondrian.xmla.test.XmlaTestContext;
+
+import org.olap4j.OlapConnection;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -1309,6 +1313,231 @@ public class CacheControlTest extends FoodMartTestCase {
         assertCacheStateEquals(tag, expected, actual);
     }
 
+    /**
+     * Tests that queries and cache flushes give the same results when the
+     * segment cache manager runs in striped mode (see
+     * {@link MondrianProperties#SegmentCacheManagerNumberStripes}). The
+     * mode is chosen when a server starts, so the test creates its own
+     * server.
+     */
+    public void testStripedSegmentCacheManager() throws Exception {
+        propSaver.set(propSaver.props.SegmentCacheManagerNumberStripes, 4);
+        final String[] queries = {
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " [Gender].Children * [Marital Status].Children on 1\n"
+            + "from [Sales]",
+            "select {[Measures].[Units Shipped]} on 0,\n"
+            + " [Store Type].Children on 1\n"
+            + "from [Warehouse]"
+        };
+        final List<String> expected = new ArrayList<String>();
+        for (String query : queries) {
+            expected.add(
+                TestContext.toString(getTestContext().executeQuery(query)));
+        }
+        final MondrianServer server =
+            MondrianServer.createWithRepository(
+                new UrlRepositoryContentFinder(
+                    "inline:" + new XmlaTestContext().getDataSourcesString()),
+                null);
+        try {
+            final OlapConnection olapConnection =
+                server.getConnection("FoodMart", "FoodMart", null);
+            final RolapConnection connection =
+                olapConnection.unwrap(RolapConnection.class);
+            final CacheControl cacheControl = connection.getCacheControl(null);
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < queries.length; j++) {
+                    assertEquals(
+                        expected.get(j),
+                        TestContext.toString(
+                            connection.execute(
+                                connection.parseQuery(queries[j]))));
+                }
+                // Flush the cells of one cube, then of the whole schema.
+                if (i == 0) {
+                    cacheControl.flush(
+                        cacheControl.createMeasuresRegion(
+                            connection.getSchema().lookupCube(
+                                "Sales", true)));
+                } else {
+                    cacheControl.flushSchemaCache();
+                }
+            }
+            olapConnection.close();
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Tests that the result cache reuses the result of an identical query,
+     * and that flushing the cells of the cube discards the result.
+     */
+    public void testResultCache() {
+        if (MondrianProperties.instance().DisableCaching.get()) {
+            return;
+        }
+        propSaver.set(propSaver.props.ResultCacheMaxCells, 1000);
+        final RolapConnection connection =
+            (RolapConnection) getTestContext().getConnection();
+        final RolapResultCache resultCache =
+            connection.getServer().getResultCache();
+        final String mdx =
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " [Store].[Stores].[USA].Children on 1\n"
+            + "from [Sales]";
+        final Result result = connection.execute(connection.parseQuery(mdx));
+
+        // The same query, parsed again, hits the cache. The result has the
+        // same cells, but is a new result, bound to the new query's
+        // statement.
+        final int hitCount = resultCache.getHitCount();
+        final Query query1 = connection.parseQuery(mdx);
+        final Result result1 = connection.execute(query1);
+        assertEquals(hitCount + 1, resultCache.getHitCount());
+        assertNotSame(result, result1);
+        assertEquals(
+            TestContext.toString(result), TestContext.toString(result1));
+        assertSame(
+            query1.getStatement(),
+            ((RolapResult) result1).getExecution().getMondrianStatement());
+
+        // Cell properties are evaluated by the new result, and give the same
+        // values as the original.
+        final int[] pos = {0, 1};
+        final Cell cell = result.getCell(pos);
+        final Cell cell1 = result1.getCell(pos);
+        assertEquals(cell.getValue(), cell1.getValue());
+        assertEquals(cell.getFormattedValue(), cell1.getFormattedValue());
+        for (String property
+            : new String[] {"CELL_ORDINAL", "FORMAT_STRING", "FONT_FLAGS"})
+        {
+            assertEquals(
+                property,
+                cell.getPropertyValue(property),
+                cell1.getPropertyValue(property));
+        }
+        assertEquals(
+            cell.getDrillThroughCount(), cell1.getDrillThroughCount());
+
+        // Another hit gets yet another result.
+        final Result result3 = connection.execute(connection.parseQuery(mdx));
+        assertEquals(hitCount + 2, resultCache.getHitCount());
+        assertNotSame(result1, result3);
+
+        // After a flush, the query is executed again, with the same result.
+        final CacheControl cacheControl = connection.getCacheControl(null);
+        cacheControl.flush(
+            cacheControl.createMeasuresRegion(
+                connection.getSchema().lookupCube("Sales", true)));
+        final Result result2 = connection.execute(connection.parseQuery(mdx));
+        assertNotSame(result, result2);
+        assertEquals(
+            TestContext.toString(result), TestContext.toString(result2));
+    }
+
+    /**
+     * Tests that the result cache does not reuse the result of a query that
+     * calls a function whose value may change between executions, even via
+     * a calculated member.
+     */
+    public void testResultCacheVolatileFunctions() {
+        if (MondrianProperties.instance().DisableCaching.get()) {
+            return;
+        }
+        propSaver.set(propSaver.props.ResultCacheMaxCells, 1000);
+        final RolapConnection connection =
+            (RolapConnection) getTestContext().getConnection();
+        final RolapResultCache resultCache =
+            connection.getServer().getResultCache();
+        final String mdx =
+            "with member [Measures].[T] as 'Now()'\n"
+            + " member [Measures].[U] as '[Measures].[T]'\n"
+            + "select {[Measures].[U]} on 0\n"
+            + "from [Sales]";
+        final Query query = connection.parseQuery(mdx);
+        assertTrue(query.hasVolatileFunctions());
+        connection.execute(query);
+        final int hitCount = resultCache.getHitCount();
+        connection.execute(connection.parseQuery(mdx));
+        assertEquals(hitCount, resultCache.getHitCount());
+
+        assertFalse(
+            connection.parseQuery(
+                "select {[Measures].[Unit Sales]} on 0\n"
+                + "from [Sales]")
+                .hasVolatileFunctions());
+    }
+
+    /**
+     * Tests that a query, once its statement is closed, is reused from the
+     * schema's {@link QueryPlanCache} with its parameters reset, and that
+     * clearing the cache prevents a query in use from being returned.
+     */
+    public void testQueryPlanCache() {
+        propSaver.set(propSaver.props.QueryPlanCacheMaxSize, 10);
+        final RolapConnection connection =
+            (RolapConnection) getTestContext().getConnection();
+        final QueryPlanCache planCache =
+            connection.getSchema().getQueryPlanCache();
+        final String mdx =
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " {Parameter(\"G\", [Customer].[Gender],"
+            + " [Customer].[Gender].[M])} on 1\n"
+            + "from [Sales]";
+        final Query query = connection.parseQuery(mdx);
+        query.setParameter("G", "[Customer].[Gender].[F]");
+        final Result result = connection.execute(query);
+        final String resultString = TestContext.toString(result);
+        assertTrue(resultString, resultString.contains("[F]"));
+
+        // While the query is in use, parsing the same MDX creates a new
+        // query.
+        final Query query2 = connection.parseQuery(mdx);
+        assertNotSame(query, query2);
+        query2.close();
+
+        // Closing the query does not return it to the cache while its result
+        // is open; closing the result does.
+        query.close();
+        final Query query2b = connection.parseQuery(mdx);
+        assertNotSame(query, query2b);
+        query2b.close();
+        result.close();
+        final int hitCount = planCache.getHitCount();
+        final Query query3 = connection.parseQuery(mdx);
+        assertSame(query, query3);
+        assertEquals(hitCount + 1, planCache.getHitCount());
+        assertFalse(query3.getParameters()[0].isSet());
+        final Result result3 = connection.execute(query3);
+        final String resultString3 = TestContext.toString(result3);
+        assertTrue(resultString3, resultString3.contains("[M]"));
+        result3.close();
+        query3.close();
+
+        // A query parsed with a different value of a property that affects
+        // compilation is not reused.
+        propSaver.set(
+            propSaver.props.EnableNativeCrossJoin,
+            !propSaver.props.EnableNativeCrossJoin.get());
+        final Query query3b = connection.parseQuery(mdx);
+        assertNotSame(query3, query3b);
+        query3b.close();
+        propSaver.set(
+            propSaver.props.EnableNativeCrossJoin,
+            !propSaver.props.EnableNativeCrossJoin.get());
+
+        // A query that is in use when the cache is cleared is not returned.
+        final Query query3c = connection.parseQuery(mdx);
+        assertSame(query3, query3c);
+        planCache.clear();
+        query3c.close();
+        final Query query4 = connection.parseQuery(mdx);
+        assertNotSame(query3c, query4);
+        query4.close();
+    }
+
 
     // todo: Test flushing a segment which is unconstrained
 
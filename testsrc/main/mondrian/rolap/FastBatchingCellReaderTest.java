@@ -9,22 +9,28 @@
 */
 package mondrian.rolap;
 
+import mondrian.olap.CacheControl;
 import mondrian.olap.Connection;
 import mondrian.olap.MondrianProperties;
 import mondrian.olap.MondrianServer;
+import mondrian.olap.Util;
 import mondrian.rolap.agg.*;
 import mondrian.server.*;
+import mondrian.server.monitor.ServerInfo;
 import mondrian.spi.Dialect;
 import mondrian.test.SqlPattern;
 import mondrian.test.TestContext;
 import mondrian.util.Bug;
+import mondrian.util.Counters;
 import mondrian.util.DelegatingInvocationHandler;
 
 import junit.framework.Assert;
 
 import java.lang.reflect.Proxy;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Test for <code>FastBatchingCellReader</code>.
@@ -294,6 +300,76 @@ public class FastBatchingCellReaderTest extends BatchTestCase {
         assertTrue(batch0.summaryBatches.contains(genderBatch));
     }
 
+    /**
+     * Tests that {@link BatchLoader#groupBatches(java.util.List, int)} puts no
+     * more than the given number of grouping sets in one composite batch.
+     */
+    public void testGroupBatchesWithMaxGroupingSets() {
+        final BatchLoader fbcr = createFbcr(null, salesCube);
+        final TestContext testContext = getTestContext();
+        final List<BatchLoader.Batch> summaryBatches =
+            new ArrayList<BatchLoader.Batch>();
+        for (String field
+            : list("gender", "marital_status", "education", "yearly_income"))
+        {
+            summaryBatches.add(
+                fbcr.new Batch(
+                    createRequest(
+                        testContext,
+                        cubeNameSales, measureUnitSales,
+                        "customer", field, "F"))
+                {
+                    boolean canBatch(BatchLoader.Batch other) {
+                        return false;
+                    }
+                });
+        }
+        final BatchLoader.Batch superBatch = fbcr.new Batch(
+            createRequest(
+                testContext,
+                cubeNameSales, measureUnitSales,
+                ESL, ESL, ESL))
+            {
+                boolean canBatch(BatchLoader.Batch batch) {
+                    return true;
+                }
+            };
+
+        // No limit: one statement.
+        List<BatchLoader.Batch> batchList =
+            new ArrayList<BatchLoader.Batch>(summaryBatches);
+        batchList.add(superBatch);
+        List<BatchLoader.Loadable> groupedBatches =
+            BatchLoader.groupBatches(batchList, 0);
+        assertEquals(1, groupedBatches.size());
+        assertEquals(
+            4,
+            ((BatchLoader.CompositeBatch) groupedBatches.get(0))
+                .summaryBatches.size());
+
+        // At most 3 grouping sets: the detailed batch and 2 summary batches
+        // in one statement, and the other 2 batches on their own.
+        batchList = new ArrayList<BatchLoader.Batch>(summaryBatches);
+        batchList.add(superBatch);
+        groupedBatches = BatchLoader.groupBatches(batchList, 3);
+        assertEquals(3, groupedBatches.size());
+        int compositeCount = 0;
+        int batchCount = 0;
+        for (BatchLoader.Loadable loadable : groupedBatches) {
+            if (loadable instanceof BatchLoader.CompositeBatch) {
+                final BatchLoader.CompositeBatch compositeBatch =
+                    (BatchLoader.CompositeBatch) loadable;
+                assertEquals(superBatch, compositeBatch.detailedBatch);
+                assertEquals(2, compositeBatch.summaryBatches.size());
+                ++compositeCount;
+            } else {
+                ++batchCount;
+            }
+        }
+        assertEquals(1, compositeCount);
+        assertEquals(2, batchCount);
+    }
+
     public void testGroupBatchesForGroupableBatchesAndNonGroupableBatches() {
         final TestContext testContext = getTestContext();
         final BatchLoader fbcr = createFbcr(null, salesCube);
@@ -2343,6 +2419,182 @@ public class FastBatchingCellReaderTest extends BatchTestCase {
                 Dialect.Datatype.Integer));
     }
 
+    /**
+     * Tests that a cell request that could be rolled up from cached segments
+     * is loaded via SQL if rolling up is estimated to be too expensive, and
+     * that the decision is recorded in the monitor.
+     */
+    public void testRollupCostDecision() {
+        if (!MondrianProperties.instance().EnableInMemoryRollup.get()) {
+            return;
+        }
+        // With a tiny ratio, even a 6-cell rollup costs more than SQL.
+        propSaver.set(propSaver.props.RollupSqlCostRatio, 0.000001);
+        final ServerInfo info0 = checkRollupCostDecision();
+        final ServerInfo info1 = checkRollupCostDecision();
+        assertEquals(
+            info0.rollupChosenCount, info1.rollupChosenCount);
+        assertTrue(info1.rollupRejectedCount > info0.rollupRejectedCount);
+
+        propSaver.set(propSaver.props.RollupSqlCostRatio, 10d);
+        final ServerInfo info2 = checkRollupCostDecision();
+        assertTrue(info2.rollupChosenCount > info1.rollupChosenCount);
+        assertEquals(
+            info1.rollupRejectedCount, info2.rollupRejectedCount);
+        assertTrue(
+            info2.segmentCreateViaRollupCount
+            > info1.segmentCreateViaRollupCount);
+    }
+
+    private ServerInfo checkRollupCostDecision() {
+        final TestContext testContext = getTestContext();
+        testContext.getConnection().getCacheControl(null).flushSchemaCache();
+        // Load a segment (gender, product_family), then ask for cells that
+        // can be rolled up from it.
+        testContext.executeQuery(
+            "select [Gender].Children * [Product].Children on 0\n"
+            + "from [Sales]");
+        testContext.assertQueryReturns(
+            "select [Product].Children on 0\n"
+            + "from [Sales]",
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Product].[Drink]}\n"
+            + "{[Product].[Food]}\n"
+            + "{[Product].[Non-Consumable]}\n"
+            + "Row #0: 24,597\n"
+            + "Row #0: 191,940\n"
+            + "Row #0: 50,236\n");
+        return MondrianServer.forConnection(testContext.getConnection())
+            .getMonitor().getServer();
+    }
+
+    /**
+     * Tests that sending cell requests to the cache manager before the end
+     * of the phase gives the same result. With a pipeline size of 2, the
+     * query's cell requests are sent in several batches while the cells are
+     * still being evaluated.
+     */
+    public void testPipelinedSegmentLoad() {
+        final String query =
+            "select {[Measures].[Unit Sales], [Measures].[Store Cost]}"
+            + " on 0,\n"
+            + " Crossjoin([Gender].Children, [Store].[Store State].Members)"
+            + " on 1\n"
+            + "from [Sales]";
+        final TestContext testContext = getTestContext();
+        propSaver.set(propSaver.props.SegmentLoadPipelineSize, 0);
+        testContext.getConnection().getCacheControl(null).flushSchemaCache();
+        long dispatchCount = Counters.PIPELINED_DISPATCH_COUNT.get();
+        final String expected =
+            TestContext.toString(testContext.executeQuery(query));
+        assertEquals(
+            dispatchCount, Counters.PIPELINED_DISPATCH_COUNT.get());
+
+        // With a pipeline of 2 requests, some requests are sent to the cache
+        // manager before the end of the phase; the result is the same.
+        propSaver.set(propSaver.props.SegmentLoadPipelineSize, 2);
+        testContext.getConnection().getCacheControl(null).flushSchemaCache();
+        dispatchCount = Counters.PIPELINED_DISPATCH_COUNT.get();
+        testContext.assertQueryReturns(query, expected);
+        assertTrue(Counters.PIPELINED_DISPATCH_COUNT.get() > dispatchCount);
+    }
+
+    /**
+     * Tests that a query that needs a segment that another query is loading
+     * waits for that load rather than issuing its own SQL, and that the
+     * monitor counts the load as coalesced.
+     */
+    public void testCoalesceInFlightLoad() throws Exception {
+        final TestContext testContext = getTestContext();
+        final String query =
+            "select [Gender].Children on 0\n"
+            + "from [Sales]";
+        // Load members, then flush cells, so that only the segment is
+        // loaded below.
+        final String expected =
+            TestContext.toString(testContext.executeQuery(query));
+        final CacheControl cacheControl =
+            testContext.getConnection().getCacheControl(null);
+        cacheControl.flush(
+            cacheControl.createMeasuresRegion(
+                testContext.getConnection().getSchema()
+                    .lookupCube("Sales", true)));
+
+        final MondrianServer server =
+            MondrianServer.forConnection(testContext.getConnection());
+        final int coalescedBefore =
+            server.getMonitor().getServer().sqlStatementCoalescedCount;
+
+        // Hold segment loads until the second query has joined the first
+        // query's load.
+        final AtomicInteger sqlCount = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        RolapUtil.setHook(
+            new RolapUtil.ExecuteQueryHook() {
+                public void onExecuteQuery(String sql) {
+                    if (!sql.contains("sum(")) {
+                        return;
+                    }
+                    sqlCount.incrementAndGet();
+                    loading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw Util.newError(e, "Interrupted");
+                    }
+                }
+            });
+        final String[] results = new String[2];
+        final Throwable[] throwables = new Throwable[2];
+        final List<Thread> threads = new ArrayList<Thread>();
+        try {
+            for (int i = 0; i < 2; i++) {
+                final int n = i;
+                final Thread thread = new Thread() {
+                    public void run() {
+                        try {
+                            results[n] =
+                                TestContext.toString(
+                                    testContext.executeQuery(query));
+                        } catch (Throwable e) {
+                            throwables[n] = e;
+                        }
+                    }
+                };
+                thread.start();
+                threads.add(thread);
+                if (i == 0) {
+                    loading.await();
+                }
+            }
+            for (int i = 0; i < 1000; i++) {
+                if (server.getMonitor().getServer()
+                    .sqlStatementCoalescedCount > coalescedBefore)
+                {
+                    break;
+                }
+                Thread.sleep(10);
+            }
+        } finally {
+            release.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            RolapUtil.setHook(null);
+        }
+        for (int i = 0; i < 2; i++) {
+            assertNull(String.valueOf(throwables[i]), throwables[i]);
+            assertEquals(expected, results[i]);
+        }
+        assertEquals(1, sqlCount.get());
+        assertEquals(
+            coalescedBefore + 1,
+            server.getMonitor().getServer().sqlStatementCoalescedCount);
+    }
+
     private static class Bacon {
         // It's just bacon.
     };
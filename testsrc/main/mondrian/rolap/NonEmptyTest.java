@@ -15,6 +15,7 @@ import mondrian.olap.Level;
 import mondrian.rolap.RolapConnection.NonEmptyResult;
 import mondrian.rolap.RolapNative.*;
 import mondrian.rolap.cache.HardSmartCache;
+import mondrian.rolap.cache.LruSmartCache;
 import mondrian.rolap.sql.MemberChildrenConstraint;
 import mondrian.rolap.sql.TupleConstraint;
 import mondrian.spi.Dialect;
@@ -32,6 +33,7 @@ import org.eigenbase.util.property.BooleanProperty;
 import org.eigenbase.util.property.StringProperty;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
 /**
@@ -2256,6 +2258,41 @@ public class NonEmptyTest extends BatchTestCase {
         Assert.assertEquals(21, rowsAxis.getPositions().size());
     }
 
+    /**
+     * Tests that a member cache bounded by
+     * {@link MondrianProperties#MemberCacheMaxWeight} holds no more than its
+     * budget, and reads evicted lists of children again when they are next
+     * needed.
+     */
+    public void testBoundedMemberCache() {
+        propSaver.set(propSaver.props.MemberCacheMaxWeight, 10);
+        final SmartMemberReader smr = getSmartMemberReader("Stores");
+        final MemberCacheHelper helper = smr.cacheHelper;
+        final LruSmartCache<?, ?> childrenCache =
+            (LruSmartCache<?, ?>) helper.mapMemberToChildren.getCache();
+        final LruSmartCache<?, ?> memberCache =
+            (LruSmartCache<?, ?>) helper.mapKeyToMember;
+
+        final List<RolapMember> countries = new ArrayList<RolapMember>();
+        smr.getMemberChildren(smr.getRootMembers(), countries);
+        final List<RolapMember> states = new ArrayList<RolapMember>();
+        smr.getMemberChildren(countries, states);
+        final List<RolapMember> cities = new ArrayList<RolapMember>();
+        smr.getMemberChildren(states, cities);
+        assertTrue(cities.size() > 10);
+        assertTrue(childrenCache.getWeight() <= 10);
+        assertTrue(memberCache.getWeight() <= 10);
+
+        // Children of some states have been evicted, and are read again.
+        final List<RolapMember> cities2 = new ArrayList<RolapMember>();
+        smr.getMemberChildren(states, cities2);
+        assertEquals(cities.size(), cities2.size());
+        assertEquals(
+            new HashSet<RolapMember>(cities),
+            new HashSet<RolapMember>(cities2));
+        assertTrue(childrenCache.getWeight() <= 10);
+    }
+
     /**
      * when Mondrian parses a string like
      * "[Store].[All Stores].[USA].[CA].[San Francisco]"
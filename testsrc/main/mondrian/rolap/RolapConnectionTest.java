@@ -13,6 +13,8 @@
 package mondrian.rolap;
 
 import mondrian.olap.*;
+import mondrian.server.Execution;
+import mondrian.server.Statement;
 import mondrian.spi.*;
 import mondrian.spi.impl.*;
 import mondrian.test.TestContext;
@@ -23,6 +25,7 @@ import junit.framework.TestCase;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.*;
 import javax.naming.*;
 import javax.naming.spi.*;
 import javax.sql.DataSource;
@@ -531,6 +534,278 @@ public class RolapConnectionTest extends TestCase {
         final Query query = connection.parseQuery("select from [Sales]");
         assertNotNull(query);
     }
+
+    /**
+     * Tests that the {@link RolapResultShepherd} queues executions when all
+     * of its threads are busy, and rejects them when its queue is full.
+     */
+    public void testShepherdQueue() throws Exception {
+        final RolapConnection connection =
+            (RolapConnection) TestContext.instance().getConnection();
+        final Statement statement = connection.getInternalStatement();
+        final RolapResultShepherd shepherd =
+            new RolapResultShepherd(1, 1, false);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> log =
+            Collections.synchronizedList(new ArrayList<String>());
+        try {
+            // The first execution runs, and waits to be released.
+            final Thread first = new Thread() {
+                public void run() {
+                    shepherd.shepherdExecution(
+                        new Execution(statement, 0),
+                        new Callable<Result>() {
+                            public Result call() throws Exception {
+                                running.countDown();
+                                release.await();
+                                log.add("first");
+                                return null;
+                            }
+                        });
+                }
+            };
+            first.start();
+            assertTrue(running.await(10, TimeUnit.SECONDS));
+
+            // The second execution waits in the queue.
+            final Thread second = new Thread() {
+                public void run() {
+                    shepherd.shepherdExecution(
+                        new Execution(statement, 0),
+                        new Callable<Result>() {
+                            public Result call() {
+                                log.add("second");
+                                return null;
+                            }
+                        });
+                }
+            };
+            second.start();
+            for (int i = 0; i < 1000; i++) {
+                if (second.getState() == Thread.State.WAITING) {
+                    break;
+                }
+                Thread.sleep(10);
+            }
+            assertEquals(Thread.State.WAITING, second.getState());
+
+            // The queue is full, so the third execution is rejected.
+            try {
+                shepherd.shepherdExecution(
+                    new Execution(statement, 0),
+                    new Callable<Result>() {
+                        public Result call() {
+                            log.add("third");
+                            return null;
+                        }
+                    });
+                fail("expected error");
+            } catch (MondrianException e) {
+                assertTrue(
+                    e.getMessage(),
+                    e.getMessage().contains(
+                        "mondrian.rolap.maxQueuedQueries"));
+            }
+
+            release.countDown();
+            first.join();
+            second.join();
+            assertEquals(Arrays.asList("first", "second"), log);
+        } finally {
+            release.countDown();
+            shepherd.shutdown();
+        }
+    }
+
+    /**
+     * Tests that queued executions run in order of the
+     * {@link RolapConnectionProperties#QueryPriority} of their connections,
+     * highest first, and in order of arrival within a priority.
+     */
+    public void testShepherdPriority() throws Exception {
+        final Statement lowStatement =
+            priorityConnection("0").getInternalStatement();
+        final Statement highStatement =
+            priorityConnection("5").getInternalStatement();
+        final RolapResultShepherd shepherd =
+            new RolapResultShepherd(1, 10, false);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> log =
+            Collections.synchronizedList(new ArrayList<String>());
+        final List<Thread> threads = new ArrayList<Thread>();
+        try {
+            // The first execution runs, and waits to be released.
+            final Thread first = new Thread() {
+                public void run() {
+                    shepherd.shepherdExecution(
+                        new Execution(lowStatement, 0),
+                        new Callable<Result>() {
+                            public Result call() throws Exception {
+                                running.countDown();
+                                release.await();
+                                log.add("first");
+                                return null;
+                            }
+                        });
+                }
+            };
+            first.start();
+            threads.add(first);
+            assertTrue(running.await(10, TimeUnit.SECONDS));
+
+            // Queue executions one at a time, so that their order of arrival
+            // is known.
+            final String[] names = {"low1", "high1", "low2", "high2"};
+            for (final String name : names) {
+                final Statement statement =
+                    name.startsWith("high") ? highStatement : lowStatement;
+                final Thread thread = new Thread() {
+                    public void run() {
+                        shepherd.shepherdExecution(
+                            new Execution(statement, 0),
+                            new Callable<Result>() {
+                                public Result call() {
+                                    log.add(name);
+                                    return null;
+                                }
+                            });
+                    }
+                };
+                thread.start();
+                threads.add(thread);
+                waitUntilWaiting(thread);
+            }
+
+            release.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(
+                Arrays.asList("first", "high1", "high2", "low1", "low2"),
+                log);
+        } finally {
+            release.countDown();
+            shepherd.shutdown();
+        }
+    }
+
+    /**
+     * Tests that an execution whose timeout expires while it is waiting in
+     * the {@link RolapResultShepherd}'s queue fails with a timeout, and
+     * never runs.
+     */
+    public void testShepherdQueuedTimeout() throws Exception {
+        final RolapConnection connection =
+            (RolapConnection) TestContext.instance().getConnection();
+        final Statement statement = connection.getInternalStatement();
+        final RolapResultShepherd shepherd =
+            new RolapResultShepherd(1, 1, false);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> log =
+            Collections.synchronizedList(new ArrayList<String>());
+        try {
+            // The first execution runs, and waits to be released.
+            final Thread first = new Thread() {
+                public void run() {
+                    shepherd.shepherdExecution(
+                        new Execution(statement, 0),
+                        new Callable<Result>() {
+                            public Result call() throws Exception {
+                                running.countDown();
+                                release.await();
+                                log.add("first");
+                                return null;
+                            }
+                        });
+                }
+            };
+            first.start();
+            assertTrue(running.await(10, TimeUnit.SECONDS));
+
+            // The second execution waits in the queue until its timeout
+            // expires.
+            final long start = System.currentTimeMillis();
+            try {
+                shepherd.shepherdExecution(
+                    new Execution(statement, 1000),
+                    new Callable<Result>() {
+                        public Result call() {
+                            log.add("second");
+                            return null;
+                        }
+                    });
+                fail("expected error");
+            } catch (QueryTimeoutException e) {
+                assertEquals(
+                    "Query timeout of 1 seconds reached", e.getMessage());
+            }
+            final long elapsed = System.currentTimeMillis() - start;
+            assertTrue("elapsed " + elapsed, elapsed >= 900);
+
+            // The first execution is unaffected.
+            release.countDown();
+            first.join();
+            assertEquals(Arrays.asList("first"), log);
+        } finally {
+            release.countDown();
+            shepherd.shutdown();
+        }
+    }
+
+    /**
+     * Tests that an invalid value of the
+     * {@link RolapConnectionProperties#QueryPriority} property fails when
+     * the connection is created, not when a query is executed.
+     */
+    public void testInvalidQueryPriority() {
+        try {
+            final RolapConnection connection = priorityConnection("abc");
+            fail("expected error, got " + connection);
+        } catch (RuntimeException e) {
+            assertTrue(
+                e.getMessage(),
+                Util.getErrorMessage(e).contains(
+                    "Invalid value 'abc' for connect string property "
+                    + "'QueryPriority'"));
+        }
+        assertEquals(5, priorityConnection(" 5 ").getQueryPriority());
+        assertEquals(
+            0,
+            ((RolapConnection) TestContext.instance().getConnection())
+                .getQueryPriority());
+    }
+
+    /**
+     * Creates a connection with a given value of the
+     * {@link RolapConnectionProperties#QueryPriority} property.
+     */
+    private static RolapConnection priorityConnection(String priority) {
+        final Util.PropertyList properties =
+            TestContext.instance().getConnectionProperties().clone();
+        properties.put(
+            RolapConnectionProperties.QueryPriority.name(), priority);
+        return (RolapConnection) DriverManager.getConnection(
+            properties, null);
+    }
+
+    /**
+     * Waits, for up to 10 seconds, until a thread is blocked waiting; for
+     * example, waiting in the queue of a {@link RolapResultShepherd}.
+     */
+    private static void waitUntilWaiting(Thread thread)
+        throws InterruptedException
+    {
+        for (int i = 0; i < 1000; i++) {
+            if (thread.getState() == Thread.State.WAITING) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, thread.getState());
+    }
 }
 
 // End RolapConnectionTest.java
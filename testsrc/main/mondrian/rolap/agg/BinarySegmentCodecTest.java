@@ -0,0 +1,313 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2014-2014 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.BitKey;
+import mondrian.rolap.CellKey;
+import mondrian.spi.*;
+import mondrian.test.PerformanceTest;
+import mondrian.util.*;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Unit test for {@link BinarySegmentCodec}.
+ */
+public class BinarySegmentCodecTest extends TestCase {
+    private final SegmentCodec codec = BinarySegmentCodec.INSTANCE;
+
+    public BinarySegmentCodecTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Tests that a header survives a round trip, including wildcard columns,
+     * excluded regions, compound predicates and values of several types.
+     */
+    public void testHeaderRoundTrip() throws IOException {
+        final SegmentHeader header = makeHeader(100);
+        final SegmentHeader header2 = codec.readHeader(encodeHeader(header));
+        assertEquals(header, header2);
+        assertEquals(header.getUniqueID(), header2.getUniqueID());
+        assertEquals(header.toString(), header2.toString());
+        assertEquals(
+            header.getConstrainedColumnsBitKey(),
+            header2.getConstrainedColumnsBitKey());
+        assertEquals(header.getExcludedRegions(), header2.getExcludedRegions());
+        assertTrue(
+            header2.getConstrainedColumns().get(0).values
+                instanceof ArraySortedSet);
+    }
+
+    /**
+     * Tests that several records can be read in sequence from one stream.
+     */
+    public void testSeveralRecords() throws IOException {
+        final SegmentHeader header = makeHeader(5);
+        final SegmentBody body = makeDenseDoubleBody(5);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeHeader(header, out);
+        codec.writeBody(body, out);
+        codec.writeHeader(header, out);
+        final InputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertEquals(header, codec.readHeader(in));
+        assertEquals(body.getValueMap(), codec.readBody(in).getValueMap());
+        assertEquals(header, codec.readHeader(in));
+        assertEquals(-1, in.read());
+
+        // Reading a body where a header is expected fails cleanly.
+        try {
+            codec.readBody(
+                new ByteArrayInputStream(encodeHeader(header).toByteArray()));
+            fail("expected error");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("kind"));
+        }
+    }
+
+    public void testDenseDoubleBodyRoundTrip() throws IOException {
+        final SegmentBody body = makeDenseDoubleBody(50);
+        final SegmentBody body2 = roundTrip(body);
+        assertTrue(body2 instanceof DenseDoubleSegmentBody);
+        assertTrue(
+            Arrays.equals(
+                (double[]) body.getValueArray(),
+                (double[]) body2.getValueArray()));
+        assertEquals(body.getIndicators(), body2.getIndicators());
+        assertBodiesEqual(body, body2);
+
+        // Off-heap bodies are written as their heap equivalent.
+        final SegmentBody body3 = roundTrip(OffHeapSegmentBody.create(body));
+        assertTrue(body3 instanceof DenseDoubleSegmentBody);
+        assertBodiesEqual(body, body3);
+    }
+
+    public void testDenseIntBodyRoundTrip() throws IOException {
+        final int[] values = {0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        final BitSet nullIndicators = new BitSet();
+        nullIndicators.set(0);
+        final SegmentBody body =
+            new DenseIntSegmentBody(nullIndicators, values, makeAxes(5));
+        final SegmentBody body2 = roundTrip(body);
+        assertTrue(body2 instanceof DenseIntSegmentBody);
+        assertTrue(Arrays.equals(values, (int[]) body2.getValueArray()));
+        assertEquals(nullIndicators, body2.getIndicators());
+        assertBodiesEqual(body, body2);
+    }
+
+    public void testDenseObjectBodyRoundTrip() throws IOException {
+        final Object[] values = {
+            "a", null, 1, 2L, 3.5d, true, new BigDecimal("-12.345"),
+            new java.sql.Date(0), (short) 7, (byte) -3, 1.5f
+        };
+        final SegmentBody body =
+            new DenseObjectSegmentBody(values, makeAxes(values.length));
+        final SegmentBody body2 = roundTrip(body);
+        assertTrue(body2 instanceof DenseObjectSegmentBody);
+        assertTrue(
+            Arrays.equals(values, (Object[]) body2.getValueArray()));
+        assertBodiesEqual(body, body2);
+    }
+
+    public void testSparseBodyRoundTrip() throws IOException {
+        final Map<CellKey, Object> map = new HashMap<CellKey, Object>();
+        map.put(CellKey.Generator.newCellKey(new int[] {0, 3}), 1.5d);
+        map.put(CellKey.Generator.newCellKey(new int[] {2, 200}), 7);
+        map.put(CellKey.Generator.newCellKey(new int[] {1, 0}), null);
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        axes.addAll(makeAxes(3));
+        axes.add(makeAxes(201).get(0));
+        final SegmentBody body = new SparseSegmentBody(map, axes);
+        final SegmentBody body2 = roundTrip(body);
+        assertTrue(body2 instanceof SparseSegmentBody);
+        assertEquals(map, body2.getValueMap());
+        assertBodiesEqual(body, body2);
+    }
+
+    public void testSparseNativeBodyRoundTrip() throws IOException {
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        axes.addAll(makeAxes(3));
+        axes.add(makeAxes(201).get(0));
+        final BitSet nullIndicators = new BitSet();
+        nullIndicators.set(1);
+        final SegmentBody body =
+            new SparseDoubleSegmentBody(
+                new long[] {3, 200, 602}, new double[] {1.5d, 0d, -2d},
+                nullIndicators, axes);
+        final SegmentBody body2 = roundTrip(body);
+        assertTrue(body2 instanceof SparseDoubleSegmentBody);
+        assertEquals(3, body2.getValueMap().size());
+        assertBodiesEqual(body, body2);
+
+        final SegmentBody intBody =
+            new SparseIntSegmentBody(
+                new long[] {0, 402}, new int[] {-7, Integer.MAX_VALUE},
+                new BitSet(), axes);
+        final SegmentBody intBody2 = roundTrip(intBody);
+        assertTrue(intBody2 instanceof SparseIntSegmentBody);
+        assertBodiesEqual(intBody, intBody2);
+    }
+
+    /**
+     * Compares size and encode/decode time of the codec with Java
+     * serialization. Runs only if {@link PerformanceTest#LOGGER} is enabled
+     * at debug level.
+     */
+    public void testCodecVersusSerialization() throws Exception {
+        if (!PerformanceTest.LOGGER.isDebugEnabled()) {
+            return;
+        }
+        final SegmentHeader header = makeHeader(1000);
+        final SegmentBody body = makeDenseDoubleBody(100000);
+        final int repeat = 50;
+
+        long start = System.nanoTime();
+        byte[] bytes = null;
+        for (int i = 0; i < repeat; i++) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            codec.writeHeader(header, out);
+            codec.writeBody(body, out);
+            bytes = out.toByteArray();
+        }
+        final long codecEncodeNanos = (System.nanoTime() - start) / repeat;
+        start = System.nanoTime();
+        for (int i = 0; i < repeat; i++) {
+            final InputStream in = new ByteArrayInputStream(bytes);
+            codec.readHeader(in);
+            codec.readBody(in);
+        }
+        final long codecDecodeNanos = (System.nanoTime() - start) / repeat;
+
+        start = System.nanoTime();
+        byte[] serialBytes = null;
+        for (int i = 0; i < repeat; i++) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeObject(header);
+            oos.writeObject(body);
+            oos.close();
+            serialBytes = out.toByteArray();
+        }
+        final long serialEncodeNanos = (System.nanoTime() - start) / repeat;
+        start = System.nanoTime();
+        for (int i = 0; i < repeat; i++) {
+            final ObjectInputStream ois =
+                new ObjectInputStream(new ByteArrayInputStream(serialBytes));
+            ois.readObject();
+            ois.readObject();
+        }
+        final long serialDecodeNanos = (System.nanoTime() - start) / repeat;
+
+        PerformanceTest.LOGGER.debug(
+            "BinarySegmentCodec: " + bytes.length + " bytes, encode "
+            + codecEncodeNanos / 1000 + " us, decode "
+            + codecDecodeNanos / 1000 + " us; "
+            + "Java serialization: " + serialBytes.length + " bytes, encode "
+            + serialEncodeNanos / 1000 + " us, decode "
+            + serialDecodeNanos / 1000 + " us");
+        assertTrue(bytes.length < serialBytes.length);
+    }
+
+    private ByteArrayInputStream encodeHeader(SegmentHeader header)
+        throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeHeader(header, out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    private SegmentBody roundTrip(SegmentBody body) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeBody(body, out);
+        return codec.readBody(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static void assertBodiesEqual(SegmentBody body, SegmentBody body2)
+    {
+        assertEquals(
+            Arrays.asList(body.getAxisValueSets()),
+            Arrays.asList(body2.getAxisValueSets()));
+        assertTrue(
+            Arrays.equals(body.getNullAxisFlags(), body2.getNullAxisFlags()));
+        assertEquals(body.getValueMap(), body2.getValueMap());
+    }
+
+    private static SegmentHeader makeHeader(int valueCount) {
+        final Comparable[] strings = new Comparable[valueCount];
+        for (int i = 0; i < valueCount; i++) {
+            strings[i] = "value" + (1000000 + i);
+        }
+        final List<SegmentColumn> constrainedColumns =
+            Arrays.asList(
+                new SegmentColumn(
+                    "`store`.`store_name`",
+                    valueCount,
+                    new ArraySortedSet<Comparable>(strings)),
+                new SegmentColumn(
+                    "`time_by_day`.`the_year`",
+                    -1,
+                    new ArraySortedSet<Comparable>(
+                        new Comparable[] {1997, 1998})),
+                new SegmentColumn("`product`.`product_id`", 1560, null));
+        final BitKey bitKey = BitKey.Factory.makeBitKey(130);
+        bitKey.set(3);
+        bitKey.set(64);
+        bitKey.set(129);
+        return new SegmentHeader(
+            "FoodMart",
+            new ByteString(new byte[] {1, 2, 3, -4}),
+            "Sales",
+            "Unit Sales",
+            constrainedColumns,
+            Arrays.asList("`store`.`store_state` = 'CA'"),
+            "sales_fact_1997",
+            bitKey,
+            Collections.singletonList(
+                new SegmentColumn(
+                    "`time_by_day`.`the_year`",
+                    -1,
+                    new ArraySortedSet<Comparable>(
+                        new Comparable[] {1997}))));
+    }
+
+    private static SegmentBody makeDenseDoubleBody(int valueCount) {
+        final double[] values = new double[valueCount];
+        final BitSet nullIndicators = new BitSet(valueCount);
+        for (int i = 0; i < valueCount; i++) {
+            if (i % 7 == 0) {
+                nullIndicators.set(i, i % 14 == 0);
+            } else {
+                values[i] = i * 1.25d;
+            }
+        }
+        return new DenseDoubleSegmentBody(
+            nullIndicators, values, makeAxes(valueCount));
+    }
+
+    private static List<Pair<SortedSet<Comparable>, Boolean>> makeAxes(
+        int valueCount)
+    {
+        final Comparable[] values = new Comparable[valueCount];
+        for (int i = 0; i < valueCount; i++) {
+            values[i] = 1000 + i;
+        }
+        return Collections.singletonList(
+            Pair.<SortedSet<Comparable>, Boolean>of(
+                new ArraySortedSet<Comparable>(values), Boolean.TRUE));
+    }
+}
+
+// End BinarySegmentCodecTest.java
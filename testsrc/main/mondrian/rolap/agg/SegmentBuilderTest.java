@@ -12,12 +12,19 @@ package mondrian.rolap.agg;
 
 import mondrian.olap.*;
 import mondrian.rolap.*;
+import mondrian.rolap.cache.DiskSegmentCache;
+import mondrian.rolap.cache.OffHeapSegmentCache;
+import mondrian.rolap.cache.SegmentCacheIndex;
+import mondrian.server.Locus;
 import mondrian.spi.*;
 import mondrian.test.PerformanceTest;
 import mondrian.test.TestContext;
+import mondrian.util.ArraySortedSet;
 import mondrian.util.ByteString;
 import mondrian.util.Pair;
 
+import java.io.*;
+import java.math.BigDecimal;
 import java.util.*;
 
 /**
@@ -83,7 +90,7 @@ public class SegmentBuilderTest extends BatchTestCase {
                     new String[] {"col1", "col2", "col3"}, 47000, 4),
                 new HashSet<String>(Arrays.asList("col1", "col2")),
                 null, RolapAggregator.Sum, Dialect.Datatype.Numeric);
-        assertTrue(rollup.right instanceof  SparseSegmentBody);
+        assertTrue(rollup.right instanceof SparseDoubleSegmentBody);
     }
 
     public void testRollupWithOOMPossibility() {
@@ -99,7 +106,7 @@ public class SegmentBuilderTest extends BatchTestCase {
                     new String[] {"col1", "col2", "col3"}, 44000, 4),
                 new HashSet<String>(Arrays.asList("col1", "col2")),
                 null, RolapAggregator.Sum, Dialect.Datatype.Numeric);
-        assertTrue(rollup.right instanceof  SparseSegmentBody);
+        assertTrue(rollup.right instanceof SparseDoubleSegmentBody);
     }
 
     public void testRollupShouldBeDense() {
@@ -321,6 +328,697 @@ public class SegmentBuilderTest extends BatchTestCase {
         return rolledForward;
     }
 
+    /**
+     * Tests that an {@link OffHeapSegmentBody} holds the same cells as the
+     * heap-based body it was created from, survives serialization, and
+     * rolls up to the same result.
+     */
+    public void testOffHeapSegmentBody() throws Exception {
+        final Pair<SegmentHeader, SegmentBody> headerBody =
+            makeDenseDoubleHeaderBodyPair("h1");
+        final SegmentBody body = headerBody.right;
+        final OffHeapSegmentBody offHeapBody =
+            OffHeapSegmentBody.create(body);
+        assertNotNull(offHeapBody);
+        assertEquals(body.getIndicators(), offHeapBody.getIndicators());
+        assertTrue(
+            Arrays.equals(
+                (double[]) body.getValueArray(),
+                (double[]) offHeapBody.getValueArray()));
+        assertEquals(body.getValueMap(), offHeapBody.getValueMap());
+        assertEquals(
+            Arrays.asList(body.getAxisValueSets()),
+            Arrays.asList(offHeapBody.getAxisValueSets()));
+
+        // Bodies of non-native values stay on the heap.
+        assertNull(
+            OffHeapSegmentBody.create(
+                makeDummyHeaderBodyPair(
+                    new String[] {"col1"},
+                    dummyColumnValues(1, 3),
+                    3).right));
+
+        // Serialization writes the heap-based equivalent.
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(offHeapBody);
+        oos.close();
+        final Object o =
+            new ObjectInputStream(
+                new ByteArrayInputStream(out.toByteArray())).readObject();
+        assertTrue(o instanceof DenseDoubleSegmentBody);
+        assertEquals(body.getValueMap(), ((SegmentBody) o).getValueMap());
+
+        // Rollup reads values straight from native memory.
+        final Set<String> keepColumns =
+            new HashSet<String>(Arrays.asList("col0"));
+        final Pair<SegmentHeader, SegmentBody> rollup =
+            SegmentBuilder.rollup(
+                Collections.singletonMap(headerBody.left, body),
+                keepColumns, null, RolapAggregator.Sum,
+                Dialect.Datatype.Numeric);
+        final Pair<SegmentHeader, SegmentBody> offHeapRollup =
+            SegmentBuilder.rollup(
+                Collections.<SegmentHeader, SegmentBody>singletonMap(
+                    headerBody.left, offHeapBody),
+                keepColumns, null, RolapAggregator.Sum,
+                Dialect.Datatype.Numeric);
+        assertEquals(rollup.left, offHeapRollup.left);
+        assertEquals(
+            rollup.right.getValueMap(), offHeapRollup.right.getValueMap());
+    }
+
+    /**
+     * Tests that {@link OffHeapSegmentCache} evicts the least-recently used
+     * segments when its budget of bytes is exceeded.
+     */
+    public void testOffHeapSegmentCacheEviction() {
+        final Pair<SegmentHeader, SegmentBody> hb1 =
+            makeDenseDoubleHeaderBodyPair("h1");
+        final Pair<SegmentHeader, SegmentBody> hb2 =
+            makeDenseDoubleHeaderBodyPair("h2");
+        final Pair<SegmentHeader, SegmentBody> hb3 =
+            makeDenseDoubleHeaderBodyPair("h3");
+        final int bodyBytes =
+            OffHeapSegmentBody.create(hb1.right).getByteCount();
+
+        // Room for two segments but not three.
+        final OffHeapSegmentCache cache =
+            new OffHeapSegmentCache(bodyBytes * 2 + bodyBytes / 2);
+        assertTrue(cache.put(hb1.left, hb1.right));
+        assertTrue(cache.put(hb2.left, hb2.right));
+        assertEquals(bodyBytes * 2, cache.getByteCount());
+
+        // Touch h1, so that h2 is least recently used.
+        final SegmentBody body1 = cache.get(hb1.left);
+        assertNotNull(body1);
+        assertEquals(hb1.right.getValueMap(), body1.getValueMap());
+
+        assertTrue(cache.put(hb3.left, hb3.right));
+        assertTrue(cache.contains(hb1.left));
+        assertFalse(cache.contains(hb2.left));
+        assertTrue(cache.contains(hb3.left));
+        assertEquals(bodyBytes * 2, cache.getByteCount());
+
+        // A segment larger than the budget is not stored.
+        final OffHeapSegmentCache tinyCache =
+            new OffHeapSegmentCache(bodyBytes / 2);
+        assertFalse(tinyCache.put(hb1.left, hb1.right));
+        assertEquals(0, tinyCache.getSegmentHeaders().size());
+
+        // Non-native bodies are stored serialized.
+        final Pair<SegmentHeader, SegmentBody> objectHeaderBody =
+            makeDummyHeaderBodyPair(
+                new String[] {"col1"}, dummyColumnValues(1, 3), 3);
+        assertTrue(cache.put(objectHeaderBody.left, objectHeaderBody.right));
+        assertEquals(
+            objectHeaderBody.right.getValueMap(),
+            cache.get(objectHeaderBody.left).getValueMap());
+    }
+
+    /**
+     * Tests that {@link DiskSegmentCache} persists segments, and that a new
+     * cache on the same directory sees segments stored by the old one.
+     */
+    public void testDiskSegmentCache() throws IOException {
+        final File directory = File.createTempFile("segments", "");
+        assertTrue(directory.delete());
+        try {
+            final Pair<SegmentHeader, SegmentBody> hb1 =
+                makeDenseDoubleHeaderBodyPair("h1");
+            final Pair<SegmentHeader, SegmentBody> hb2 =
+                makeDenseDoubleHeaderBodyPair("h2");
+            final Pair<SegmentHeader, SegmentBody> hb3 =
+                makeDummyHeaderBodyPair(
+                    new String[] {"col1"}, dummyColumnValues(1, 3), 3);
+
+            DiskSegmentCache cache = new DiskSegmentCache(directory);
+            assertEquals(0, cache.getSegmentHeaders().size());
+            assertTrue(cache.put(hb1.left, hb1.right));
+            assertTrue(cache.put(hb2.left, hb2.right));
+            assertTrue(cache.put(hb3.left, hb3.right));
+            assertTrue(cache.remove(hb2.left));
+            assertFalse(cache.remove(hb2.left));
+            assertEquals(
+                hb1.right.getValueMap(), cache.get(hb1.left).getValueMap());
+            cache.tearDown();
+
+            // Re-open. Headers are known before any body is read.
+            cache = new DiskSegmentCache(directory);
+            assertEquals(2, cache.getSegmentHeaders().size());
+            assertTrue(cache.contains(hb1.left));
+            assertFalse(cache.contains(hb2.left));
+            assertTrue(cache.contains(hb3.left));
+            assertEquals(
+                hb1.right.getValueMap(), cache.get(hb1.left).getValueMap());
+            assertEquals(
+                hb3.right.getValueMap(), cache.get(hb3.left).getValueMap());
+            assertNull(cache.get(hb2.left));
+
+            // Replacing a segment keeps the latest body.
+            assertTrue(cache.put(hb1.left, hb3.right));
+            cache.tearDown();
+            cache = new DiskSegmentCache(directory);
+            assertEquals(
+                hb3.right.getValueMap(), cache.get(hb1.left).getValueMap());
+            assertTrue(cache.remove(hb1.left));
+            assertTrue(cache.remove(hb3.left));
+            cache.tearDown();
+
+            // When the last segment is removed, its data file is deleted.
+            cache = new DiskSegmentCache(directory);
+            assertEquals(0, cache.getSegmentHeaders().size());
+            cache.tearDown();
+            final List<String> fileNames =
+                new ArrayList<String>(Arrays.asList(directory.list()));
+            Collections.sort(fileNames);
+            assertEquals(Arrays.asList("index.dat", "lock"), fileNames);
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Tests that {@link DiskSegmentCache} evicts the oldest segments when
+     * over its size budget, that a directory cannot be opened by two caches
+     * at once, and that {@link DiskSegmentCache#acquire(File)} shares one
+     * cache per directory.
+     */
+    public void testDiskSegmentCacheBudgetAndLock() throws IOException {
+        final File directory = File.createTempFile("segments", "");
+        assertTrue(directory.delete());
+        try {
+            final Pair<SegmentHeader, SegmentBody> hb1 =
+                makeDenseDoubleHeaderBodyPair("h1");
+            final Pair<SegmentHeader, SegmentBody> hb2 =
+                makeDenseDoubleHeaderBodyPair("h2");
+
+            // With a budget of 1 byte, each segment goes in a new data file,
+            // and evicts all older ones.
+            DiskSegmentCache cache = new DiskSegmentCache(directory, 1);
+            assertTrue(cache.put(hb1.left, hb1.right));
+            assertTrue(cache.contains(hb1.left));
+            assertTrue(cache.put(hb2.left, hb2.right));
+            assertFalse(cache.contains(hb1.left));
+            assertTrue(cache.contains(hb2.left));
+            assertNull(cache.get(hb1.left));
+
+            // The directory is locked while the cache is open.
+            try {
+                final DiskSegmentCache cache2 = new DiskSegmentCache(directory);
+                cache2.tearDown();
+                fail("expected error");
+            } catch (RuntimeException e) {
+                assertTrue(
+                    e.getMessage(),
+                    e.getMessage().contains(
+                        "Could not open segment cache directory"));
+            }
+            cache.tearDown();
+
+            // Once closed, it can be opened again; and an evicted segment
+            // stays evicted.
+            cache = DiskSegmentCache.acquire(directory);
+            final DiskSegmentCache cache2 = DiskSegmentCache.acquire(directory);
+            assertSame(cache, cache2);
+            assertEquals(
+                Collections.singletonList(hb2.left),
+                cache.getSegmentHeaders());
+            cache2.tearDown();
+            assertTrue(cache.contains(hb2.left));
+            cache.tearDown();
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Tests that a {@link SegmentCacheManager} whose local cache is a
+     * {@link DiskSegmentCache} adds segments stored by an earlier server to
+     * the index of a star when the index is created.
+     */
+    public void testDiskSegmentCacheManager() throws Exception {
+        final RolapSchema schema = (RolapSchema) getConnection().getSchema();
+        RolapStar salesStar = null;
+        for (RolapStar star : schema.getStars()) {
+            if (star.getFactTable().getTableName().equals("sales_fact_1997")) {
+                salesStar = star;
+            }
+        }
+        assertNotNull(salesStar);
+        final RolapStar star = salesStar;
+        final Pair<SegmentHeader, SegmentBody> hb =
+            makeDenseDoubleHeaderBodyPair("h1");
+        final SegmentHeader header =
+            new SegmentHeader(
+                schema.getName(),
+                schema.getChecksum(),
+                hb.left.cubeName,
+                hb.left.measureName,
+                hb.left.getConstrainedColumns(),
+                Collections.<String>emptyList(),
+                star.getFactTable().getTableName(),
+                hb.left.getConstrainedColumnsBitKey(),
+                Collections.<SegmentColumn>emptyList());
+
+        final File directory = File.createTempFile("segments", "");
+        assertTrue(directory.delete());
+        try {
+            // A previous server stored a segment, and a segment of another
+            // star.
+            final DiskSegmentCache cache = new DiskSegmentCache(directory);
+            assertTrue(cache.put(header, hb.right));
+            assertTrue(cache.put(hb.left, hb.right));
+            cache.tearDown();
+
+            propSaver.set(
+                propSaver.props.SegmentCacheDirectory,
+                directory.getPath());
+            final MondrianServer server =
+                MondrianServer.forConnection(getConnection());
+            final SegmentCacheManager cacheMgr =
+                new SegmentCacheManager(server);
+            final SegmentCacheManager cacheMgr2 =
+                new SegmentCacheManager(server);
+            try {
+                for (final SegmentCacheManager mgr
+                    : Arrays.asList(cacheMgr, cacheMgr2))
+                {
+                    final boolean[] contains = new boolean[2];
+                    mgr.execute(
+                        new SegmentCacheManager.StarCommand<Void>() {
+                            public Collection<RolapStar> getStars() {
+                                return Collections.singletonList(star);
+                            }
+
+                            public Locus getLocus() {
+                                return null;
+                            }
+
+                            public Void call() {
+                                final SegmentCacheIndex index =
+                                    mgr.getIndexRegistry().getIndex(star);
+                                contains[0] = index.contains(header);
+                                contains[1] = index.contains(hb.left);
+                                return null;
+                            }
+                        });
+                    assertTrue(contains[0]);
+                    assertFalse(contains[1]);
+                }
+            } finally {
+                cacheMgr.shutdown();
+                cacheMgr2.shutdown();
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Tests {@link SparseDoubleSegmentDataset} and
+     * {@link SparseDoubleSegmentBody}: cells whose offsets do not fit into an
+     * int, null and zero values, growth of the hash table, and conversion to
+     * and from a body.
+     */
+    public void testSparseNativeSegmentDataset() {
+        assertNull(
+            SparseNativeSegmentDataset.computeAxisMultipliers(
+                new int[] {
+                    Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE
+                }));
+        final int[] axisLengths = {100000, 100000, 3};
+        final SparseDoubleSegmentDataset dataset =
+            new SparseDoubleSegmentDataset(
+                SparseNativeSegmentDataset.computeAxisMultipliers(axisLengths),
+                0);
+        final Map<CellKey, Object> expected = new HashMap<CellKey, Object>();
+        final Random random = new Random(1);
+        for (int i = 0; i < 5000; i++) {
+            final int[] pos = {
+                random.nextInt(axisLengths[0]),
+                random.nextInt(axisLengths[1]),
+                random.nextInt(axisLengths[2])
+            };
+            final Double value =
+                i % 10 == 0 ? null : i % 7 == 0 ? 0d : random.nextDouble();
+            dataset.put(pos, value);
+            expected.put(CellKey.Generator.newCellKey(pos), value);
+        }
+        // Overwrite a null with a value, and a value with a null.
+        final int[] pos0 = {0, 0, 0};
+        dataset.put(pos0, null);
+        dataset.put(pos0, 1.5d);
+        expected.put(CellKey.Generator.newCellKey(pos0), 1.5d);
+        final int[] pos1 = {99999, 99999, 2};
+        dataset.put(pos1, 2.5d);
+        dataset.put(pos1, null);
+        expected.put(CellKey.Generator.newCellKey(pos1), null);
+
+        for (Map.Entry<CellKey, Object> entry : expected.entrySet()) {
+            assertTrue(dataset.exists(entry.getKey()));
+            assertEquals(entry.getValue(), dataset.getObject(entry.getKey()));
+            assertEquals(
+                entry.getValue() == null, dataset.isNull(entry.getKey()));
+        }
+        final CellKey missingKey =
+            CellKey.Generator.newCellKey(new int[] {1, 2, 1});
+        if (!expected.containsKey(missingKey)) {
+            assertFalse(dataset.exists(missingKey));
+            assertTrue(dataset.isNull(missingKey));
+            assertNull(dataset.getObject(missingKey));
+        }
+        final Map<CellKey, Object> actual = new HashMap<CellKey, Object>();
+        for (Map.Entry<CellKey, Object> entry : dataset) {
+            actual.put(entry.getKey(), entry.getValue());
+        }
+        assertEquals(expected, actual);
+
+        // Convert to a body and back.
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        for (int axisLength : axisLengths) {
+            final Comparable[] values = new Comparable[axisLength];
+            for (int i = 0; i < axisLength; i++) {
+                values[i] = i;
+            }
+            axes.add(
+                Pair.<SortedSet<Comparable>, Boolean>of(
+                    new ArraySortedSet<Comparable>(values), false));
+        }
+        final SegmentBody body = dataset.createSegmentBody(axes);
+        assertTrue(body instanceof SparseDoubleSegmentBody);
+        assertEquals(expected, body.getValueMap());
+        final SparseDoubleSegmentDataset dataset2 =
+            new SparseDoubleSegmentDataset((SparseDoubleSegmentBody) body);
+        for (Map.Entry<CellKey, Object> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), dataset2.getObject(entry.getKey()));
+        }
+    }
+
+    /**
+     * Compares the memory use and speed of {@link SparseSegmentDataset} and
+     * {@link SparseDoubleSegmentDataset}. Runs only if
+     * {@link PerformanceTest#LOGGER} is enabled at debug level.
+     */
+    public void testSparseSegmentDatasetMemoryAndThroughput() {
+        if (!PerformanceTest.LOGGER.isDebugEnabled()) {
+            return;
+        }
+        final int cellCount = 1000000;
+        final int[] axisLengths = {50000, 50000, 20};
+        final int[][] positions = new int[cellCount][];
+        final Random random = new Random(2);
+        for (int i = 0; i < cellCount; i++) {
+            positions[i] = new int[] {
+                random.nextInt(axisLengths[0]),
+                random.nextInt(axisLengths[1]),
+                random.nextInt(axisLengths[2])
+            };
+        }
+        final CellKey[] cellKeys = new CellKey[cellCount];
+        for (int i = 0; i < cellCount; i++) {
+            cellKeys[i] = CellKey.Generator.newCellKey(positions[i]);
+        }
+
+        final long[] results = new long[6];
+        for (int k = 0; k < 2; k++) {
+            final long memoryBefore = usedMemory();
+            long start = System.nanoTime();
+            final SegmentDataset dataset;
+            if (k == 0) {
+                final SparseSegmentDataset sparseDataset =
+                    new SparseSegmentDataset();
+                for (int i = 0; i < cellCount; i++) {
+                    sparseDataset.put(
+                        CellKey.Generator.newCellKey(positions[i]), (double) i);
+                }
+                dataset = sparseDataset;
+            } else {
+                final SparseDoubleSegmentDataset nativeDataset =
+                    new SparseDoubleSegmentDataset(
+                        SparseNativeSegmentDataset.computeAxisMultipliers(
+                            axisLengths),
+                        0);
+                for (int i = 0; i < cellCount; i++) {
+                    nativeDataset.put(positions[i], (double) i);
+                }
+                dataset = nativeDataset;
+            }
+            results[k * 3] = System.nanoTime() - start;
+            results[k * 3 + 1] = usedMemory() - memoryBefore;
+            start = System.nanoTime();
+            int nullCount = 0;
+            for (CellKey cellKey : cellKeys) {
+                if (dataset.getObject(cellKey) == null) {
+                    ++nullCount;
+                }
+            }
+            results[k * 3 + 2] = System.nanoTime() - start;
+            assertEquals(0, nullCount);
+        }
+        PerformanceTest.LOGGER.debug(
+            "SparseSegmentDataset: populate " + results[0] / 1000000
+            + " ms, " + results[1] / 1024 + " KB, lookup "
+            + results[2] / 1000000 + " ms; "
+            + "SparseDoubleSegmentDataset: populate " + results[3] / 1000000
+            + " ms, " + results[4] / 1024 + " KB, lookup "
+            + results[5] / 1000000 + " ms");
+    }
+
+    /**
+     * Tests that a rollup that aggregates in several threads gives the same
+     * result as one that aggregates in one thread, and as a brute-force
+     * computation.
+     */
+    public void testParallelRollup() {
+        final String[] colNames = {"col0", "col1", "col2"};
+        final String[][] colVals = dummyColumnValues(3, 200);
+        final List<SegmentColumn> constrainedColumns =
+            new ArrayList<SegmentColumn>();
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        final int[] axisLengths = new int[colNames.length];
+        for (int i = 0; i < colNames.length; i++) {
+            SortedSet<Comparable> vals =
+                new TreeSet<Comparable>(Arrays.<Comparable>asList(colVals[i]));
+            constrainedColumns.add(
+                new SegmentColumn(colNames[i], colVals[i].length, vals));
+            axes.add(Pair.of(vals, Boolean.FALSE));
+            axisLengths[i] = vals.size();
+        }
+        final SparseDoubleSegmentDataset dataset =
+            new SparseDoubleSegmentDataset(
+                SparseNativeSegmentDataset.computeAxisMultipliers(axisLengths),
+                0);
+        final Random random = new Random(3);
+        final int[] pos = new int[3];
+        for (int i = 0; i < 300000; i++) {
+            pos[0] = random.nextInt(200);
+            pos[1] = random.nextInt(200);
+            pos[2] = random.nextInt(200);
+            // Whole numbers, so that sums do not depend on the order of
+            // addition.
+            dataset.put(pos, i % 97 == 0 ? null : (double) (i % 100 - 50));
+        }
+        final SegmentBody sourceBody = dataset.createSegmentBody(axes);
+        final Map<SegmentHeader, SegmentBody> map =
+            Collections.singletonMap(
+                new SegmentHeader(
+                    "dummySchemaName",
+                    new ByteString(new byte[]{}),
+                    "dummyCubeName",
+                    "dummyMeasureName",
+                    constrainedColumns,
+                    Collections.<String>emptyList(),
+                    "dummyFactTable",
+                    BitKey.Factory.makeBitKey(3),
+                    Collections.<SegmentColumn>emptyList()),
+                sourceBody);
+        final Set<String> keepColumns =
+            new HashSet<String>(Arrays.asList("col0", "col2"));
+
+        for (RolapAggregator aggregator
+            : new RolapAggregator[] {
+                RolapAggregator.Sum, RolapAggregator.Min, RolapAggregator.Max})
+        {
+            // Brute force.
+            final Map<CellKey, Double> expected =
+                new HashMap<CellKey, Double>();
+            final Set<CellKey> keys = new HashSet<CellKey>();
+            for (Map.Entry<CellKey, Object> entry
+                : sourceBody.getValueMap().entrySet())
+            {
+                final int[] ordinals = entry.getKey().getOrdinals();
+                final CellKey key =
+                    CellKey.Generator.newCellKey(
+                        new int[] {ordinals[0], ordinals[2]});
+                keys.add(key);
+                final Double value = (Double) entry.getValue();
+                if (value == null) {
+                    continue;
+                }
+                final Double previous = expected.get(key);
+                if (previous == null) {
+                    expected.put(key, value);
+                } else if (aggregator == RolapAggregator.Sum) {
+                    expected.put(key, previous + value);
+                } else if (aggregator == RolapAggregator.Min) {
+                    expected.put(key, Math.min(previous, value));
+                } else {
+                    expected.put(key, Math.max(previous, value));
+                }
+            }
+
+            for (int parallelism : new int[] {1, 4}) {
+                propSaver.set(
+                    MondrianProperties.instance().RollupParallelism,
+                    parallelism);
+                final Pair<SegmentHeader, SegmentBody> rollup =
+                    SegmentBuilder.rollup(
+                        map, keepColumns, null, aggregator,
+                        Dialect.Datatype.Numeric);
+                final Map<CellKey, Object> actual =
+                    new HashMap<CellKey, Object>(rollup.right.getValueMap());
+                for (CellKey key : keys) {
+                    assertEquals(
+                        aggregator + ", parallelism " + parallelism
+                        + ", " + key,
+                        expected.get(key),
+                        actual.get(key));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests that the parallel rollup does not truncate fractional values
+     * that arrive as {@link BigDecimal}, as many JDBC drivers
+     * return for DECIMAL columns.
+     */
+    public void testParallelRollupBigDecimal() {
+        final List<SegmentColumn> constrainedColumns =
+            new ArrayList<SegmentColumn>();
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        for (String colName : new String[] {"col0", "col1"}) {
+            SortedSet<Comparable> vals =
+                new TreeSet<Comparable>(Arrays.<Comparable>asList("a", "b"));
+            constrainedColumns.add(new SegmentColumn(colName, 2, vals));
+            axes.add(Pair.of(vals, Boolean.FALSE));
+        }
+        final Map<CellKey, Object> data = new HashMap<CellKey, Object>();
+        data.put(
+            CellKey.Generator.newCellKey(new int[] {0, 0}),
+            new BigDecimal("1.25"));
+        data.put(
+            CellKey.Generator.newCellKey(new int[] {0, 1}),
+            new BigDecimal("2.5"));
+        data.put(
+            CellKey.Generator.newCellKey(new int[] {1, 0}),
+            new BigDecimal("0.75"));
+        final Map<SegmentHeader, SegmentBody> map =
+            Collections.<SegmentHeader, SegmentBody>singletonMap(
+                new SegmentHeader(
+                    "dummySchemaName",
+                    new ByteString(new byte[]{}),
+                    "dummyCubeName",
+                    "dummyMeasureName",
+                    constrainedColumns,
+                    Collections.<String>emptyList(),
+                    "dummyFactTable",
+                    BitKey.Factory.makeBitKey(2),
+                    Collections.<SegmentColumn>emptyList()),
+                new SparseSegmentBody(data, axes));
+        for (int parallelism : new int[] {1, 4}) {
+            propSaver.set(
+                MondrianProperties.instance().RollupParallelism,
+                parallelism);
+            final Pair<SegmentHeader, SegmentBody> rollup =
+                SegmentBuilder.rollup(
+                    map, Collections.singleton("col0"), null,
+                    RolapAggregator.Sum, Dialect.Datatype.Numeric);
+            final Map<CellKey, Object> actual =
+                rollup.right.getValueMap();
+            assertEquals(
+                "parallelism " + parallelism,
+                3.75,
+                ((Number) actual.get(
+                    CellKey.Generator.newCellKey(new int[] {0})))
+                    .doubleValue(),
+                0d);
+            assertEquals(
+                "parallelism " + parallelism,
+                0.75,
+                ((Number) actual.get(
+                    CellKey.Generator.newCellKey(new int[] {1})))
+                    .doubleValue(),
+                0d);
+        }
+    }
+
+    private static long usedMemory() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Creates a header and a dense double body with 3 x 4 cells, some of
+     * them zero and some null.
+     */
+    private Pair<SegmentHeader, SegmentBody> makeDenseDoubleHeaderBodyPair(
+        String measureName)
+    {
+        final String[] colNames = {"col0", "col1"};
+        final String[][] colVals = {{"a", "b", "c"}, {"w", "x", "y", "z"}};
+        final List<SegmentColumn> constrainedColumns =
+            new ArrayList<SegmentColumn>();
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        for (int i = 0; i < colNames.length; i++) {
+            SortedSet<Comparable> vals =
+                new TreeSet<Comparable>(Arrays.<Comparable>asList(colVals[i]));
+            constrainedColumns.add(
+                new SegmentColumn(colNames[i], colVals[i].length, vals));
+            axes.add(Pair.of(vals, Boolean.FALSE));
+        }
+        final double[] values = new double[12];
+        final BitSet nullIndicators = new BitSet(12);
+        for (int i = 0; i < values.length; i++) {
+            if (i % 5 == 0) {
+                // Leave value as 0; every other zero is null.
+                nullIndicators.set(i, i % 10 == 0);
+            } else {
+                values[i] = i * 1.5d;
+            }
+        }
+        return Pair.<SegmentHeader, SegmentBody>of(
+            new SegmentHeader(
+                "dummySchemaName",
+                new ByteString(new byte[]{}),
+                "dummyCubeName",
+                measureName,
+                constrainedColumns,
+                Collections.<String>emptyList(),
+                "dummyFactTable",
+                BitKey.Factory.makeBitKey(3),
+                Collections.<SegmentColumn>emptyList()),
+            new DenseDoubleSegmentBody(nullIndicators, values, axes));
+    }
+
     private TestContext loadCacheWithQueries(String [] queries) {
         getTestContext().flushSchemaCache();
         TestContext context = getTestContext().withFreshConnection();
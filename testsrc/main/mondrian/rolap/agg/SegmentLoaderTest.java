@@ -152,6 +152,65 @@ public class SegmentLoaderTest extends BatchTestCase {
                 groupingSets.get(1).getSegments().get(0)));
     }
 
+    /**
+     * Tests that a streaming load, which spills rows to a temporary file,
+     * produces the same segments as a load that buffers rows in memory.
+     */
+    public void testStreamingLoadWithSpill()
+        throws ExecutionException, InterruptedException
+    {
+        propSaver.set(propSaver.props.StreamingSegmentLoad, true);
+        // 12 rows; spill twice, and keep 2 rows in memory
+        propSaver.set(propSaver.props.SegmentLoadSpillThreshold, 5);
+        checkStreamingLoad();
+
+        // never spill
+        propSaver.set(propSaver.props.SegmentLoadSpillThreshold, 0);
+        checkStreamingLoad();
+    }
+
+    private void checkStreamingLoad()
+        throws ExecutionException, InterruptedException
+    {
+        GroupingSet groupableSetsInfo = getGroupingSetRollupOnGender();
+        GroupingSet groupingSetsInfo = getDefaultGroupingSet();
+        ArrayList<GroupingSet> groupingSets =
+            new ArrayList<GroupingSet>();
+        groupingSets.add(groupingSetsInfo);
+        groupingSets.add(groupableSetsInfo);
+        SegmentLoader loader = new SegmentLoader(cacheMgr) {
+            SqlStatement createExecuteSql(
+                int cellRequestCount,
+                final GroupingSetsList groupingSetsList,
+                List<StarPredicate> compoundPredicateList)
+            {
+                return new MockSqlStatement(
+                    cellRequestCount,
+                    groupingSetsList,
+                    getData(true));
+            }
+        };
+        final List<Future<Map<Segment, SegmentWithData>>> segmentFutures =
+            new ArrayList<Future<Map<Segment, SegmentWithData>>>();
+        loader.load(0, groupingSets, null, segmentFutures);
+        for (Future<?> future : segmentFutures) {
+            Util.safeGet(future, "");
+        }
+        SegmentAxis[] axes = groupingSetsInfo.getAxes();
+        verifyYearAxis(axes[0]);
+        verifyProductFamilyAxis(axes[1]);
+        verifyProductDepartmentAxis(axes[2]);
+        verifyGenderAxis(axes[3]);
+        verifyUnitSalesDetailed(
+            getFor(
+                segmentFutures,
+                groupingSets.get(0).getSegments().get(0)));
+        verifyUnitSalesAggregate(
+            getFor(
+                segmentFutures,
+                groupingSets.get(1).getSegments().get(0)));
+    }
+
     private ResultSet toResultSet(final List<Object[]> list) {
         final MyDelegatingInvocationHandler handler =
             new MyDelegatingInvocationHandler(list);
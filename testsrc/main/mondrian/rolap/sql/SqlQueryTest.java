@@ -451,6 +451,73 @@ public class SqlQueryTest extends BatchTestCase {
         }
     }
 
+    /**
+     * Tests that grouping sets that are equivalent to ROLLUP or CUBE are
+     * generated as ROLLUP or CUBE.
+     */
+    public void testToStringForRollupAndCubeSql() {
+        if (!isGroupingSetsSupported()) {
+            return;
+        }
+        final Dialect dialect = getTestContext().getDialect();
+        final String[][] rollupSets = {
+            {"c0", "c1", "c2"}, {"c0"}, {}, {"c0", "c1"}
+        };
+        assertGroupingSetsSql(
+            dialect,
+            "select c0 as \"c0\", c1 as \"c1\", c2 as \"c2\", m1 as \"m1\", "
+            + "grouping(c0) as \"g0\", grouping(c1) as \"g1\", grouping(c2) as \"g2\" "
+            + "from \"s\".\"t1\" =as= \"t1alias\" "
+            + "group by rollup (c0, c1, c2)",
+            rollupSets);
+        final String[][] cubeSets = {
+            {"c0", "c1"}, {"c0"}, {"c1"}, {}
+        };
+        assertGroupingSetsSql(
+            dialect,
+            "select c0 as \"c0\", c1 as \"c1\", c2 as \"c2\", m1 as \"m1\", "
+            + "grouping(c0) as \"g0\", grouping(c1) as \"g1\", grouping(c2) as \"g2\" "
+            + "from \"s\".\"t1\" =as= \"t1alias\" "
+            + "group by cube (c0, c1)",
+            cubeSets);
+        // Not a rollup: (c1) is not a prefix of (c0, c1).
+        final String[][] otherSets = {
+            {"c0", "c1", "c2"}, {"c1"}, {}, {"c0", "c1"}
+        };
+        assertGroupingSetsSql(
+            dialect,
+            "select c0 as \"c0\", c1 as \"c1\", c2 as \"c2\", m1 as \"m1\", "
+            + "grouping(c0) as \"g0\", grouping(c1) as \"g1\", grouping(c2) as \"g2\" "
+            + "from \"s\".\"t1\" =as= \"t1alias\" "
+            + "group by grouping sets ((c0, c1, c2), (c1), (), (c0, c1))",
+            otherSets);
+    }
+
+    private void assertGroupingSetsSql(
+        Dialect dialect,
+        String expected,
+        String[][] groupingSets)
+    {
+        SqlQuery sqlQuery = new SqlQuery(dialect, false);
+        sqlQuery.addSelect("c0", null);
+        sqlQuery.addSelect("c1", null);
+        sqlQuery.addSelect("c2", null);
+        sqlQuery.addSelect("m1", null, "m1");
+        sqlQuery.addFromTable(
+            "s", "t1", "t1alias", null, null, null, null, true);
+        sqlQuery.addGroupingFunction("c0");
+        sqlQuery.addGroupingFunction("c1");
+        sqlQuery.addGroupingFunction("c2");
+        for (String[] groupingSet : groupingSets) {
+            sqlQuery.addGroupingSet(Arrays.asList(groupingSet));
+        }
+        assertEquals(
+            dialectize(dialect.getDatabaseProduct(), expected),
+            dialectize(
+                sqlQuery.getDialect().getDatabaseProduct(),
+                sqlQuery.toString()));
+    }
+
     /**
      * Verifies that the correct SQL string is generated for literals of
      * SQL type "double".
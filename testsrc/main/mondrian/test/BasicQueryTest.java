@@ -21,6 +21,7 @@ import mondrian.olap.fun.FunctionTest;
 import mondrian.olap.type.NumericType;
 import mondrian.olap.type.Type;
 import mondrian.rolap.RolapSchema;
+import mondrian.server.CancellationToken;
 import mondrian.server.Execution;
 import mondrian.spi.*;
 import mondrian.spi.impl.JdbcStatisticsProvider;
@@ -5835,6 +5836,35 @@ public class BasicQueryTest extends FoodMartTestCase {
             throwable, "Query timeout of 2 seconds reached");
     }
 
+    /**
+     * Tests that a {@link CancellationToken} checks its execution only every
+     * <i>n</i> calls, and then throws if the execution has been canceled.
+     */
+    public void testCancellationToken() {
+        final Execution execution =
+            new Execution(
+                ((RolapSchema) getConnection().getSchema())
+                    .getInternalConnection().getInternalStatement(),
+                0);
+        execution.start();
+        final CancellationToken cancellationToken =
+            new CancellationToken(execution, 4);
+        assertEquals(4, cancellationToken.getInterval());
+        for (int i = 0; i < 6; i++) {
+            cancellationToken.check();
+        }
+        execution.cancel();
+        assertTrue(execution.isCancelOrTimeout());
+        cancellationToken.check();
+        Throwable throwable = null;
+        try {
+            cancellationToken.check();
+        } catch (Throwable e) {
+            throwable = e;
+        }
+        TestContext.checkThrowable(throwable, "canceled");
+    }
+
     public void testFormatInheritance() {
         if (propSaver.props.CaseSensitive.get()) {
             return;
@@ -670,6 +670,54 @@ public class DialectTest extends TestCase {
         }
     }
 
+    /**
+     * Tests that the JDBC driver accepts the fetch size and auto-commit
+     * mode that the dialect uses to stream a result set, and that the
+     * streamed result set returns every row.
+     */
+    public void testStreamingFetchSize() throws SQLException {
+        final Dialect dialect = getDialect();
+        final int fetchSize = dialect.getStreamingFetchSize(100);
+        final Connection connection = getConnection();
+        final boolean autoCommit = connection.getAutoCommit();
+        Statement stmt = null;
+        try {
+            stmt = connection.createStatement();
+            ResultSet resultSet =
+                stmt.executeQuery(
+                    dialectize("SELECT count(*) FROM [sales_fact_1997]"));
+            assertTrue(resultSet.next());
+            final int expectedCount = resultSet.getInt(1);
+            stmt.close();
+
+            if (dialect.requiresTransactionForCursor()) {
+                connection.setAutoCommit(false);
+            }
+            stmt =
+                connection.createStatement(
+                    ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(fetchSize);
+            resultSet =
+                stmt.executeQuery(
+                    dialectize("SELECT [unit_sales] FROM [sales_fact_1997]"));
+            int count = 0;
+            while (resultSet.next()) {
+                ++count;
+            }
+            assertEquals(expectedCount, count);
+        } finally {
+            if (stmt != null) {
+                try {
+                    stmt.close();
+                } catch (SQLException e) {
+                    // ignore
+                }
+            }
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
     public void testGenerateInline() throws SQLException {
         final List<String> typeList = Arrays.asList("String", "Numeric");
         final List<String> nameList = Arrays.asList("x", "y");
@@ -9,7 +9,12 @@
 */
 package mondrian.test;
 
+import mondrian.olap.MondrianException;
 import mondrian.olap.MondrianServer;
+import mondrian.olap.QueryCanceledException;
+import mondrian.rolap.RolapConnection;
+import mondrian.server.Execution;
+import mondrian.server.WorkloadManager;
 import mondrian.server.monitor.*;
 
 import org.olap4j.CellSet;
@@ -19,7 +24,7 @@ import org.olap4j.layout.RectangularCellSetFormatter;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.sql.SQLException;
-import java.util.List;
+import java.util.*;
 
 /**
  * Unit test for monitoring, including {@link mondrian.server.monitor.Monitor}.
@@ -153,6 +158,159 @@ public class MonitorTest extends FoodMartTestCase {
         // sort
         // (other expensive operations similar to sort?)
     }
+
+    /**
+     * Tests that a {@link WorkloadManager} limits the number of queries of a
+     * class that run at a time, and reports how many are waiting.
+     */
+    public void testWorkloadQuota() throws InterruptedException {
+        final RolapConnection connection = (RolapConnection) getConnection();
+        final String schemaName = connection.getSchema().getName();
+        final Execution execution =
+            new Execution(connection.getInternalStatement(), 0);
+
+        // The schema name classifies the execution. SQL is not limited.
+        final WorkloadManager workloadManager =
+            new WorkloadManager(schemaName + "=1/0", 10000);
+        final WorkloadManager.WorkloadClass workloadClass =
+            workloadManager.admitQuery(execution);
+        assertNotNull(workloadClass);
+        assertEquals(schemaName, workloadClass.name);
+        assertSame(workloadClass, workloadManager.admitSql(execution));
+        workloadClass.releaseSql();
+
+        // A second query waits until the first finishes.
+        final Thread thread = new Thread() {
+            public void run() {
+                workloadManager.admitQuery(execution).releaseQuery();
+            }
+        };
+        thread.start();
+        WorkloadInfo workload = null;
+        for (int i = 0; i < 1000; i++) {
+            workload = workloadManager.getWorkloads().get(0);
+            if (workload.queuedQueryCount == 1) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        assertEquals(1, workload.queuedQueryCount);
+        assertEquals(1, workload.runningQueryCount);
+        assertEquals(-1, workload.runningSqlCount);
+        workloadClass.releaseQuery();
+        thread.join();
+        workload = workloadManager.getWorkloads().get(0);
+        assertEquals(0, workload.queuedQueryCount);
+        assertEquals(0, workload.runningQueryCount);
+
+        // If the wait is too long, the query fails.
+        final WorkloadManager workloadManager2 =
+            new WorkloadManager(schemaName + "=1/0", 100);
+        workloadManager2.admitQuery(execution);
+        try {
+            workloadManager2.admitQuery(execution);
+            fail("expected error");
+        } catch (MondrianException e) {
+            assertTrue(
+                e.getMessage(),
+                e.getMessage().contains(
+                    "workload class '" + schemaName + "'"));
+        }
+
+        // An execution that belongs to no class is not limited.
+        assertNull(
+            new WorkloadManager("Unknown=1/1", 100).admitQuery(execution));
+    }
+
+    /**
+     * Tests that executions waiting for a {@link WorkloadManager} are
+     * admitted in order of arrival, and that an execution that is canceled
+     * while it waits stops waiting at once.
+     */
+    public void testWorkloadQueueOrderAndCancel() throws Exception {
+        final RolapConnection connection = (RolapConnection) getConnection();
+        final String schemaName = connection.getSchema().getName();
+        final Execution execution =
+            new Execution(connection.getInternalStatement(), 0);
+        final WorkloadManager workloadManager =
+            new WorkloadManager(schemaName + "=1/0", 60000);
+        final WorkloadManager.WorkloadClass workloadClass =
+            workloadManager.admitQuery(execution);
+
+        // Queue executions one at a time, so that their order of arrival is
+        // known.
+        final List<String> log =
+            Collections.synchronizedList(new ArrayList<String>());
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (final String name : new String[] {"a", "b", "c"}) {
+            final Thread thread = new Thread() {
+                public void run() {
+                    workloadManager.admitQuery(execution);
+                    log.add(name);
+                    workloadClass.releaseQuery();
+                }
+            };
+            thread.start();
+            threads.add(thread);
+            waitForQueued(workloadClass, threads.size());
+        }
+        workloadClass.releaseQuery();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Arrays.asList("a", "b", "c"), log);
+
+        // Canceling a waiting execution wakes it well before the maximum
+        // wait.
+        workloadManager.admitQuery(execution);
+        final Execution execution2 =
+            new Execution(connection.getInternalStatement(), 0);
+        final Throwable[] throwables = {null};
+        final Thread thread = new Thread() {
+            public void run() {
+                try {
+                    workloadManager.admitQuery(execution2);
+                } catch (Throwable e) {
+                    throwables[0] = e;
+                }
+            }
+        };
+        thread.start();
+        waitForQueued(workloadClass, 1);
+        final long start = System.currentTimeMillis();
+        execution2.cancel();
+        thread.join(30000);
+        assertFalse(thread.isAlive());
+        final long elapsed = System.currentTimeMillis() - start;
+        assertTrue("elapsed " + elapsed, elapsed < 10000);
+        assertTrue(
+            String.valueOf(throwables[0]),
+            throwables[0] instanceof QueryCanceledException);
+        final WorkloadInfo workload = workloadManager.getWorkloads().get(0);
+        assertEquals(0, workload.queuedQueryCount);
+        assertEquals(1, workload.runningQueryCount);
+        workloadClass.releaseQuery();
+    }
+
+    /**
+     * Waits until the given number of threads are blocked in the queue of a
+     * workload class. (The queued count in {@link WorkloadInfo} goes up
+     * just before a thread starts to wait, so it would let the next thread
+     * arrive first.)
+     */
+    private static void waitForQueued(
+        WorkloadManager.WorkloadClass workloadClass,
+        int queueLength)
+        throws InterruptedException
+    {
+        for (int i = 0; i < 1000; i++) {
+            if (workloadClass.getQueueLength() == queueLength) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        assertEquals(queueLength, workloadClass.getQueueLength());
+    }
 }
 
 // End MonitorTest.java
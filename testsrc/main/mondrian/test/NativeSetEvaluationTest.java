@@ -10,8 +10,12 @@
 package mondrian.test;
 
 import mondrian.olap.MondrianProperties;
+import mondrian.olap.Result;
+import mondrian.olap.Util;
 import mondrian.rolap.BatchTestCase;
+import mondrian.rolap.RolapConnectionProperties;
 import mondrian.spi.Dialect.DatabaseProduct;
+import mondrian.spi.impl.JdbcDialectImpl;
 
 /**
  * Test native evaluation of supported set operations.
@@ -1231,5 +1235,190 @@ public class NativeSetEvaluationTest extends BatchTestCase {
             "Native native filter mismatch", ctx);
         propSaver.reset();
     }
+
+    /**
+     * Tests that {@code Order}, and {@code Head} and {@code Subset} of a set
+     * sorted in descending order, are evaluated in SQL and return the same
+     * tuples as the interpreter.
+     */
+    public void testNativeOrder() {
+        if (!propSaver.props.EnableNativeOrder.get()) {
+            return;
+        }
+        checkNative(
+            getTestContext(), 0, 5,
+            "select [Measures].[Unit Sales] on 0,\n"
+            + "non empty Head(Order([Customers].[Name].Members,\n"
+            + "  [Measures].[Unit Sales], BDESC), 5) on 1\n"
+            + "from [Sales]");
+        checkNative(
+            getTestContext(), 0, 5,
+            "select [Measures].[Store Sales] on 0,\n"
+            + "non empty Subset(Order([Product].[Product Name].Members,\n"
+            + "  [Measures].[Store Sales], BDESC), 20, 5) on 1\n"
+            + "from [Sales]\n"
+            + "where [Time].[1997].[Q2]");
+        checkNative(
+            getTestContext(), 0, 3,
+            "select [Measures].[Unit Sales] on 0,\n"
+            + "non empty Order([Product].[Product Family].Members,\n"
+            + "  [Measures].[Unit Sales], DESC) on 1\n"
+            + "from [Sales]");
+    }
+
+    /**
+     * Tests the SQL generated for {@code Head} and {@code Subset} of
+     * {@code Order}: the sort key goes before the level's own ORDER BY
+     * columns, and the page is read using LIMIT and OFFSET.
+     */
+    public void testNativeOrderLimitOffsetSql() {
+        if (!propSaver.props.EnableNativeOrder.get()
+            || !propSaver.props.EnableNativeNonEmpty.get())
+        {
+            return;
+        }
+        propSaver.set(propSaver.props.GenerateFormattedSql, true);
+        final String mysqlPrefix =
+            "select\n"
+            + "    `product_class`.`product_family` as `c0`,\n"
+            + "    sum(`sales_fact_1997`.`unit_sales`) as `c1`\n"
+            + "from\n"
+            + "    `sales_fact_1997` as `sales_fact_1997`,\n"
+            + "    `product` as `product`,\n"
+            + "    `product_class` as `product_class`,\n"
+            + "    `time_by_day` as `time_by_day`\n"
+            + "where\n"
+            + "    (`time_by_day`.`the_year` = 1997)\n"
+            + "and\n"
+            + "    `sales_fact_1997`.`product_id` = `product`.`product_id`\n"
+            + "and\n"
+            + "    `product`.`product_class_id` = `product_class`.`product_class_id`\n"
+            + "and\n"
+            + "    `sales_fact_1997`.`time_id` = `time_by_day`.`time_id`\n"
+            + "group by\n"
+            + "    `product_class`.`product_family`\n"
+            + "order by\n"
+            + "    `c1` DESC,\n"
+            + "    ISNULL(`product_class`.`product_family`) ASC, `product_class`.`product_family` ASC\n";
+
+        final String headMdx =
+            "select [Measures].[Unit Sales] on 0,\n"
+            + "non empty Head(Order([Product].[Product Family].Members,\n"
+            + "  [Measures].[Unit Sales], BDESC), 2) on 1\n"
+            + "from [Sales]";
+        final String headSql = mysqlPrefix + "limit 2";
+        assertQuerySql(
+            headMdx,
+            new SqlPattern[] {
+                new SqlPattern(DatabaseProduct.MYSQL, headSql, headSql)
+            });
+        assertQueryReturns(
+            headMdx,
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Unit Sales]}\n"
+            + "Axis #2:\n"
+            + "{[Product].[Products].[Food]}\n"
+            + "{[Product].[Products].[Non-Consumable]}\n"
+            + "Row #0: 191,940\n"
+            + "Row #1: 50,236\n");
+
+        final String subsetMdx =
+            "select [Measures].[Unit Sales] on 0,\n"
+            + "non empty Subset(Order([Product].[Product Family].Members,\n"
+            + "  [Measures].[Unit Sales], BDESC), 1, 2) on 1\n"
+            + "from [Sales]";
+        final String subsetSql = mysqlPrefix + "limit 2 offset 1";
+        assertQuerySql(
+            subsetMdx,
+            new SqlPattern[] {
+                new SqlPattern(DatabaseProduct.MYSQL, subsetSql, subsetSql)
+            });
+        assertQueryReturns(
+            subsetMdx,
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Unit Sales]}\n"
+            + "Axis #2:\n"
+            + "{[Product].[Products].[Non-Consumable]}\n"
+            + "{[Product].[Products].[Drink]}\n"
+            + "Row #0: 50,236\n"
+            + "Row #1: 24,597\n");
+    }
+
+    /**
+     * Tests that, when tuples tie on the sort key, a page read in SQL
+     * contains the same tuples as the interpreter returns. Mondrian's sort
+     * is stable, so tied tuples stay in hierarchy order; in SQL, ties are
+     * broken by the level's ORDER BY columns, which the tuple reader puts
+     * after the sort key.
+     */
+    public void testNativeOrderTies() {
+        if (!propSaver.props.EnableNativeOrder.get()) {
+            return;
+        }
+        // One customer, so each product family has a customer count of 1.
+        final String mdx =
+            "select [Measures].[Customer Count] on 0,\n"
+            + "non empty Head(Order([Product].[Product Family].Members,\n"
+            + "  [Measures].[Customer Count], BDESC), 2) on 1\n"
+            + "from [Sales]\n"
+            + "where [Customers].[USA].[WA].[Spokane].[Mary Francis Benigar]";
+        checkNative(getTestContext(), 0, 2, mdx);
+        assertQueryReturns(
+            mdx,
+            "Axis #0:\n"
+            + "{[Customer].[Customers].[USA].[WA].[Spokane].[Mary Francis Benigar]}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Customer Count]}\n"
+            + "Axis #2:\n"
+            + "{[Product].[Products].[Drink]}\n"
+            + "{[Product].[Products].[Food]}\n"
+            + "Row #0: 1\n"
+            + "Row #1: 1\n");
+    }
+
+    /**
+     * Tests that, on a dialect that cannot page in SQL, pages of different
+     * sizes over the same {@code Order} do not share cached tuple lists.
+     * The rows are read up to the end of the page and the list is truncated,
+     * so the page must be part of the cache key.
+     */
+    public void testNativeOrderPagesWithoutLimit() {
+        if (!propSaver.props.EnableNativeOrder.get()) {
+            return;
+        }
+        final Util.PropertyList properties =
+            getTestContext().getConnectionProperties().clone();
+        properties.put(
+            RolapConnectionProperties.Dialect.name(),
+            JdbcDialectImpl.class.getName());
+        final TestContext context =
+            getTestContext().withProperties(properties);
+        final String[] sets = {
+            "Head(Order([Product].[Product Family].Members,\n"
+            + "  [Measures].[Unit Sales], BDESC), 2)",
+            "Head(Order([Product].[Product Family].Members,\n"
+            + "  [Measures].[Unit Sales], BDESC), 1)",
+            "Order([Product].[Product Family].Members,\n"
+            + "  [Measures].[Unit Sales], BDESC)",
+            "Head(Order([Product].[Product Family].Members,\n"
+            + "  [Measures].[Unit Sales], BDESC), 2)",
+        };
+        final int[] rowCounts = {2, 1, 3, 2};
+        for (int i = 0; i < sets.length; i++) {
+            final Result result =
+                context.executeQuery(
+                    "select [Measures].[Unit Sales] on 0,\n"
+                    + "non empty " + sets[i] + " on 1\n"
+                    + "from [Sales]");
+            assertEquals(
+                sets[i],
+                rowCounts[i],
+                result.getAxes()[1].getPositions().size());
+        }
+    }
 }
 // End NativeSetEvaluationTest.java
@@ -10,6 +10,7 @@
 package mondrian.test;
 
 import mondrian.olap.*;
+import mondrian.rolap.CacheControlTest;
 
 import java.util.Random;
 
@@ -31,6 +32,63 @@ public class ParallelTest extends FoodMartTestCase {
         checkSchemaFlush(5, 8, 10);
     }
 
+    /**
+     * Tests that evaluating the axes of a query in parallel gives the same
+     * result as evaluating them one after another. The first query's axes
+     * are independent; the second query uses a named set on both axes, so
+     * its axes are evaluated sequentially.
+     */
+    public void testParallelAxisEvaluation() {
+        final String[] queries = {
+            "with member [Measures].[Profit Share] as\n"
+            + " '[Measures].[Store Sales] / [Measures].[Store Cost]'\n"
+            + "select NON EMPTY Crossjoin(\n"
+            + "  [Gender].[Gender].Members,\n"
+            + "  [Marital Status].[Marital Status].Members) on columns,\n"
+            + " NON EMPTY Crossjoin(\n"
+            + "  [Store].[Store State].Members,\n"
+            + "  [Product].[Product Family].Members) on rows\n"
+            + "from [Sales]\n"
+            + "where [Measures].[Profit Share]",
+            "with set [Families] as '[Product].[Product Family].Members'\n"
+            + "select Crossjoin([Families], [Gender].[Gender].Members)"
+            + " on columns,\n"
+            + " [Families] on rows\n"
+            + "from [Sales]",
+        };
+        for (String query : queries) {
+            propSaver.set(propSaver.props.AxisEvaluationParallelism, 1);
+            final String expected =
+                TestContext.toString(executeQuery(query));
+            propSaver.set(propSaver.props.AxisEvaluationParallelism, 2);
+            getTestContext().assertQueryReturns(query, expected);
+        }
+    }
+
+    /**
+     * Tests that evaluating the cells of a result in parallel gives the same
+     * result as evaluating them in one thread. The result has enough cells
+     * to be split between threads, and includes a calculated member.
+     */
+    public void testParallelCellEvaluation() {
+        final String query =
+            "with member [Measures].[Profit Share] as\n"
+            + " '[Measures].[Store Sales] / [Measures].[Store Cost]',\n"
+            + " format_string = '#.00'\n"
+            + "select {[Measures].[Unit Sales], [Measures].[Store Sales],\n"
+            + "  [Measures].[Profit Share]} on columns,\n"
+            + " Crossjoin([Product].[Product Category].Members,\n"
+            + "  [Time].[Month].Members) on rows\n"
+            + "from [Sales]";
+        propSaver.set(propSaver.props.CellEvaluationParallelism, 1);
+        final String expected = TestContext.toString(executeQuery(query));
+        // Flush, so that the parallel run loads its cells rather than
+        // finding them in the cache.
+        CacheControlTest.flushCache(getTestContext());
+        propSaver.set(propSaver.props.CellEvaluationParallelism, 4);
+        getTestContext().assertQueryReturns(query, expected);
+    }
+
     /**
      * Tests several threads, each of which is creating connections and
      * periodically flushing the schema cache.
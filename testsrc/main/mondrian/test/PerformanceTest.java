@@ -12,6 +12,10 @@ package mondrian.test;
 import mondrian.olap.*;
 import mondrian.olap.fun.FunUtil;
 import mondrian.olap.type.*;
+import mondrian.rolap.RolapSchema;
+import mondrian.rolap.RolapStar;
+import mondrian.rolap.agg.SegmentCacheManager;
+import mondrian.server.Locus;
 import mondrian.spi.UserDefinedFunction;
 import mondrian.util.Bug;
 
@@ -19,6 +23,7 @@ import org.apache.commons.collections.ComparatorUtils;
 import org.apache.log4j.Logger;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -561,6 +566,118 @@ public class PerformanceTest extends FoodMartTestCase {
             + "1,184,028");
     }
 
+    /**
+     * Measures the throughput of {@link SegmentCacheManager} when several
+     * threads send it commands concerning different stars, in actor mode
+     * and in striped mode (see
+     * {@link MondrianProperties#SegmentCacheManagerNumberStripes}). In actor
+     * mode, throughput stays flat as threads are added; in striped mode, it
+     * should scale with the number of cores.
+     */
+    public void testSegmentCacheManagerScaling() throws Exception {
+        if (!LOGGER.isDebugEnabled()) {
+            return;
+        }
+        final RolapSchema schema = (RolapSchema) getConnection().getSchema();
+        final List<RolapStar> stars =
+            new ArrayList<RolapStar>(schema.getStars());
+        final MondrianServer server =
+            MondrianServer.forConnection(getConnection());
+        final int cores = Runtime.getRuntime().availableProcessors();
+        for (int stripeCount : new int[] {0, cores}) {
+            propSaver.set(
+                propSaver.props.SegmentCacheManagerNumberStripes,
+                stripeCount);
+            final SegmentCacheManager cacheMgr =
+                new SegmentCacheManager(server);
+            try {
+                for (int threadCount = 1;
+                     threadCount <= cores;
+                     threadCount *= 2)
+                {
+                    final long start = System.currentTimeMillis();
+                    checkSegmentCacheManagerScaling(
+                        cacheMgr, stars, threadCount, 20000);
+                    printDuration(
+                        "segment cache manager, stripes=" + stripeCount
+                        + ", threads=" + threadCount,
+                        start);
+                }
+            } finally {
+                cacheMgr.shutdown();
+            }
+        }
+    }
+
+    private void checkSegmentCacheManagerScaling(
+        final SegmentCacheManager cacheMgr,
+        final List<RolapStar> stars,
+        final int threadCount,
+        final int commandCount)
+        throws Exception
+    {
+        final ExecutorService executor =
+            Executors.newFixedThreadPool(threadCount);
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < threadCount; i++) {
+            final int threadOrdinal = i;
+            futures.add(
+                executor.submit(
+                    new Callable<Void>() {
+                        public Void call() {
+                            for (int j = 0; j < commandCount; j++) {
+                                final RolapStar star =
+                                    stars.get(
+                                        (threadOrdinal + j * threadCount)
+                                        % stars.size());
+                                cacheMgr.execute(
+                                    new IndexLookupCommand(cacheMgr, star));
+                            }
+                            return null;
+                        }
+                    }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Command that does a cheap lookup in the index of a star, similar to
+     * the work done for a peek.
+     */
+    private static class IndexLookupCommand
+        implements SegmentCacheManager.StarCommand<Object>
+    {
+        private final SegmentCacheManager cacheMgr;
+        private final RolapStar star;
+
+        IndexLookupCommand(SegmentCacheManager cacheMgr, RolapStar star) {
+            this.cacheMgr = cacheMgr;
+            this.star = star;
+        }
+
+        public Collection<RolapStar> getStars() {
+            return Collections.singletonList(star);
+        }
+
+        public Locus getLocus() {
+            return null;
+        }
+
+        public Object call() {
+            return cacheMgr.getIndexRegistry().getIndex(star)
+                .getConverter(
+                    star.getSchema().getName(),
+                    star.getSchema().getChecksum(),
+                    "Sales",
+                    star.getFactTable().getAlias(),
+                    "Unit Sales",
+                    Collections.<String>emptyList());
+        }
+    }
+
     static long printDuration(String desc, long t0) {
         final long t1 = System.currentTimeMillis();
         final long duration = t1 - t0;
@@ -10,6 +10,7 @@
 package mondrian.test;
 
 import mondrian.calc.TupleCollections;
+import mondrian.calc.TupleCursor;
 import mondrian.calc.TupleList;
 import mondrian.calc.impl.*;
 import mondrian.olap.*;
@@ -154,6 +155,117 @@ public class TupleListTest extends FoodMartTestCase {
         checkProject(fm);
     }
 
+    public void testColumnarTupleList() {
+        final Member genderFMember = xxx("[Gender].[F]");
+        final Member genderMMember = xxx("[Gender].[M]");
+        final Member storeUsaMember = xxx("[Store].[USA]");
+
+        final TupleList list0 = new ColumnarTupleList(2);
+        assertTrue(list0.isEmpty());
+        assertEquals(list0, TupleCollections.emptyList(2));
+
+        TupleList list1 = new ColumnarTupleList(2, 0);
+        list1.add(Arrays.asList(storeUsaMember, genderFMember));
+        list1.addTuple(storeUsaMember, genderMMember);
+        list1.add(0, Arrays.asList(storeUsaMember, genderMMember));
+        assertEquals(3, list1.size());
+        assertEquals(
+            "[[[Store].[USA], [Gender].[M]],"
+            + " [[Store].[USA], [Gender].[F]],"
+            + " [[Store].[USA], [Gender].[M]]]",
+            list1.toString());
+        assertSame(genderFMember, list1.get(1, 1));
+        assertEquals(
+            Arrays.asList(genderMMember, genderFMember, genderMMember),
+            list1.slice(1));
+        try {
+            list1.addTuple(storeUsaMember);
+            fail("expected error");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Tuple length does not match arity", e.getMessage());
+        }
+
+        // Same contents as an ArrayTupleList.
+        TupleList list2 = new ArrayTupleList(2);
+        list2.addAll(list1);
+        assertEquals(list2, list1);
+        assertEquals(list1, list2);
+
+        list1.remove(0);
+        assertEquals(2, list1.size());
+        assertEquals(list2.subList(1, 3), list1);
+        assertEquals(list1.subList(1, 2), list2.subList(2, 3));
+
+        // Cursor appends to another list.
+        final TupleList list3 = list1.cloneList(0);
+        final TupleCursor cursor = list1.tupleCursor();
+        while (cursor.forward()) {
+            list3.addCurrent(cursor);
+        }
+        assertEquals(list1, list3);
+        list1.clear();
+        assertEquals(list0, list1);
+        assertEquals(2, list3.size());
+
+        // Null members OK (at least for TupleList).
+        list1.addTuple(storeUsaMember, null);
+        assertNull(list1.get(0).get(1));
+
+        TupleList fm = new ColumnarTupleList(2);
+        fm.addTuple(genderFMember, storeUsaMember);
+        fm.addTuple(genderMMember, storeUsaMember);
+        checkProject(fm);
+
+        fm =
+            ColumnarTupleList.fromColumns(
+                Arrays.asList(
+                    Arrays.asList(genderFMember, genderMMember),
+                    Arrays.asList(storeUsaMember, storeUsaMember)));
+        checkProject(fm);
+    }
+
+    public void testColumnarTupleListCartesianProduct() {
+        final Member genderFMember = xxx("[Gender].[F]");
+        final Member genderMMember = xxx("[Gender].[M]");
+        final Member storeUsaMember = xxx("[Store].[USA]");
+        final Member storeMexicoMember = xxx("[Store].[Mexico]");
+        final Member maritalMMember = xxx("[Marital Status].[M]");
+        final Member maritalSMember = xxx("[Marital Status].[S]");
+
+        final TupleList genders =
+            new UnaryTupleList(Arrays.asList(genderFMember, genderMMember));
+        final TupleList stores = new ArrayTupleList(2);
+        stores.addTuple(storeUsaMember, maritalMMember);
+        stores.addTuple(storeMexicoMember, maritalSMember);
+        stores.addTuple(storeUsaMember, maritalSMember);
+        final List<TupleList> lists = Arrays.asList(genders, stores, genders);
+
+        final TupleList product = ColumnarTupleList.cartesianProduct(lists);
+        assertEquals(12, product.size());
+        assertEquals(4, product.getArity());
+
+        // Same tuples, in the same order, as the generic crossjoin.
+        final TupleList expected = new ArrayTupleList(4);
+        for (List<Member> g1 : genders) {
+            for (List<Member> s : stores) {
+                for (List<Member> g2 : genders) {
+                    final List<Member> tuple = new ArrayList<Member>(g1);
+                    tuple.addAll(s);
+                    tuple.addAll(g2);
+                    expected.add(tuple);
+                }
+            }
+        }
+        assertEquals(expected, product);
+
+        // Empty input gives empty output of the right arity.
+        final TupleList empty =
+            ColumnarTupleList.cartesianProduct(
+                Arrays.asList(genders, TupleCollections.emptyList(2)));
+        assertEquals(0, empty.size());
+        assertEquals(3, empty.getArity());
+    }
+
     public void testDelegatingTupleList() {
         final Member genderFMember = xxx("[Gender].[F]");
         final Member genderMMember = xxx("[Gender].[M]");